@@ -107,5 +107,29 @@ class FlowExpiratorTest extends FeatureSpecLike
             // If we check the datapath again, we should see no flows installed
             reclaimFlows().size() shouldBe 0
         }
+
+        scenario("expire flows with a single flow per netlink send") {
+            val config = MidolmanConfig.forTests(
+                "agent.midolman.flow_expiration_batch_size : 1")
+            createFlows()
+            val allFlows = reclaimFlows()
+            allFlows.size() shouldBe flows.size
+            new FlowExpirator(allFlows, config, datapath, families,
+                              channelFactory).expireAllFlows()
+
+            reclaimFlows().size() shouldBe 0
+        }
+
+        scenario("flush flows instead of reclaiming them") {
+            val config = MidolmanConfig.forTests(
+                "agent.midolman.flush_reclaimed_flows : true")
+            createFlows()
+            val flushed = DatapathBootstrap.reclaimFlows(datapath, config,
+                                                         new MetricRegistry)
+            flushed.size() shouldBe 0
+            flushed.delete()
+
+            reclaimFlows().size() shouldBe 0
+        }
     }
 }
@@ -54,6 +54,8 @@ public class NativeFlowControllerJNI {
             long expirer, long id, long expiration, int expirationType);
     public static native long flowExpirationIndexerPollForExpired(
             long expirer, long expiration);
+    public static native long flowExpirationIndexerPollForExpiredOfType(
+            long expirer, long expiration, int expirationType);
     public static native long flowExpirationIndexerEvictFlow(
             long expirer);
 
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+
+/**
+ * An IPv4 routing table backed by a multi-bit trie of the route destination
+ * prefixes. The lookup returns the same routes as the {@link RoutingTable}: the
+ * routes of the longest destination prefix that match the source address
+ * and have the minimum weight, falling back to shorter prefixes when none
+ * of the routes match the source.
+ */
+public class IPv4StrideRoutingTable extends StrideRoutesTrie<Route>
+    implements RoutingTableIfc<IPv4Addr> {
+
+    private final static Logger log =
+        LoggerFactory.getLogger("org.midonet.devices.router");
+
+    public IPv4StrideRoutingTable() {
+        super(32);
+    }
+
+    @Override
+    public void addRoute(Route rt) {
+        log.debug("addRoute: {}", rt);
+        add(upper(rt.dstNetworkAddr), 0L, rt.dstNetworkLength, rt);
+    }
+
+    public void deleteRoute(Route rt) {
+        log.debug("deleteRoute: {}", rt);
+        delete(upper(rt.dstNetworkAddr), 0L, rt.dstNetworkLength, rt);
+    }
+
+    @Override
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst) {
+        return lookup(src.toInt(), dst.toInt(), log);
+    }
+
+    @Override
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst, Logger logger) {
+        return lookup(src.toInt(), dst.toInt(), logger);
+    }
+
+    List<Route> lookup(int src, int dst, Logger logger) {
+        return lookup(snapshot(), numRoutes, src, dst, logger);
+    }
+
+    /**
+     * Returns an immutable version of the current routes, which is not
+     * modified by later changes to this table. Taking a version only
+     * rebuilds the parts of the table modified since the previous one.
+     */
+    public synchronized Version version() {
+        return new Version(snapshot(), numRoutes);
+    }
+
+    /**
+     * An immutable version of an {@link IPv4StrideRoutingTable}.
+     */
+    public static final class Version {
+        private final Snapshot snapshot;
+        private final int numRoutes;
+
+        private Version(Snapshot snapshot, int numRoutes) {
+            this.snapshot = snapshot;
+            this.numRoutes = numRoutes;
+        }
+
+        public int size() {
+            return numRoutes;
+        }
+
+        public List<Route> lookup(IPv4Addr src, IPv4Addr dst) {
+            return IPv4StrideRoutingTable.lookup(snapshot, numRoutes,
+                                                 src.toInt(), dst.toInt(), log);
+        }
+
+        public List<Route> lookup(IPv4Addr src, IPv4Addr dst, Logger logger) {
+            return IPv4StrideRoutingTable.lookup(snapshot, numRoutes,
+                                                 src.toInt(), dst.toInt(),
+                                                 logger);
+        }
+
+        @Override
+        public String toString() {
+            return "IPv4StrideRoutingTable.Version [routes=" + numRoutes + "]";
+        }
+    }
+
+    private static List<Route> lookup(Snapshot snapshot, int numRoutes,
+                                      int src, int dst, Logger logger) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("lookup: src %s dst %s in table with %d routes",
+                                       IPv4Addr.intToString(src),
+                                       IPv4Addr.intToString(dst),
+                                       numRoutes));
+        }
+
+        List<Route> ret = new ArrayList<>();
+        Entries prefix = snapshot.match(upper(dst), 0L);
+        while (null != prefix) {
+            int minWeight = Integer.MAX_VALUE;
+            // Filter out the routes that don't match the source address and
+            // return only those with the minimum weight.
+            for (Object entry : prefix.entries) {
+                Route rt = (Route) entry;
+                if (IPv4Subnet.addrMatch(src, rt.srcNetworkAddr,
+                                         rt.srcNetworkLength)) {
+                    if (rt.weight < minWeight) {
+                        ret.clear();
+                        ret.add(rt);
+                        minWeight = rt.weight;
+                    } else if (rt.weight == minWeight)
+                        ret.add(rt);
+                }
+            }
+            if (!ret.isEmpty())
+                break;
+            prefix = snapshot.parent(prefix);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("lookup: return %s for src %s dst %s",
+                                       ret.toString(),
+                                       IPv4Addr.intToString(src),
+                                       IPv4Addr.intToString(dst)));
+        }
+
+        return ret;
+    }
+
+    private static long upper(int address) {
+        return (address & 0xffffffffL) << 32;
+    }
+
+    @Override
+    public String toString() {
+        return "IPv4StrideRoutingTable [routes=" + numRoutes + "]";
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A multi-bit trie of destination prefixes, where every prefix holds a set
+ * of entries. The first level of the trie is indexed by the 16 most
+ * significant bits of the address, and every following level by the next 8
+ * bits. Prefixes whose length is not a level boundary are expanded to all
+ * the slots they cover, such that a lookup reads at most one slot per level.
+ *
+ * The trie is kept in primitive arrays and published as an immutable
+ * snapshot: modifications are applied to the set of prefixes and the
+ * snapshot is rebuilt on the first lookup that follows them. Lookups on an
+ * up-to-date snapshot do not take any lock, which allows the packet workers
+ * to read the same table concurrently.
+ *
+ * The snapshots are persistent: the first level and every subtree below a
+ * first-level slot are built separately, and a new snapshot shares with the
+ * previous one all the parts that were not modified. Adding or removing a
+ * prefix longer than the first stride only rebuilds the subtree of that
+ * prefix, such that the cost of an update does not grow with the number of
+ * routes of the table.
+ *
+ * Addresses are given as two 64-bit words, with IPv4 addresses in the most
+ * significant bits of the upper word.
+ */
+abstract class StrideRoutesTrie<E> {
+
+    private static final int ROOT_STRIDE = 16;
+    private static final int ROOT_SIZE = 1 << ROOT_STRIDE;
+    private static final int STRIDE = 8;
+    private static final int NODE_SIZE = 1 << STRIDE;
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * A destination prefix, with the address bits beyond the prefix length
+     * cleared.
+     */
+    private static final class Prefix {
+        final long upper;
+        final long lower;
+        final int length;
+
+        Prefix(long upper, long lower, int length) {
+            this.upper = upper & mask(length);
+            this.lower = lower & mask(length - 64);
+            this.length = length;
+        }
+
+        int root() {
+            return bits(upper, lower, 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Prefix))
+                return false;
+            Prefix that = (Prefix) obj;
+            return upper == that.upper && lower == that.lower
+                   && length == that.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(upper) * 31 + Long.hashCode(lower) * 17
+                   + length;
+        }
+    }
+
+    /**
+     * The entries of a prefix in a snapshot.
+     */
+    protected static final class Entries {
+        final Object[] entries;
+        // The longest prefix containing this one in the same subtree, or in
+        // the first level for the prefixes of the first level.
+        private final Entries parent;
+        // The first-level slot of the subtree of the prefix, or -1 for the
+        // prefixes of the first level.
+        private final int root;
+
+        private Entries(Object[] entries, Entries parent, int root) {
+            this.entries = entries;
+            this.parent = parent;
+            this.root = root;
+        }
+    }
+
+    /**
+     * An immutable subtree below a first-level slot. For every level, the
+     * slots store the index of the longest prefix of the subtree covering
+     * the slot, or -1, and except for the last level, the index of the
+     * child node.
+     */
+    private static final class Subtree {
+        private final int[][] prefixes;
+        private final int[][] children;
+        private final Entries[] entries;
+
+        private Subtree(int[][] prefixes, int[][] children,
+                        Entries[] entries) {
+            this.prefixes = prefixes;
+            this.children = children;
+            this.entries = entries;
+        }
+
+        Entries match(long upper, long lower) {
+            int node = 0;
+            int depth = 0;
+            int prefix;
+            while (true) {
+                int slot = node * NODE_SIZE + bits(upper, lower, depth + 1);
+                prefix = prefixes[depth][slot];
+                if (depth == children.length)
+                    break;
+                node = children[depth][slot];
+                if (node < 0)
+                    break;
+                depth++;
+            }
+            return prefix < 0 ? null : entries[prefix];
+        }
+    }
+
+    /**
+     * An immutable snapshot of the trie: the index of the longest prefix of
+     * the first level covering every first-level slot, and the subtree of
+     * every first-level slot.
+     */
+    protected static final class Snapshot {
+        private final int[] rootPrefixes;
+        private final Entries[] rootEntries;
+        private final Subtree[] subtrees;
+
+        private Snapshot(int[] rootPrefixes, Entries[] rootEntries,
+                         Subtree[] subtrees) {
+            this.rootPrefixes = rootPrefixes;
+            this.rootEntries = rootEntries;
+            this.subtrees = subtrees;
+        }
+
+        /**
+         * Returns the longest prefix matching the given address, or
+         * {@code null} if there is none.
+         */
+        Entries match(long upper, long lower) {
+            int slot = bits(upper, lower, 0);
+            if (null != subtrees && null != subtrees[slot]) {
+                Entries prefix = subtrees[slot].match(upper, lower);
+                if (null != prefix)
+                    return prefix;
+            }
+            return root(slot);
+        }
+
+        /**
+         * Returns the longest prefix containing the given prefix, or
+         * {@code null} if there is none.
+         */
+        Entries parent(Entries prefix) {
+            if (null != prefix.parent)
+                return prefix.parent;
+            return prefix.root < 0 ? null : root(prefix.root);
+        }
+
+        private Entries root(int slot) {
+            if (null == rootPrefixes)
+                return null;
+            int prefix = rootPrefixes[slot];
+            return prefix < 0 ? null : rootEntries[prefix];
+        }
+    }
+
+    private final int levels;
+    private final Map<Prefix, Set<E>> table = new HashMap<>();
+    // The prefixes of the first level, and those of every subtree.
+    private final Set<Prefix> rootPrefixes = new HashSet<>();
+    private final Map<Integer, Set<Prefix>> subtreePrefixes = new HashMap<>();
+    // The parts of the trie modified since the last snapshot.
+    private boolean rootModified = false;
+    private final BitSet modifiedSubtrees = new BitSet(ROOT_SIZE);
+    private Snapshot previous;
+    private volatile Snapshot snapshot;
+    protected int numRoutes = 0;
+
+    protected StrideRoutesTrie(int width) {
+        this.levels = 1 + (width - ROOT_STRIDE) / STRIDE;
+    }
+
+    protected synchronized void add(long upper, long lower, int length,
+                                    E entry) {
+        Prefix prefix = new Prefix(upper, lower, length);
+        Set<E> entries = table.get(prefix);
+        if (null == entries) {
+            entries = new HashSet<>();
+            table.put(prefix, entries);
+            if (length <= ROOT_STRIDE) {
+                rootPrefixes.add(prefix);
+            } else {
+                Set<Prefix> prefixes = subtreePrefixes.get(prefix.root());
+                if (null == prefixes) {
+                    prefixes = new HashSet<>();
+                    subtreePrefixes.put(prefix.root(), prefixes);
+                }
+                prefixes.add(prefix);
+            }
+        }
+        if (entries.add(entry)) {
+            numRoutes++;
+            modified(prefix);
+        }
+    }
+
+    protected synchronized void delete(long upper, long lower, int length,
+                                       E entry) {
+        Prefix prefix = new Prefix(upper, lower, length);
+        Set<E> entries = table.get(prefix);
+        if (null != entries && entries.remove(entry)) {
+            if (entries.isEmpty()) {
+                table.remove(prefix);
+                if (length <= ROOT_STRIDE) {
+                    rootPrefixes.remove(prefix);
+                } else {
+                    Set<Prefix> prefixes = subtreePrefixes.get(prefix.root());
+                    prefixes.remove(prefix);
+                    if (prefixes.isEmpty())
+                        subtreePrefixes.remove(prefix.root());
+                }
+            }
+            numRoutes--;
+            modified(prefix);
+        }
+    }
+
+    public synchronized void clear() {
+        table.clear();
+        rootPrefixes.clear();
+        subtreePrefixes.clear();
+        rootModified = true;
+        modifiedSubtrees.clear();
+        numRoutes = 0;
+        previous = null;
+        snapshot = null;
+    }
+
+    private void modified(Prefix prefix) {
+        if (prefix.length <= ROOT_STRIDE)
+            rootModified = true;
+        else
+            modifiedSubtrees.set(prefix.root());
+        snapshot = null;
+    }
+
+    /**
+     * Returns the current snapshot of the trie, building it if the trie
+     * was modified since the last lookup.
+     */
+    protected Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (null == current) {
+            synchronized (this) {
+                current = snapshot;
+                if (null == current) {
+                    current = build();
+                    previous = current;
+                    rootModified = false;
+                    modifiedSubtrees.clear();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Builds a new snapshot from the previous one, rebuilding only the
+     * first level and the subtrees that were modified.
+     */
+    private Snapshot build() {
+        int[] rootSlots = null == previous ? null : previous.rootPrefixes;
+        Entries[] rootEntries = null == previous ? null : previous.rootEntries;
+        if (null == previous || rootModified) {
+            rootSlots = null;
+            rootEntries = null;
+            if (!rootPrefixes.isEmpty()) {
+                rootSlots = new int[ROOT_SIZE];
+                rootEntries = new Entries[rootPrefixes.size()];
+                buildRoot(rootSlots, rootEntries);
+            }
+        }
+
+        Subtree[] subtrees = null == previous ? null : previous.subtrees;
+        if (!modifiedSubtrees.isEmpty()) {
+            subtrees = null == subtrees ? new Subtree[ROOT_SIZE]
+                                        : subtrees.clone();
+            for (int root = modifiedSubtrees.nextSetBit(0); root >= 0;
+                 root = modifiedSubtrees.nextSetBit(root + 1)) {
+                subtrees[root] = buildSubtree(root);
+            }
+        }
+        return new Snapshot(rootSlots, rootEntries, subtrees);
+    }
+
+    private void buildRoot(int[] slots, Entries[] entries) {
+        Arrays.fill(slots, -1);
+        // Inserting the prefixes in order of length guarantees that longer
+        // prefixes overwrite the slots of the shorter ones, and that the
+        // slot of a prefix address holds its longest container.
+        List<Prefix> sorted = sortByLength(rootPrefixes);
+        for (int index = 0; index < sorted.size(); index++) {
+            Prefix prefix = sorted.get(index);
+            int start = prefix.root();
+            int parent = slots[start];
+            entries[index] = new Entries(table.get(prefix).toArray(),
+                                         parent < 0 ? null : entries[parent],
+                                         -1);
+            int count = 1 << (ROOT_STRIDE - prefix.length);
+            Arrays.fill(slots, start, start + count, index);
+        }
+    }
+
+    private Subtree buildSubtree(int root) {
+        Set<Prefix> prefixes = subtreePrefixes.get(root);
+        if (null == prefixes)
+            return null;
+
+        int depth = levels - 1;
+        int[][] slots = new int[depth][];
+        int[][] children = new int[depth - 1][];
+        int[] nodes = new int[depth];
+        for (int level = 0; level < depth; level++) {
+            slots[level] = EMPTY;
+            if (level < depth - 1)
+                children[level] = EMPTY;
+        }
+        List<Prefix> sorted = sortByLength(prefixes);
+        Entries[] entries = new Entries[sorted.size()];
+        Subtree building = new Subtree(slots, children, entries);
+        newNode(building, nodes, 0, -1);
+
+        // As for the first level, longer prefixes overwrite shorter ones,
+        // and the longest match of a prefix address is its container.
+        for (int index = 0; index < sorted.size(); index++) {
+            Prefix prefix = sorted.get(index);
+            Entries parent = building.match(prefix.upper, prefix.lower);
+            entries[index] = new Entries(table.get(prefix).toArray(), parent,
+                                         root);
+            insert(building, nodes, prefix, index);
+        }
+
+        for (int level = 0; level < depth; level++) {
+            slots[level] = Arrays.copyOf(slots[level],
+                                         nodes[level] * NODE_SIZE);
+            if (level < depth - 1)
+                children[level] = Arrays.copyOf(children[level],
+                                                nodes[level] * NODE_SIZE);
+        }
+        return building;
+    }
+
+    private static List<Prefix> sortByLength(Set<Prefix> prefixes) {
+        List<Prefix> sorted = new ArrayList<>(prefixes);
+        sorted.sort((p1, p2) -> Integer.compare(p1.length, p2.length));
+        return sorted;
+    }
+
+    private static void insert(Subtree building, int[] nodes, Prefix prefix,
+                               int index) {
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            int end = ROOT_STRIDE + (depth + 1) * STRIDE;
+            int bits = bits(prefix.upper, prefix.lower, depth + 1);
+            if (prefix.length <= end) {
+                int count = 1 << (end - prefix.length);
+                int start = node * NODE_SIZE + (bits & ~(count - 1));
+                Arrays.fill(building.prefixes[depth], start, start + count,
+                            index);
+                return;
+            }
+            int slot = node * NODE_SIZE + bits;
+            int child = building.children[depth][slot];
+            if (child < 0) {
+                child = newNode(building, nodes, depth + 1,
+                                building.prefixes[depth][slot]);
+                building.children[depth][slot] = child;
+            }
+            node = child;
+            depth++;
+        }
+    }
+
+    private static int newNode(Subtree building, int[] nodes, int depth,
+                               int prefix) {
+        int node = nodes[depth]++;
+        int end = nodes[depth] * NODE_SIZE;
+        boolean leaf = depth == building.children.length;
+        if (end > building.prefixes[depth].length) {
+            int capacity = Math.max(end, building.prefixes[depth].length * 2);
+            building.prefixes[depth] =
+                Arrays.copyOf(building.prefixes[depth], capacity);
+            if (!leaf)
+                building.children[depth] =
+                    Arrays.copyOf(building.children[depth], capacity);
+        }
+        Arrays.fill(building.prefixes[depth], node * NODE_SIZE, end, prefix);
+        if (!leaf)
+            Arrays.fill(building.children[depth], node * NODE_SIZE, end, -1);
+        return node;
+    }
+
+    private static int bits(long upper, long lower, int level) {
+        if (level == 0)
+            return (int) (upper >>> (64 - ROOT_STRIDE));
+        int end = ROOT_STRIDE + level * STRIDE;
+        long word = end <= 64 ? upper : lower;
+        return (int) (word >>> ((128 - end) & 63)) & (NODE_SIZE - 1);
+    }
+
+    /**
+     * Returns the mask of the most significant bits of a 64-bit word.
+     */
+    static long mask(int length) {
+        if (length <= 0)
+            return 0L;
+        if (length >= 64)
+            return -1L;
+        return -1L << (64 - length);
+    }
+
+    /**
+     * Indicates whether the given address matches the given prefix.
+     */
+    static boolean addrMatch(long upper, long lower, long prefixUpper,
+                             long prefixLower, int length) {
+        return ((upper ^ prefixUpper) & mask(length)) == 0
+               && ((lower ^ prefixLower) & mask(length - 64)) == 0;
+    }
+}
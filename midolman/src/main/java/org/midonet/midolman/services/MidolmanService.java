@@ -169,7 +169,8 @@ public class MidolmanService extends AbstractService {
         }
 
         log.info("Stopping virtual topology executors");
-        int leftInVt = virtualTopology.vtExecutor().shutdownNow().size();
+        int leftInVt = virtualTopology.vtExecutor().shutdownNow().size()
+                       + virtualTopology.shutdownShardExecutors();
         int leftInIo = virtualTopology.ioExecutor().shutdownNow().size();
 
         if (leftInVt > 0)
@@ -57,6 +57,7 @@ public class FlowStateTransaction<K, V> {
     private ArrayList<V> touchVals = new ArrayList<>();
     private HashSet<K> deletes = new HashSet<>();
     private boolean committed = false;
+    private int lookups = 0;
 
     public FlowStateTransaction(FlowStateTable<K, V> underlyingState) {
         parent = underlyingState;
@@ -68,6 +69,14 @@ public class FlowStateTransaction<K, V> {
         return keys.size() + refs.size();
     }
 
+    /**
+     * Whether the ongoing transaction looked up or modified any key.
+     */
+    public boolean isAccessed() {
+        return lookups > 0 || size() > 0 || !touchKeys.isEmpty()
+               || !deletes.isEmpty();
+    }
+
     /**
      * Discards the ongoing transaction, clearing all state in it.
      */
@@ -79,6 +88,7 @@ public class FlowStateTransaction<K, V> {
         touchKeys.clear();
         touchVals.clear();
         committed = false;
+        lookups = 0;
     }
 
     /**
@@ -130,6 +140,7 @@ public class FlowStateTransaction<K, V> {
     }
 
     public V get(K key) {
+        lookups++;
         if (deletes.contains(key))
             return null;
 
@@ -31,7 +31,7 @@ import org.midonet.midolman.flows._
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.monitoring.MeterRegistry
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
-import org.midonet.odp.FlowMatch
+import org.midonet.odp.{FlowMatch, FlowMetadata}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.collection.{ArrayObjectPool, NoOpPool}
 import org.midonet.util.concurrent.WakerUpper.Parkable
@@ -43,6 +43,31 @@ object FlowController {
     private[midolman] val IndexShift = 28 // Leave 4 bits for the work ID
     private[midolman] val IndexMask = (1 << IndexShift) - 1
     private[midolman] val MaxTableSize = IndexMask + 1
+
+    /**
+     * The maximum number of flow table slots visited by every refresh of the
+     * flow statistics.
+     */
+    private[midolman] val StatsScanBatch = 256
+
+    /**
+     * The number of upper bits of a flow mark used for the worker ID. At
+     * least 4 bits are reserved, such that the mark layout is unchanged for
+     * up to 16 workers, and more bits are taken from the flow index when
+     * there are more workers.
+     */
+    private[midolman] def workerBits(numWorkers: Int): Int =
+        Math.max(32 - IndexShift,
+                 32 - Integer.numberOfLeadingZeros(Math.max(numWorkers, 1) - 1))
+
+    private[midolman] def indexShift(numWorkers: Int): Int =
+        32 - workerBits(numWorkers)
+
+    private[midolman] def indexMask(numWorkers: Int): Int =
+        (1 << indexShift(numWorkers)) - 1
+
+    private[midolman] def maxTableSize(numWorkers: Int): Int =
+        indexMask(numWorkers) + 1
 }
 
 trait FlowTablePreallocation {
@@ -117,7 +142,7 @@ class FlowTablePreallocationImpl(config: MidolmanConfig)
 
     val maxFlows = Math.min(
         ((config.datapath.maxFlowCount / numWorkers) * 1.2).toInt,
-        MaxTableSize)
+        maxTableSize(numWorkers))
 
     override def allocateAndTenure() {
         var i = 0
@@ -170,14 +195,46 @@ trait FlowController extends DisruptorBackChannel {
     def flowExists(mark: Int): Boolean
 
     def invalidateFlowsFor(tag: FlowTag): Unit
+
+    /**
+     * Invalidates the flows tagged with the given tag, except for the flows
+     * scheduled for revalidation by the given revalidator. These flows stay
+     * in the datapath without tags, until they are either restored with
+     * [[restoreFlowTags]] or removed with [[removeFlow]].
+     */
+    def invalidateFlowsFor(tag: FlowTag, revalidator: FlowRevalidator): Unit
+
+    /**
+     * Tags again a flow kept after its revalidation, returning false if the
+     * flow no longer exists.
+     */
+    def restoreFlowTags(id: Long, tags: ArrayList[FlowTag]): Boolean
+
+    def removeFlow(id: Long): Unit
 }
 
 trait FlowControllerDeleter {
     def removeFlowFromDatapath(flowMatch: FlowMatch, sequence: Long): Unit
+    /**
+     * Requests the statistics of a datapath flow, returning false if the
+     * request could not be sent. The result is notified to the listener of
+     * the deleter when processing the completed flow operations.
+     */
+    def requestFlowStats(id: Long, flowMatch: FlowMatch,
+                         expired: Boolean): Boolean
     def processCompletedFlowOperations(): Unit
     def shouldProcess: Boolean
 }
 
+/**
+ * Receives the results of the flow statistics requests of a flow controller.
+ */
+trait FlowStatsListener {
+    def flowStatsReceived(id: Long, expired: Boolean,
+                          metadata: FlowMetadata): Unit
+    def flowStatsFailed(id: Long, expired: Boolean): Unit
+}
+
 class FlowControllerImpl(config: MidolmanConfig,
                          clock: NanoClock,
                          flowProcessor: FlowProcessor,
@@ -188,8 +245,14 @@ class FlowControllerImpl(config: MidolmanConfig,
                          preallocation: FlowTablePreallocation,
                          cbRegistry: CallbackRegistry,
                          insights: Insights)
-        extends FlowController with DisruptorBackChannel with MidolmanLogging {
+        extends FlowController with DisruptorBackChannel
+        with FlowStatsListener with MidolmanLogging {
     import FlowController._
+    import FlowExpirationIndexer.FLOW_EXPIRATION
+
+    private val numWorkers = PacketWorkersService.numWorkers(config)
+    private val markShift = indexShift(numWorkers)
+    private val markMask = indexMask(numWorkers)
 
     private var curIndex = -1
     private var numFlows = 0
@@ -203,7 +266,10 @@ class FlowControllerImpl(config: MidolmanConfig,
     private val deleter = new FlowControllerDeleterImpl(flowProcessor,
                                                         datapathId,
                                                         meters,
-                                                        insights)
+                                                        insights,
+                                                        this)
+    private val statsPolicy = new FlowStatsPolicy(config.datapath, clock)
+    private var statsCursor = 0
 
     private val oversubscriptionFlowPool = new NoOpPool[ManagedFlowImpl](
         new ManagedFlowImpl(_))
@@ -273,6 +339,9 @@ class FlowControllerImpl(config: MidolmanConfig,
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
         val tick = clock.tick
+        if (statsPolicy.enabled) {
+            checkExpiredFlows(tick)
+        }
         var flowId = expirationIndexer.pollForExpired(tick)
         while (flowId != ManagedFlow.NoFlow) {
             val flow = indexToFlow((flowId & mask).toInt)
@@ -281,15 +350,125 @@ class FlowControllerImpl(config: MidolmanConfig,
             }
             flowId = expirationIndexer.pollForExpired(tick)
         }
+        if (statsPolicy.enabled) {
+            refreshFlowStats()
+        }
     }
 
-    override def invalidateFlowsFor(tag: FlowTag): Unit = {
+    /**
+     * Requests the statistics of the expired stateless flows, to delete them
+     * only if they are idle. The flows are deleted right away when no more
+     * requests can be sent.
+     */
+    private def checkExpiredFlows(tick: Long): Unit = {
+        var flowId = expirationIndexer.pollForExpired(tick,
+                                                      FLOW_EXPIRATION.typeId)
+        while (flowId != ManagedFlow.NoFlow) {
+            val flow = flowForId(flowId)
+            if (flow ne null) {
+                if (statsPolicy.tryAcquire() &&
+                    deleter.requestFlowStats(flow.id, flow.flowMatch,
+                                             expired = true)) {
+                    metrics.flowStatsRequests.mark()
+                } else {
+                    removeFlow(flow)
+                }
+            }
+            flowId = expirationIndexer.pollForExpired(tick,
+                                                      FLOW_EXPIRATION.typeId)
+        }
+    }
+
+    /**
+     * Requests the statistics of the next flows of the flow table, to update
+     * their meters while they are installed.
+     */
+    private def refreshFlowStats(): Unit = {
+        var slots = Math.min(indexToFlow.length, StatsScanBatch)
+        while (slots > 0) {
+            val flow = indexToFlow(statsCursor & mask)
+            if (flow ne null) {
+                if (!statsPolicy.tryAcquire()) {
+                    return
+                }
+                if (!deleter.requestFlowStats(flow.id, flow.flowMatch,
+                                              expired = false)) {
+                    return
+                }
+                metrics.flowStatsRequests.mark()
+            }
+            statsCursor += 1
+            slots -= 1
+        }
+    }
+
+    override def flowStatsReceived(id: Long, expired: Boolean,
+                                   metadata: FlowMetadata): Unit = {
+        val flow = flowForId(id)
+        if (flow eq null) {
+            return
+        }
+        meters.updateFlow(flow.flowMatch, metadata.getStats)
+        if (expired) {
+            if (statsPolicy.isIdle(metadata)) {
+                log.debug(s"Removing idle flow $flow")
+                metrics.flowsIdleExpired.mark()
+                removeFlow(flow)
+            } else {
+                metrics.flowsExpirationExtended.mark()
+                flow.absoluteExpirationNanos =
+                    clock.tick + FLOW_EXPIRATION.value
+                expirationIndexer.enqueueFlowExpiration(
+                    flow.id, flow.absoluteExpirationNanos, flow.expirationType)
+            }
+        }
+    }
+
+    override def flowStatsFailed(id: Long, expired: Boolean): Unit = {
+        if (expired) {
+            removeFlow(id)
+        }
+    }
+
+    override def invalidateFlowsFor(tag: FlowTag): Unit =
+        invalidateFlowsFor(tag, null)
+
+    override def invalidateFlowsFor(tag: FlowTag,
+                                    revalidator: FlowRevalidator): Unit = {
         val iter = tagIndexer.invalidateFlowsFor(tag)
         while (iter.hasNext()) {
-            removeFlow(iter.next())
+            val flow = iter.next()
+            if ((revalidator eq null) || !revalidator.schedule(flow.id)) {
+                removeFlow(flow)
+            }
+        }
+    }
+
+    override def restoreFlowTags(id: Long,
+                                 tags: ArrayList[FlowTag]): Boolean = {
+        val flow = flowForId(id)
+        if (flow ne null) {
+            flow.tags.clear()
+            flow.tags.addAll(tags)
+            tagIndexer.indexFlowTags(flow)
+            true
+        } else {
+            false
         }
     }
 
+    override def removeFlow(id: Long): Unit = {
+        val flow = flowForId(id)
+        if (flow ne null) {
+            removeFlow(flow)
+        }
+    }
+
+    private def flowForId(id: Long): ManagedFlowImpl = {
+        val flow = indexToFlow((id & mask).toInt)
+        if ((flow ne null) && flow.id == id) flow else null
+    }
+
     private def registerFlow(flow: ManagedFlowImpl): Unit = {
         indexFlow(flow)
         expirationIndexer.enqueueFlowExpiration(flow.id,
@@ -338,7 +517,7 @@ class FlowControllerImpl(config: MidolmanConfig,
         } while (indexToFlow(index) ne null)
         indexToFlow(index) = flow
         flow.setId(curIndex)
-        flow.setMark((curIndex & IndexMask) | (workerId << IndexShift))
+        flow.setMark((curIndex & markMask) | (workerId << markShift))
     }
 
     private def clearFlowIndex(flow: ManagedFlowImpl): Unit = {
@@ -359,7 +538,8 @@ class FlowControllerImpl(config: MidolmanConfig,
 class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
                                 datapathId: Int,
                                 meters: MeterRegistry,
-                                insights: Insights)
+                                insights: Insights,
+                                statsListener: FlowStatsListener = null)
         extends FlowControllerDeleter with MidolmanLogging {
     private val completedFlowOperations = new SpscArrayQueue[FlowOperation](
         flowProcessor.capacity)
@@ -367,6 +547,7 @@ class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
         flowProcessor.capacity, new FlowOperation(_, completedFlowOperations))
     private val flowRemoveCommandsToRetry = new ArrayList[FlowOperation](
         flowProcessor.capacity)
+    private val completedFlowGets = new ArrayList[FlowOperation]()
 
     override def removeFlowFromDatapath(flowMatch: FlowMatch,
                                         sequence: Long): Unit = {
@@ -381,10 +562,29 @@ class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
         }
     }
 
+    override def requestFlowStats(id: Long, flowMatch: FlowMatch,
+                                  expired: Boolean): Boolean = {
+        val flowOp = pooledFlowOperations.take
+        if (flowOp eq null) {
+            return false
+        }
+        flowOp.reset(FlowOperation.GET, flowMatch, -1L, retries = 0)
+        flowOp.flowId = id
+        flowOp.expired = expired
+        if (flowProcessor.tryGet(datapathId, flowMatch, flowOp)) {
+            true
+        } else {
+            flowOp.clear()
+            false
+        }
+    }
+
     private def drainCompletedFlowOperations(): Unit = {
         var req: FlowOperation = null
         while ({ req = completedFlowOperations.poll(); req } ne null) {
-            if (req.isFailed) {
+            if (req.opId == FlowOperation.GET) {
+                completedFlowGets.add(req)
+            } else if (req.isFailed) {
                 flowDeleteFailed(req)
             } else {
                 flowDeleteSucceeded(req)
@@ -395,6 +595,7 @@ class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
     override def processCompletedFlowOperations(): Unit = {
         drainCompletedFlowOperations()
         retryFailedFlowOperations()
+        notifyCompletedFlowGets()
     }
 
     override def shouldProcess(): Boolean = completedFlowOperations.size > 0
@@ -414,6 +615,30 @@ class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
         flowRemoveCommandsToRetry.clear()
     }
 
+    // The listener may remove flows and process the completed operations
+    // again, so the completed GET operations are notified after draining the
+    // completed and retried deletions.
+    private def notifyCompletedFlowGets(): Unit = {
+        while (!completedFlowGets.isEmpty) {
+            flowGetCompleted(
+                completedFlowGets.remove(completedFlowGets.size() - 1))
+        }
+    }
+
+    private def flowGetCompleted(req: FlowOperation): Unit = {
+        if (statsListener ne null) {
+            if (req.isFailed) {
+                log.debug(s"Failed to get statistics of ${req.flowMatch}",
+                          req.failure)
+                statsListener.flowStatsFailed(req.flowId, req.expired)
+            } else {
+                statsListener.flowStatsReceived(req.flowId, req.expired,
+                                                req.flowMetadata)
+            }
+        }
+        req.clear()
+    }
+
     private def flowDeleteFailed(req: FlowOperation): Unit = {
         log.debug("Got an exception when trying to remove " +
                   s"${req.flowMatch}", req.failure)
@@ -462,7 +687,7 @@ class FlowControllerDeleterImpl(flowProcessor: FlowProcessor,
                 flowOperationParkable.park()
             }
         }
-        flowOp.reset(flowMatch, sequence, retries = 10)
+        flowOp.reset(FlowOperation.DELETE, flowMatch, sequence, retries = 10)
         flowOp
     }
 }
@@ -91,7 +91,8 @@ class MidolmanModule(config: MidolmanConfig,
 
         // We add an extra slot so that channels can return tokens
         // they obtained due to the multiplier effect but didn't use.
-        val counter = new StatisticalCounter(config.simulationThreads + 1)
+        val counter = new StatisticalCounter(
+            PacketWorkersService.numWorkers(config) + 1)
         val policy = htbPolicy(counter)
         bind(classOf[StatisticalCounter]).toInstance(counter)
         bind(classOf[TokenBucketPolicy]).toInstance(policy)
@@ -218,7 +219,8 @@ class MidolmanModule(config: MidolmanConfig,
             config,
             new TokenBucketSystemRate(counter, multiplier),
             multiplier,
-            tb => new Bucket(tb, multiplier, counter, config.simulationThreads, atomic))
+            tb => new Bucket(tb, multiplier, counter,
+                             PacketWorkersService.numWorkers(config), atomic))
     }
 
     protected def netlinkChannelFactory() =
@@ -267,7 +269,8 @@ class MidolmanModule(config: MidolmanConfig,
             SelectorProvider.provider,
             backChannel,
             new DatapathMetrics(metricRegistry),
-            NanoClock.DEFAULT)
+            NanoClock.DEFAULT,
+            config.datapath.batchFlowCreates)
 
     protected def createProcessors(
             ringBuffer: RingBuffer[PacketContextHolder],
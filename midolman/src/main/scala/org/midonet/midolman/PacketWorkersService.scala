@@ -36,24 +36,40 @@ import org.midonet.midolman.monitoring.{FlowRecorder, FlowSenderWorker}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.services.HostIdProvider
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
-import org.midonet.midolman.state.ConnTrackState.{ConnTrackKeySerializer, ConnTrackValueSerializer}
-import org.midonet.midolman.state.NatState.{NatBindingSerializer, NatKey, NatKeySerializer}
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKeyCodec, ConnTrackKeySerializer, ConnTrackValueCodec, ConnTrackValueSerializer}
+import org.midonet.midolman.state.NatState.{NatBindingCodec, NatBindingSerializer, NatKey, NatKeyCodec, NatKeySerializer}
 import org.midonet.midolman.state.TraceState.{TraceContext, TraceKey}
 import org.midonet.midolman.state.{NatBlockAllocator, NatLeaser, PeerResolver}
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.packets.NatState.NatBinding
-import org.midonet.sdn.state.{OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable}
+import org.midonet.sdn.state.{OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable, UnsafeShardedFlowStateTable}
 import org.midonet.util.StatisticalCounter
 import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.logging.Logger
 
 object PacketWorkersService {
+
+    /**
+     * The maximum number of packet workers. The worker ID is encoded in the
+     * upper bits of a flow mark, and more workers leave fewer bits for the
+     * index in each worker's flow table.
+     */
+    val MaxWorkers = 256
+
+    /**
+     * Returns the number of packet workers for the given configuration. A
+     * non-positive number of simulation threads scales the workers with the
+     * number of available cores, leaving one core for each datapath output
+     * channel.
+     */
     def numWorkers(config: MidolmanConfig) = {
         val n = config.simulationThreads
         if (n <= 0)
-            1
-        else if (n > 16)
-            16
+            Math.min(Math.max(Runtime.getRuntime.availableProcessors -
+                              Math.max(config.outputChannels, 1), 1),
+                     MaxWorkers)
+        else if (n > MaxWorkers)
+            MaxWorkers
         else
             n
     }
@@ -86,13 +102,24 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
     val numWorkers = PacketWorkersService.numWorkers(config)
 
-    val connTrackStateTable = if (config.offHeapTables) {
+    private val javaOffHeapTables =
+        config.offHeapTables && config.offHeapStateTables == "java"
+
+    val connTrackStateTable = if (javaOffHeapTables) {
+        new UnsafeShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
+            clock, config.offHeapStateTableCapacity, ConnTrackKeyCodec,
+            ConnTrackValueCodec)
+    } else if (config.offHeapTables) {
         new OffHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
             clock, new ConnTrackKeySerializer, new ConnTrackValueSerializer)
     } else {
         new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](clock)
     }
-    val natStateTable = if (config.offHeapTables) {
+    val natStateTable = if (javaOffHeapTables) {
+        new UnsafeShardedFlowStateTable[NatKey, NatBinding](
+            clock, config.offHeapStateTableCapacity, NatKeyCodec,
+            NatBindingCodec)
+    } else if (config.offHeapTables) {
         new OffHeapShardedFlowStateTable[NatKey, NatBinding](
             clock, new NatKeySerializer, new NatBindingSerializer)
     } else {
@@ -102,6 +129,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
         val log: Logger = Logger(LoggerFactory.getLogger(classOf[NatLeaser]))
         val allocator = natBlockAllocator
         val clock = PacketWorkersServiceImpl.this.clock
+        override val prefetchWatermark = config.natBlockPrefetchWatermark
     }
     val traceStateTable = new OnHeapShardedFlowStateTable[TraceKey, TraceContext](clock)
 
@@ -146,6 +174,15 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
         flowSenderWorker.stopAsync().awaitTerminated()
 
+        // The memory of the state tables can only be freed when no worker
+        // may still read them.
+        if (!workers.exists(_.isRunning)) {
+            Seq(connTrackStateTable, natStateTable) foreach {
+                case table: UnsafeShardedFlowStateTable[_, _] => table.close()
+                case _ =>
+            }
+        }
+
         notifyStopped()
     }
 
@@ -27,8 +27,11 @@ import scala.util.control.NonFatal
 
 import com.lmax.disruptor._
 
+import org.jctools.queues.MpscArrayQueue
+
 import org.slf4j.{LoggerFactory, MDC}
 
+import org.midonet.Util
 import org.midonet.insights.Insights
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
@@ -36,7 +39,8 @@ import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.FlowProcessor.{DuplicateFlow, FlowError}
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
-import org.midonet.midolman.flows.{FlowExpirationIndexer, NativeFlowController}
+import org.midonet.midolman.flows.FlowRevalidator.RevalidatedFlow
+import org.midonet.midolman.flows.{DecisionCache, FlowExpirationIndexer, FlowRevalidator, NativeFlowController}
 import org.midonet.midolman.logging.{FlowTracingContext, MidolmanLogging}
 import org.midonet.midolman.management.{Metering, PacketTracing}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
@@ -259,7 +263,19 @@ class PacketWorkflow(
         (simulationExpireMillis millis).toNanos)
 
     private val contextPool = new ArrayDeque[PacketContext](maxPooledContexts)
-    private val processingRoom = new ArrayDeque[PacketContext]()
+
+    // The contexts handed back by the datapath threads. Like the pool, the
+    // queue holds at most the maximum number of pooled contexts, and a
+    // context that does not fit is left to the garbage collector.
+    private val processedContexts = new MpscArrayQueue[PacketContext](
+        Util.findNextPositivePowerOfTwo(math.max(maxPooledContexts, 2)))
+    private val contextOwner = new PacketContext.Owner {
+        override def handBack(context: PacketContext): Unit = {
+            if (!processedContexts.offer(context)) {
+                metrics.contextsBeingProcessed.dec()
+            }
+        }
+    }
 
     private var lastExpiration = System.nanoTime()
     private val maxWithoutExpiration = (5 seconds) toNanos
@@ -283,6 +299,18 @@ class PacketWorkflow(
                                cbRegistry, insights)
     }
 
+    protected val decisionCache =
+        if (config.decisionCacheSize > 0)
+            new DecisionCache(config.decisionCacheSize,
+                              config.decisionCacheExpiration, clock, metrics)
+        else null
+
+    protected val revalidator =
+        if (config.flowRevalidation)
+            new FlowRevalidator(config.datapath.maxFlowCount / numWorkers)
+        else null
+    private val revalidationBatchSize = config.flowRevalidationBatchSize
+
     protected val connTrackTx = new FlowStateTransaction(connTrackStateTable)
     protected val natTx = new FlowStateTransaction(natStateTable)
     protected val traceStateTx = new FlowStateTransaction(traceStateTable)
@@ -301,14 +329,14 @@ class PacketWorkflow(
     private val invalidateExpiredConnTrackKeys =
         new Reducer[ConnTrackKey, ConnTrackValue, Unit]() {
             override def apply(u: Unit, k: ConnTrackKey, v: ConnTrackValue) {
-                flowController.invalidateFlowsFor(k)
+                invalidateFlowsFor(k)
             }
         }
 
     private val invalidateExpiredNatKeys =
         new Reducer[NatKey, NatBinding, Unit]() {
             override def apply(u: Unit, k: NatKey, v: NatBinding): Unit = {
-                flowController.invalidateFlowsFor(k)
+                invalidateFlowsFor(k)
                 releaseBinding(k, v, natLeaser)
             }
         }
@@ -330,6 +358,7 @@ class PacketWorkflow(
         flowController.shouldProcess ||
         backChannel.hasMessages ||
         arpBroker.shouldProcess() ||
+        ((revalidator ne null) && revalidator.hasPending) ||
         shouldExpire
 
     /**
@@ -346,7 +375,7 @@ class PacketWorkflow(
         val InvalidateFlows(id, added, deleted) = msg
 
         for (route <- deleted) {
-            flowController.invalidateFlowsFor(FlowTagger.tagForRoute(route))
+            invalidateFlowsFor(FlowTagger.tagForRoute(route))
         }
 
         for (route <- added) {
@@ -358,15 +387,24 @@ class PacketWorkflow(
             while (deletions.hasNext) {
                 val ip = IPv4Addr.fromInt(deletions.next)
                 log.debug(s"Got the following destination to invalidate $ip")
-                flowController.invalidateFlowsFor(
+                invalidateFlowsFor(
                     FlowTagger.tagForDestinationIp(id, ip))
             }
         }
     }
 
+    private def invalidateFlowsFor(tag: FlowTag): Unit = {
+        if (revalidator ne null)
+            flowController.invalidateFlowsFor(tag, revalidator)
+        else
+            flowController.invalidateFlowsFor(tag)
+        if (decisionCache ne null)
+            decisionCache.invalidate(tag)
+    }
+
     private def handle(msg: BackChannelMessage): Unit = msg match {
         case m: InvalidateFlows => invalidateRoutedFlows(m)
-        case tag: FlowTag => flowController.invalidateFlowsFor(tag)
+        case tag: FlowTag => invalidateFlowsFor(tag)
         case RestartWorkflow(cookie, pktCtx, error) => restart(cookie, pktCtx, error)
         case m: GeneratedPacket => startWorkflow(generatedPacketContext(m))
         case m: FlowStateBatch => replicator.importFromStorage(m)
@@ -376,8 +414,11 @@ class PacketWorkflow(
 
     override def process(): Unit = {
         flowController.process()
+        replicator.flush()
         while (backChannel.hasMessages)
             handle(backChannel.poll())
+        if (revalidator ne null)
+            revalidateFlows()
         connTrackStateTable.expireIdleEntries((), invalidateExpiredConnTrackKeys)
         natStateTable.expireIdleEntries((), invalidateExpiredNatKeys)
         natLeaser.obliterateUnusedBlocks()
@@ -435,12 +476,14 @@ class PacketWorkflow(
         }
     }
 
-    private def checkProcessedContexts(): Unit =
-        while (processingRoom.peek() != null &&
-                   processingRoom.peek().isProcessed) {
+    private def checkProcessedContexts(): Unit = {
+        var context = processedContexts.poll()
+        while (context ne null) {
             metrics.contextsBeingProcessed.dec()
-            returnContext(processingRoom.remove())
+            returnContext(context)
+            context = processedContexts.poll()
         }
+    }
 
     /**
      * Deal with an incomplete workflow that could not complete because it found
@@ -522,12 +565,12 @@ class PacketWorkflow(
     }
 
     private def handoff(context: PacketContext): Unit = {
+        metrics.contextsBeingProcessed.inc()
+        context.handBackTo(contextOwner)
         val seq = dpChannel.handoff(context)
         if (context.flow ne null) {
             context.flow.assignSequence(seq)
         }
-        metrics.contextsBeingProcessed.inc()
-        processingRoom.offerLast(context)
     }
 
     /**
@@ -618,6 +661,7 @@ class PacketWorkflow(
                 cbRegistry.runAndClear(context.flowRemovedCallbacks)
                 UserspaceFlow
             } else {
+                context.flowExpiration = expiration
                 val flow = if (context.isRecirc) {
                     flowController.addRecircFlow(context.origMatch,
                                                  context.recircMatch,
@@ -660,7 +704,14 @@ class PacketWorkflow(
             if (result ne null) {
                 processSimulationResult(context, result)
             } else {
-                processSimulationResult(context, simulatePacketIn(context))
+                val result = if (decisionCache ne null) {
+                    handleWithDecisionCache(context)
+                } else {
+                    processSimulationResult(context, simulatePacketIn(context))
+                }
+                if (revalidator ne null)
+                    revalidator.track(context, result)
+                result
             }
         } else {
             val result = handleMetadataEgress(context)
@@ -673,6 +724,99 @@ class PacketWorkflow(
         }
     }
 
+    /**
+     * Replays the cached decision for the packet, if any, or simulates the
+     * packet and caches its outcome.
+     */
+    private def handleWithDecisionCache(context: PacketContext)
+    : SimulationResult = {
+        val decision = decisionCache.get(context)
+        if (decision ne null) {
+            context.log.debug(s"Replaying cached $decision")
+            context.origMatch.propagateSeenFieldsFrom(decision.flowMatch)
+            context.flowTags.clear()
+            context.flowTags.addAll(decision.flowTags)
+            context.flowActions.addAll(decision.flowActions)
+            context.packetActions.addAll(decision.packetActions)
+            addTranslatedFlow(context, decision.expiration)
+        } else {
+            val start = clock.tick
+            val result =
+                processSimulationResult(context, simulatePacketIn(context))
+            decisionCache.put(context, result, clock.tick - start)
+            result
+        }
+    }
+
+    /**
+     * Revalidates up to a batch of the flows scheduled for revalidation.
+     */
+    private def revalidateFlows(): Unit = {
+        var count = 0
+        while (count < revalidationBatchSize && revalidator.hasPending) {
+            revalidateFlow(revalidator.poll())
+            count += 1
+        }
+    }
+
+    /**
+     * Simulates again the match of a flow whose tags were invalidated. The
+     * flow remains in the datapath with the tags of the new simulation if
+     * its outcome did not change, and it is removed otherwise. The new
+     * simulation does not create flows, nor apply any state, and the flow
+     * removal callbacks it registered are run immediately since the flow
+     * keeps those of the simulation that created it.
+     */
+    private def revalidateFlow(flow: RevalidatedFlow): Unit = {
+        val packet = new Packet(null: Ethernet, flow.flowMatch, 0)
+        val context = initialize(cookieGen.next, packet, flow.flowMatch,
+                                 null, null)
+        val unchanged = try {
+            MDC.put("cookie", context.cookieStr)
+            resimulate(context) && flow.unchangedBy(context)
+        } catch {
+            case NonFatal(e) =>
+                context.log.debug(s"Failed to revalidate $flow", e)
+                false
+        } finally {
+            flushTransactions()
+            MDC.remove("cookie")
+            FlowTracingContext.clearContext()
+        }
+
+        metrics.flowsRevalidated.mark()
+        if (!unchanged) {
+            context.log.debug(s"Removing changed $flow")
+            flowController.removeFlow(flow.id)
+            metrics.flowsRevalidatedChanged.mark()
+        } else if (flowController.restoreFlowTags(flow.id, context.flowTags)) {
+            context.log.debug(s"Keeping unchanged $flow")
+            revalidator.keep(flow)
+            metrics.flowsRevalidatedKept.mark()
+        }
+        cbRegistry.runAndClear(context.flowRemovedCallbacks)
+        returnContext(context)
+    }
+
+    private def resimulate(context: PacketContext): Boolean = {
+        context.prepareForSimulation()
+        val inPortNo = context.origMatch.getInputPortNumber
+        context.flowTags.add(tagForDpPort(inPortNo))
+        if (!resolveVport(context, inPortNo))
+            return false
+
+        simulatePacketIn(context) match {
+            case AddVirtualWildcardFlow => translateActions(context)
+            case Drop =>
+            case _ => return false
+        }
+        context.origMatch.propagateSeenFieldsFrom(context.wcmatch)
+        !context.origMatch.userspaceFieldsSeen &&
+        !context.isRecirc &&
+        !context.accessedFlowState &&
+        !context.hasGeneratedPackets
+    }
+
     private def resolveVport(context: PacketContext, inPortNo: Int): Boolean = {
         val inPortId = dpState getVportForDpPortNumber inPortNo
         context.inputPort = inPortId
@@ -742,12 +886,14 @@ class PacketWorkflow(
         }
     }
 
-    protected def simulatePacketIn(context: PacketContext): SimulationResult =
+    protected def simulatePacketIn(context: PacketContext): SimulationResult = {
+        vt.metrics.simulationStarted()
         if (handleDHCP(context)) {
             NoOp
         } else {
             Simulator.simulate(context)
         }
+    }
 
     protected def handleStateMessage(packet: Packet): Unit = {
         log.debug("Accepting a state push message")
@@ -82,10 +82,21 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
 
     def dhcpMtu = Math.min(getInt(s"$PREFIX.midolman.dhcp_mtu"), 0xffff)
     def simulationThreads = getInt(s"$PREFIX.midolman.simulation_threads")
+    def topologyThreads = getInt(s"$PREFIX.midolman.topology_threads")
+    def natBlockPrefetchWatermark = getDouble(s"$PREFIX.midolman.nat_block_prefetch_watermark")
     def offHeapTables = getBoolean(s"$PREFIX.midolman.off_heap_tables")
+    def offHeapStateTables = getString(s"$PREFIX.midolman.off_heap_state_tables")
+    def offHeapStateTableCapacity = getInt(s"$PREFIX.midolman.off_heap_state_table_capacity")
     def reclaimDatapath = getBoolean(s"$PREFIX.midolman.reclaim_datapath")
     def flowExpirationRate = getInt(s"$PREFIX.midolman.flow_expiration_rate_per_second")
+    def flowExpirationBatchSize = getInt(s"$PREFIX.midolman.flow_expiration_batch_size")
+    def flushReclaimedFlows = getBoolean(s"$PREFIX.midolman.flush_reclaimed_flows")
     def maxPooledContexts = getInt(s"$PREFIX.midolman.max_pooled_contexts")
+    def decisionCacheSize = getInt(s"$PREFIX.midolman.decision_cache_size")
+    def decisionCacheExpiration = getDuration(s"$PREFIX.midolman.decision_cache_expiration", TimeUnit.NANOSECONDS)
+    def flowRevalidation = getBoolean(s"$PREFIX.midolman.flow_revalidation")
+    def flowRevalidationBatchSize =
+        getInt(s"$PREFIX.midolman.flow_revalidation_batch_size")
     def outputChannels = getInt(s"$PREFIX.midolman.output_channels")
     def inputChannelThreading = getString(s"$PREFIX.midolman.input_channel_threading")
     def datapathName = Try(getString(s"$PREFIX.midolman.datapath")).getOrElse("midonet")
@@ -135,21 +146,29 @@ class InitialStorageCacheConfig(val conf: Config, val schema: Config)
     def ttlMs = getInt(s"$PREFIX.ttl_ms")
     def snapshotRetries = getInt(s"$PREFIX.snapshot_retries")
     def snapshotTimeoutMs = getInt(s"$PREFIX.snapshot_timeout_ms")
+    def snapshotFile = getString(s"$PREFIX.snapshot_file")
+    def hostSnapshot = getBoolean(s"$PREFIX.host_snapshot")
 }
 
 class HostConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def waitTimeForUniqueId: Long = Try(getDuration("agent.host.wait_time_gen_id", TimeUnit.MILLISECONDS)).getOrElse(1000L)
     def retriesForUniqueId = Try(getInt("agent.host.retries_gen_id")).getOrElse(300)
+    def interfacesUpdateWindow: Long = Try(getDuration("agent.host.interfaces_update_window", TimeUnit.MILLISECONDS)).getOrElse(500L)
 }
 
 class BridgeConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def macPortMappingExpiry = conf.getDuration("agent.bridge.mac_port_mapping_expire", TimeUnit.MILLISECONDS).toInt
+    def lazyStateTables = conf.getBoolean("agent.bridge.lazy_state_tables")
+    def lazyStateTableCacheSize = conf.getInt("agent.bridge.lazy_state_table_cache_size")
+    def lazyStateTableExpiry = conf.getDuration("agent.bridge.lazy_state_table_expire", TimeUnit.MILLISECONDS) millis
+    def lazyStateTableSnapshotInterval = conf.getDuration("agent.bridge.lazy_state_table_snapshot_interval", TimeUnit.MILLISECONDS) millis
 }
 
 class RouterConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     val PREFIX = "agent.router"
     def maxBgpPeerRoutes = conf.getInt(s"$PREFIX.max_bgp_peer_routes")
     def bgpZookeeperHoldtime = conf.getDuration(s"$PREFIX.bgp_zookeeper_holdtime", TimeUnit.SECONDS)
+    def routesCoalescingWindow = conf.getDuration(s"$PREFIX.routes_coalescing_window", TimeUnit.MILLISECONDS)
 }
 
 class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -161,6 +180,13 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
 
     def maxFlowCount = getInt(s"$PREFIX.max_flow_count")
 
+    def batchFlowCreates = getBoolean(s"$PREFIX.batch_flow_creates")
+
+    def flowStats = getBoolean(s"$PREFIX.flow_stats")
+    def flowStatsRate = getInt(s"$PREFIX.flow_stats_rate")
+    def flowIdleTimeout =
+        getDuration(s"$PREFIX.flow_idle_timeout", TimeUnit.MILLISECONDS)
+
     def vxlanVtepUdpPort = getInt(s"$PREFIX.vxlan_vtep_udp_port")
     def vxlanOverlayUdpPort = getInt(s"$PREFIX.vxlan_overlay_udp_port")
     def vxlanRecirculateUdpPort = getInt(s"$PREFIX.vxlan_recirculate_udp_port")
@@ -298,6 +324,14 @@ class FlowStateConfig(val conf: Config, val schema: Config)
     def logDirectory: String = getString(s"$prefix.log_directory")
     def legacyPushState: Boolean = getBoolean(s"$prefix.legacy_push_state")
     def localPushState: Boolean = getBoolean(s"$prefix.local_push_state")
+    def batchMessages: Boolean = getBoolean(s"$prefix.batch_messages")
+    def segmentedLog: Boolean = getBoolean(s"$prefix.segmented_log")
+    def segmentSize: Int =
+        Math.min(Math.max(getInt(s"$prefix.segment_size"), 1 << 20), 1 << 30)
+    def segmentCount: Int =
+        Math.min(Math.max(getInt(s"$prefix.segment_count"), 2), 256)
+    def commitInterval: Duration = getDuration(s"$prefix.commit_interval",
+                                               TimeUnit.MILLISECONDS) millis
     def connectionTimeout: Int = getDuration(s"$prefix.connection_timeout",
                                         TimeUnit.MILLISECONDS).toInt
 }
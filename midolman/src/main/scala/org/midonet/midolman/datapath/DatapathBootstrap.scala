@@ -79,11 +79,19 @@ object DatapathBootstrap extends MidolmanLogging {
         val dpConn = conn.getConnection
         val ops = new OvsConnectionOps(dpConn)
         val flowList = new NativeFlowMatchList()
-        val flowMatchExtractor = new FlowMatchExtractor(flowList)
-        val flowListFuture = ops.iterFlows(datapath, flowMatchExtractor)
         try {
-            val numFlows = Await.result(flowListFuture, 10 seconds)
-            log.debug(s"$numFlows flows retrieved and stored successfully.")
+            if (config.flushReclaimedFlows) {
+                // The agent has not installed any flow yet: all the flows in
+                // the datapath are leftovers, and a single request removes
+                // them without recovering them.
+                Await.result(ops.flushFlows(datapath), 10 seconds)
+                log.info(s"Flushed all flows from the datapath ${datapath.getName}")
+            } else {
+                val flowMatchExtractor = new FlowMatchExtractor(flowList)
+                val flowListFuture = ops.iterFlows(datapath, flowMatchExtractor)
+                val numFlows = Await.result(flowListFuture, 10 seconds)
+                log.debug(s"$numFlows flows retrieved and stored successfully.")
+            }
         } catch {
             case NonFatal(e) =>
                 log.warn(s"Failed to retrieve existing flows from datapath, " +
@@ -15,12 +15,14 @@
  */
 package org.midonet.midolman.datapath
 
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{TimeUnit, TimeoutException}
 import java.util.concurrent.locks.LockSupport
 
+import org.midonet.ErrorCode
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.flows.NativeFlowMatchList
 import org.midonet.netlink._
+import org.midonet.netlink.exceptions.NetlinkException
 import org.midonet.odp._
 import org.midonet.util.logging.Logger
 
@@ -29,66 +31,191 @@ import scala.util.control.NonFatal
 
 object FlowExpirator {
     private final val log = Logger(getClass)
+
+    // Maximum number of deletions waiting for their acknowledgement. The
+    // acknowledgements are small, and they fit in the receive buffer of the
+    // netlink channel.
+    private final val MaxPendingDeletions = 1024
+    private final val MessageCapacity = 2048
+    private final val ProgressInterval = TimeUnit.SECONDS.toNanos(10)
 }
 
+/**
+ * Deletes the flows reclaimed from the datapath. The deletions are packed in
+ * batches written with a single netlink send, and the kernel acknowledges
+ * them asynchronously while the following batches are written. The rate limit
+ * applies to the number of deleted flows rather than to the number of sends,
+ * and the progress is logged periodically.
+ */
 class FlowExpirator(val flows: NativeFlowMatchList, config: MidolmanConfig,
                     datapath: Datapath, families: OvsNetlinkFamilies,
                     channelFactory: NetlinkChannelFactory) {
 
-    import FlowExpirator.log
+    import FlowExpirator._
 
     private val channel = channelFactory.create()
     private val protocol = new OvsProtocol(channel.getLocalAddress.getPid,
         families)
-    private val buf = BytesUtil.instance.allocateDirect(2048)
+    private val buf = BytesUtil.instance.allocateDirect(MessageCapacity)
     private val writer = new NetlinkBlockingWriter(channel)
+    // The timeout reader sets the channel in non-blocking mode, such that the
+    // plain reader returns immediately when there are no acknowledgements.
     private val reader = new NetlinkTimeoutReader(channel, 10 seconds)
+    private val nonBlockingReader = new NetlinkReader(channel)
+    private val readBuf =
+        BytesUtil.instance.allocateDirect(NetlinkUtil.NETLINK_READ_BUF_SIZE)
 
     private val flowsPerSecond = config.flowExpirationRate
-    // Time to spend in nanos between each deletion
+    private val batchSize = Math.max(1, Math.min(
+        config.flowExpirationBatchSize, MaxPendingDeletions))
+    private val batchBuf =
+        BytesUtil.instance.allocateDirect(batchSize * MessageCapacity)
+    // Time to spend in nanos for each deletion
     private val nanosPerDeletion = TimeUnit.SECONDS.toNanos(1) / flowsPerSecond
 
+    private var seq = 0
+    private var pendingDeletions = 0
+    private var deletedFlows = 0
+    private var failedDeletions = 0
+
     def expireAllFlows(): Unit = {
         val init = System.nanoTime()
         val numFlows = flows.size()
         try {
             log.info(s"Deleting $numFlows flows from $datapath at " +
-                     s"$flowsPerSecond flows per second")
-            var lastDeletion = init
+                     s"$flowsPerSecond flows per second, $batchSize flows " +
+                     "per netlink send")
+            var nextBatch = init
+            var nextProgress = init + ProgressInterval
 
             while (flows.size > 0) {
                 @inline
-                def nanosSinceLast = System.nanoTime() - lastDeletion
+                def nanosToNextBatch = nextBatch - System.nanoTime()
 
-                while (nanosSinceLast < nanosPerDeletion) {
-                    // If not enough time has passed since the last deletion
+                while (nanosToNextBatch > 0) {
+                    // If not enough time has passed since the last batch
                     // to maintain the rate limit, then we wait for that
                     // difference before deleting again
-                    LockSupport.parkNanos(nanosPerDeletion - nanosSinceLast)
+                    LockSupport.parkNanos(nanosToNextBatch)
                 }
 
-                lastDeletion = System.nanoTime()
-                deleteNextFlow()
+                val batch = Math.min(batchSize, flows.size)
+                while (pendingDeletions + batch > MaxPendingDeletions) {
+                    awaitAcks()
+                }
+                nextBatch = System.nanoTime() + batch * nanosPerDeletion
+                deleteNextFlows(batch)
+                readAcks()
+
+                if (nextBatch >= nextProgress) {
+                    log.info(s"Deleted ${numFlows - flows.size} of $numFlows " +
+                             s"flows from $datapath")
+                    nextProgress = nextBatch + ProgressInterval
+                }
+            }
+            while (pendingDeletions > 0) {
+                awaitAcks()
             }
         } finally {
             val elapsed = (System.nanoTime() - init) / 1000000
             channel.close()
             flows.delete()
-            log.info(s"Finished deleting flows from $datapath in $elapsed ms.")
+            log.info(s"Finished deleting flows from $datapath in $elapsed ms: " +
+                     s"$deletedFlows deleted and $failedDeletions failed")
         }
     }
 
-    private def deleteNextFlow(): Unit = {
-        val keys = flows.popFlowMatch().getKeys
+    /**
+     * Writes the deletions of the next flows with a single netlink send. Each
+     * deletion requests an acknowledgement instead of an echo of the deleted
+     * flow.
+     */
+    private def deleteNextFlows(count: Int): Unit = {
+        var batched = 0
+        var index = 0
+        while (index < count) {
+            val keys = flows.popFlowMatch().getKeys
+            try {
+                protocol.prepareFlowDelete(datapath.getIndex, keys, buf,
+                                           NLFlag.ACK)
+                seq += 1
+                buf.putInt(NetlinkMessage.NLMSG_SEQ_OFFSET, seq)
+                // Netlink messages within a send must be aligned to 4 bytes.
+                val end = batchBuf.position() + ((buf.remaining() + 3) & ~3)
+                batchBuf.put(buf)
+                while (batchBuf.position() < end) {
+                    batchBuf.put(0.toByte)
+                }
+                batched += 1
+            } catch {
+                case NonFatal(e) =>
+                    failedDeletions += 1
+                    log.warn("Error deleting flow from OVS", e)
+            } finally {
+                buf.clear()
+            }
+            index += 1
+        }
+        batchBuf.flip()
         try {
-            protocol.prepareFlowDelete(datapath.getIndex, keys, buf)
-            val flow = NetlinkUtil.rpc(buf, writer, reader, Flow.buildFrom)
-            log.debug(s"Deleted flow $flow")
+            writer.write(batchBuf)
+            pendingDeletions += batched
         } catch {
             case NonFatal(e) =>
-                log.warn("Error deleting flow from OVS", e)
+                failedDeletions += batched
+                log.warn(s"Error deleting $batched flows from OVS", e)
+        } finally {
+            batchBuf.clear()
+        }
+    }
+
+    /**
+     * Reads the acknowledgements already received, without blocking.
+     */
+    private def readAcks(): Unit = {
+        while (pendingDeletions > 0 && readAck(nonBlockingReader)) { }
+    }
+
+    /**
+     * Waits for an acknowledgement, and then reads those already received.
+     * If no acknowledgement arrives before the read timeout, the pending
+     * deletions are considered failed.
+     */
+    private def awaitAcks(): Unit = {
+        try {
+            readAck(reader)
+            readAcks()
+        } catch {
+            case e: TimeoutException =>
+                log.warn("Timeout waiting for the acknowledgement of " +
+                         s"$pendingDeletions flow deletions")
+                failedDeletions += pendingDeletions
+                pendingDeletions = 0
+        }
+    }
+
+    private def readAck(from: NetlinkReader): Boolean = {
+        try {
+            if (from.read(readBuf) > 0) {
+                pendingDeletions -= 1
+                deletedFlows += 1
+                true
+            } else {
+                false
+            }
+        } catch {
+            case ne: NetlinkException =>
+                pendingDeletions -= 1
+                if (ne.getErrorCodeEnum == ErrorCode.ENOENT) {
+                    // The flow expired in the meantime.
+                    deletedFlows += 1
+                } else {
+                    failedDeletions += 1
+                    log.warn(s"Error deleting flow ${ne.seq} from OVS", ne)
+                }
+                true
         } finally {
-            buf.clear()
+            readBuf.clear()
         }
     }
 }
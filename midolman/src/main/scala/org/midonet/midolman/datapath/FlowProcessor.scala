@@ -20,6 +20,7 @@ import java.nio.channels._
 import java.nio.channels.spi.SelectorProvider
 import java.nio.{BufferOverflowException, ByteBuffer}
 import java.util.ArrayList
+import java.util.concurrent.TimeUnit
 
 import scala.util.control.NonFatal
 
@@ -56,6 +57,13 @@ object FlowProcessor {
 
     private val MAX_BUF_CAPACITY = 4 * 1024 * 1024
 
+    /**
+     * The maximum size of a single netlink send when flow creations are
+     * batched. Flows that don't fit in the current batch cause it to be
+     * flushed.
+     */
+    private val MAX_BATCH_CAPACITY = 256 * 1024
+
     /**
       * A flow back-channel message.
       */
@@ -79,7 +87,8 @@ class FlowProcessor(dpState: DatapathState,
                     selectorProvider: SelectorProvider,
                     backChannel: SimulationBackChannel,
                     datapathMetrics: DatapathMetrics,
-                    clock: NanoClock)
+                    clock: NanoClock,
+                    batchFlowCreates: Boolean = false)
     extends EventPoller.Handler[PacketContextHolder]
     with DisruptorBackChannel
     with LifecycleAware {
@@ -122,6 +131,19 @@ class FlowProcessor(dpState: DatapathState,
 
     private var lastSequence = Sequencer.INITIAL_CURSOR_VALUE
 
+    /**
+     * When batching flow creations, flow create messages are appended to this
+     * buffer and written to the kernel in a single netlink send at the end of
+     * a Disruptor batch. Each message keeps its own sequence number (the flow
+     * mark), so errors reported by the kernel still map to the right flow.
+     */
+    private val batchBuf =
+        if (batchFlowCreates) BytesUtil.instance.allocateDirect(MAX_BATCH_CAPACITY)
+        else null
+    private var batchedFlows = 0
+    private var batchedSequence = Sequencer.INITIAL_CURSOR_VALUE
+    private var batchStartTime = 0L
+
     override def onEvent(event: PacketContextHolder, sequence: Long,
                          endOfBatch: Boolean): Boolean = {
         val context = event.flowCreateRef
@@ -148,12 +170,66 @@ class FlowProcessor(dpState: DatapathState,
             // Note: user -> kernel netlink communication is synchronous.
             // At this point, our createFlow requests above has been
             // processed by the kernel and it's safe to update lastSequence.
-            lastSequence = sequence
+            // When batching, this only happens once the batch is flushed.
+            if (batchFlowCreates)
+                batchedSequence = sequence
+            else
+                lastSequence = sequence
         }
         context.setFlowProcessed()
+        if (batchFlowCreates && endOfBatch) {
+            flushBatch()
+        }
         true
     }
 
+    /**
+     * Writes all the flow create messages accumulated in the current batch
+     * with a single netlink send, and publishes the sequence of the last
+     * batched packet context so that the corresponding flows can be ejected.
+     */
+    private def flushBatch(): Unit = {
+        if (batchedFlows > 0) {
+            batchBuf.flip()
+            try {
+                writer.write(batchBuf)
+            } catch { case NonFatal(e) =>
+                log.error(s"Failed to write a batch of $batchedFlows " +
+                          "datapath flows", e)
+            } finally {
+                batchBuf.clear()
+            }
+            datapathMetrics.flowCreateBatchSize.update(batchedFlows)
+            datapathMetrics.flowCreateLatency.update(
+                clock.tick - batchStartTime, TimeUnit.NANOSECONDS)
+            log.debug(s"Wrote batch of $batchedFlows datapath flows")
+            batchedFlows = 0
+        }
+        lastSequence = batchedSequence
+    }
+
+    private def appendToBatch(buf: ByteBuffer): Unit = {
+        // Netlink messages within a send must be aligned to 4 bytes.
+        val aligned = (buf.remaining() + 3) & ~3
+        if (aligned > batchBuf.remaining()) {
+            flushBatch()
+        }
+        if (aligned > batchBuf.remaining()) {
+            // A single flow larger than the batch buffer: write it directly.
+            writer.write(buf)
+            return
+        }
+        if (batchedFlows == 0) {
+            batchStartTime = clock.tick
+        }
+        val end = batchBuf.position() + aligned
+        batchBuf.put(buf)
+        while (batchBuf.position() < end) {
+            batchBuf.put(0.toByte)
+        }
+        batchedFlows += 1
+    }
+
     private def createFlow(flowMatch: FlowMatch, actions: ArrayList[FlowAction],
                            context: PacketContext, index: Int): Unit = {
         val mask = if (supportsMegaflow) {
@@ -176,7 +252,10 @@ class FlowProcessor(dpState: DatapathState,
             createProtocol.prepareFlowCreate(
                 datapathId, keys, actions, mask, writeBuf)
             writeBuf.putInt(NetlinkMessage.NLMSG_SEQ_OFFSET, index)
-            writer.write(writeBuf)
+            if (batchFlowCreates)
+                appendToBatch(writeBuf)
+            else
+                writer.write(writeBuf)
             writeBuf.rewind()
             sixwind.processFlow(writeBuf, writeBuf.limit())
         } catch { case e: BufferOverflowException =>
@@ -35,7 +35,7 @@ import org.midonet.midolman.monitoring.metrics.PacketExecutorMetrics
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.netlink._
 import org.midonet.odp._
-import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.flows.{FlowAction, FlowKeyEncap, FlowKeyTCP, FlowKeyTCPFlags}
 import org.midonet.packets._
 import org.midonet.util.concurrent.NanoClock
 
@@ -71,8 +71,8 @@ object PacketExecutor {
     private[datapath] def clampMss(ctx: PacketContext, log: Logger): Unit = {
         // Don't do MSS clamping on packet tunneled here from another Midolman
         // node, since the other node already did it if needed.
-        if (ctx.inputPort != null) {
-            try clampMss(ctx.packet.getEthernet, 0, log) catch {
+        if (ctx.inputPort != null && mayBeTcpSyn(ctx)) {
+            try clampMss(ctx.packet, ctx.packet.getEthernet, 0, log) catch {
                 case ex: ArrayIndexOutOfBoundsException =>
                     log.debug(
                         "Could not parse TCP options for packet " + ctx.packet)
@@ -80,9 +80,34 @@ object PacketExecutor {
         }
     }
 
+    /**
+      * Checks the flow keys to avoid deserializing the packet when it cannot
+      * be a TCP SYN. The packet must be checked if it is already deserialized,
+      * since its headers may differ from the flow keys.
+      */
+    private def mayBeTcpSyn(ctx: PacketContext): Boolean = {
+        if (ctx.packet.hasEthernet) {
+            return true
+        }
+        var tcp = false
+        val keys = ctx.origMatch.getKeys
+        var i = 0
+        while (i < keys.size) {
+            keys.get(i) match {
+                case flags: FlowKeyTCPFlags =>
+                    return flags.getFlag(TCP.Flag.Syn)
+                case _: FlowKeyTCP => tcp = true
+                case _: FlowKeyEncap => return true
+                case _ =>
+            }
+            i += 1
+        }
+        tcp
+    }
+
     @tailrec
-    private def clampMss(pkt: IPacket, wrapperSize: Int, log: Logger)
-    : Unit = pkt match {
+    private def clampMss(packet: Packet, pkt: IPacket, wrapperSize: Int,
+                         log: Logger): Unit = pkt match {
         case t: TCP if t.getFlag(TCP.Flag.Syn) && (t.getOptions ne null) =>
             var i = 0
             val opts = t.getOptions
@@ -113,6 +138,7 @@ object PacketExecutor {
                         opts(i) = (newMss >> 8).toByte
                         opts(i + 1) = newMss.toByte
                         clearChecksums(t)
+                        packet.markModified()
                     }
                     return
                 } else {
@@ -133,7 +159,7 @@ object PacketExecutor {
         case _ =>
             if (pkt.getPayload != null) {
                 val headerLen = pkt.length - pkt.getPayload.length
-                clampMss(pkt.getPayload, wrapperSize + headerLen, log)
+                clampMss(packet, pkt.getPayload, wrapperSize + headerLen, log)
             }
     }
 
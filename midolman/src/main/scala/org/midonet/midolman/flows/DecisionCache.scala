@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.{ArrayList, Collections, HashMap, IdentityHashMap, LinkedHashMap, Map => JMap, Set => JSet}
+
+import org.midonet.midolman.PacketWorkflow.{FlowCreated, SimulationResult}
+import org.midonet.midolman.flows.FlowExpirationIndexer.{Expiration, FLOW_EXPIRATION}
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.odp.flows.FlowAction
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+import org.midonet.util.concurrent.NanoClock
+
+object DecisionCache {
+
+    private val fields = Field.values()
+
+    /**
+     * A flow match restricted to the fields seen by a simulation. Two masked
+     * matches are equal when they use the same fields and all seen fields
+     * have the same value.
+     */
+    private[flows] final class MaskedMatch(var fmatch: FlowMatch, var mask: Long) {
+
+        override def hashCode: Int = {
+            var result = java.lang.Long.hashCode(fmatch.getUsedFields)
+            var fields = mask
+            while (fields != 0) {
+                val ordinal = java.lang.Long.numberOfTrailingZeros(fields)
+                result = 31 * result +
+                         DecisionCache.fields(ordinal).hashCode(fmatch)
+                fields &= fields - 1
+            }
+            result
+        }
+
+        override def equals(obj: Any): Boolean = obj match {
+            case that: MaskedMatch =>
+                if ((mask != that.mask) ||
+                    (fmatch.getUsedFields != that.fmatch.getUsedFields)) {
+                    return false
+                }
+                var fields = mask
+                while (fields != 0) {
+                    val ordinal = java.lang.Long.numberOfTrailingZeros(fields)
+                    if (!DecisionCache.fields(ordinal).equals(fmatch,
+                                                              that.fmatch)) {
+                        return false
+                    }
+                    fields &= fields - 1
+                }
+                true
+            case _ => false
+        }
+    }
+
+    /**
+     * The outcome of a simulation: the flow and packet actions, the flow tags
+     * and the expiration of the flow, together with the time it took to
+     * simulate the packet. The decision expires at `expiresAt`, which is
+     * independent of the flow expiration.
+     */
+    final class Decision private[flows](
+            private[flows] val key: MaskedMatch,
+            val flowActions: ArrayList[FlowAction],
+            val packetActions: ArrayList[FlowAction],
+            val flowTags: ArrayList[FlowTag],
+            val expiration: Expiration,
+            val expiresAt: Long,
+            val simulationTime: Long) {
+
+        def flowMatch: FlowMatch = key.fmatch
+
+        override def toString =
+            s"Decision [match=${key.fmatch} actions=$flowActions " +
+            s"tags=$flowTags]"
+    }
+}
+
+/**
+ * A per-worker cache of simulation outcomes. When the datapath misses a flow
+ * whose decision was simulated before, for instance after the flow expired or
+ * was evicted, the packet workflow replays the cached decision instead of
+ * simulating the packet again.
+ *
+ * Like the datapath flows, decisions are keyed by the fields of the packet
+ * match seen during the simulation, and a lookup tries each distinct set of
+ * seen fields. Decisions are removed with the flow tags used to invalidate
+ * the datapath flows, when the cache expiration passes, or when the cache is
+ * full, in least recently used order. The cache expiration is independent of
+ * the flow expiration, such that a decision outlives the flows installed from
+ * it.
+ *
+ * Only the outcome of stateless simulations is cached: simulations that
+ * looked up or modified connection tracking, NAT or trace state, registered
+ * flow removal callbacks, generated packets or needed recirculation are
+ * always simulated.
+ */
+class DecisionCache(capacity: Int, expiration: Long, clock: NanoClock,
+                    metrics: PacketPipelineMetrics)
+    extends MidolmanLogging {
+
+    import DecisionCache._
+
+    override def logSource = "org.midonet.packet-worker.decision-cache"
+
+    private val decisions = new LinkedHashMap[MaskedMatch, Decision](
+            capacity, 0.75f, true) {
+        override def removeEldestEntry(
+                eldest: JMap.Entry[MaskedMatch, Decision]): Boolean = {
+            if (size > capacity) {
+                unindex(eldest.getValue)
+            }
+            size > capacity
+        }
+    }
+    private val tagToDecisions = new HashMap[FlowTag, JSet[Decision]]()
+    private val masks = new HashMap[java.lang.Long, Integer]()
+    private var maskArray = Array.emptyLongArray
+    private val probe = new MaskedMatch(null, 0L)
+
+    def size: Int = decisions.size
+
+    /**
+     * Returns the cached decision for the given packet context, or `null` if
+     * there is none.
+     */
+    def get(context: PacketContext): Decision = {
+        val fmatch = context.origMatch
+        probe.fmatch = fmatch
+        var i = 0
+        var decision: Decision = null
+        while ((decision eq null) && (i < maskArray.length)) {
+            probe.mask = maskArray(i)
+            decision = decisions.get(probe)
+            i += 1
+        }
+        probe.fmatch = null
+
+        if ((decision ne null) && (decision.expiresAt < clock.tick)) {
+            remove(decision)
+            decision = null
+        }
+        if (decision eq null) {
+            metrics.decisionCacheMisses.mark()
+        } else {
+            metrics.decisionCacheHits.mark()
+            metrics.decisionCacheSavedTime.inc(decision.simulationTime)
+        }
+        decision
+    }
+
+    /**
+     * Caches the outcome of a simulated packet, if it only depends on the
+     * seen fields of the packet match and the virtual topology.
+     */
+    def put(context: PacketContext, result: SimulationResult,
+            simulationTime: Long): Unit = {
+        if ((result ne FlowCreated) ||
+            (context.flowExpiration ne FLOW_EXPIRATION) ||
+            context.isRecirc ||
+            context.accessedFlowState ||
+            context.hasGeneratedPackets ||
+            !context.flowRemovedCallbacks.isEmpty) {
+            return
+        }
+
+        val fmatch = new FlowMatch()
+        fmatch.reset(context.origMatch)
+        val mask = fmatch.getSeenFields & fmatch.getUsedFields
+        val key = new MaskedMatch(fmatch, mask)
+        val decision = new Decision(
+            key, new ArrayList(context.flowActions),
+            new ArrayList(context.packetActions),
+            new ArrayList(context.flowTags), context.flowExpiration,
+            clock.tick + expiration, simulationTime)
+
+        val previous = decisions.put(key, decision)
+        if (previous ne null) {
+            unindex(previous)
+        }
+        index(decision)
+        log.debug(s"Cached $decision")
+    }
+
+    /**
+     * Removes the decisions tagged with the given tag.
+     */
+    def invalidate(tag: FlowTag): Unit = {
+        val tagged = tagToDecisions.get(tag)
+        if (tagged ne null) {
+            val iterator = new ArrayList(tagged).iterator()
+            while (iterator.hasNext) {
+                remove(iterator.next())
+            }
+        }
+    }
+
+    private def remove(decision: Decision): Unit = {
+        if (decisions.get(decision.key) eq decision) {
+            decisions.remove(decision.key)
+            unindex(decision)
+        }
+    }
+
+    private def index(decision: Decision): Unit = {
+        val tags = decision.flowTags
+        var i = 0
+        while (i < tags.size) {
+            var tagged = tagToDecisions.get(tags.get(i))
+            if (tagged eq null) {
+                tagged = Collections.newSetFromMap(
+                    new IdentityHashMap[Decision, java.lang.Boolean]())
+                tagToDecisions.put(tags.get(i), tagged)
+            }
+            tagged.add(decision)
+            i += 1
+        }
+
+        val count = masks.get(decision.key.mask)
+        if (count eq null) {
+            masks.put(decision.key.mask, 1)
+            maskArray = maskArray :+ decision.key.mask
+        } else {
+            masks.put(decision.key.mask, count + 1)
+        }
+    }
+
+    private def unindex(decision: Decision): Unit = {
+        val tags = decision.flowTags
+        var i = 0
+        while (i < tags.size) {
+            val tagged = tagToDecisions.get(tags.get(i))
+            if (tagged ne null) {
+                tagged.remove(decision)
+                if (tagged.isEmpty) {
+                    tagToDecisions.remove(tags.get(i))
+                }
+            }
+            i += 1
+        }
+
+        val count = masks.get(decision.key.mask)
+        if (count == 1) {
+            masks.remove(decision.key.mask)
+            maskArray = maskArray.filter(_ != decision.key.mask)
+        } else {
+            masks.put(decision.key.mask, count - 1)
+        }
+    }
+}
@@ -114,6 +114,19 @@ class FlowExpirationIndexer(preallocation: FlowTablePreallocation)
         }
     }
 
+    /**
+     * Polls the next expired flow of the given expiration type, without
+     * evicting excess flows.
+     */
+    def pollForExpired(now: Long, expirationType: Int): ManagedFlow.FlowId = {
+        val queue = expirationQueues(expirationType)
+        if (!queue.empty() && now >= queue.peekExpiry) {
+            queue.removeId()
+        } else {
+            ManagedFlow.NoFlow
+        }
+    }
+
     private def maybeEvictExcessFlow(): ManagedFlow.FlowId = {
         var excessFlows = 0
         var i = 0
@@ -40,6 +40,10 @@ final class FlowOperation(pool: ObjectPool[FlowOperation],
     var sequence: Long = -1
     var retries: Byte = _
     var failure: Throwable = _
+    // For GET operations, the flow controller identifier of the flow and
+    // whether the statistics were requested when the flow expired.
+    var flowId: Long = ManagedFlow.NoFlow
+    var expired: Boolean = false
 
     def isFailed = failure ne null
 
@@ -64,6 +68,8 @@ final class FlowOperation(pool: ObjectPool[FlowOperation],
     def clear(): Unit = {
         failure = null
         sequence = -1
+        flowId = ManagedFlow.NoFlow
+        expired = false
         flowMatch.clear()
         flowMetadata.clear()
         pool.offer(this)
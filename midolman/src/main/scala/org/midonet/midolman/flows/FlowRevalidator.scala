@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.lang.{Long => JLong}
+import java.util.{ArrayDeque, ArrayList, LinkedHashMap, Map => JMap}
+
+import org.midonet.midolman.PacketWorkflow.{FlowCreated, SimulationResult}
+import org.midonet.midolman.flows.FlowExpirationIndexer.FLOW_EXPIRATION
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowAction
+
+object FlowRevalidator {
+
+    /**
+     * A datapath flow that can be simulated again when its tags are
+     * invalidated: the match of the packet that created the flow, the fields
+     * seen by its simulation and the resulting flow actions.
+     */
+    final class RevalidatedFlow private[flows](
+            val id: Long,
+            val flowMatch: FlowMatch,
+            val seenFields: Long,
+            val flowActions: ArrayList[FlowAction]) {
+
+        /**
+         * Indicates whether the simulation in the given context has the same
+         * outcome as the simulation that created the flow: the same flow
+         * actions, without seeing fields outside the datapath flow mask.
+         */
+        def unchangedBy(context: PacketContext): Boolean = {
+            val fmatch = context.origMatch
+            (fmatch.getSeenFields & fmatch.getUsedFields & ~seenFields) == 0 &&
+            flowActions == context.flowActions
+        }
+
+        override def toString =
+            s"RevalidatedFlow [id=$id match=$flowMatch actions=$flowActions]"
+    }
+}
+
+/**
+ * Tracks the datapath flows of a packet worker that can be revalidated. When
+ * the tags of a tracked flow are invalidated, the flow controller leaves the
+ * flow in the datapath and schedules its revalidation: the packet workflow
+ * simulates the flow match again against the current virtual topology, and
+ * removes the flow only if its actions changed. This avoids that a topology
+ * change invalidating many flows sends all their packets back to userspace
+ * at once.
+ *
+ * Like the decision cache, only the flows whose simulation depends only on
+ * the packet match and the virtual topology are tracked: flows that used
+ * connection tracking, NAT or trace state, generated packets or needed
+ * recirculation are always removed. When more flows than the capacity are
+ * tracked, the oldest ones are forgotten and removed on invalidation.
+ */
+class FlowRevalidator(capacity: Int) extends MidolmanLogging {
+
+    import FlowRevalidator._
+
+    override def logSource = "org.midonet.packet-worker.flow-revalidator"
+
+    private val flows = new LinkedHashMap[JLong, RevalidatedFlow](
+            capacity, 0.75f, false) {
+        override def removeEldestEntry(
+                eldest: JMap.Entry[JLong, RevalidatedFlow]): Boolean =
+            size > capacity
+    }
+    private val pending = new ArrayDeque[RevalidatedFlow]()
+
+    def size: Int = flows.size
+
+    def hasPending: Boolean = !pending.isEmpty
+
+    /**
+     * Tracks the flow created for the given packet context, if its
+     * simulation only depends on the packet match and the virtual topology.
+     */
+    def track(context: PacketContext, result: SimulationResult): Unit = {
+        if ((result ne FlowCreated) ||
+            (context.flow eq null) ||
+            (context.flowExpiration ne FLOW_EXPIRATION) ||
+            context.isRecirc ||
+            context.accessedFlowState ||
+            context.hasGeneratedPackets) {
+            return
+        }
+
+        val fmatch = new FlowMatch()
+        fmatch.reset(context.origMatch)
+        val flow = new RevalidatedFlow(context.flow.id, fmatch,
+                                       fmatch.getSeenFields,
+                                       new ArrayList(context.flowActions))
+        flows.put(flow.id, flow)
+    }
+
+    /**
+     * Schedules the revalidation of the flow with the given identifier,
+     * returning false if the flow is not tracked and must be removed.
+     */
+    def schedule(id: Long): Boolean = {
+        val flow = flows.remove(id)
+        if (flow ne null) {
+            log.debug(s"Scheduling revalidation of $flow")
+            pending.add(flow)
+            true
+        } else {
+            false
+        }
+    }
+
+    /**
+     * Returns the next flow to revalidate, or `null` if there is none.
+     */
+    def poll(): RevalidatedFlow = pending.poll()
+
+    /**
+     * Tracks again a flow kept after its revalidation.
+     */
+    def keep(flow: RevalidatedFlow): Unit = flows.put(flow.id, flow)
+}
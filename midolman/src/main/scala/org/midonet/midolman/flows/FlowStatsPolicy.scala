@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.concurrent.TimeUnit
+
+import org.midonet.midolman.config.DatapathConfig
+import org.midonet.odp.FlowMetadata
+import org.midonet.util.concurrent.NanoClock
+
+object FlowStatsPolicy {
+    private val Second = TimeUnit.SECONDS.toNanos(1)
+}
+
+/**
+ * Decides when a flow controller queries the statistics of its datapath
+ * flows. The requests are limited to a number per second, shared between the
+ * requests issued when flows expire and those of the background scan that
+ * refreshes the meters of the installed flows.
+ *
+ * A flow is idle when the datapath did not match any packet against it
+ * during the idle timeout. The last used time reported by the datapath is
+ * in milliseconds of the monotonic clock of the kernel, which is the clock
+ * of the [[NanoClock]].
+ */
+final class FlowStatsPolicy(config: DatapathConfig, clock: NanoClock) {
+
+    import FlowStatsPolicy._
+
+    val enabled = config.flowStats
+
+    private val rate = config.flowStatsRate
+    private val idleTimeoutMillis = config.flowIdleTimeout
+
+    private var windowStart = clock.tick - Second
+    private var available = 0
+
+    /**
+     * Takes a permit to send a flow statistics request, returning false if
+     * the maximum number of requests for the current second was reached.
+     */
+    def tryAcquire(): Boolean = {
+        if (available == 0) {
+            val now = clock.tick
+            if (now - windowStart < Second) {
+                return false
+            }
+            windowStart = now
+            available = rate
+        }
+        if (available > 0) {
+            available -= 1
+            true
+        } else {
+            false
+        }
+    }
+
+    /**
+     * Indicates whether the flow with the given metadata is idle.
+     */
+    def isIdle(metadata: FlowMetadata): Boolean = {
+        val lastUsed = metadata.getLastUsedMillis
+        lastUsed == 0 ||
+        TimeUnit.NANOSECONDS.toMillis(clock.tick) - lastUsed >= idleTimeoutMillis
+    }
+}
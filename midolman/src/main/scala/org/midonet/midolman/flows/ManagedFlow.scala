@@ -32,6 +32,11 @@ object ManagedFlow {
 trait ManagedFlow {
     def flowMatch: FlowMatch
 
+    /* The identifier of the flow in the flow table of its worker. Unlike the
+     * mark, it is not reused by later flows.
+     */
+    def id: Long
+
     /* The mark is an identifier shared by the flow and netlink.
      * The first 4 bits represent the worker id.
      * The next 28 bits represent the index of the flow in the flow table.
@@ -20,16 +20,15 @@ import java.util.ArrayList
 
 import org.midonet.Util
 import org.midonet.insights.Insights
-import org.midonet.odp.FlowMatch
-import org.midonet.odp.FlowMatches
+import org.midonet.odp.{FlowMatch, FlowMatches, FlowMetadata}
 import org.midonet.midolman.CallbackRegistry
 import org.midonet.midolman.CallbackRegistry.CallbackSpec
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.FlowProcessor
-import org.midonet.midolman.{FlowController, FlowControllerDeleterImpl}
+import org.midonet.midolman.{FlowController, FlowControllerDeleterImpl, FlowStatsListener}
 import org.midonet.midolman.PacketWorkersService
 import org.midonet.midolman.flows.{NativeFlowControllerJNI => JNI}
-import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
+import org.midonet.midolman.flows.FlowExpirationIndexer.{Expiration, FLOW_EXPIRATION}
 import org.midonet.midolman.monitoring.MeterRegistry
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.sdn.flows.FlowTagger.FlowTag
@@ -53,20 +52,26 @@ class NativeFlowController(config: MidolmanConfig,
                            metrics: PacketPipelineMetrics,
                            meters: MeterRegistry,
                            cbRegistry: CallbackRegistry,
-                           insights: Insights) extends FlowController {
+                           insights: Insights)
+        extends FlowController with FlowStatsListener {
     NativeFlowController.loadNativeLibrary()
 
     private val numWorkers = PacketWorkersService.numWorkers(config)
+    private val markShift = FlowController.indexShift(numWorkers)
+    private val markMask = FlowController.indexMask(numWorkers)
     private val maxFlows = Math.min(Util.findNextPositivePowerOfTwo(
                                         config.datapath.maxFlowCount / numWorkers),
-                                    FlowController.MaxTableSize)
+                                    FlowController.maxTableSize(numWorkers))
     private val flowTable = JNI.createFlowTable(maxFlows)
     private val indexer = JNI.createFlowTagIndexer()
     private val expirer = JNI.createFlowExpirationIndexer()
     private val deleter = new FlowControllerDeleterImpl(flowProcessor,
                                                         datapathId,
                                                         meters,
-                                                        insights)
+                                                        insights,
+                                                        this)
+    private val statsPolicy = new FlowStatsPolicy(config.datapath, clock)
+    private var statsCursor = 0
 
     override def addFlow(fmatch: FlowMatch, flowTags: ArrayList[FlowTag],
                          removeCallbacks: ArrayList[CallbackSpec],
@@ -119,19 +124,25 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     override def flowExists(mark: Int): Boolean = {
-        val index = mark & FlowController.IndexMask
+        val index = mark & markMask
         val id = JNI.flowTableIdAtIndex(flowTable, index)
         id >= 0
     }
 
-    override def invalidateFlowsFor(tag: FlowTag): Unit = {
+    override def invalidateFlowsFor(tag: FlowTag): Unit =
+        invalidateFlowsFor(tag, null)
+
+    override def invalidateFlowsFor(tag: FlowTag,
+                                    revalidator: FlowRevalidator): Unit = {
         val invalid = JNI.flowTagIndexerInvalidate(indexer, tag.toLongHash)
         try {
             val count = JNI.flowTagIndexerInvalidFlowsCount(invalid)
             var i = 0
             while (i < count) {
                 val id = JNI.flowTagIndexerInvalidFlowsGet(invalid, i)
-                removeFlow(id)
+                if ((revalidator eq null) || !revalidator.schedule(id)) {
+                    removeFlow(id)
+                }
                 i += 1
             }
         } finally {
@@ -139,16 +150,98 @@ class NativeFlowController(config: MidolmanConfig,
         }
     }
 
+    override def restoreFlowTags(id: Long,
+                                 tags: ArrayList[FlowTag]): Boolean = {
+        val flow = flowForId(id)
+        if (flow != null) {
+            flow.addTags(tags)
+            true
+        } else {
+            false
+        }
+    }
+
     override def shouldProcess: Boolean = deleter.shouldProcess()
 
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
         val now = clock.tick
+        if (statsPolicy.enabled) {
+            checkExpiredFlows(now)
+        }
         var flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
         while (flowId != ManagedFlow.NoFlow) {
             removeFlow(flowId)
             flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
         }
+        if (statsPolicy.enabled) {
+            refreshFlowStats()
+        }
+    }
+
+    private def checkExpiredFlows(now: Long): Unit = {
+        var flowId = JNI.flowExpirationIndexerPollForExpiredOfType(
+            expirer, now, FLOW_EXPIRATION.typeId)
+        while (flowId != ManagedFlow.NoFlow) {
+            val flow = flowForId(flowId)
+            if (flow != null) {
+                if (statsPolicy.tryAcquire() &&
+                    deleter.requestFlowStats(flow.id, flow.flowMatch,
+                                             expired = true)) {
+                    metrics.flowStatsRequests.mark()
+                } else {
+                    removeFlow(flowId)
+                }
+            }
+            flowId = JNI.flowExpirationIndexerPollForExpiredOfType(
+                expirer, now, FLOW_EXPIRATION.typeId)
+        }
+    }
+
+    private def refreshFlowStats(): Unit = {
+        var slots = Math.min(maxFlows, FlowController.StatsScanBatch)
+        while (slots > 0) {
+            val id = JNI.flowTableIdAtIndex(flowTable, statsCursor)
+            if (id >= 0) {
+                if (!statsPolicy.tryAcquire()) {
+                    return
+                }
+                val flow = new NativeManagedFlow(id)
+                if (!deleter.requestFlowStats(id, flow.flowMatch,
+                                              expired = false)) {
+                    return
+                }
+                metrics.flowStatsRequests.mark()
+            }
+            statsCursor = (statsCursor + 1) % maxFlows
+            slots -= 1
+        }
+    }
+
+    override def flowStatsReceived(id: Long, expired: Boolean,
+                                   metadata: FlowMetadata): Unit = {
+        val flow = flowForId(id)
+        if (flow == null) {
+            return
+        }
+        meters.updateFlow(flow.flowMatch, metadata.getStats)
+        if (expired) {
+            if (statsPolicy.isIdle(metadata)) {
+                metrics.flowsIdleExpired.mark()
+                removeFlow(id)
+            } else {
+                metrics.flowsExpirationExtended.mark()
+                JNI.flowExpirationIndexerEnqueueFlowExpiration(
+                    expirer, id, clock.tick + FLOW_EXPIRATION.value,
+                    FLOW_EXPIRATION.typeId)
+            }
+        }
+    }
+
+    override def flowStatsFailed(id: Long, expired: Boolean): Unit = {
+        if (expired) {
+            removeFlow(id)
+        }
     }
 
     private def addFlow(flowMatch: FlowMatch, expiration: Expiration)
@@ -159,7 +252,7 @@ class NativeFlowController(config: MidolmanConfig,
         new NativeManagedFlow(id)
     }
 
-    private def removeFlow(id: Long): Unit = {
+    override def removeFlow(id: Long): Unit = {
         val flow = flowForId(id)
         if (flow != null) {
             deleter.removeFlowFromDatapath(flow.flowMatch, flow.sequence)
@@ -174,7 +267,7 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     private def flowForId(id: Long): NativeManagedFlow = {
-        val index = (id & FlowController.IndexMask).toInt
+        val index = (id & markMask).toInt
         val idInTable = JNI.flowTableIdAtIndex(flowTable, index)
         if (idInTable >= 0 && id == idInTable) {
             new NativeManagedFlow(id)
@@ -184,10 +277,10 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     private def flowForMark(mark: Int): NativeManagedFlow = {
-        if (mark >> FlowController.IndexShift != workerId) {
+        if (mark >>> markShift != workerId) {
             return null
         }
-        val index = mark & FlowController.IndexMask
+        val index = mark & markMask
         val id = JNI.flowTableIdAtIndex(flowTable, index)
         if (id >= 0) {
             new NativeManagedFlow(id)
@@ -207,8 +300,8 @@ class NativeFlowController(config: MidolmanConfig,
         override val flowMatch: FlowMatch =
             FlowMatches.fromBytes(JNI.flowTableFlowMatch(flowTable, id))
 
-        override def mark: Int = ((id & FlowController.IndexMask).toInt |
-                                      (workerId << FlowController.IndexShift))
+        override def mark: Int = ((id & markMask).toInt |
+                                      (workerId << markShift))
         override def sequence: Long = JNI.flowTableFlowSequence(flowTable, id)
         override def assignSequence(seq: Long): Unit =
             JNI.flowTableFlowSetSequence(flowTable, id, seq)
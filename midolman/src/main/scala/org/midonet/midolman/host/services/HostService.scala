@@ -17,7 +17,7 @@
 package org.midonet.midolman.host.services
 
 import java.net.{InetAddress, UnknownHostException}
-import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
 import java.util.{UUID, ConcurrentModificationException}
 import javax.annotation.Nullable
@@ -30,7 +30,7 @@ import scala.util.control.NonFatal
 
 import com.google.common.util.concurrent.AbstractService
 import com.google.protobuf.TextFormat
-import rx.{Observer, Subscription}
+import rx.{Observable, Observer, Subscription}
 
 import org.midonet.cluster.backend.zookeeper.StateAccessException
 import org.midonet.cluster.data.ZoomConvert
@@ -40,7 +40,7 @@ import org.midonet.cluster.models.Topology.Host
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend._
 import org.midonet.cluster.storage.MidonetBackendConfig
-import org.midonet.cluster.util.UUIDUtil
+import org.midonet.cluster.util.{HostStateUtil, UUIDUtil}
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.conf.HostIdGenerator.PropertiesFileNotWritableException
 import org.midonet.midolman.Midolman
@@ -51,6 +51,7 @@ import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.serialization.SerializationException
 import org.midonet.packets.MAC
 import org.midonet.util.eventloop.Reactor
+import org.midonet.util.functors.makeRunnable
 import org.midonet.util.reactivex._
 
 object HostService {
@@ -103,6 +104,27 @@ class HostService (config: MidolmanConfig,
     private val interfacesLatch = new CountDownLatch(1)
     @volatile private var currentInterfaces: Set[InterfaceDescription] = null
     @volatile private var oldInterfaces: Set[InterfaceDescription] = null
+    @volatile private var publishedState: State.HostState = null
+    @volatile private var baseState: State.HostState = null
+    @volatile private var baseValue: String = null
+    private val interfacesUpdateScheduled = new AtomicBoolean(false)
+    private val interfacesObserver = new Observer[StateResult] {
+        override def onCompleted(): Unit = { }
+        override def onError(e: Throwable): Unit = {
+            log.error("Failed to update network interfaces for host {}",
+                      hostId, e)
+            // Rewrite the full state, since the readers may have missed the
+            // base of the following deltas.
+            reactor.submit(makeRunnable {
+                baseState = null
+                publishedState = null
+                if (aliveState.get == OwnershipState.Acquired) {
+                    scheduleInterfacesUpdate()
+                }
+            })
+        }
+        override def onNext(result: StateResult): Unit = { }
+    }
 
     private val aliveState = new AtomicReference(OwnershipState.Released)
     @volatile private var aliveSubscription: Subscription = null
@@ -161,7 +183,7 @@ class HostService (config: MidolmanConfig,
                         (aliveState.get != OwnershipState.Acquired)) {
                         return
                     }
-                    updateInterfaces()
+                    scheduleInterfacesUpdate()
                 }
             })
             identifyHost()
@@ -196,8 +218,11 @@ class HostService (config: MidolmanConfig,
                                             null).asFuture
             val f2 = stateStore.removeValue(classOf[Host], hostId,
                                             HostKey, null).asFuture
+            val f3 = stateStore.removeValue(classOf[Host], hostId,
+                                            HostDeltaKey, null).asFuture
             Await.ready(f1, timeout)
             Await.ready(f2, timeout)
+            Await.ready(f3, timeout)
         } catch {
             case NonFatal(e) =>
                 log.warn("MidoNet agent host service failed to cleanup " +
@@ -286,10 +311,12 @@ class HostService (config: MidolmanConfig,
                 store.create(host)
             }
 
-            // Set the alive state and update the interfaces.
+            // Set the alive state and update the interfaces: since the state
+            // may have been lost with the ownership, always write the full
+            // state.
             stateStore.addValue(classOf[Host], hostId, AliveKey, AliveKey)
                 .await(timeout)
-            updateInterfaces()
+            resyncInterfaces()
 
             aliveState.set(OwnershipState.Acquired)
 
@@ -364,9 +391,69 @@ class HostService (config: MidolmanConfig,
     }
 
     /**
-     * Updates the host with the current set of interfaces in V2.x storage.
+     * Schedules an update of the host interfaces after the update window,
+     * such that the interface changes reported by the scanner during the
+     * window, such as the creation of several tap devices, are coalesced into
+     * a single write of the latest set of interfaces. The updates execute on
+     * the reactor thread.
+     */
+    private def scheduleInterfacesUpdate(): Unit = {
+        val window = config.host.interfacesUpdateWindow
+        if (interfacesUpdateScheduled.compareAndSet(false, true)) {
+            val runnable = makeRunnable {
+                interfacesUpdateScheduled.set(false)
+                if (aliveState.get == OwnershipState.Acquired) {
+                    updateInterfaces()
+                }
+            }
+            if (window <= 0) reactor.submit(runnable)
+            else reactor.schedule(runnable, window, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Updates the host with the current set of interfaces in V2.x storage,
+     * without waiting for the write to complete. The method does not write a
+     * state equal to the last state written.
      */
     private def updateInterfaces(): Unit = {
+        try {
+            val write = writeInterfaces(force = false)
+            if (write ne null) {
+                write.subscribe(interfacesObserver)
+            }
+        } catch {
+            case NonFatal(e) => interfacesObserver.onError(e)
+        }
+    }
+
+    /**
+     * Writes the full state of the current set of interfaces, and waits for
+     * the write to complete. This resynchronizes the readers after the host
+     * (re)acquires its ownership.
+     */
+    private def resyncInterfaces(): Unit = {
+        try {
+            writeInterfaces(force = true).await(timeout)
+        } catch {
+            case NonFatal(e) =>
+                log.error("Failed to update network interfaces for host {}",
+                          hostId, e)
+                baseState = null
+                publishedState = null
+        }
+    }
+
+    /**
+     * Returns an observable that writes the current set of interfaces, or
+     * `null` if the interfaces have not changed. The host state key stores
+     * a full [[State.HostState]] in the text format, and the host delta key
+     * stores the changes since that state as a binary
+     * [[State.HostInterfacesDelta]]. The method writes the delta, unless
+     * forced or the delta has grown larger than the binary full state, in
+     * which case it removes the delta and rewrites the full state.
+     */
+    private def writeInterfaces(force: Boolean): Observable[StateResult] = {
         def upOrDown(iface: InterfaceDescription) =
                 if (iface.isUp) "UP" else "DOWN"
         def pluggedOrNot(iface: InterfaceDescription) =
@@ -375,16 +462,29 @@ class HostService (config: MidolmanConfig,
         val ifdescs = currentInterfaces map { i =>
             s"${i.getName}<${upOrDown(i)},${pluggedOrNot(i)},${i.getMtu}>"
         }
+        val state = getInterfaces
+        if (!force && state == publishedState) {
+            log.debug("Network interfaces unchanged: {}",
+                      ifdescs.mkString(", "))
+            return null
+        }
         log.debug("Updating network interfaces: {}", ifdescs.mkString(", "))
+        publishedState = state
 
-        try {
-            stateStore.addValue(classOf[Host], hostId, HostKey, getInterfaces)
-                .await(timeout)
-        } catch {
-            case NonFatal(e) =>
-                log.error("Failed to update network interfaces for host {}",
-                          hostId, e)
+        if (!force && (baseState ne null)) {
+            val delta = HostStateUtil.delta(baseState, baseValue, state)
+            if (delta.getSerializedSize <= state.getSerializedSize) {
+                return stateStore.addValue(classOf[Host], hostId, HostDeltaKey,
+                                           HostStateUtil.encodeDelta(delta))
+            }
         }
+
+        baseState = state
+        baseValue = TextFormat.shortDebugString(state)
+        Observable.concat(
+            stateStore.removeValue(classOf[Host], hostId, HostDeltaKey, null),
+            stateStore.addValue(classOf[Host], hostId, HostKey, baseValue))
+            .last()
     }
 
     @Nullable
@@ -404,24 +504,30 @@ class HostService (config: MidolmanConfig,
         Await.ready(stateStore.getKey(classOf[Host], hostId, HostKey).asFuture,
                     timeout).value match {
             case Some(Success(SingleValueKey(_,Some(value),_))) =>
-                val builder = State.HostState.newBuilder()
-                TextFormat.merge(value, builder)
-                builder.build()
+                val delta = Await.ready(
+                    stateStore.getKey(classOf[Host], hostId, HostDeltaKey)
+                        .asFuture, timeout).value match {
+                    case Some(Success(SingleValueKey(_, d, _))) => d
+                    case _ => None
+                }
+                HostStateUtil.merge(value, delta)
             case _ => null
         }
     }
 
-    /** Returns the current set of interfaces for this host as a set of protocol
-      * buffers messages. */
-    private def getInterfaces: String = {
+    /** Returns the current set of interfaces for this host as a host state
+      * protocol buffers message, sorted by name such that the same set of
+      * interfaces always returns the same message. The full state is written
+      * in the single-line text format, which is more compact than the
+      * multi-line format and is parsed the same way by the readers. */
+    private def getInterfaces: State.HostState = {
         State.HostState.newBuilder()
             .setHostId(UUIDUtil.toProto(hostId))
             .addAllInterfaces(
-                currentInterfaces.map(
+                currentInterfaces.toSeq.sortBy(_.getName).map(
                     ZoomConvert.toProto(_, classOf[State.HostState.Interface]))
                     .asJava)
             .build()
-            .toString
     }
 
     /** Verifies that the current host and state read from storage belong to
@@ -238,6 +238,19 @@ abstract class UpcallDatapathConnectionManagerBase(
                 log.trace("accumulating packet: {}", data.getMatch)
                 data.startTimeNanos = NanoClock.DEFAULT.tick
 
+                // The packet Ethernet is deserialized on demand, when
+                // dispatching flow state messages: drop malformed packets.
+                try {
+                    dispatch(data)
+                } catch {
+                    case e: IllegalArgumentException =>
+                        log.debug(s"Dropping malformed packet: ${data.getMatch}",
+                                  e)
+                        false
+                }
+            }
+
+            private def dispatch(data: Packet): Boolean = {
                 if (isFlowStateMessage(data.getMatch) &&
                     FlowStateEthernet.isLegacyFlowState(data.getEthernet)) {
                     log.debug(s"Legacy Flow state received (hash = " +
@@ -16,11 +16,17 @@
 
 package org.midonet.midolman.monitoring.metrics
 
-import com.codahale.metrics.MetricRegistry
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.{Clock, MetricRegistry, Timer}
 import com.codahale.metrics.MetricRegistry.name
 
+import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
+
 trait DatapathMeter
 
+trait DatapathHistogram
+
 class DatapathMetrics(val registry: MetricRegistry) {
 
     val flowsCreated = registry.meter(
@@ -38,5 +44,14 @@ class DatapathMetrics(val registry: MetricRegistry) {
     val flowDeleteErrors = registry.meter(
         name(classOf[DatapathMeter], "flows", "deleteErrors"))
 
+    val flowCreateBatchSize = registry.histogram(
+        name(classOf[DatapathHistogram], "flows", "createBatchSize"))
+
+    val flowCreateLatency = registry.register(
+        name(classOf[DatapathHistogram], "flows", "createLatency"),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+
 }
 
@@ -69,6 +69,44 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    val decisionCacheHits = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "decisionCache", "hits"))
+
+    val decisionCacheMisses = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "decisionCache", "misses"))
+
+    val decisionCacheHitRatio = registry.register(
+        name(classOf[PacketPipelineGauge], workerTag, "decisionCache", "hitRatio"),
+        new Gauge[Double] {
+            override def getValue: Double = {
+                val hits = decisionCacheHits.getCount
+                val total = hits + decisionCacheMisses.getCount
+                if (total == 0) 0.0 else hits.toDouble / total
+            }
+    })
+
+    val decisionCacheSavedTime = registry.counter(
+        name(classOf[PacketPipelineAccumulatedTime], workerTag,
+             "decisionCache", "savedSimulationNanos"))
+
+    val flowsRevalidated = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "revalidation", "revalidated"))
+
+    val flowsRevalidatedKept = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "revalidation", "kept"))
+
+    val flowsRevalidatedChanged = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "revalidation", "changed"))
+
+    val flowStatsRequests = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "flowStats", "requests"))
+
+    val flowsIdleExpired = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "flowStats", "idleExpired"))
+
+    val flowsExpirationExtended = registry.meter(
+        name(classOf[FlowTablesMeter], workerTag, "flowStats", "extended"))
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
@@ -16,6 +16,8 @@
 
 package org.midonet.midolman.monitoring.metrics
 
+import java.lang.management.ManagementFactory
+
 import com.codahale.metrics.MetricRegistry._
 import com.codahale.metrics.{Gauge, MetricRegistry}
 
@@ -82,6 +84,21 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         registry.register(name(classOf[VirtualTopologyGauge], "cacheMiss"),
                           gauge(cacheMisses))
 
+    // The time since the agent process started until the first packet
+    // simulation, or -1 if no packet has been simulated yet.
+    @volatile private var firstSimulationTime = -1L
+    private val startTime = ManagementFactory.getRuntimeMXBean.getStartTime
+
+    @volatile private var snapshotFetchTime = -1L
+
+    val startupToFirstSimulationGauge =
+        registry.register(name(classOf[VirtualTopologyGauge],
+                               "startupToFirstSimulation"),
+                          gauge(firstSimulationTime))
+    val snapshotFetchGauge =
+        registry.register(name(classOf[VirtualTopologyGauge], "snapshotFetch"),
+                          gauge(snapshotFetchTime))
+
     val deviceUpdateCounter =
         registry.counter(name(classOf[VirtualTopologyCounter], "deviceUpdate"))
     val deviceErrorCounter =
@@ -154,6 +171,16 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         }
     }
 
+    def simulationStarted(): Unit = {
+        if (firstSimulationTime < 0) {
+            firstSimulationTime = System.currentTimeMillis() - startTime
+        }
+    }
+
+    def snapshotFetched(time: Long): Unit = {
+        snapshotFetchTime = time
+    }
+
     private def gauge(f: => Long): Gauge[Long] = {
         new Gauge[Long] { override def getValue = f }
     }
@@ -278,7 +278,8 @@ class Bridge(val id: UUID,
             return tryGet(classOf[Port], toPort).action
         }
 
-        val vlanInFrame: Option[JShort] = context.ethernet.getVlanIDs match {
+        // Lazy, since reading the frame deserializes the packet.
+        lazy val vlanInFrame: Option[JShort] = context.ethernet.getVlanIDs match {
             case l: java.util.List[_] if !l.isEmpty => Some(l.get(0))
             case _ => None
         }
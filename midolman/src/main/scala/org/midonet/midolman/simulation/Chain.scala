@@ -20,7 +20,7 @@ import java.util.{UUID, List => JList, Map => JMap}
 
 import com.google.common.annotations.VisibleForTesting
 
-import org.midonet.midolman.rules.{JumpRule, Rule, RuleResult}
+import org.midonet.midolman.rules.{JumpRule, LiteralRule, Rule, RuleResult}
 import org.midonet.midolman.rules.RuleResult.Action
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
 import org.midonet.sdn.flows.FlowTagger
@@ -54,6 +54,20 @@ case class Chain(id: UUID,
 
     @VisibleForTesting def isJumpTargetsEmpty: Boolean = jumpTargets.isEmpty
 
+    private var ruleIndex: RuleIndex = null
+
+    /**
+     * Compiles the rules of this chain into a [[RuleIndex]], such that the
+     * chain only evaluates the rules that may match a packet. The rule list
+     * must not be modified after compiling the chain.
+     */
+    def compile(): Chain = {
+        ruleIndex = RuleIndex(rules)
+        this
+    }
+
+    @VisibleForTesting def isCompiled: Boolean = ruleIndex ne null
+
     def process(context: PacketContext): RuleResult = {
         val traversedChains = Chain.traversedChainsThreadLocal.get()
         traversedChains.clear()
@@ -74,12 +88,30 @@ case class Chain(id: UUID,
 
         context.addFlowTag(deviceTag)
         traversedChains.add(id)
+        val index = ruleIndex
+        var candidates = if (index ne null) index.select(context) else null
         var i = 0
         var res = Continue
         while ((i < rules.size()) && (res.action eq Action.CONTINUE)) {
             val rule = rules.get(i)
+            res = if ((candidates eq null) || candidates.contains(i)) {
+                rule.process(context)
+            } else {
+                // The index guarantees the condition does not match: record
+                // the same outcome as the rule would.
+                context.recordMatchedRule(rule.id, false)
+                context.recordAppliedRule(rule.id, false)
+                Continue
+            }
             i += 1
-            res = rule.process(context)
+
+            if ((candidates ne null) && ((res.action eq Action.JUMP) ||
+                                         !rule.isInstanceOf[LiteralRule])) {
+                // The rule may modify the packet, hence the remaining rules
+                // are evaluated without the index.
+                index.complete(context, candidates, i)
+                candidates = null
+            }
 
             res.action match {
                 case Action.ACCEPT | Action.RETURN =>
@@ -106,6 +138,8 @@ case class Chain(id: UUID,
             if (res.action eq Action.JUMP)
                 res = jump(context, res.jumpToChain, traversedChains)
         }
+        if (candidates ne null)
+            index.complete(context, candidates, i)
         assert(res.action ne Action.JUMP)
         res
     }
@@ -26,6 +26,7 @@ import scala.collection.JavaConversions._
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman._
+import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.flows.ManagedFlow
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.CallbackRegistry
@@ -46,6 +47,16 @@ import org.midonet.util.functors.Callback0
 import org.midonet.util.logging.Logger
 
 object PacketContext {
+
+    /**
+      * The owner of a pooled packet context. The datapath threads hand the
+      * context back to its owner once both the flow and the packet have been
+      * processed.
+      */
+    trait Owner {
+        def handBack(context: PacketContext): Unit
+    }
+
     val defaultLog =
         Logger(LoggerFactory.getLogger("org.midonet.packets.default.packet-processor"))
     val debugLog =
@@ -105,6 +116,7 @@ trait FlowContext extends Clearable { this: PacketContext =>
     var recircPayload: Ethernet = _
 
     var flow: ManagedFlow = _
+    var flowExpiration: Expiration = _
 
     def isRecirc: Boolean = recircPayload ne null
 
@@ -121,6 +133,7 @@ trait FlowContext extends Clearable { this: PacketContext =>
         recircMatch = null
         recircPayload = null
         flow = null
+        flowExpiration = null
     }
 
     override def clear(): Unit = {
@@ -435,9 +448,12 @@ class PacketContext extends Clearable
 
     val flowProcessed: AtomicBoolean = new AtomicBoolean(false)
     val packetProcessed: AtomicBoolean = new AtomicBoolean(false)
+    private val handedBack = new AtomicBoolean(false)
+    private var owner: PacketContext.Owner = null
 
     // Stores the callback to call when this flow is removed.
     val flowRemovedCallbacks = new ArrayList[CallbackSpec]()
+    var hasGeneratedPackets = false
     def addFlowRemovedCallback(cb: CallbackSpec): Unit = {
         flowRemovedCallbacks.add(cb)
     }
@@ -476,6 +492,8 @@ class PacketContext extends Clearable
     def resetContext(): Unit = {
         flowProcessed.set(false)
         packetProcessed.set(false)
+        handedBack.set(false)
+        owner = null
 
         resetFlowContext()
         resetRedirectContext()
@@ -502,6 +520,7 @@ class PacketContext extends Clearable
         this.inPortGroups = null
         this.outPortGroups = null
         this.flowRemovedCallbacks.clear()
+        this.hasGeneratedPackets = false
     }
 
     override def clear(): Unit = {
@@ -537,15 +556,44 @@ class PacketContext extends Clearable
     }
 
     def isProcessed = flowProcessed.get && packetProcessed.get
-    def setFlowProcessed(): Unit = flowProcessed.set(true)
-    def setPacketProcessed(): Unit = packetProcessed.set(true)
+    def setFlowProcessed(): Unit = {
+        flowProcessed.set(true)
+        tryHandBack()
+    }
+    def setPacketProcessed(): Unit = {
+        packetProcessed.set(true)
+        tryHandBack()
+    }
+
+    /**
+      * Sets the owner to which the context is handed back once processed.
+      * This must be called before the context is handed off to the datapath
+      * threads.
+      */
+    def handBackTo(owner: PacketContext.Owner): Unit = {
+        this.owner = owner
+    }
+
+    /** Hands the context back to its owner once, by the last thread that
+      * completes its processing. */
+    private def tryHandBack(): Unit = {
+        val owner = this.owner
+        if ((owner ne null) && isProcessed &&
+            handedBack.compareAndSet(false, true)) {
+            owner.handBack(this)
+        }
+    }
 
-    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit =
+    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit = {
+        hasGeneratedPackets = true
         backChannel.tell(GeneratedLogicalPacket(uuid, ethernet, cookie))
+    }
 
     def addGeneratedPhysicalPacket(portNo: JInteger,
-                                   ethernet: Ethernet): Unit =
+                                   ethernet: Ethernet): Unit = {
+        hasGeneratedPackets = true
         backChannel.tell(GeneratedPhysicalPacket(portNo, ethernet, cookie))
+    }
 
     def markUserspaceOnly(): Unit =
         wcmatch.markUserspaceOnly()
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.lang.Long.numberOfTrailingZeros
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap, List => JList, UUID}
+
+import org.midonet.midolman.rules.{Condition, Rule}
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.packets.{IPv4Addr, IPv4Subnet}
+import org.midonet.util.Range
+
+object RuleIndex {
+
+    /** Chains with fewer rules than this are evaluated linearly. */
+    final val MinRules = 16
+
+    private final val NotExcluded = Int.MaxValue
+
+    /**
+     * Builds the index for the given rule list, or returns `null` when the
+     * list is too short or none of its rules can be indexed.
+     */
+    def apply(rules: JList[Rule]): RuleIndex = {
+        if (rules.size < MinRules) {
+            return null
+        }
+        val index = new RuleIndex(rules.size)
+        var i = 0
+        while (i < rules.size) {
+            index.add(i, rules.get(i).getCondition)
+            i += 1
+        }
+        if (index.isEmpty) null else index
+    }
+
+    /**
+     * The per-thread state of an evaluation: the bitmap of candidate rules
+     * and, for every dimension, the lowest rule excluded by that dimension.
+     */
+    final class Candidates(words: Int) {
+        val rules = new Array[Long](words)
+        val mask = new Array[Long](words)
+        val firstExcluded = new Array[Int](4)
+
+        @inline def contains(index: Int): Boolean =
+            (rules(index >>> 6) & (1L << index)) != 0
+    }
+
+    private final class TrieNode {
+        var rules: Array[Long] = null
+        var zero: TrieNode = null
+        var one: TrieNode = null
+    }
+}
+
+/**
+ * A classifier index over the rules of a chain. For each of the most
+ * selective fields of a condition, namely the network protocol, the input
+ * port, the destination IPv4 subnet and the destination port range, the index
+ * keeps the bitmap of rules that do not constrain the field, and the bitmaps of
+ * rules constraining it to each value. For a packet, the intersection of the
+ * matching bitmaps gives the candidate rules, which are the only rules whose
+ * condition may match. All other rules are known not to match, and the chain
+ * skips their evaluation.
+ *
+ * A rule is constrained by a field only if neither the field nor the whole
+ * condition are inverted, such that a mismatch on that field alone means the
+ * condition does not match. Conditions matching the forward or return flow
+ * are never indexed, since their evaluation tracks the connection.
+ *
+ * Because the conditions of skipped rules are not evaluated, the index marks
+ * as seen in the flow match the field of every dimension that excluded a rule
+ * reached by the chain, which keeps the wildcard flow correct.
+ */
+final class RuleIndex private(size: Int) {
+
+    import RuleIndex._
+
+    private val words = (size + 63) >>> 6
+
+    private val protoAny = new Array[Long](words)
+    private val protoRules = new Array[Array[Long]](256)
+    private var protoIndexed = false
+
+    private val inPortAny = new Array[Long](words)
+    private val inPortRules = new JHashMap[UUID, Array[Long]]()
+
+    private val dstAny = new Array[Long](words)
+    private val dstRoot = new TrieNode
+    private var dstIndexed = false
+
+    private val dstPortAny = new Array[Long](words)
+    private val dstPortRanges = new JArrayList[Range[Integer]]()
+    private val dstPortRules = new JArrayList[Array[Long]]()
+
+    // The same chain is never evaluated twice concurrently on the same
+    // thread, since jumping to an already traversed chain is not allowed.
+    private val candidates = new ThreadLocal[Candidates] {
+        override def initialValue = new Candidates(words)
+    }
+
+    private def isEmpty: Boolean =
+        !protoIndexed && inPortRules.isEmpty && !dstIndexed &&
+        dstPortRanges.isEmpty
+
+    @inline private def set(bitmap: Array[Long], index: Int): Unit = {
+        bitmap(index >>> 6) |= 1L << index
+    }
+
+    private def add(index: Int, cond: Condition): Unit = {
+        // Matching the flow direction queries and updates the connection
+        // tracking state, so the rule must be evaluated on every packet.
+        if ((cond.getClass ne classOf[Condition]) || cond.conjunctionInv ||
+            cond.matchForwardFlow || cond.matchReturnFlow) {
+            set(protoAny, index)
+            set(inPortAny, index)
+            set(dstAny, index)
+            set(dstPortAny, index)
+            return
+        }
+
+        if ((cond.nwProto ne null) && !cond.nwProtoInv) {
+            val proto = cond.nwProto.byteValue & 0xff
+            if (protoRules(proto) eq null) {
+                protoRules(proto) = new Array[Long](words)
+            }
+            set(protoRules(proto), index)
+            protoIndexed = true
+        } else {
+            set(protoAny, index)
+        }
+
+        if ((cond.inPortIds ne null) && !cond.inPortIds.isEmpty &&
+            !cond.inPortInv) {
+            val iterator = cond.inPortIds.iterator()
+            while (iterator.hasNext) {
+                val portId = iterator.next()
+                var bitmap = inPortRules.get(portId)
+                if (bitmap eq null) {
+                    bitmap = new Array[Long](words)
+                    inPortRules.put(portId, bitmap)
+                }
+                set(bitmap, index)
+            }
+        } else {
+            set(inPortAny, index)
+        }
+
+        cond.nwDstIp match {
+            case subnet: IPv4Subnet if !cond.nwDstInv =>
+                var node = dstRoot
+                var depth = 0
+                while (depth < subnet.getPrefixLen) {
+                    val one = ((subnet.getIntAddress >>> (31 - depth)) & 1) != 0
+                    if (one) {
+                        if (node.one eq null) node.one = new TrieNode
+                        node = node.one
+                    } else {
+                        if (node.zero eq null) node.zero = new TrieNode
+                        node = node.zero
+                    }
+                    depth += 1
+                }
+                if (node.rules eq null) {
+                    node.rules = new Array[Long](words)
+                }
+                set(node.rules, index)
+                dstIndexed = true
+            case _ =>
+                set(dstAny, index)
+        }
+
+        if ((cond.tpDst ne null) && !cond.tpDstInv) {
+            var position = dstPortRanges.indexOf(cond.tpDst)
+            if (position < 0) {
+                position = dstPortRanges.size
+                dstPortRanges.add(cond.tpDst)
+                dstPortRules.add(new Array[Long](words))
+            }
+            set(dstPortRules.get(position), index)
+        } else {
+            set(dstPortAny, index)
+        }
+    }
+
+    /**
+     * Computes the rules that may match the packet of the given context.
+     * The returned bitmap is only valid until the next evaluation of the
+     * same chain on the current thread.
+     */
+    def select(context: PacketContext): Candidates = {
+        val c = candidates.get()
+        java.util.Arrays.fill(c.rules, -1L)
+        java.util.Arrays.fill(c.firstExcluded, NotExcluded)
+        val fmatch = context.wcmatch
+
+        if (protoIndexed) {
+            val seen = isSeen(fmatch, Field.NetworkProto)
+            val proto = fmatch.getNetworkProto & 0xff
+            restoreSeen(fmatch, Field.NetworkProto, seen)
+            System.arraycopy(protoAny, 0, c.mask, 0, words)
+            or(c.mask, protoRules(proto))
+            intersect(c, 0)
+        }
+
+        if (!inPortRules.isEmpty) {
+            System.arraycopy(inPortAny, 0, c.mask, 0, words)
+            if (context.inPortId ne null) {
+                or(c.mask, inPortRules.get(context.inPortId))
+            }
+            intersect(c, 1)
+        }
+
+        if (dstIndexed) {
+            val seen = isSeen(fmatch, Field.NetworkDst)
+            val dst = fmatch.getNetworkDstIP
+            restoreSeen(fmatch, Field.NetworkDst, seen)
+            System.arraycopy(dstAny, 0, c.mask, 0, words)
+            dst match {
+                case address: IPv4Addr =>
+                    var node = dstRoot
+                    var depth = 0
+                    while (node ne null) {
+                        or(c.mask, node.rules)
+                        node =
+                            if (depth == 32) null
+                            else if (((address.toInt >>> (31 - depth)) & 1) != 0)
+                                node.one
+                            else node.zero
+                        depth += 1
+                    }
+                case _ =>
+            }
+            intersect(c, 2)
+        }
+
+        if (!dstPortRanges.isEmpty) {
+            val seen = isSeen(fmatch, Field.DstPort)
+            val port = Integer.valueOf(fmatch.getDstPort)
+            restoreSeen(fmatch, Field.DstPort, seen)
+            System.arraycopy(dstPortAny, 0, c.mask, 0, words)
+            var i = 0
+            while (i < dstPortRanges.size) {
+                if (dstPortRanges.get(i).isInside(port)) {
+                    or(c.mask, dstPortRules.get(i))
+                }
+                i += 1
+            }
+            intersect(c, 3)
+        }
+        c
+    }
+
+    /**
+     * Marks as seen the fields that excluded any of the rules before the
+     * given position, where the chain stopped its evaluation.
+     */
+    def complete(context: PacketContext, c: Candidates, position: Int): Unit = {
+        val fmatch = context.wcmatch
+        if (c.firstExcluded(0) < position)
+            fmatch.fieldSeen(Field.NetworkProto)
+        if (c.firstExcluded(2) < position)
+            fmatch.fieldSeen(Field.NetworkDst)
+        if (c.firstExcluded(3) < position)
+            fmatch.fieldSeen(Field.DstPort)
+    }
+
+    @inline private def isSeen(fmatch: FlowMatch, field: Field): Boolean =
+        (fmatch.getSeenFields & (1L << field.ordinal)) != 0
+
+    @inline private def restoreSeen(fmatch: FlowMatch, field: Field,
+                                     seen: Boolean): Unit = {
+        if (!seen) fmatch.fieldUnseen(field)
+    }
+
+    @inline private def or(mask: Array[Long], bitmap: Array[Long]): Unit = {
+        if (bitmap ne null) {
+            var i = 0
+            while (i < words) {
+                mask(i) |= bitmap(i)
+                i += 1
+            }
+        }
+    }
+
+    private def intersect(c: Candidates, dimension: Int): Unit = {
+        var i = 0
+        while (i < words) {
+            val excluded = c.rules(i) & ~c.mask(i)
+            if ((excluded != 0) && (c.firstExcluded(dimension) == NotExcluded)) {
+                c.firstExcluded(dimension) =
+                    (i << 6) + numberOfTrailingZeros(excluded)
+            }
+            c.rules(i) &= c.mask(i)
+            i += 1
+        }
+    }
+
+}
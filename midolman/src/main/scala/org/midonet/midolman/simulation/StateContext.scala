@@ -64,6 +64,13 @@ trait StateContext extends Clearable
     def containsFlowState =
         conntrackTx.size() > 0 || natTx.size() > 0 || tracingEnabled
 
+    /**
+     * Whether the simulation looked up or modified any flow state, in which
+     * case its outcome depends on more than the packet and the topology.
+     */
+    def accessedFlowState =
+        conntrackTx.isAccessed || natTx.isAccessed || tracingEnabled
+
     def commitStateTransactions(): Unit ={
         conntrackTx.commit()
         natTx.commit()
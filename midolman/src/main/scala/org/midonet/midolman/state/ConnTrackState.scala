@@ -24,6 +24,7 @@ import akka.actor.ActorSystem
 
 import com.google.common.hash.Hashing
 
+import org.midonet.Util
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.midolman.simulation.Port
 import org.midonet.midolman.state.FlowState.FlowStateKey
@@ -35,6 +36,7 @@ import org.midonet.packets.{ICMP, IPAddr, IPv4, IPv4Addr, TCP, UDP}
 import org.midonet.sdn.flows.FlowTagger.TagTypes
 import org.midonet.sdn.state.FlowStateTransaction
 import org.midonet.util.collection.ReusablePool
+import org.midonet.util.concurrent.FixedWidthCodec
 
 object ConnTrackState {
     type ConnTrackValue = java.lang.Boolean
@@ -170,6 +172,77 @@ object ConnTrackState {
                 true
             }
     }
+
+    /**
+     * Encodes the conntrack keys in place for the off-heap tables, with the
+     * same layout as the [[ConnTrackKeySerializer]].
+     */
+    object ConnTrackKeyCodec extends FixedWidthCodec[ConnTrackKey] {
+        private val unsafe = Util.getUnsafe
+
+        override val size = 33
+
+        override def hash(key: ConnTrackKey): Int = {
+            var h = key.networkSrc.asInstanceOf[IPv4Addr].toInt
+            h = 31 * h + key.icmpIdOrTransportSrc
+            h = 31 * h + key.networkDst.asInstanceOf[IPv4Addr].toInt
+            h = 31 * h + key.icmpIdOrTransportDst
+            h = 31 * h + key.networkProtocol
+            31 * h + key.deviceId.hashCode
+        }
+
+        override def write(key: ConnTrackKey, address: Long): Unit = {
+            unsafe.putInt(address, key.networkSrc.asInstanceOf[IPv4Addr].toInt)
+            unsafe.putInt(address + 4, key.icmpIdOrTransportSrc)
+            unsafe.putInt(address + 8, key.networkDst.asInstanceOf[IPv4Addr].toInt)
+            unsafe.putInt(address + 12, key.icmpIdOrTransportDst)
+            unsafe.putByte(address + 16, key.networkProtocol)
+            unsafe.putLong(address + 17, key.deviceId.getMostSignificantBits)
+            unsafe.putLong(address + 25, key.deviceId.getLeastSignificantBits)
+        }
+
+        override def matches(key: ConnTrackKey, address: Long): Boolean =
+            unsafe.getInt(address) ==
+                key.networkSrc.asInstanceOf[IPv4Addr].toInt &&
+            unsafe.getInt(address + 4) == key.icmpIdOrTransportSrc &&
+            unsafe.getInt(address + 8) ==
+                key.networkDst.asInstanceOf[IPv4Addr].toInt &&
+            unsafe.getInt(address + 12) == key.icmpIdOrTransportDst &&
+            unsafe.getByte(address + 16) == key.networkProtocol &&
+            unsafe.getLong(address + 17) == key.deviceId.getMostSignificantBits &&
+            unsafe.getLong(address + 25) == key.deviceId.getLeastSignificantBits
+
+        override def read(address: Long): ConnTrackKey =
+            ConnTrackKey(IPv4Addr(unsafe.getInt(address)),
+                         unsafe.getInt(address + 4),
+                         IPv4Addr(unsafe.getInt(address + 8)),
+                         unsafe.getInt(address + 12),
+                         unsafe.getByte(address + 16),
+                         new UUID(unsafe.getLong(address + 17),
+                                  unsafe.getLong(address + 25)))
+    }
+
+    /**
+     * Encodes the conntrack values in place for the off-heap tables. Reading
+     * a value does not allocate.
+     */
+    object ConnTrackValueCodec extends FixedWidthCodec[ConnTrackValue] {
+        private val unsafe = Util.getUnsafe
+
+        override val size = 1
+
+        override def hash(value: ConnTrackValue): Int = value.hashCode
+
+        override def write(value: ConnTrackValue, address: Long): Unit =
+            unsafe.putByte(address, if (value) 1 else 0)
+
+        override def matches(value: ConnTrackValue, address: Long): Boolean =
+            (unsafe.getByte(address) != 0) == value.booleanValue
+
+        override def read(address: Long): ConnTrackValue =
+            if (unsafe.getByte(address) == 0) java.lang.Boolean.FALSE
+            else java.lang.Boolean.TRUE
+    }
 }
 
 /**
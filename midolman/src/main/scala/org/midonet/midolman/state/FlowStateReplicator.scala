@@ -45,7 +45,7 @@ import org.midonet.packets.NatState.NatBinding
 import org.midonet.packets.{Ethernet, FlowStateEthernet, SbeEncoder}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.state.FlowStateTable
-import org.midonet.services.flowstate.{FlowStateInternalMessageHeaderSize, FlowStateInternalMessageType}
+import org.midonet.services.flowstate.{FlowStateInternalMessageHeaderSize, FlowStateInternalMessageType, MaxMessageSize}
 import org.midonet.util.collection.Reducer
 
 /**
@@ -105,6 +105,13 @@ class FlowStateReplicator(
     private val flowStateBuffer =
         ByteBuffer.allocate(FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH)
 
+    /* Used for coalescing the flow state messages sent to the minion */
+    private val batchMessages = config.flowState.batchMessages
+    private val flowStateBatch =
+        if (batchMessages)
+            ByteBuffer.allocate(FlowStateInternalMessageHeaderSize + MaxMessageSize)
+        else null
+
     /* Used for message building */
     private[this] var txIngressPort: UUID = _
     private[this] val txPeers: JSet[UUID] = new JHashSet[UUID]()
@@ -280,22 +287,60 @@ class FlowStateReplicator(
     }
 
     def touchState(context: PacketContext): Unit = {
-        sendState(context.stateMessage, context.stateMessageLength)
+        sendState(context.stateMessage, 0, context.stateMessageLength)
     }
 
+    /**
+     * Sends to the minion the flow state messages coalesced since the last
+     * flush, if any.
+     *
+     * EXPECTED CALLING THREADS: only the packet processing thread that owns
+     * this replicator, at the end of every batch of packets.
+     */
+    def flush(): Unit = {
+        if ((flowStateBatch ne null) && flowStateBatch.position > 0) {
+            flowStateBatch.putInt(4, flowStateBatch.position -
+                                     FlowStateInternalMessageHeaderSize)
+            flowStatePacket.setData(flowStateBatch.array, 0,
+                                    flowStateBatch.position)
+            flowStateBatch.clear()
+            flowStateSocket.send(flowStatePacket)
+        }
+    }
 
-    private def sendState(msg: Array[Byte], length: Int): Unit = {
+    private def sendState(msg: Array[Byte], offset: Int, length: Int): Unit = {
+        if (batchMessages) {
+            batchState(msg, offset, length)
+            return
+        }
         flowStateBuffer.clear()
         flowStateBuffer.putInt(FlowStateInternalMessageType.FlowStateMessage)
         flowStateBuffer.putInt(length)
-        flowStateBuffer.put(msg, 0, length)
+        flowStateBuffer.put(msg, offset, length)
         flowStatePacket.setData(flowStateBuffer.array,
                                 0,
                                 length + FlowStateInternalMessageHeaderSize)
         flowStateSocket.send(flowStatePacket)
     }
 
-    private def acceptNewState(encoder: SbeEncoder) {
+    private def batchState(msg: Array[Byte], offset: Int, length: Int): Unit = {
+        if (flowStateBatch.remaining < length + 4) {
+            flush()
+        }
+        if (flowStateBatch.position == 0) {
+            flowStateBatch.putInt(FlowStateInternalMessageType.FlowStateMessageBatch)
+            flowStateBatch.putInt(0)
+        }
+        flowStateBatch.putInt(length)
+        flowStateBatch.put(msg, offset, length)
+    }
+
+    /**
+     * Applies the flow state message decoded by the given encoder, and
+     * returns its encoded length, or zero if the length is unknown because
+     * the message was sent by an older agent.
+     */
+    private def acceptNewState(encoder: SbeEncoder, offset: Int): Int = {
         val msg = encoder.flowStateMessageDecoder
         val sender = uuidFromSbe(msg.sender)
         log.debug("Got state replication message from: {}", sender)
@@ -355,15 +400,17 @@ class FlowStateReplicator(
             }
 
             if (localPushState) {
-                sendState(encoder.flowStateBuffer.byteArray(),
+                sendState(encoder.flowStateBuffer.byteArray(), offset,
                           encoder.decodedLength())
             }
+            encoder.decodedLength()
         } catch {
             case NonFatal(e) =>
                 // If we have a failure here means that we tried to read past
                 // the buffer limit (meaning the message came from an older
                 // agent version). Just ignore it as in that case we don't
                 // need to send it to the minion.
+                0
         }
     }
 
@@ -384,8 +431,15 @@ class FlowStateReplicator(
             log.info("Ignoring unexpected packet: {}", p)
         } else {
             try {
-                val flowStateMessage = flowStateEncoder.decodeFrom(data.getData)
-                acceptNewState(flowStateEncoder)
+                // The datagram may contain several consecutive messages.
+                val bytes = data.getData
+                val headerLength = flowStateEncoder.flowStateHeaderDecoder.encodedLength
+                var offset = 0
+                while (offset + headerLength <= bytes.length) {
+                    flowStateEncoder.decodeFrom(bytes, offset)
+                    val length = acceptNewState(flowStateEncoder, offset)
+                    offset = if (length > 0) offset + length else bytes.length
+                }
             } catch {
                 case e: IllegalArgumentException =>
                     log.error("Error decoding flow state", e)
@@ -22,6 +22,7 @@ import java.util.concurrent.ThreadLocalRandom
 
 import com.google.common.hash.Hashing
 
+import org.midonet.Util
 import org.midonet.midolman.rules.NatTarget
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.midolman.state.FlowState.FlowStateKey
@@ -33,6 +34,7 @@ import org.midonet.packets._
 import org.midonet.sdn.flows.FlowTagger.TagTypes
 import org.midonet.sdn.state.FlowStateTransaction
 import org.midonet.util.collection.{Reducer, ReusablePool}
+import org.midonet.util.concurrent.FixedWidthCodec
 
 
 object NatState {
@@ -286,6 +288,83 @@ object NatState {
                 NatBinding(IPv4Addr(bb.getInt), bb.getInt)
             }
     }
+
+    /**
+     * Encodes the NAT keys in place for the off-heap tables, with the same
+     * layout as the [[NatKeySerializer]].
+     */
+    object NatKeyCodec extends FixedWidthCodec[NatKey] {
+        private val unsafe = Util.getUnsafe
+
+        override val size = 34
+
+        override def hash(key: NatKey): Int = {
+            var h: Int = keyTypeToByte(key.keyType)
+            h = 31 * h + key.networkSrc.toInt
+            h = 31 * h + key.transportSrc
+            h = 31 * h + key.networkDst.toInt
+            h = 31 * h + key.transportDst
+            h = 31 * h + key.networkProtocol
+            31 * h + key.deviceId.hashCode
+        }
+
+        override def write(key: NatKey, address: Long): Unit = {
+            unsafe.putByte(address, keyTypeToByte(key.keyType))
+            unsafe.putInt(address + 1, key.networkSrc.toInt)
+            unsafe.putInt(address + 5, key.transportSrc)
+            unsafe.putInt(address + 9, key.networkDst.toInt)
+            unsafe.putInt(address + 13, key.transportDst)
+            unsafe.putByte(address + 17, key.networkProtocol)
+            unsafe.putLong(address + 18, key.deviceId.getMostSignificantBits)
+            unsafe.putLong(address + 26, key.deviceId.getLeastSignificantBits)
+        }
+
+        override def matches(key: NatKey, address: Long): Boolean =
+            unsafe.getByte(address) == keyTypeToByte(key.keyType) &&
+            unsafe.getInt(address + 1) == key.networkSrc.toInt &&
+            unsafe.getInt(address + 5) == key.transportSrc &&
+            unsafe.getInt(address + 9) == key.networkDst.toInt &&
+            unsafe.getInt(address + 13) == key.transportDst &&
+            unsafe.getByte(address + 17) == key.networkProtocol &&
+            unsafe.getLong(address + 18) == key.deviceId.getMostSignificantBits &&
+            unsafe.getLong(address + 26) == key.deviceId.getLeastSignificantBits
+
+        override def read(address: Long): NatKey =
+            NatKey(byteToKeyType(unsafe.getByte(address)),
+                   IPv4Addr(unsafe.getInt(address + 1)),
+                   unsafe.getInt(address + 5),
+                   IPv4Addr(unsafe.getInt(address + 9)),
+                   unsafe.getInt(address + 13),
+                   unsafe.getByte(address + 17),
+                   new UUID(unsafe.getLong(address + 18),
+                            unsafe.getLong(address + 26)))
+    }
+
+    /**
+     * Encodes the NAT bindings in place for the off-heap tables, with the
+     * same layout as the [[NatBindingSerializer]].
+     */
+    object NatBindingCodec extends FixedWidthCodec[NatBinding] {
+        private val unsafe = Util.getUnsafe
+
+        override val size = 8
+
+        override def hash(binding: NatBinding): Int =
+            31 * binding.networkAddress.toInt + binding.transportPort
+
+        override def write(binding: NatBinding, address: Long): Unit = {
+            unsafe.putInt(address, binding.networkAddress.toInt)
+            unsafe.putInt(address + 4, binding.transportPort)
+        }
+
+        override def matches(binding: NatBinding, address: Long): Boolean =
+            unsafe.getInt(address) == binding.networkAddress.toInt &&
+            unsafe.getInt(address + 4) == binding.transportPort
+
+        override def read(address: Long): NatBinding =
+            NatBinding(IPv4Addr(unsafe.getInt(address)),
+                       unsafe.getInt(address + 4))
+    }
 }
 
 trait NatState extends FlowState { this: PacketContext =>
@@ -30,7 +30,7 @@ import org.midonet.midolman.rules.NatTarget
 import org.midonet.midolman.state.NatBlockAllocator.NoFreeNatBlocksException
 import org.midonet.packets.NatState.NatBinding
 import org.midonet.packets.{IPAddr, IPv4Addr}
-import org.midonet.util.collection.Reducer
+import org.midonet.util.collection.{LongBitmapMap, Reducer}
 import org.midonet.util.concurrent.{NanoClock, OnHeapTimedExpirationMap, TimedExpirationMap}
 import org.midonet.util.concurrent.ExecutionContextOps
 import org.midonet.util.logging.Logger
@@ -39,6 +39,7 @@ object NatLeaser {
     private val BLOCK_SIZE = NatBlock.BLOCK_SIZE // Guaranteed to be a power of 2
     private val BLOCK_MULT = Integer.numberOfTrailingZeros(BLOCK_SIZE)
     private val BLOCK_MASK = BLOCK_SIZE - 1
+    require(BLOCK_SIZE == JLong.SIZE, "The port bitmaps require blocks of 64 ports")
     val BLOCK_EXPIRATION = 5 minutes
     private val OBLITERATION_CYCLE = (1 minute).toNanos
 
@@ -49,25 +50,56 @@ object NatLeaser {
 
     def firstPortIn(block: Int) = block << BLOCK_MULT
 
+    /** Returns the bitmap of the port offsets between the given offsets. */
+    private def portsBetween(first: Int, last: Int): Long =
+        (-1L >>> (BLOCK_MASK - last)) & (-1L << first)
+
     /**
      * This type represents a block of BLOCK_SIZE ports. Each port, identified
-     * by the NatBlock's tpPortStart plus the offset given by the position in
-     * the leasedPorts array, can be oversubscribed based on a unique number,
-     * a combination of the destination IP and port.
+     * by the NatBlock's tpPortStart plus an offset, can be oversubscribed
+     * based on a unique number, a combination of the destination IP and port.
+     * For every unique number, the block keeps a bitmap with the offsets of
+     * the ports bound to it, such that a free port is found with a few bit
+     * operations and the block does not allocate per port.
      * It also holds a port index to enable round-robin allocation
-     * of the ports in the block.
+     * of the ports in the block. Thread-safe for concurrent callers.
      */
     sealed class LeasedBlock(val block: NatBlock) {
-        val leasedPorts = new Array[ConcurrentHashMap[JLong, AnyRef]](BLOCK_SIZE)
-        var portIndex = ThreadLocalRandom.current().nextLong()
-
-        {
-            var i = 0
-            while (i < BLOCK_SIZE) {
-                leasedPorts(i) = new ConcurrentHashMap[JLong, AnyRef]
-                i += 1
+        private val bindings = new LongBitmapMap()
+        private var portIndex = ThreadLocalRandom.current().nextInt()
+
+        /**
+         * Binds a port from the given bitmap of ports to the unique number,
+         * returning the port offset or -1 if all ports are already bound to
+         * the same unique number.
+         */
+        def bind(uniquefier: Long, ports: Long): Int = synchronized {
+            val bound = bindings(uniquefier)
+            val free = ports & ~bound
+            if (free == 0L) {
+                -1
+            } else {
+                // The first free port at or after the port index.
+                val index = portIndex & BLOCK_MASK
+                val offset = (JLong.numberOfTrailingZeros(
+                    JLong.rotateRight(free, index)) + index) & BLOCK_MASK
+                bindings(uniquefier) = bound | (1L << offset)
+                portIndex = offset + 31
+                offset
             }
         }
+
+        /** Releases the port with the given offset bound to the unique
+          * number. */
+        def unbind(uniquefier: Long, offset: Int): Unit = synchronized {
+            bindings(uniquefier) = bindings(uniquefier) & ~(1L << offset)
+        }
+
+        /** Returns the number of ports from the given bitmap of ports bound
+          * to the unique number. */
+        def boundPorts(uniquefier: Long, ports: Long): Int = synchronized {
+            JLong.bitCount(bindings(uniquefier) & ports)
+        }
     }
 
     /**
@@ -111,6 +143,10 @@ trait NatLeaser {
     val log: Logger
     val allocator: NatBlockAllocator
     val clock: NanoClock
+    /** The fraction of the ports of a leased block bound to the same unique
+      * number, after which the leaser requests a new block in advance. Zero
+      * disables the prefetching. */
+    val prefetchWatermark: Double = 0.0
     private val deviceLeases = new DeviceLeases
     private val outstandingBlockRequests = new OutstandingRequests
 
@@ -137,6 +173,10 @@ trait NatLeaser {
                 val binding = allocateInPortRange(leasedBlocks, uniquefier, ip,
                                                   target.tpStart, target.tpEnd)
                 if (binding ne null) {
+                    if (prefetchWatermark > 0.0) {
+                        prefetchIfNeeded(deviceId, natTargets, i, leasedBlocks,
+                                         uniquefier, binding)
+                    }
                     return binding
                 }
                 ip = ip.next
@@ -171,7 +211,7 @@ trait NatLeaser {
         if (leasedBlock ne null) {
             val portOffset = binding.transportPort - leasedBlock.block.tpPortStart
             val uniquefier = blend(destinationIp, destinationPort)
-            leasedBlock.leasedPorts(portOffset).remove(uniquefier)
+            leasedBlock.unbind(uniquefier, portOffset)
         }
     }
 
@@ -232,22 +272,63 @@ trait NatLeaser {
     private def allocateInPortBlock(lease: LeasedBlock, uniquefier: Long,
                                     ip: IPv4Addr, tpStart: Int, tpEnd: Int)
     : NatBinding = {
-        val index = lease.portIndex
         val firstPortInBlock = lease.block.tpPortStart
-        var i = 0
-        while (i < BLOCK_SIZE) { // Search all ports
-            val portOffset = (index + i).toInt & BLOCK_MASK
-            val port = firstPortInBlock + portOffset
-            if (port >= tpStart && port <= tpEnd) {
-                val sharedBinding = lease.leasedPorts(portOffset)
-                if (sharedBinding.putIfAbsent(uniquefier, this) eq null) {
-                    lease.portIndex += i + 31
-                    return NatBinding(ip, port)
+        val ports = portsBetween(tpStart - firstPortInBlock,
+                                 tpEnd - firstPortInBlock)
+        val portOffset = lease.bind(uniquefier, ports)
+        if (portOffset >= 0) NatBinding(ip, firstPortInBlock + portOffset)
+        else null
+    }
+
+    /**
+     * Requests a new block for the NAT target of the given binding, when the
+     * binding makes the number of ports of its block bound to the same unique
+     * number reach the prefetch watermark, and no other leased block in the
+     * port range is below the watermark. This way, the block is usually
+     * leased before a packet needs it, instead of waiting for the allocator.
+     */
+    private def prefetchIfNeeded(deviceId: UUID, targets: Array[NatTarget],
+                                 targetIndex: Int, leasedBlocks: LeasedBlocks,
+                                 uniquefier: Long, binding: NatBinding): Unit = {
+        val target = targets(targetIndex)
+        val block = blockOf(binding.transportPort)
+        val lease = leasedBlocks.get(block)
+        if (lease eq null) {
+            return
+        }
+        if (lease.boundPorts(uniquefier, portsInBlock(block, target)) !=
+            watermarkOf(block, target)) {
+            return
+        }
+
+        var other = blockOf(target.tpStart)
+        while (other <= blockOf(target.tpEnd)) {
+            if (other != block) {
+                val otherLease = leasedBlocks.get(other)
+                if ((otherLease ne null) &&
+                    otherLease.boundPorts(uniquefier, portsInBlock(other, target)) <
+                    watermarkOf(other, target)) {
+                    return
                 }
             }
-            i += 1
+            other += 1
         }
-        null
+
+        log.debug("Prefetching NAT block for device {} and IP {}", deviceId,
+                  binding.networkAddress)
+        fetchNatBlock(deviceId, targets,
+                      binding.networkAddress, targetIndex)
+    }
+
+    private def portsInBlock(block: Int, target: NatTarget): Long = {
+        val firstPort = firstPortIn(block)
+        portsBetween(Math.max(target.tpStart - firstPort, 0),
+                     Math.min(target.tpEnd - firstPort, BLOCK_MASK))
+    }
+
+    private def watermarkOf(block: Int, target: NatTarget): Int = {
+        val ports = JLong.bitCount(portsInBlock(block, target))
+        Math.max(1, Math.ceil(ports * prefetchWatermark).toInt)
     }
 
     private def fetchNatBlock(deviceId: UUID, targets: Array[NatTarget],
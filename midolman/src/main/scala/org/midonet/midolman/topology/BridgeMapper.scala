@@ -96,13 +96,36 @@ object BridgeMapper {
         }
     }
 
+    /**
+     * Creates a [[LazyStateTable]] for the given state table if the bridge
+     * state tables are lazy, or otherwise starts the state table and returns
+     * null.
+     */
+    private def startTable[K, V >: Null <: AnyRef](vt: VirtualTopology,
+                                                   table: StateTable[K, V],
+                                                   log: Logger)
+    : LazyStateTable[K, V] = {
+        if (vt.config.bridge.lazyStateTables) {
+            new LazyStateTable[K, V](table,
+                                     vt.config.bridge.lazyStateTableCacheSize,
+                                     vt.config.bridge.lazyStateTableExpiry,
+                                     vt.config.bridge.lazyStateTableSnapshotInterval,
+                                     log)
+        } else {
+            table.start()
+            null
+        }
+    }
+
     /**
      * The implementation of a [[MacLearningTable]] for a bridge. During
      * initialization the table creates an underlying [[ReplicatedMap]] for
      * the given bridge and VLAN, and exposes an [[rx.Observable]] with
      * notifications for MAC-port updates. A complete() methods stops watching
      * the underlying [[ReplicatedMap]] and completes the exposed observable
-     * when the VLAN is no longer present on the bridge.
+     * when the VLAN is no longer present on the bridge. When the bridge
+     * state tables are lazy, the MAC-port mappings are looked up through a
+     * [[LazyStateTable]].
      */
     private class BridgeMacLearningTable(vt: VirtualTopology, bridgeId: UUID,
                                          vlanId: Short, log: Logger)
@@ -110,9 +133,10 @@ object BridgeMapper {
 
         private val mark = PublishSubject.create[MacTableUpdate]
         private val table = vt.stateTables.bridgeMacTable(bridgeId, vlanId)
-        table.start()
+        private val cache = startTable(vt, table, log)
 
-        val observable = table.observable
+        val observable =
+            (if (cache eq null) table.observable else cache.observable)
             .map[MacTableUpdate](makeFunc1(update => {
                 MacTableUpdate(vlanId, update.key, update.oldValue,
                                update.newValue)
@@ -120,7 +144,9 @@ object BridgeMapper {
             .takeUntil(mark)
 
         /** Gets the port for the specified MAC. */
-        override def get(mac: MAC): UUID = table.getLocal(mac)
+        override def get(mac: MAC): UUID = {
+            if (cache eq null) table.getLocal(mac) else cache.get(mac)
+        }
         /** Adds a new MAC-port mapping to the MAC learning table. */
         override def add(mac: MAC, portId: UUID): Unit = {
             try {
@@ -150,13 +176,20 @@ object BridgeMapper {
         }
         /** Stops the underlying replicated map and completes the observable. */
         def complete(): Unit = {
-            table.stop()
+            if (cache eq null) table.stop() else cache.complete()
             mark.onCompleted()
         }
 
-        def ready: Observable[StateTable.Key] = table.ready
+        /** Expires the cached MAC-port mappings of a lazy table. */
+        def expire(currentNanos: Long): Unit = {
+            if (cache ne null) cache.expire(currentNanos)
+        }
+
+        def ready: Observable[StateTable.Key] = {
+            if (cache eq null) table.ready else Observable.empty()
+        }
 
-        def isReady: Boolean = table.isReady
+        def isReady: Boolean = (cache ne null) || table.isReady
     }
 
     /** Represents a MAC-port mapping */
@@ -218,13 +251,16 @@ object BridgeMapper {
      * which allows the [[SimulationBridge]] to query the IPv4-MAC mappings.
      * A complete() method stops watching the underlying [[ReplicatedMap]].
      */
-    private class BridgeIpv4MacMap(vt: VirtualTopology, bridgeId: UUID)
+    private class BridgeIpv4MacMap(vt: VirtualTopology, bridgeId: UUID,
+                                   log: Logger)
         extends IpMacMap[IPv4Addr] {
         private val table = vt.stateTables.bridgeArpTable(bridgeId)
-        table.start()
+        private val cache = startTable(vt, table, log)
 
         /** Thread-safe query that gets the IPv4-MAC mapping*/
-        override def get(ip: IPv4Addr): MAC = table.getLocal(ip)
+        override def get(ip: IPv4Addr): MAC = {
+            if (cache eq null) table.getLocal(ip) else cache.get(ip)
+        }
 
         override def put(ip: IPv4Addr, mac: MAC): Unit = {
             table.remove(ip)
@@ -232,11 +268,20 @@ object BridgeMapper {
         }
 
         /** Stops the underlying [[ReplicatedMap]]*/
-        def complete(): Unit = table.stop()
+        def complete(): Unit = {
+            if (cache eq null) table.stop() else cache.complete()
+        }
+
+        /** Expires the cached IPv4-MAC mappings of a lazy table. */
+        def expire(currentNanos: Long): Unit = {
+            if (cache ne null) cache.expire(currentNanos)
+        }
 
-        def ready: Observable[StateTable.Key] = table.ready
+        def ready: Observable[StateTable.Key] = {
+            if (cache eq null) table.ready else Observable.empty()
+        }
 
-        def isReady: Boolean = table.isReady
+        def isReady: Boolean = (cache ne null) || table.isReady
     }
 
     /**
@@ -354,7 +399,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
             vt.config.bridge.macPortMappingExpiry, // Initial delay
             2000L, // Update interval
             MILLISECONDS, // Time unit
-            vt.vtScheduler)
+            vt.vtSchedulerOf(bridgeId))
         .subscribe(makeAction1(onMacExpirationTimer), makeAction1(onThrow))
 
     // A subject that emits updates when the bridge state table have loaded.
@@ -537,7 +582,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
         // If the bridge is ARP-enabled initialize the IPv4-MAC map and
         // subscribe the feedback subject to its ready observable.
         if (vt.config.bridgeArpEnabled && (ipv4MacMap eq null)) {
-            ipv4MacMap = new BridgeIpv4MacMap(vt, bridgeId)
+            ipv4MacMap = new BridgeIpv4MacMap(vt, bridgeId, log)
             stateTableSubject onNext ipv4MacMap.ready
         }
 
@@ -727,6 +772,14 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
     private def onMacExpirationTimer(count: JLong): Unit = {
         log.trace("MAC expiration timer {}", count)
         macLearning.expireEntries(Platform.currentTime)
+
+        val currentNanos = System.nanoTime()
+        for (table <- macLearningTables.values) {
+            table.expire(currentNanos)
+        }
+        if (ipv4MacMap ne null) {
+            ipv4MacMap.expire(currentNanos)
+        }
     }
 
     /**
@@ -390,6 +390,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         val chain = new SimChain(chainId, ruleList, chainMap,
                                  chainProto.getName, metadata,
                                  ruleLoggerTracker.currentRefs.values.toSeq)
+            .compile()
         log.debug("Emitting {}", chain)
         chain
     }
@@ -441,7 +442,8 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
                                    (t: Throwable) => {
                                        traceChainMap.get(chainId) match {
                                            case Some(subject) =>
-                                               subject.doOnTerminate(
+                                               vt.observeOnShard(subject)
+                                                 .doOnTerminate(
                                                    makeAction0(chainDeleted()))
                                            case None => throw t
                                        }
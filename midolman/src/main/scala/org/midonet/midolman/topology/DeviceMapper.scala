@@ -138,6 +138,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     import DeviceMapper.MapperClosedException
 
     private final val key = Key(clazz, id)
+    private final lazy val shard = vt.shardOf(id)
     private final var state = MapperState.Unsubscribed
     private final val cache = BehaviorSubject.create[D]()
     private final val subscriber = Subscribers.from(cache)
@@ -158,7 +159,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     protected def observable: Observable[D]
 
     override final def call(child: Subscriber[_ >: D]): Unit =
-        vt.vtExecutor.submit(makeRunnable {
+        vt.vtExecutors(shard).submit(makeRunnable {
             if (!handleSubscriptionIfTerminal(child)) {
                 if (state == MapperState.Unsubscribed) {
                     state = MapperState.Subscribed
@@ -221,11 +222,11 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     protected def onDeviceChanged(device: D): Unit = {}
 
     /**
-     * Checks that this method is executed on the same thread as the one used
-     * during the initialization of the mapper.
+     * Checks that this method is executed on the thread of the topology shard
+     * of this mapper.
      */
     @throws[DeviceMapperException]
-    @inline protected def assertThread(): Unit = vt.assertThread()
+    @inline protected def assertThread(): Unit = vt.assertThread(shard)
 
     /**
      * Synchronize devices with the new list of deviceIds. Complete and remove
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+import scala.concurrent.duration.Duration
+import scala.util.{Failure, Success}
+
+import rx.{Observable, Subscriber}
+import rx.subjects.PublishSubject
+
+import org.midonet.cluster.data.storage.StateTable
+import org.midonet.cluster.data.storage.StateTable.Update
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+import org.midonet.util.logging.Logger
+
+object LazyStateTable {
+
+    /** A cached entry, where `accessed` indicates whether the entry was
+      * looked up since it was cached. */
+    private final class CachedEntry[V](val value: V, val timestamp: Long) {
+        @volatile var accessed = false
+    }
+
+    /** A copy of the table read at `timestamp`. */
+    private final class Snapshot[K, V](val entries: Map[K, V],
+                                       val timestamp: Long)
+
+}
+
+/**
+  * A bounded cache of the entries looked up in a [[StateTable]], which is
+  * used instead of synchronizing the whole table. The table is started
+  * write-only, such that the entries learned by this agent are still written
+  * to the table, whereas the entries of other writers are fetched on demand:
+  * a lookup for a missing or expired entry returns the cached value, if any,
+  * and requests the entry, and all entries requested while a fetch is in
+  * progress are fetched together by the next read of the table. Since reading
+  * the table returns all its entries, the entries requested within the
+  * `snapshotInterval` of a read are fetched from that copy of the table
+  * instead. Missing entries are cached as well, such that a key that is not
+  * in the table is fetched at most once per expiration interval.
+  *
+  * The `observable` emits an update whenever the cached value of an entry
+  * changes, either because of a fetch or of a write by this agent, and when
+  * an entry is removed from the cache, because it was not looked up during an
+  * expiration interval or to make room for another entry. Therefore, the
+  * flows that depend on a cached value are invalidated at most two
+  * expiration intervals after the entry changes.
+  */
+class LazyStateTable[K, V >: Null <: AnyRef](table: StateTable[K, V],
+                                             capacity: Int,
+                                             expiration: Duration,
+                                             snapshotInterval: Duration,
+                                             log: Logger) {
+
+    import LazyStateTable._
+
+    private val expirationNanos = expiration.toNanos
+    private val snapshotIntervalNanos = snapshotInterval.toNanos
+    @volatile private var snapshot: Snapshot[K, V] = null
+    private val entries = new ConcurrentHashMap[K, CachedEntry[V]]
+    private val requested = new ConcurrentHashMap[K, K]
+    private val fetching = new AtomicBoolean(false)
+    private val subject = PublishSubject.create[Update[K, V]].toSerialized
+
+    // Start the table before subscribing, since a subscription starts a
+    // synchronized table.
+    table.startWriteOnly()
+    private val subscription = table.observable.subscribe(
+        new Subscriber[Update[K, V]] {
+            override def onNext(update: Update[K, V]): Unit = {
+                // A local entry removed from the table may be overwritten by
+                // another writer: fetch it again on the next lookup.
+                if (update.newValue eq null) {
+                    val entry = entries.get(update.key)
+                    if (entry ne null) invalidate(update.key, entry)
+                } else {
+                    cache(update.key, update.newValue, System.nanoTime())
+                }
+            }
+            override def onError(e: Throwable): Unit = { }
+            override def onCompleted(): Unit = { }
+        })
+
+    /** An observable that emits the changes of the cached entries. */
+    def observable: Observable[Update[K, V]] = subject
+
+    /**
+      * Gets the cached value for the given key, and requests the key from
+      * storage if the key is not cached or it has expired.
+      */
+    def get(key: K): V = {
+        val entry = entries.get(key)
+        if (entry eq null) {
+            request(key)
+            null
+        } else {
+            if (!entry.accessed) {
+                entry.accessed = true
+            }
+            if (System.nanoTime() - entry.timestamp > expirationNanos) {
+                request(key)
+            }
+            entry.value
+        }
+    }
+
+    /**
+      * Refreshes the expired entries that were looked up since they were
+      * cached, and removes the other expired entries from the cache. It also
+      * releases the last copy of the table once it can no longer be used.
+      */
+    def expire(currentNanos: Long): Unit = {
+        val lastSnapshot = snapshot
+        if ((lastSnapshot ne null) &&
+            (currentNanos - lastSnapshot.timestamp >= snapshotIntervalNanos)) {
+            snapshot = null
+        }
+        val iterator = entries.entrySet().iterator()
+        while (iterator.hasNext) {
+            val next = iterator.next()
+            val entry = next.getValue
+            if (currentNanos - entry.timestamp > expirationNanos) {
+                if (entry.accessed) {
+                    request(next.getKey)
+                } else {
+                    invalidate(next.getKey, entry)
+                }
+            }
+        }
+    }
+
+    /** Stops the underlying table and completes the observable. */
+    def complete(): Unit = {
+        subscription.unsubscribe()
+        table.stop()
+        subject.onCompleted()
+    }
+
+    def size: Int = entries.size()
+
+    private def request(key: K): Unit = {
+        if (requested.putIfAbsent(key, key) eq null) {
+            fetch()
+        }
+    }
+
+    private def fetch(): Unit = {
+        if (!fetching.compareAndSet(false, true)) {
+            return
+        }
+        val keys = new java.util.ArrayList[K](requested.keySet())
+        val timestamp = System.nanoTime()
+        val lastSnapshot = snapshot
+        if ((lastSnapshot ne null) &&
+            (timestamp - lastSnapshot.timestamp < snapshotIntervalNanos)) {
+            cacheAll(keys, lastSnapshot)
+            fetched()
+            return
+        }
+        table.remoteSnapshot.onComplete {
+            case Success(entries) =>
+                val newSnapshot = new Snapshot(entries, timestamp)
+                snapshot = newSnapshot
+                cacheAll(keys, newSnapshot)
+                fetched()
+            case Failure(e) =>
+                log.warn(s"Failed to fetch ${keys.size()} entries", e)
+                var index = 0
+                while (index < keys.size()) {
+                    requested.remove(keys.get(index))
+                    index += 1
+                }
+                fetched()
+        }(CallingThreadExecutionContext)
+    }
+
+    private def cacheAll(keys: java.util.ArrayList[K],
+                         snapshot: Snapshot[K, V]): Unit = {
+        var index = 0
+        while (index < keys.size()) {
+            val key = keys.get(index)
+            cache(key, snapshot.entries.getOrElse(key, null),
+                  snapshot.timestamp)
+            requested.remove(key)
+            index += 1
+        }
+    }
+
+    private def fetched(): Unit = {
+        fetching.set(false)
+        if (!requested.isEmpty) {
+            fetch()
+        }
+    }
+
+    private def cache(key: K, value: V, timestamp: Long): Unit = {
+        if (entries.size() >= capacity && !entries.containsKey(key)) {
+            evict()
+        }
+        val oldEntry = entries.put(key, new CachedEntry(value, timestamp))
+        val oldValue = if (oldEntry ne null) oldEntry.value else null
+        if (oldValue != value) {
+            subject onNext Update(key, oldValue, value)
+        }
+    }
+
+    private def invalidate(key: K, entry: CachedEntry[V]): Unit = {
+        if (entries.remove(key, entry) && (entry.value ne null)) {
+            subject onNext Update(key, entry.value, null)
+        }
+    }
+
+    /** Evicts arbitrary entries until the cache is below its capacity,
+      * which avoids scanning the cache on every insertion. Evicted entries
+      * are invalidated, such that the flows using them are invalidated too. */
+    private def evict(): Unit = {
+        val iterator = entries.entrySet().iterator()
+        while (entries.size() >= capacity && iterator.hasNext) {
+            val next = iterator.next()
+            invalidate(next.getKey, next.getValue)
+        }
+    }
+
+}
@@ -17,6 +17,7 @@
 package org.midonet.midolman.topology
 
 import java.lang.{Boolean => JBoolean}
+import java.util.concurrent.TimeUnit
 import java.util.{UUID, ArrayList => JArrayList}
 
 import javax.annotation.Nullable
@@ -34,7 +35,7 @@ import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.CallbackRegistry
 import org.midonet.midolman.CallbackRegistry.{CallbackSpec, SerializableCallback}
-import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
+import org.midonet.midolman.layer3.{IPv4StrideRoutingTable, Route}
 import org.midonet.midolman.simulation.Router.{Config, RoutingTable, TagManager}
 import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
@@ -382,17 +383,11 @@ object RouterMapper {
 
     /**
      * Provides an implementation for a router's [[RoutingTable]], wrapping an
-     * underlying IPv4 routing table.
+     * immutable version of the router's IPv4 routing table.
      */
-    private class RouterRoutingTable(routes: mutable.Set[Route])
+    private class RouterRoutingTable(ipv4RoutingTable: IPv4StrideRoutingTable.Version)
         extends RoutingTable {
 
-        private val ipv4RoutingTable = new IPv4RoutingTable()
-
-        for (route <- routes) {
-            ipv4RoutingTable.addRoute(route)
-        }
-
         override def lookup(flowMatch: FlowMatch): java.util.List[Route] = {
             ipv4RoutingTable.lookup(
                 flowMatch.getNetworkSrcIP.asInstanceOf[IPv4Addr],
@@ -441,8 +436,20 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     private val ports = new mutable.HashMap[UUID, PortState]
     private var loadBalancer: LoadBalancerState = null
     // Stores all routes received via notifications from the replicated routing
-    // table.
-    private val routes = new mutable.HashSet[Route]
+    // table. The table is updated incrementally, and every router device
+    // receives an immutable version of it.
+    private val routingTable = new IPv4StrideRoutingTable()
+    // Coalesces the route updates received within a time window into a single
+    // router update.
+    private val routesWindow = vt.config.router.routesCoalescingWindow
+    private val routesPublished = PublishSubject.create[Config]
+    // The worker runs on the shard of the router, where the mapper state is
+    // updated.
+    private val routesWorker = vt.vtSchedulerOf(routerId).createWorker()
+    private var routesModified = false
+    private var routesPublishScheduled = false
+    private var routesPublishTime =
+        System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(routesWindow)
     // Stores routes received via the router's configuration in storage.
     private val localRoutes = new mutable.HashMap[UUID, RouteState]
     private var arpCache: ArpCache = null
@@ -484,6 +491,10 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     private lazy val routesObservable = Observable
         .merge(routesSubject)
         .map[Config](makeFunc1(routingTableUpdated))
+    private lazy val routingTableObservable = Observable
+        .merge(portRoutesObservable, routesObservable)
+        .filter(makeFunc1(isRoutesPublished))
+        .mergeWith(routesPublished)
     private lazy val arpTableObservable = ArpCache
         .createAsObservable(vt, routerId, log)
         .map[Config](makeFunc1(arpCacheCreated))
@@ -518,8 +529,13 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     //                +----------------------+        |                      |
     //                                  +-------------+                      |
     //                                  |  +--------------------------+      |
-    // Routing table: Obs[RouteUpdate] -+->| map(routingTableUpdated) |--+---+
-    //                                     +--------------------------+  |
+    // Routing table: Obs[RouteUpdate] -+->| map(routingTableUpdated) |--+   |
+    //                                     +--------------------------+  |   |
+    //                     +---------------------------------------------+   |
+    //                     |  +----------------------------+                 |
+    //                     +->| filter(isRoutesPublished)  |-----------------+
+    //                        +----------------------------+                 |
+    //                                                                       |
     // +-----------------------------------------------------------------+
     // |  +-----------------+  +-----------------------+  +------------------+
     // +->| takeUntil(mark) |->| filter(isRouterReady) |->| map(buildRouter) |->
@@ -527,8 +543,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     //                                                          SimulationRouter
     protected override lazy val observable: Observable[SimulationRouter] =
         Observable.merge(arpTableObservable,
-                         portRoutesObservable,
-                         routesObservable,
+                         routingTableObservable,
                          traceChainObservable.map[Config](
                              makeFunc1(traceChainUpdated)),
                          chainsTracker.refsObservable.map[Config](makeFunc1(refUpdated)),
@@ -536,6 +551,8 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
                          loadBalancerObservable,
                          routerObservable)
             .takeUntil(mark)
+            .doOnTerminate(makeAction0(routesWorker.unsubscribe()))
+            .doOnUnsubscribe(makeAction0(routesWorker.unsubscribe()))
             .filter(makeFunc1(isRouterReady))
             .map[SimulationRouter](makeFunc1(buildRouter))
 
@@ -717,13 +734,47 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
                   routeUpdates.removed)
         assertThread()
         // Update the current routes.
-        routes ++= routeUpdates.added
-        routes --= routeUpdates.removed
+        routeUpdates.added.foreach(routingTable.addRoute)
+        routeUpdates.removed.foreach(routingTable.deleteRoute)
+        routesModified = true
         vt.tellBackChannel(InvalidateFlows(
             id, routeUpdates.added, routeUpdates.removed))
         config
     }
 
+    /**
+     * Indicates whether a routing table update should update the router
+     * device immediately. The first update after a quiet period is published
+     * immediately, whereas the updates received during the following routes
+     * window are published together when the window ends.
+     */
+    private def isRoutesPublished(cfg: Config): JBoolean = {
+        if (routesWindow <= 0) {
+            return true
+        }
+        val now = System.nanoTime()
+        val elapsed = TimeUnit.NANOSECONDS.toMillis(now - routesPublishTime)
+        if (routesPublishScheduled) {
+            false
+        } else if (elapsed >= routesWindow) {
+            routesPublishTime = now
+            true
+        } else {
+            routesPublishScheduled = true
+            routesWorker.schedule(makeAction0 {
+                routesPublishScheduled = false
+                routesPublishTime = System.nanoTime()
+                // The routes may have been published by another update of
+                // the router in the meantime, and the router may have been
+                // deleted.
+                if (routesModified && !routesWorker.isUnsubscribed) {
+                    routesPublished.onNext(config)
+                }
+            }, routesWindow - elapsed, TimeUnit.MILLISECONDS)
+            false
+        }
+    }
+
     /**
      * Called when the ARP cache of the router is created, and it creates
      * the corresponding ARP table.
@@ -766,6 +817,8 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
             case None => config
         }
 
+        routesModified = false
+        val routes = routingTable.version()
         val device = new SimulationRouter(
             routerId,
             config2,
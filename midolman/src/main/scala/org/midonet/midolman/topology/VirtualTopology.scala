@@ -19,7 +19,7 @@ import java.util.UUID
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.{ConcurrentHashMap, ExecutorService, TimeUnit}
 
-import scala.collection.mutable
+import scala.collection.concurrent.TrieMap
 import scala.concurrent.Future
 import scala.util.control.NonFatal
 
@@ -27,16 +27,18 @@ import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
 import com.google.common.util.concurrent.AbstractService
 
-import rx.Observable
 import rx.Observable.OnSubscribe
+import rx.{Observable, Scheduler}
 import rx.schedulers.Schedulers
 import rx.subjects.Subject
 
-import org.midonet.cluster.data.storage.cached.{StorageWrapper, TopologyCacheClientDiscovery}
+import org.midonet.cluster.data.storage.cached.TopologyCacheClient.{SnapshotResponse, SnapshotVersion}
+import org.midonet.cluster.data.storage.cached.{LocalTopologySnapshot, StorageWrapper, TopologyCacheClientDiscovery}
 import org.midonet.cluster.data.storage.{StateStorage, StateTableStorage, Storage}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.discovery.{MidonetDiscoverySelector, MidonetServiceURI}
-import org.midonet.cluster.topology.snapshot.{TopologySnapshot, TopologySnapshotDeserializer}
+import org.midonet.cluster.topology.snapshot.{TopologySnapshot, TopologySnapshotDeserializer, TopologySnapshotSerializer, applyDelta}
+import org.midonet.conf.HostIdGenerator
 import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.logging.MidolmanLogging
@@ -46,6 +48,7 @@ import org.midonet.midolman.simulation._
 import org.midonet.midolman.topology.devices._
 import org.midonet.midolman.{CallbackRegistry, NotYetException, SimulationBackChannel}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
+import org.midonet.util.concurrent.Executors
 import org.midonet.util.functors._
 import org.midonet.util.reactivex._
 import org.midonet.util.{DefaultRetriable, ImmediateRetriable}
@@ -161,6 +164,15 @@ object VirtualTopology {
  * +------------------------------------------------+
  * | Port/Network/RouterMapper extends DeviceMapper | (1 per device)
  * +------------------------------------------------+
+ *
+ * The devices are mapped by one or more topology threads, according to the
+ * `topology_threads` configuration. Each device mapper is confined to the
+ * thread (or shard) selected by the device identifier, where it processes
+ * its storage updates and the notifications of the devices it references.
+ * When a device observable is subscribed from a shard thread, the
+ * notifications are delivered in order on the subscriber's shard. The first
+ * shard is the `vtExecutor`, which is also used by the other topology
+ * services.
  */
 class VirtualTopology(val backend: MidonetBackend,
                       val config: MidolmanConfig,
@@ -180,8 +192,38 @@ class VirtualTopology(val backend: MidonetBackend,
 
     override def logSource = "org.midonet.devices.devices-service"
 
-    private[midolman] val vtScheduler = Schedulers.from(vtExecutor)
-    private val worker = vtScheduler.createWorker()
+    private val shardCount = Math.max(1, config.topologyThreads)
+    private val currentShard = new ThreadLocal[Integer]
+
+    private[midolman] val vtExecutors: Array[ExecutorService] =
+        Array.tabulate(shardCount) { shard =>
+            if (shard == 0) vtExecutor
+            else Executors.singleThreadScheduledExecutor(
+                s"devices-service-$shard", isDaemon = true,
+                Executors.CallerRunsPolicy)
+        }
+    if (shardCount > 1) {
+        for (shard <- vtExecutors.indices) {
+            vtExecutors(shard).execute(makeRunnable { currentShard.set(shard) })
+        }
+    }
+    private val vtSchedulers = vtExecutors.map(Schedulers.from)
+
+    /**
+     * The scheduler of the virtual topology. When there are several topology
+     * shards, the workers created from a shard thread run on the same shard,
+     * and the workers created from any other thread run on the first shard.
+     */
+    private[midolman] val vtScheduler: Scheduler =
+        if (shardCount == 1) vtSchedulers(0)
+        else new Scheduler {
+            override def createWorker(): Scheduler.Worker = {
+                val shard = currentShard.get
+                vtSchedulers(if (shard eq null) 0 else shard.intValue)
+                    .createWorker()
+            }
+        }
+    private val worker = vtSchedulers(0).createWorker()
 
     private[topology] val devices =
         new ConcurrentHashMap[UUID, Device]()
@@ -191,11 +233,11 @@ class VirtualTopology(val backend: MidonetBackend,
     private val cacheHits = new AtomicLong(0L)
     private val cacheMisses = new AtomicLong(0L)
 
-    private[topology] val metrics = new VirtualTopologyMetrics(
+    private[midolman] val metrics = new VirtualTopologyMetrics(
         metricRegistry, { devices.size() }, { observables.size() },
         { cacheHits.get() }, {  cacheMisses.get() })
 
-    private val traceChains = mutable.Map[UUID, Subject[Chain, Chain]]()
+    private val traceChains = new TrieMap[UUID, Subject[Chain, Chain]]()
 
     private val factories = Map[Class[_], DeviceFactory](
         classOf[BgpPort] -> DeviceFactory(
@@ -245,6 +287,10 @@ class VirtualTopology(val backend: MidonetBackend,
 
     private var snapshot: TopologySnapshot = _
 
+    // Whether the snapshot includes all topology objects, rather than only
+    // the objects relevant to this host.
+    private var snapshotComplete = true
+
     private def snapshotAvailable = config.initialStorageCache.enabled &&
                                     (snapshot ne null)
 
@@ -265,19 +311,48 @@ class VirtualTopology(val backend: MidonetBackend,
                 val cacheClient = new TopologyCacheClientDiscovery(
                     discoverySelector,
                     None)
+                val host =
+                    if (config.initialStorageCache.hostSnapshot)
+                        Some(HostIdGenerator.getHostId)
+                    else None
                 val init = System.nanoTime()
+                val localSnapshot = loadLocalSnapshot()
 
                 retry(log.underlying, "Fetch topology snapshot from cluster") {
-                    val snapshotArray = cacheClient.fetch()
+                    val first = cacheClient.fetch(localSnapshot.map(_._1),
+                                                  host)
+                    val base = localSnapshot.filter(
+                        _._1.version == first.baseVersion)
+                    val response = if (first.isDelta && base.isEmpty) {
+                        // The delta does not apply to the local snapshot:
+                        // fetch the complete snapshot instead.
+                        log.info("Unexpected topology snapshot delta from " +
+                                 s"version ${first.baseVersion}: fetching " +
+                                 "the complete snapshot")
+                        cacheClient.fetch(None, host)
+                    } else first
                     val elapsedReceived = (System.nanoTime() - init) / 1000000
-                    log.debug("Topology snapshot received from cluster " +
-                              s"in $elapsedReceived ms.")
-
-                    val snapshotDecoded = new TopologySnapshotDeserializer()
-                        .deserialize(snapshotArray)
+                    log.debug(s"Topology snapshot ${response.version} " +
+                              s"received from cluster in $elapsedReceived ms " +
+                              s"(${response.data.length} bytes, delta from " +
+                              s"version ${response.baseVersion}).")
+
+                    val deserializer = new TopologySnapshotDeserializer()
+                    val snapshotDecoded = base match {
+                        case Some((_, data)) if response.isDelta =>
+                            applyDelta(deserializer.deserialize(data),
+                                       deserializer.deserialize(response.data))
+                        case _ =>
+                            deserializer.deserialize(response.data)
+                    }
                     val elapsedDecoded =
                         ((System.nanoTime() - init) / 1000000) - elapsedReceived
                     log.debug(s"Topology snapshot decoded in $elapsedDecoded ms.")
+                    metrics.snapshotFetched(elapsedReceived + elapsedDecoded)
+
+                    // A host snapshot does not have a version.
+                    snapshotComplete = host.isEmpty || response.version.nonEmpty
+                    storeLocalSnapshot(response, base, snapshotDecoded)
                     snapshotDecoded
                 }
             } catch {
@@ -291,7 +366,8 @@ class VirtualTopology(val backend: MidonetBackend,
         store = if (snapshotAvailable) {
             val wrapper = new StorageWrapper(config.initialStorageCache.ttlMs,
                                              backend.store,
-                                             snapshot.objectSnapshot)
+                                             snapshot.objectSnapshot,
+                                             snapshotComplete)
             worker.schedule(makeAction0(wrapper.invalidateCache()),
                             config.initialStorageCache.ttlMs,
                             TimeUnit.MILLISECONDS)
@@ -310,6 +386,61 @@ class VirtualTopology(val backend: MidonetBackend,
         notifyStopped()
     }
 
+    /**
+     * Shuts down the executors of the topology shards, except the
+     * `vtExecutor`, and returns the number of tasks that did not run.
+     */
+    private[midolman] def shutdownShardExecutors(): Int = {
+        var remaining = 0
+        for (shard <- 1 until shardCount) {
+            remaining += vtExecutors(shard).shutdownNow().size()
+        }
+        remaining
+    }
+
+    private def localSnapshotFile: Option[LocalTopologySnapshot] = {
+        val path = config.initialStorageCache.snapshotFile
+        if (path.isEmpty) None else Some(new LocalTopologySnapshot(path))
+    }
+
+    private def loadLocalSnapshot(): Option[(SnapshotVersion, Array[Byte])] = {
+        try {
+            localSnapshotFile.flatMap(_.load())
+        } catch {
+            case NonFatal(e) =>
+                log.warn("Unable to load the local topology snapshot", e)
+                None
+        }
+    }
+
+    /**
+      * Stores the topology snapshot locally. When the response is a delta,
+      * the snapshot must be stored before any device deserializes its
+      * objects, because the stored snapshot is encoded from the decoded one.
+      */
+    private def storeLocalSnapshot(response: SnapshotResponse,
+                                   localSnapshot: Option[(SnapshotVersion, Array[Byte])],
+                                   snapshot: TopologySnapshot): Unit = {
+        for (file <- localSnapshotFile; version <- response.version) {
+            try {
+                if (response.isDelta) {
+                    // The merged snapshot cannot be larger than the stored
+                    // snapshot and the delta together.
+                    val buffer = new Array[Byte](
+                        localSnapshot.get._2.length + response.data.length)
+                    val length = new TopologySnapshotSerializer()
+                        .serialize(buffer, snapshot)
+                    file.store(version, buffer, length)
+                } else {
+                    file.store(version, response.data, response.data.length)
+                }
+            } catch {
+                case NonFatal(e) =>
+                    log.warn("Unable to store the local topology snapshot", e)
+            }
+        }
+    }
+
     private def observableOf[D <: Device](clazz: Class[D], id: UUID)
     : Observable[D] = {
         val factory = factories.getOrElse(
@@ -318,6 +449,17 @@ class VirtualTopology(val backend: MidonetBackend,
     }
 
     private def observableOf[D <: Device](factory: DeviceFactory, id: UUID)
+    : Observable[D] = {
+        if (shardCount == 1) {
+            deviceObservable(factory, id)
+        } else {
+            Observable.defer(makeFunc0 {
+                observeOnShard(deviceObservable[D](factory, id))
+            })
+        }
+    }
+
+    private def deviceObservable[D <: Device](factory: DeviceFactory, id: UUID)
     : Observable[D] = {
         val key = Key(factory.clazz, id)
         var observable = observables get key
@@ -332,11 +474,34 @@ class VirtualTopology(val backend: MidonetBackend,
             .onErrorResumeNext(makeFunc1((t: Throwable) => t match {
                 case DeviceMapper.MapperClosedException =>
                     observables.remove(key, observable)
-                    observableOf(factory, id)
+                    deviceObservable(factory, id)
                 case e: Throwable => Observable.error(e)
             }))
     }
 
+    /** Returns the topology shard of the device with the given identifier. */
+    private[topology] def shardOf(id: UUID): Int = {
+        if (shardCount == 1) 0 else (id.hashCode & Int.MaxValue) % shardCount
+    }
+
+    /** Returns the scheduler of the shard of the given device. */
+    private[topology] def vtSchedulerOf(id: UUID): Scheduler =
+        vtSchedulers(shardOf(id))
+
+    /**
+     * Delivers the notifications of the given observable on the topology
+     * shard of the calling thread, if the calling thread is a shard thread
+     * and there is more than one shard. The notifications from a device
+     * mapped on a different shard are queued in order on the shard of the
+     * subscriber.
+     */
+    private[topology] def observeOnShard[T](observable: Observable[T])
+    : Observable[T] = {
+        val shard = currentShard.get
+        if ((shard eq null) || shardCount == 1) observable
+        else observable.observeOn(vtSchedulers(shard.intValue))
+    }
+
     private[topology] def invalidate(tag: FlowTag): Unit = tellBackChannel(tag)
 
     private[topology] def tellBackChannel(msg: BackChannelMessage): Unit =
@@ -375,12 +540,12 @@ class VirtualTopology(val backend: MidonetBackend,
     }
 
     /**
-     * Checks that this method is executed on the virtual topology thread.
+     * Checks that this method is executed on a virtual topology thread.
      */
     @throws[DeviceMapperException]
     @inline
     private[midolman] def assertThread(): Unit = {
-        if (!vtExecutorCheck()) {
+        if ((currentShard.get eq null) && !vtExecutorCheck()) {
             val curThread = Thread.currentThread()
             throw new DeviceMapperException(
                 s"Call expected on VT executor thread but received on " +
@@ -388,6 +553,26 @@ class VirtualTopology(val backend: MidonetBackend,
         }
     }
 
+    /**
+     * Checks that this method is executed on the thread of the given topology
+     * shard.
+     */
+    @throws[DeviceMapperException]
+    @inline
+    private[midolman] def assertThread(shard: Int): Unit = {
+        if (shardCount == 1) {
+            assertThread()
+        } else {
+            val current = currentShard.get
+            if ((current eq null) || current.intValue != shard) {
+                val curThread = Thread.currentThread()
+                throw new DeviceMapperException(
+                    s"Call expected on VT shard $shard thread but received " +
+                    s"on ${curThread.getId} - ${curThread.getName}")
+            }
+        }
+    }
+
     def get[D <: Device](clazz: Class[D], id: UUID): Future[D] = {
         val device = devices.get(id).asInstanceOf[D]
         if (device eq null) {
@@ -24,7 +24,7 @@ import org.slf4j.LoggerFactory
 import org.midonet.packets.FlowStateStore.{IdleExpiration, StateSerializer}
 import org.midonet.util.collection.Reducer
 import org.midonet.util.concurrent.{NanoClock, TimedExpirationMap}
-import org.midonet.util.concurrent.{OffHeapTimedExpirationMap, OnHeapTimedExpirationMap}
+import org.midonet.util.concurrent.{FixedWidthCodec, OffHeapTimedExpirationMap, OnHeapTimedExpirationMap, UnsafeTimedExpirationMap}
 import org.midonet.util.logging.Logger
 
 /**
@@ -236,3 +236,36 @@ class OffHeapShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         }
     }
 }
+
+class UnsafeShardedFlowStateTable[K <: IdleExpiration, V >: Null]
+    (clock: NanoClock = NanoClock.DEFAULT,
+     capacity: Int,
+     keyCodec: FixedWidthCodec[K],
+     valueCodec: FixedWidthCodec[V])
+        extends BaseShardedFlowStateTable[K, V](clock) with AutoCloseable {
+
+    private val maps = new ArrayList[UnsafeTimedExpirationMap[K, V]]()
+
+    override protected def newShard(workerId: Int,
+                                    log: Logger): FlowStateShard = {
+        val shardMap = new UnsafeTimedExpirationMap[K, V](
+            log, _.expiresAfter, capacity, keyCodec, valueCodec)
+        maps.synchronized { maps.add(shardMap) }
+        new FlowStateShard(workerId, log) {
+            override val map = shardMap
+        }
+    }
+
+    /**
+     * Frees the memory of all shards. The table and its shards must not be
+     * used afterwards.
+     */
+    override def close(): Unit = maps.synchronized {
+        var i = 0
+        while (i < maps.size) {
+            maps.get(i).close()
+            i += 1
+        }
+        maps.clear()
+    }
+}
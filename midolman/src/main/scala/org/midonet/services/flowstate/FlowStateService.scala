@@ -91,6 +91,8 @@ class FlowStateService @Inject()(nodeContext: Context,
 
     protected def fileCleaner: Runnable = new FileCleaner()
 
+    protected def segmentLogCommitter: Runnable = new SegmentLogCommitter()
+
     /**
       * Block invalidation task that runs periodically over the existing
       * blocks.
@@ -124,7 +126,9 @@ class FlowStateService @Inject()(nodeContext: Context,
       * When a port is unbound during a reboot, the flow state file won't be
       * removed from storage (because the agent does not know about its
       * existence). Do a regular check on the existing files to see if there
-      * are dangling files that can be removed.
+      * are dangling files that can be removed. Likewise, it removes from the
+      * index of the segmented log the ports that are no longer bound, once
+      * their flow state has expired.
       */
     class FileCleaner extends Runnable {
         override def run(): Unit = {
@@ -134,11 +138,38 @@ class FlowStateService @Inject()(nodeContext: Context,
                                    TimeUnit.NANOSECONDS).toMillis
             log debug s"Erased $erasedFiles flow state files that were not " +
                       s"being used in $elapsed ms."
+
+            if (config.flowState.segmentedLog &&
+                (writeMessageHandler ne null)) {
+                val pruned = ioManager.segmentLog.prune(
+                    writeMessageHandler.cachedOwnedPortIds)
+                if (pruned > 0) {
+                    log debug s"Removed $pruned unbound ports from the flow " +
+                              s"state log."
+                }
+            }
         }
     }
 
-    /** Initializes the background thread running the block invalidator and
-      * the file cleaner tasks. */
+    /**
+      * Group commit task that writes to disk the segments of the segmented
+      * log modified since the previous commit.
+      */
+    class SegmentLogCommitter extends Runnable {
+        override def run(): Unit = {
+            val startTime = System.nanoTime()
+            val committed = ioManager.segmentLog.commit()
+            val elapsed = Duration(System.nanoTime() - startTime,
+                                   TimeUnit.NANOSECONDS).toMillis
+            if (committed > 0) {
+                log debug s"Committed $committed flow state segments in " +
+                          s"$elapsed ms."
+            }
+        }
+    }
+
+    /** Initializes the background thread running the block invalidator, the
+      * file cleaner and the segmented log commit tasks. */
     private[flowstate] def startBackgroundTasks() = {
         if (config.flowState.localPushState) {
             executor.scheduleWithFixedDelay(
@@ -151,6 +182,13 @@ class FlowStateService @Inject()(nodeContext: Context,
                 config.flowState.cleanFilesDelay toMillis,
                 config.flowState.cleanFilesDelay toMillis,
                 TimeUnit.MILLISECONDS)
+            if (config.flowState.segmentedLog) {
+                executor.scheduleWithFixedDelay(
+                    segmentLogCommitter,
+                    config.flowState.commitInterval toMillis,
+                    config.flowState.commitInterval toMillis,
+                    TimeUnit.MILLISECONDS)
+            }
         }
     }
 
@@ -216,6 +254,11 @@ class FlowStateService @Inject()(nodeContext: Context,
                 writer.flush()
             }
 
+            if (config.flowState.localPushState &&
+                config.flowState.segmentedLog) {
+                ioManager.segmentLog.close()
+            }
+
             if (cassandraSession ne null) cassandraSession.close()
             notifyStopped()
         }
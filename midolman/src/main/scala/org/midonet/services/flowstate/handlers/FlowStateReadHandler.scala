@@ -17,7 +17,7 @@ package org.midonet.services.flowstate.handlers
 
 import java.nio.ByteBuffer
 import java.nio.file.FileSystemException
-import java.util.UUID
+import java.util.{List => JList, UUID}
 
 import scala.util.control.NonFatal
 
@@ -67,6 +67,7 @@ class FlowStateReadHandler(context: Context)
 
     private def eof = copyInt(0)
     private val MaxOutstandingBytes = 1024 * 1024 // 1MB
+    private val segmentedLog = context.config.segmentedLog
 
     @VisibleForTesting
     protected def getByteBufferBlockReader(portId: UUID) =
@@ -162,6 +163,10 @@ class FlowStateReadHandler(context: Context)
 
     private def respondRaw(ctx: ChannelHandlerContext, portId: UUID): Unit = {
         try {
+            if (inSegmentedLog(portId)) {
+                writeSegmentedLogToFile(portId)
+            }
+
             val ack = buildAck(portId).toByteArray
             writeAndFlushWithHeader(ctx, ack)
 
@@ -234,8 +239,84 @@ class FlowStateReadHandler(context: Context)
             (f: GenFuture) => { ctx.close() })
     }
 
+    /**
+      * Sends the given flow state messages read from the segmented log,
+      * starting at the given index. The messages already contain the message
+      * length, and are copies of the memory mapped records, such that a
+      * segment recycled by the writer while the messages are sent does not
+      * corrupt them.
+      */
+    private def pipeMessagesToSocket(portId: UUID,
+                                     messages: JList[ByteBuffer],
+                                     start: Int,
+                                     ctx: ChannelHandlerContext): Unit = {
+        var outstandingBytes = 0
+        var index = start
+        while (index < messages.size) {
+            val message = messages.get(index)
+            val f = ctx.write(wrappedBuffer(message))
+            outstandingBytes += message.remaining
+            index += 1
+
+            if (outstandingBytes > MaxOutstandingBytes &&
+                index < messages.size) {
+                val next = index
+                ctx.flush()
+                f.addListener(
+                    (f: GenFuture) => {
+                        try {
+                            if (f.isSuccess) {
+                                pipeMessagesToSocket(portId, messages, next, ctx)
+                            } else {
+                                handleStorageError(ctx, portId, f.cause)
+                            }
+                        } catch {
+                            case NonFatal(e) =>
+                                handleStorageError(ctx, portId, e)}
+                    })
+                return // don't write eof
+            }
+        }
+        ctx.writeAndFlush(eof).addListener(
+            (f: GenFuture) => { ctx.close() })
+    }
+
+    private def inSegmentedLog(portId: UUID): Boolean =
+        segmentedLog && context.ioManager.segmentLog.contains(portId)
+
+    /**
+      * Writes the flow state of a port from the segmented log to the
+      * compressed file of the port, which is the format of the raw transfers
+      * between agents. The compression of the flow state is thus deferred
+      * from the write path to the transfer of the port to a different host.
+      */
+    @throws[FileSystemException]
+    private def writeSegmentedLogToFile(portId: UUID): Unit = {
+        val messages = context.ioManager.segmentLog.messages(portId)
+        val writer = context.ioManager.stateWriter(portId)
+        var index = 0
+        while (index < messages.size) {
+            writer.write(messages.get(index))
+            index += 1
+        }
+        context.ioManager.close(portId)
+        context.ioManager.segmentLog.remove(portId)
+        log debug s"Moved ${messages.size} flow state messages of port " +
+                  s"$portId from the segmented log for a raw transfer"
+    }
+
     private def readFromLocalState(ctx: ChannelHandlerContext,
                                    portId: UUID): Unit = {
+        if (inSegmentedLog(portId)) {
+            try {
+                val messages = context.ioManager.segmentLog.messages(portId)
+                pipeMessagesToSocket(portId, messages, 0, ctx)
+            } catch {
+                case NonFatal(e) => handleStorageError(ctx, portId, e)
+            }
+            return
+        }
+
         // Expire blocks before actually start reading from it. Expiration
         // is done lazily to avoid excessive delays on the boot sequence.
         try {
@@ -46,6 +46,7 @@ private[flowstate] final class PerThreadContext(
 
     private val headerBuff = ByteBuffer.allocate(FlowStateInternalMessageHeaderSize)
     private val bodyBuff = ByteBuffer.allocate(MaxMessageSize)
+    private val messageBuff = ByteBuffer.allocate(MaxMessageSize)
     private val portsSet = new util.ArrayList[UUID]()
 
     val encoder = new SbeEncoder()
@@ -60,6 +61,11 @@ private[flowstate] final class PerThreadContext(
         bodyBuff
     }
 
+    def message(): ByteBuffer = {
+        messageBuff.clear()
+        messageBuff
+    }
+
     def matchingPorts(): util.ArrayList[UUID] = {
         portsSet.clear()
         portsSet
@@ -81,6 +87,7 @@ class FlowStateWriteHandler(context: Context,
 
     private val legacyPushState = context.config.legacyPushState
     private val localPushState = context.config.localPushState
+    private val segmentedLog = context.config.segmentedLog
 
     /**
       * Thread context private copy. Necessary as the FlowStateStorage
@@ -124,6 +131,8 @@ class FlowStateWriteHandler(context: Context,
             messageType match {
                 case FlowStateInternalMessageType.FlowStateMessage =>
                     handleFlowStateMessage(body)
+                case FlowStateInternalMessageType.FlowStateMessageBatch =>
+                    handleFlowStateMessageBatch(body)
                 case FlowStateInternalMessageType.OwnedPortsUpdate =>
                     handleUpdateOwnedPorts(body)
                 case _ =>
@@ -142,6 +151,20 @@ class FlowStateWriteHandler(context: Context,
         }
     }
 
+    private def handleFlowStateMessageBatch(buffer: ByteBuffer): Unit = {
+        // The messages are decoded from the start of the buffer array, so
+        // copy each message of the batch to the message buffer.
+        val message = contextProvider.get.message()
+        while (buffer.remaining > 4) {
+            val messageSize = buffer.getInt
+            message.clear()
+            message.put(buffer.array, buffer.position, messageSize)
+            message.flip()
+            buffer.position(buffer.position + messageSize)
+            handleFlowStateMessage(message)
+        }
+    }
+
     private def handleUpdateOwnedPorts(buffer: ByteBuffer): Unit = {
         var ownedPorts = Set.empty[UUID]
         while (buffer.position < buffer.limit()) {
@@ -244,13 +267,23 @@ class FlowStateWriteHandler(context: Context,
             val (ingressPortId, egressPortIds) = portIdsFromSbe(portsIter.next)
             val matchingPorts = matchPorts(ingressPortId, egressPortIds)
             try {
-                val matchingPortsIter = matchingPorts.iterator
-                while (matchingPortsIter.hasNext) {
-                    val portId = matchingPortsIter.next
-                    val writer = getFlowStateWriter(portId)
-                    writer.synchronized {
-                        log debug s"Writing flow state message to $portId writer."
-                        writer.write(encoder)
+                if (segmentedLog) {
+                    if (!matchingPorts.isEmpty) {
+                        log debug s"Writing flow state message to the log " +
+                                  s"for ports $matchingPorts."
+                        context.ioManager.segmentLog.append(
+                            matchingPorts, encoder.flowStateBuffer.byteArray(),
+                            encoder.decodedLength())
+                    }
+                } else {
+                    val matchingPortsIter = matchingPorts.iterator
+                    while (matchingPortsIter.hasNext) {
+                        val portId = matchingPortsIter.next
+                        val writer = getFlowStateWriter(portId)
+                        writer.synchronized {
+                            log debug s"Writing flow state message to $portId writer."
+                            writer.write(encoder)
+                        }
                     }
                 }
                 true
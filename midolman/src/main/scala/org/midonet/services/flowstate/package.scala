@@ -31,10 +31,14 @@ package object flowstate {
       * | if UUID list -> big endian (msb, lsb)              |
       * |                                                    |
       * +----------------------------------------------------+
+      *
+      * A batch of flow state messages contains the consecutive messages, each
+      * preceded by its size in bytes (4 bytes).
       */
     object FlowStateInternalMessageType {
         val FlowStateMessage: Int = 0x01
         val OwnedPortsUpdate: Int = 0x02
+        val FlowStateMessageBatch: Int = 0x03
     }
 
 
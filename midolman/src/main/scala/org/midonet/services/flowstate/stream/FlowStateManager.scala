@@ -66,6 +66,14 @@ class FlowStateManager(config: FlowStateConfig) extends Logging {
       */
     val writersToRemove = TrieMap.empty[UUID, BlockWriter]
 
+    /**
+      * The shared log of flow state messages, used instead of the per port
+      * files when enabled in the configuration. Its segments are stored in
+      * a directory next to the storage directory.
+      */
+    lazy val segmentLog = new FlowStateSegmentLog(config,
+                                                  s"$storageDirectory-log")
+
     /**
       * Open memory mapped backed file with read/write access. If the file
       * exists, it loads the current metadata (headers, initial block and
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.services.flowstate.stream
+
+import java.nio.channels.FileChannel
+import java.nio.channels.FileChannel.MapMode
+import java.nio.file.{Files, Paths, StandardOpenOption}
+import java.nio.{ByteBuffer, ByteOrder, MappedByteBuffer}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.{ArrayList => JArrayList, List => JList, UUID}
+
+import scala.util.control.NonFatal
+
+import org.agrona.concurrent.UnsafeBuffer
+
+import org.midonet.midolman.config.FlowStateConfig
+import org.midonet.services.FlowStateStreamLog
+import org.midonet.util.logging.Logging
+
+object FlowStateSegmentLog {
+
+    /** Segment header: the generation of the segment (4 bytes) and padding
+      * (4 bytes). */
+    final val SegmentHeaderSize = 8
+
+    /** Record header: the generation of the segment (4 bytes), the number of
+      * ports (4 bytes), the time of the record (8 bytes) and the port
+      * identifiers (16 bytes per port), followed by the message length
+      * (4 bytes) and the message. */
+    final val RecordHeaderSize = 16
+
+    private final val Order = ByteOrder.BIG_ENDIAN
+
+    /** Converts a value to be written in native order to the log order. */
+    @inline private def ordered(value: Int): Int =
+        if (ByteOrder.nativeOrder eq Order) value
+        else Integer.reverseBytes(value)
+
+    @inline private def nextGeneration(generation: Int): Int = {
+        val next = (generation + 1) & 0xffffff
+        if (next == 0) 1 else next
+    }
+
+    private[stream] final class Segment(val slot: Int,
+                                        val channel: FileChannel,
+                                        val buffer: MappedByteBuffer) {
+        val unsafe = new UnsafeBuffer(buffer)
+        val position = new AtomicInteger(SegmentHeaderSize)
+        @volatile var generation = unsafe.getInt(0, Order)
+        @volatile var dirty = false
+    }
+
+    /**
+      * The locations of the records of a port, each encoded as the segment
+      * generation, the segment slot and the record offset.
+      */
+    private final class PortIndex {
+        private var entries = new Array[Long](16)
+        private var count = 0
+
+        def add(entry: Long, segments: Array[Segment]): Unit = synchronized {
+            if (count == entries.length) {
+                compact(segments)
+                if (count > entries.length * 3 / 4) {
+                    entries = java.util.Arrays.copyOf(entries, entries.length * 2)
+                }
+            }
+            entries(count) = entry
+            count += 1
+        }
+
+        def snapshot(): Array[Long] = synchronized {
+            java.util.Arrays.copyOf(entries, count)
+        }
+
+        /** Removes the entries of recycled segments, and returns whether any
+          * of the remaining records was written after the given time. */
+        def live(segments: Array[Segment], expiration: Long): Boolean =
+            synchronized {
+                compact(segments)
+                var live = false
+                var i = 0
+                while (!live && i < count) {
+                    val segment = segments(slotOf(entries(i)))
+                    live = segment.unsafe.getLong(offsetOf(entries(i)) + 8,
+                                                  Order) >= expiration
+                    i += 1
+                }
+                live
+            }
+
+        /** Removes the entries of recycled segments. */
+        private def compact(segments: Array[Segment]): Unit = {
+            var i = 0
+            var j = 0
+            while (i < count) {
+                if (isCurrent(entries(i), segments)) {
+                    entries(j) = entries(i)
+                    j += 1
+                }
+                i += 1
+            }
+            count = j
+        }
+    }
+
+    @inline private def entry(generation: Int, slot: Int, offset: Int): Long =
+        (generation.toLong << 40) | ((slot & 0xff).toLong << 32) |
+        (offset & 0xffffffffL)
+
+    @inline private def generationOf(entry: Long): Int =
+        ((entry >>> 40) & 0xffffff).toInt
+
+    @inline private def slotOf(entry: Long): Int = ((entry >>> 32) & 0xff).toInt
+
+    @inline private def offsetOf(entry: Long): Int = entry.toInt
+
+    private def isCurrent(entry: Long, segments: Array[Segment]): Boolean =
+        (segments(slotOf(entry)).generation & 0xffffff) == generationOf(entry)
+
+    /**
+      * Returns the slot of the segment written last. The writers move from
+      * a segment to the next slot with the next generation, such that the
+      * last segment is the one whose next slot does not continue its
+      * generation, which also holds when the generations wrap around.
+      */
+    private def lastSlot(segments: Array[Segment]): Int = {
+        var slot = 0
+        while (slot < segments.length) {
+            val next = segments((slot + 1) % segments.length)
+            if (next.generation != nextGeneration(segments(slot).generation)) {
+                return slot
+            }
+            slot += 1
+        }
+        0
+    }
+}
+
+/**
+  * A shared, append-only log of flow state messages for all the ports bound
+  * to the agent, as an alternative to one memory mapped file per port. The
+  * log is made of a fixed number of large memory mapped segments, written
+  * in a circular fashion: when the current segment is full, the writers move
+  * to the oldest segment, which is recycled together with the flow state it
+  * contains.
+  *
+  * Writers append records without locks, by reserving the space of their
+  * record in the current segment. Every record contains the message and
+  * the ports it applies to, such that a message is written once regardless
+  * of the number of ports. An in-memory index keeps the location of the
+  * records of every port, and is rebuilt by scanning the segments when the
+  * log is opened. The segments are written to disk by the periodic commit,
+  * which forces all segments modified since the previous commit at once.
+  *
+  * The records are stored uncompressed to keep the write path short. They
+  * are copied out of the memory mapped segments when read, since a segment
+  * may be recycled while the messages are sent to a socket.
+  */
+class FlowStateSegmentLog(config: FlowStateConfig, directory: String)
+    extends Logging {
+
+    import FlowStateSegmentLog._
+
+    override def logSource = FlowStateStreamLog
+    override def logMark = "FlowStateSegmentLog"
+
+    private val segmentSize = config.segmentSize
+    private val expirationTime = config.expirationTime.toMillis
+    private val index = new ConcurrentHashMap[UUID, PortIndex]()
+
+    private val segments: Array[Segment] = open()
+    @volatile private var current: Segment = segments(lastSlot(segments))
+
+    /**
+      * Appends the given encoded flow state message to the log, for the given
+      * ports.
+      */
+    def append(portIds: JList[UUID], message: Array[Byte], length: Int): Unit = {
+        val headerSize = RecordHeaderSize + 16 * portIds.size + LengthSize
+        val recordSize = headerSize + length
+        if (recordSize > segmentSize - SegmentHeaderSize) {
+            throw new IllegalArgumentException(
+                s"Flow state message of $length bytes is larger than the " +
+                s"segment size")
+        }
+        while (true) {
+            val segment = current
+            val generation = segment.generation
+            val offset = segment.position.getAndAdd(recordSize)
+            if (offset.toLong + recordSize <= segmentSize) {
+                val unsafe = segment.unsafe
+                var position = offset + 4
+                unsafe.putInt(position, portIds.size, Order)
+                unsafe.putLong(position + 4, System.currentTimeMillis(), Order)
+                position += 12
+                var i = 0
+                while (i < portIds.size) {
+                    val portId = portIds.get(i)
+                    unsafe.putLong(position, portId.getMostSignificantBits, Order)
+                    unsafe.putLong(position + 8, portId.getLeastSignificantBits,
+                                   Order)
+                    position += 16
+                    i += 1
+                }
+                unsafe.putInt(position, length, Order)
+                unsafe.putBytes(position + LengthSize, message, 0, length)
+                // The generation is written last, and marks the record as
+                // complete when scanning the segment.
+                unsafe.putIntOrdered(offset, ordered(generation))
+                segment.dirty = true
+
+                i = 0
+                while (i < portIds.size) {
+                    portIndex(portIds.get(i))
+                        .add(entry(generation, segment.slot, offset), segments)
+                    i += 1
+                }
+                return
+            }
+            roll(segment)
+        }
+    }
+
+    /** Whether the log contains any records for the given port. */
+    def contains(portId: UUID): Boolean = index.containsKey(portId)
+
+    /**
+      * Returns the flow state messages of the given port that have not
+      * expired, in the order they were written. Every message is a copy of
+      * the message length followed by the message, and the messages of the
+      * segments recycled while copying are discarded.
+      */
+    def messages(portId: UUID): JList[ByteBuffer] = {
+        val result = new JArrayList[ByteBuffer]()
+        val portIndex = index.get(portId)
+        if (portIndex eq null) {
+            return result
+        }
+        val expiration = System.currentTimeMillis() - expirationTime
+        val entries = portIndex.snapshot()
+        var i = 0
+        while (i < entries.length) {
+            val entry = entries(i)
+            if (isCurrent(entry, segments)) {
+                val segment = segments(slotOf(entry))
+                val offset = offsetOf(entry)
+                val ports = segment.unsafe.getInt(offset + 4, Order)
+                val time = segment.unsafe.getLong(offset + 8, Order)
+                if (time >= expiration) {
+                    val position = offset + RecordHeaderSize + 16 * ports
+                    val length = segment.unsafe.getInt(position, Order)
+                    if (length >= 0 &&
+                        position.toLong + LengthSize + length <= segmentSize) {
+                        val message = new Array[Byte](LengthSize + length)
+                        segment.unsafe.getBytes(position, message)
+                        if (isCurrent(entry, segments)) {
+                            result.add(ByteBuffer.wrap(message))
+                        }
+                    }
+                }
+            }
+            i += 1
+        }
+        result
+    }
+
+    /** Removes the records of the given port from the index. */
+    def remove(portId: UUID): Unit = index.remove(portId)
+
+    /**
+      * Removes from the index the ports that are no longer bound and whose
+      * records have all been recycled or have expired, and returns the
+      * number of ports removed. The records of the unbound ports are kept
+      * while they may still be transferred to another host.
+      */
+    def prune(boundPorts: Set[UUID]): Int = {
+        val expiration = System.currentTimeMillis() - expirationTime
+        var pruned = 0
+        val iterator = index.entrySet().iterator()
+        while (iterator.hasNext) {
+            val entry = iterator.next()
+            if (!boundPorts.contains(entry.getKey) &&
+                !entry.getValue.live(segments, expiration)) {
+                iterator.remove()
+                pruned += 1
+            }
+        }
+        pruned
+    }
+
+    /**
+      * Writes to disk the segments modified since the last commit, and
+      * returns the number of segments written.
+      */
+    def commit(): Int = {
+        var committed = 0
+        var i = 0
+        while (i < segments.length) {
+            val segment = segments(i)
+            if (segment.dirty) {
+                segment.dirty = false
+                segment.buffer.force()
+                committed += 1
+            }
+            i += 1
+        }
+        committed
+    }
+
+    /** Commits and closes all segments. */
+    def close(): Unit = {
+        commit()
+        for (segment <- segments) {
+            try segment.channel.close()
+            catch { case NonFatal(e) => }
+        }
+    }
+
+    private def portIndex(portId: UUID): PortIndex = {
+        var portIndex = index.get(portId)
+        if (portIndex eq null) {
+            portIndex = new PortIndex
+            val previous = index.putIfAbsent(portId, portIndex)
+            if (previous ne null) {
+                portIndex = previous
+            }
+        }
+        portIndex
+    }
+
+    /**
+      * Moves the writers from the given full segment to the oldest segment,
+      * discarding its records.
+      */
+    private def roll(full: Segment): Unit = synchronized {
+        if (current eq full) {
+            val next = segments((full.slot + 1) % segments.length)
+            val generation = nextGeneration(full.generation)
+            next.unsafe.putInt(0, generation, Order)
+            next.unsafe.putInt(SegmentHeaderSize, 0)
+            next.generation = generation
+            next.position.set(SegmentHeaderSize)
+            next.dirty = true
+            current = next
+            log debug s"Recycled flow state segment ${next.slot} with " +
+                      s"generation $generation"
+        }
+    }
+
+    private def open(): Array[Segment] = {
+        Files.createDirectories(Paths.get(directory))
+        val segments = new Array[Segment](config.segmentCount)
+        for (slot <- segments.indices) {
+            val channel = FileChannel.open(Paths.get(s"$directory/$slot"),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE)
+            val buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize)
+            segments(slot) = new Segment(slot, channel, buffer)
+        }
+        // Scan the segments in the order they were written, from the one
+        // following the last segment, such that the records of every port
+        // are indexed in write order.
+        val last = lastSlot(segments)
+        for (i <- 1 to segments.length) {
+            scan(segments((last + i) % segments.length), segments)
+        }
+        // A new log starts writing to the first segment.
+        if (segments.forall(_.generation == 0)) {
+            segments(0).unsafe.putInt(0, 1, Order)
+            segments(0).generation = 1
+        }
+        segments
+    }
+
+    /**
+      * Rebuilds the index of the records of the given segment, and sets the
+      * write position after its last record.
+      */
+    private def scan(segment: Segment, segments: Array[Segment]): Unit = {
+        val unsafe = segment.unsafe
+        var offset = SegmentHeaderSize
+        var records = 0
+        while (offset + RecordHeaderSize <= segmentSize &&
+               unsafe.getInt(offset, Order) == segment.generation &&
+               segment.generation != 0) {
+            val ports = unsafe.getInt(offset + 4, Order)
+            var position = offset + RecordHeaderSize
+            var i = 0
+            while (i < ports) {
+                val portId = new UUID(unsafe.getLong(position, Order),
+                                      unsafe.getLong(position + 8, Order))
+                portIndex(portId).add(entry(segment.generation, segment.slot,
+                                            offset), segments)
+                position += 16
+                i += 1
+            }
+            offset = position + LengthSize + unsafe.getInt(position, Order)
+            records += 1
+        }
+        segment.position.set(offset)
+        log debug s"Loaded $records flow state records from segment " +
+                  s"${segment.slot} with generation ${segment.generation}"
+    }
+}
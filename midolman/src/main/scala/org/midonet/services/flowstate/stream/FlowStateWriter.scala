@@ -63,6 +63,12 @@ trait FlowStateWriter extends Closeable with Flushable with Clearable {
       * data stream.
       */
     def write(encoder: SbeEncoder): Unit
+
+    /**
+      * Write the flow state message contained in the given buffer, preceded
+      * by its length, into the data stream.
+      */
+    def write(message: ByteBuffer): Unit
 }
 
 protected[flowstate] class FlowStateWriterImpl(val config: FlowStateConfig,
@@ -84,6 +90,12 @@ protected[flowstate] class FlowStateWriterImpl(val config: FlowStateConfig,
         out.write(buff.array(), 0, LengthSize + msgSize)
     }
 
+    def write(message: ByteBuffer): Unit = {
+        buff.clear()
+        buff.put(message.duplicate())
+        out.write(buff.array(), 0, buff.position())
+    }
+
     /**
       * Refer to [[Flushable#flush]]
       */
@@ -210,6 +210,13 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerPol
   return expirer->poll_for_expired(now);
 }
 
+jlong
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerPollForExpiredOfType
+(JNIEnv *env, jclass, jlong pointer, jlong now, jint expirationType) {
+  auto expirer = reinterpret_cast<FlowExpirationIndexer*>(pointer);
+  return expirer->poll_for_expired(now, expirationType);
+}
+
 jlong
 Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerEvictFlow
 (JNIEnv *env, jclass, jlong pointer) {
@@ -39,6 +39,18 @@ FlowId FlowExpirationIndexer::poll_for_expired(long long now) {
   }
 }
 
+FlowId FlowExpirationIndexer::poll_for_expired(long long now,
+                                               int expiration_type) {
+  ExpirationQueue& queue = m_expiration_queues[expiration_type];
+  if (!queue.empty() && now >= queue.front().second) {
+    FlowId flow_id = queue.front().first;
+    queue.pop();
+    return flow_id;
+  } else {
+    return NULL_ID;
+  }
+}
+
 FlowId FlowExpirationIndexer::evict_flow() {
   return poll_for_expired(std::numeric_limits<long long>::max());
 }
@@ -25,6 +25,7 @@ public:
 
   void enqueue_flow_expiration(FlowId id, long long expiration, int expiration_type);
   FlowId poll_for_expired(long long now);
+  FlowId poll_for_expired(long long now, int expiration_type);
   FlowId evict_flow();
 
 private:
@@ -97,6 +97,23 @@ TEST(FlowExpirationIndexer, test_multiple_expiration_types_in_order) {
   ASSERT_EQ(expirer->poll_for_expired(now), NULL_ID);
 }
 
+TEST(FlowExpirationIndexer, test_poll_expiration_type) {
+  FlowExpirationIndexer *expirer = new FlowExpirationIndexer();
+
+  long long now = 0;
+
+  expirer->enqueue_flow_expiration(10, now+error_exp, error_type);
+  expirer->enqueue_flow_expiration(20, now+flow_exp, flow_type);
+
+  ASSERT_EQ(expirer->poll_for_expired(now, flow_type), NULL_ID);
+
+  now += duration_cast<nanoseconds>(minutes(10)).count();
+
+  ASSERT_EQ(expirer->poll_for_expired(now, flow_type), 20);
+  ASSERT_EQ(expirer->poll_for_expired(now, flow_type), NULL_ID);
+  ASSERT_EQ(expirer->poll_for_expired(now), 10);
+}
+
 TEST(FlowExpirationIndexer, test_evict_flows) {
   FlowExpirationIndexer *expirer = new FlowExpirationIndexer();
 
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import com.google.protobuf.Message
+
+import org.midonet.cluster.topology.TopologyBuilder
+
+/**
+ * Compares the cost of encoding and decoding ZOOM objects in text and binary
+ * formats. The encoded size of each object is printed during setup.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class ZoomSerializerBenchmark extends TopologyBuilder {
+
+    @Param(Array("port", "router", "chain"))
+    var objectType: String = _
+
+    @Param(Array("text", "binary"))
+    var format: String = _
+
+    var message: Message = _
+    var data: Array[Byte] = _
+    var binary: Boolean = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        message = objectType match {
+            case "port" =>
+                createRouterPort(routerId = Some(UUID.randomUUID),
+                                 inboundFilterId = Some(UUID.randomUUID),
+                                 outboundFilterId = Some(UUID.randomUUID),
+                                 peerId = Some(UUID.randomUUID),
+                                 hostId = Some(UUID.randomUUID),
+                                 interfaceName = Some("tap0123456789a"),
+                                 adminStateUp = true,
+                                 portGroupIds = Set(UUID.randomUUID),
+                                 routeIds = Set(UUID.randomUUID,
+                                                UUID.randomUUID))
+            case "router" =>
+                createRouter(name = Some("router"),
+                             adminStateUp = true,
+                             inboundFilterId = Some(UUID.randomUUID),
+                             outboundFilterId = Some(UUID.randomUUID),
+                             routeIds = Seq.fill(16)(UUID.randomUUID),
+                             portIds = Seq.fill(16)(UUID.randomUUID).toSet)
+            case "chain" =>
+                createChain(name = Some("security-group"),
+                            ruleIds = Seq.fill(64)(UUID.randomUUID).toSet)
+        }
+        binary = format == "binary"
+        data = ZoomSerializer.serialize(message, binary)
+        println(s"Encoded $objectType as $format: ${data.length} bytes")
+    }
+
+    @Benchmark
+    def encode(): Array[Byte] = {
+        ZoomSerializer.serialize(message, binary)
+    }
+
+    @Benchmark
+    def decode(): Message = {
+        ZoomSerializer.deserialize(data, message.getClass)
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.state.ConnTrackState._
+import org.midonet.packets.IPv4Addr
+import org.midonet.sdn.state.{FlowStateTable, FlowStateTransaction, OnHeapShardedFlowStateTable}
+
+object WorkerScalingBenchmark {
+
+    val KeysPerWorker = 4096
+
+    /**
+     * The state of a packet worker: it owns a shard of the connection
+     * tracking table and writes to it through a transaction, the same way
+     * the packet workflow does.
+     */
+    @State(Scope.Thread)
+    class Worker {
+        var keys: Array[ConnTrackKey] = _
+        var peerKeys: Array[ConnTrackKey] = _
+        var tx: FlowStateTransaction[ConnTrackKey, ConnTrackValue] = _
+        var index = 0
+
+        @JmhSetup
+        def setup(benchmark: WorkerScalingBenchmark): Unit = {
+            val id = benchmark.nextWorker.getAndIncrement()
+            tx = new FlowStateTransaction(benchmark.shards(id % benchmark.workers))
+            keys = benchmark.keys(id % benchmark.workers)
+            peerKeys = benchmark.keys((id + 1) % benchmark.workers)
+        }
+    }
+}
+
+/**
+ * Measures how the per-worker connection tracking throughput changes with
+ * the number of packet workers. Each JMH thread acts as a packet worker that
+ * owns one shard, so the number of threads must match the number of workers:
+ *
+ *   -t 1 -p workers=1, -t 8 -p workers=8, -t 64 -p workers=64, ...
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class WorkerScalingBenchmark {
+
+    import WorkerScalingBenchmark._
+
+    @Param(Array("1", "2", "4", "8", "16", "32", "64"))
+    var workers: Int = _
+
+    var table: OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue] = _
+    var shards: Array[FlowStateTable[ConnTrackKey, ConnTrackValue]] = _
+    var keys: Array[Array[ConnTrackKey]] = _
+    val nextWorker = new AtomicInteger()
+
+    @JmhSetup
+    def setup(): Unit = {
+        table = new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue]
+        shards = Array.fill[FlowStateTable[ConnTrackKey, ConnTrackValue]](
+            workers)(table.addShard())
+        keys = Array.fill(workers) {
+            val deviceId = UUID.randomUUID()
+            Array.fill(KeysPerWorker) {
+                ConnTrackKey(IPv4Addr.random, 1024, IPv4Addr.random, 80,
+                             6.toByte, deviceId)
+            }
+        }
+        nextWorker.set(0)
+    }
+
+    /**
+     * A forward packet of a new connection: looks up the connection tracking
+     * key, which misses in every shard, and commits a new entry.
+     */
+    @Benchmark
+    def forwardFlow(worker: Worker): ConnTrackValue = {
+        val key = worker.keys(worker.index & (KeysPerWorker - 1))
+        worker.index += 1
+        val value = worker.tx.get(key)
+        if (value eq null) {
+            worker.tx.putAndRef(key, java.lang.Boolean.TRUE)
+            worker.tx.commit()
+            worker.tx.flush()
+        }
+        value
+    }
+
+    /**
+     * A return packet processed by a different worker than the one that
+     * created the connection tracking entry.
+     */
+    @Benchmark
+    def returnFlow(worker: Worker): ConnTrackValue = {
+        val key = worker.peerKeys(worker.index & (KeysPerWorker - 1))
+        worker.index += 1
+        worker.tx.get(key)
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.concurrent.TimeUnit
+import java.util.{List => JList, Random, UUID}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.packets.IPv4Addr
+
+/**
+ * Measures the route lookup time of the binary trie and the multi-bit trie
+ * versus the number of routes. The routes follow the prefix length
+ * distribution of an Internet routing table, with most prefixes being /24.
+ * The heap used by the table is printed when the table is built.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Xmx4g"))
+@State(Scope.Thread)
+class RoutingTableBenchmark {
+
+    @Param(Array("10000", "100000", "1000000"))
+    var routes: Int = _
+
+    @Param(Array("legacy", "stride"))
+    var table: String = _
+
+    private val random = new Random(1234)
+    private val src = IPv4Addr.fromString("10.0.0.1")
+    private val addresses = new Array[IPv4Addr](1024)
+    private var routingTable: RoutingTableIfc[IPv4Addr] = _
+    private var index = 0
+
+    private def prefixLength(): Int = {
+        val p = random.nextInt(100)
+        if (p < 60) 24
+        else if (p < 75) 22 + random.nextInt(2)
+        else if (p < 90) 16 + random.nextInt(6)
+        else if (p < 98) 8 + random.nextInt(8)
+        else 25 + random.nextInt(8)
+    }
+
+    private def usedHeap(): Long = {
+        System.gc()
+        val runtime = Runtime.getRuntime
+        runtime.totalMemory - runtime.freeMemory
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        val before = usedHeap()
+        routingTable = table match {
+            case "legacy" => new IPv4RoutingTable
+            case "stride" => new IPv4StrideRoutingTable
+        }
+        routingTable.addRoute(Route.defaultRoute(UUID.randomUUID, 100, null))
+        for (i <- 0 until routes) {
+            val length = prefixLength()
+            val address = random.nextInt() & (-1 << (32 - length))
+            routingTable.addRoute(new Route(0, 0, address, length,
+                                            NextHop.PORT, UUID.randomUUID, 0,
+                                            100, null, null))
+        }
+        // Builds the snapshot of the multi-bit trie.
+        routingTable.lookup(src, src)
+        println(s"Routing table heap: ${(usedHeap() - before) >> 20} MB")
+
+        for (i <- addresses.indices) {
+            addresses(i) = IPv4Addr.fromInt(random.nextInt())
+        }
+    }
+
+    @Benchmark
+    def lookup(): JList[Route] = {
+        index = (index + 1) & (addresses.length - 1)
+        routingTable.lookup(src, addresses(index))
+    }
+}
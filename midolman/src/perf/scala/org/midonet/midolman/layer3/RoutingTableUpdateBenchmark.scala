@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.concurrent.TimeUnit
+import java.util.{Random, UUID}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.layer3.Route.NextHop
+
+/**
+ * Measures the cost of publishing a new version of a router's routing table
+ * after a route flap, versus the number of routes. The rebuild mode builds
+ * the table from all its routes, as the router mapper did for every update,
+ * whereas the incremental mode updates the table in place and takes a new
+ * version that shares the unmodified parts of the previous one.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Xmx4g"))
+@State(Scope.Thread)
+class RoutingTableUpdateBenchmark {
+
+    @Param(Array("10000", "100000", "500000"))
+    var routes: Int = _
+
+    @Param(Array("rebuild", "incremental"))
+    var mode: String = _
+
+    private val random = new Random(1234)
+    private var allRoutes: Array[Route] = _
+    private var table: IPv4StrideRoutingTable = _
+    private var index = 0
+    private var flapped = false
+
+    private def prefixLength(): Int = {
+        val p = random.nextInt(100)
+        if (p < 60) 24
+        else if (p < 75) 22 + random.nextInt(2)
+        else if (p < 90) 16 + random.nextInt(6)
+        else if (p < 98) 8 + random.nextInt(8)
+        else 25 + random.nextInt(8)
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        allRoutes = Array.fill(routes) {
+            val length = prefixLength()
+            val address = random.nextInt() & (-1 << (32 - length))
+            new Route(0, 0, address, length, NextHop.PORT, UUID.randomUUID,
+                      0, 100, null, null)
+        }
+        table = new IPv4StrideRoutingTable
+        allRoutes.foreach(table.addRoute)
+        table.version()
+    }
+
+    @Benchmark
+    def routeFlap(): IPv4StrideRoutingTable.Version = {
+        // Withdraws a route, or announces it again.
+        val route = allRoutes(index)
+        if (flapped) {
+            table.addRoute(route)
+            index = (index + 1) % allRoutes.length
+        } else {
+            table.deleteRoute(route)
+        }
+        flapped = !flapped
+
+        if (mode == "rebuild") {
+            val rebuilt = new IPv4StrideRoutingTable
+            allRoutes.foreach(rebuilt.addRoute)
+            if (flapped) rebuilt.deleteRoute(route)
+            rebuilt.version()
+        } else {
+            table.version()
+        }
+    }
+}
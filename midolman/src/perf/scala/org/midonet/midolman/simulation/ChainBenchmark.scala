@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap, UUID}
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.rules.{Condition, LiteralRule, Rule, RuleResult}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4Addr, IPv4Subnet, TCP, UDP}
+import org.midonet.util.Range
+
+/**
+ * Measures the simulation time of a security group chain versus the number
+ * of rules in the chain, with linear and compiled evaluation. The packet is
+ * accepted by the last rule, such that the linear evaluation tests every
+ * rule of the chain.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ChainBenchmark {
+
+    @Param(Array("10", "100", "500", "1000", "2000"))
+    var chainSize: Int = _
+
+    @Param(Array("false", "true"))
+    var compiled: Boolean = _
+
+    var chain: Chain = _
+    var context: PacketContext = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val rules = new JArrayList[Rule]()
+        for (i <- 0 until chainSize - 1) {
+            // Security group rules allowing traffic from a remote subnet to
+            // a port, with a mix of protocols and input ports.
+            val cond = new Condition()
+            cond.nwProto = if (i % 2 == 0) TCP.PROTOCOL_NUMBER
+                           else UDP.PROTOCOL_NUMBER
+            cond.nwDstIp = new IPv4Subnet(IPv4Addr.random, 24)
+            cond.tpDst = new Range[Integer](1024 + i, 1024 + i)
+            if (i % 3 == 0) {
+                cond.inPortIds = Set(UUID.randomUUID).asJava
+            }
+            rules.add(new LiteralRule(cond, Action.ACCEPT))
+        }
+        val cond = new Condition()
+        cond.nwProto = TCP.PROTOCOL_NUMBER
+        cond.tpDst = new Range[Integer](80, 80)
+        rules.add(new LiteralRule(cond, Action.ACCEPT))
+        rules.asScala.foreach(_.id = UUID.randomUUID)
+
+        chain = new Chain(UUID.randomUUID, rules, new JHashMap[UUID, Chain],
+                          "security-group")
+        if (compiled) {
+            chain.compile()
+        }
+
+        val fmatch = new FlowMatch()
+        fmatch.setNetworkSrc(IPv4Addr.random)
+        fmatch.setNetworkDst(IPv4Addr.random)
+        fmatch.setNetworkProto(TCP.PROTOCOL_NUMBER)
+        fmatch.setSrcPort(10000)
+        fmatch.setDstPort(80)
+        context = PacketContext.generated(1, null, fmatch)
+        context.inPortId = UUID.randomUUID
+    }
+
+    @Benchmark
+    def process(): RuleResult = {
+        context.resetRecordedContext()
+        context.wcmatch.clearSeenFields()
+        chain.process(context)
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable
+import scala.concurrent.Future
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.midolman.NotYetException
+import org.midonet.midolman.rules.NatTarget
+import org.midonet.midolman.state.NatBlockAllocator.NoFreeNatBlocksException
+import org.midonet.packets.IPv4Addr
+import org.midonet.packets.NatState.NatBinding
+import org.midonet.util.concurrent.{MockClock, NanoClock}
+import org.midonet.util.logging.Logger
+
+object NatLeaserBenchmark {
+
+    final val Connections = 10000
+    final val Destinations = 100
+
+    /** Leases the blocks of a range synchronously, in order. */
+    class SynchronousAllocator extends NatBlockAllocator {
+        private val allocated = mutable.Set[NatBlock]()
+
+        override def allocateBlockInRange(natRange: NatRange)
+        : Future[NatBlock] = synchronized {
+            val blocks = (NatLeaser.blockOf(natRange.tpPortStart) to
+                          NatLeaser.blockOf(natRange.tpPortEnd)).iterator
+                .map(new NatBlock(natRange.deviceId, natRange.ip, _))
+            blocks.find(!allocated.contains(_)) match {
+                case Some(block) =>
+                    allocated += block
+                    Future.successful(block)
+                case None => Future.failed(NoFreeNatBlocksException)
+            }
+        }
+
+        override def freeBlock(natBlock: NatBlock): Unit = synchronized {
+            allocated -= natBlock
+        }
+    }
+}
+
+/**
+ * Measures the NAT leaser with 10000 concurrent SNAT connections from one
+ * device to 100 destinations. Run with `-prof gc`: the allocation rate of
+ * allocateAndFree is the garbage per connection, and the normalized
+ * allocation of leaseConnections approximates the memory used by the leased
+ * blocks for all connections.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class NatLeaserBenchmark {
+
+    import NatLeaserBenchmark._
+
+    private val deviceId = UUID.randomUUID()
+    private val natTargets = Array(new NatTarget(IPv4Addr("10.0.0.1").addr,
+                                                 IPv4Addr("10.0.0.1").addr,
+                                                 1024, 65535))
+    private val destination = IPv4Addr("192.168.0.1")
+
+    private var leaser: NatLeaser = _
+    private val bindings = new Array[NatBinding](Connections)
+    private var index = 0
+
+    private def newLeaser(): NatLeaser = new NatLeaser {
+        override val log = Logger(NOPLogger.NOP_LOGGER)
+        override val allocator: NatBlockAllocator = new SynchronousAllocator
+        override val clock: NanoClock = new MockClock
+        override val prefetchWatermark = 0.75
+    }
+
+    private def allocate(connection: Int): NatBinding = {
+        val port = connection % Destinations
+        try {
+            leaser.allocateNatBinding(deviceId, destination, port, natTargets)
+        } catch {
+            case _: NotYetException =>
+                leaser.allocateNatBinding(deviceId, destination, port,
+                                          natTargets)
+        }
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        leaser = newLeaser()
+        var connection = 0
+        while (connection < Connections) {
+            bindings(connection) = allocate(connection)
+            connection += 1
+        }
+    }
+
+    /** Replaces one of the concurrent connections by a new one. */
+    @Benchmark
+    @BenchmarkMode(Array(Mode.AverageTime))
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    def allocateAndFree(): NatBinding = {
+        val port = index % Destinations
+        leaser.freeNatBinding(deviceId, destination, port, bindings(index))
+        bindings(index) = allocate(index)
+        index = (index + 1) % Connections
+        bindings(index)
+    }
+
+    /** Leases the bindings of all concurrent connections with a new leaser. */
+    @Benchmark
+    @BenchmarkMode(Array(Mode.SingleShotTime))
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Measurement(iterations = 20)
+    def leaseConnections(): NatLeaser = {
+        leaser = newLeaser()
+        var connection = 0
+        while (connection < Connections) {
+            bindings(connection) = allocate(connection)
+            connection += 1
+        }
+        leaser
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.midolman.MidolmanBenchmark
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.simulation.Bridge
+import org.midonet.midolman.util.mock.MockRuleLogEventChannel
+import org.midonet.util.concurrent.Executors
+
+/**
+ * Measures the time needed by a new virtual topology to load a topology of
+ * 50000 devices, versus the number of topology threads. The topology has
+ * 500 bridges with 99 ports each, where every bridge references its ports.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xmx4g"))
+@State(Scope.Benchmark)
+class VirtualTopologyBenchmark extends MidolmanBenchmark {
+
+    @Param(Array("1", "2", "4", "8"))
+    var threads: Int = _
+
+    private val bridges = 500
+    private val portsPerBridge = 99
+
+    private var bridgeIds: Seq[UUID] = _
+    private var vt: VirtualTopology = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        bridgeIds = for (index <- 0 until bridges) yield {
+            val bridgeId = newBridge(s"bridge-$index")
+            for (_ <- 0 until portsPerBridge) {
+                newBridgePort(bridgeId)
+            }
+            bridgeId
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def createTopology(): Unit = {
+        val vtThread = new AtomicLong(-1)
+        vt = new VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            MidolmanConfig.forTests(
+                s"agent.midolman.topology_threads : $threads"),
+            simBackChannel,
+            new MockRuleLogEventChannel,
+            new MetricRegistry,
+            Executors.singleThreadScheduledExecutor(
+                "devices-service", isDaemon = true, Executors.CallerRunsPolicy),
+            Executors.cachedPoolExecutor(
+                "devices-io", isDaemon = true, Executors.CallerRunsPolicy),
+            () => {
+                vtThread.compareAndSet(-1, Thread.currentThread().getId)
+                vtThread.get == Thread.currentThread().getId
+            },
+            cbRegistry)
+        vt.startAsync().awaitRunning()
+    }
+
+    @TearDown(Level.Invocation)
+    def destroyTopology(): Unit = {
+        vt.stopAsync().awaitTerminated()
+        vt.vtExecutor.shutdownNow()
+        vt.ioExecutor.shutdownNow()
+        vt.shutdownShardExecutors()
+    }
+
+    @Benchmark
+    def timeToReady(): Unit = {
+        val futures = bridgeIds.map(vt.get(classOf[Bridge], _))
+        futures.foreach(Await.ready(_, 5 minutes))
+    }
+}
@@ -27,7 +27,6 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
-import com.google.protobuf.TextFormat;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
@@ -39,6 +38,7 @@ import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.retry.RetryNTimes;
 import org.apache.curator.test.TestingServer;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -57,6 +57,7 @@ import org.midonet.cluster.models.Topology;
 import org.midonet.cluster.services.MidonetBackend;
 import org.midonet.cluster.services.MidonetBackendService;
 import org.midonet.cluster.storage.MidonetBackendConfig;
+import org.midonet.cluster.util.HostStateUtil;
 import org.midonet.cluster.util.UUIDUtil;
 import org.midonet.conf.HostIdGenerator;
 import org.midonet.conf.MidoNodeConfigurator;
@@ -149,7 +150,9 @@ public class HostServiceTest {
             .withValue("agent.host.wait_time_gen_id",
                        ConfigValueFactory.fromAnyRef(0))
             .withValue("agent.host.retries_gen_id",
-                       ConfigValueFactory.fromAnyRef(0));
+                       ConfigValueFactory.fromAnyRef(0))
+            .withValue("agent.host.interfaces_update_window",
+                       ConfigValueFactory.fromAnyRef("0ms"));
     }
 
     @Before
@@ -181,6 +184,9 @@ public class HostServiceTest {
         stateStore.registerKey(Topology.Host.class,
                                MidonetBackend.HostKey(),
                                KeyType.SingleLastWriteWins());
+        stateStore.registerKey(Topology.Host.class,
+                               MidonetBackend.HostDeltaKey(),
+                               KeyType.SingleLastWriteWins());
         store.build(true);
     }
 
@@ -200,6 +206,10 @@ public class HostServiceTest {
     }
 
     private TestableHostService makeHostService() {
+        return makeHostService(config);
+    }
+
+    private TestableHostService makeHostService(Config config) {
         return new TestableHostService(
             new MidolmanConfig(config, ConfigFactory.empty(), true),
             backendConfig,
@@ -214,7 +224,11 @@ public class HostServiceTest {
     }
 
     TestableHostService startService() throws Throwable {
-        TestableHostService hostService = makeHostService();
+        return startService(config);
+    }
+
+    TestableHostService startService(Config config) throws Throwable {
+        TestableHostService hostService = makeHostService(config);
         try {
             hostService.startAsync().awaitRunning();
         } catch (RuntimeException e) {
@@ -403,20 +417,71 @@ public class HostServiceTest {
         MockInterfaceScanner scanner = getInterfaceScanner();
         scanner.addInterface(new InterfaceDescription("eth0", 1));
 
-        hostState = getHostState(hostId);
-        assertNotNull(hostState);
+        hostState = eventuallyGetHostState(hostId, 1);
         assertTrue(hostState.hasHostId());
         assertEquals(UUIDUtil.fromProto(hostState.getHostId()), hostId);
-        assertEquals(hostState.getInterfacesCount(), 1);
         assertEquals(hostState.getInterfaces(0).getName(), "eth0");
 
         scanner.removeInterface("eth0");
 
-        hostState = getHostState(hostId);
-        assertNotNull(hostState);
+        hostState = eventuallyGetHostState(hostId, 0);
         assertTrue(hostState.hasHostId());
         assertEquals(UUIDUtil.fromProto(hostState.getHostId()), hostId);
-        assertEquals(hostState.getInterfacesCount(), 0);
+
+        stopService(hostService);
+    }
+
+    @Test
+    public void hostServiceCoalescesHostInterfaceUpdates() throws Throwable {
+        TestableHostService hostService = startService(
+            config.withValue("agent.host.interfaces_update_window",
+                             ConfigValueFactory.fromAnyRef("1s")));
+        Stat baseStat = getCurator().checkExists().forPath(getStatePath(hostId));
+
+        MockInterfaceScanner scanner = getInterfaceScanner();
+        scanner.addInterface(new InterfaceDescription("eth0", 1));
+        scanner.addInterface(new InterfaceDescription("eth1", 2));
+        scanner.addInterface(new InterfaceDescription("eth2", 3));
+
+        // The interfaces are not written before the end of the window.
+        assertEquals(getHostState(hostId).getInterfacesCount(), 0);
+
+        // The interfaces are written as a single delta.
+        eventuallyGetHostState(hostId, 3);
+        Stat deltaStat =
+            getCurator().checkExists().forPath(getDeltaPath(hostId));
+        assertNotNull(deltaStat);
+        assertEquals(deltaStat.getVersion(), 0);
+
+        // The full state is not rewritten.
+        Stat stat = getCurator().checkExists().forPath(getStatePath(hostId));
+        assertEquals(stat.getMzxid(), baseStat.getMzxid());
+
+        stopService(hostService);
+    }
+
+    @Test
+    public void hostServiceDoesNotWriteUnchangedHostInterfaces()
+        throws Throwable {
+        TestableHostService hostService = startService(
+            config.withValue("agent.host.interfaces_update_window",
+                             ConfigValueFactory.fromAnyRef("500ms")));
+
+        MockInterfaceScanner scanner = getInterfaceScanner();
+        scanner.addInterface(new InterfaceDescription("eth0", 1));
+        eventuallyGetHostState(hostId, 1);
+        Stat deltaStat =
+            getCurator().checkExists().forPath(getDeltaPath(hostId));
+
+        // Adding and removing an interface within the window publishes the
+        // same state.
+        scanner.addInterface(new InterfaceDescription("eth1", 2));
+        scanner.removeInterface("eth1");
+        Thread.sleep(2 * WAIT_MILLIS);
+
+        Stat stat = getCurator().checkExists().forPath(getDeltaPath(hostId));
+        assertEquals(stat.getMzxid(), deltaStat.getMzxid());
+        assertEquals(getHostState(hostId).getInterfacesCount(), 1);
 
         stopService(hostService);
     }
@@ -461,10 +526,25 @@ public class HostServiceTest {
         if (key.isEmpty()) return null;
 
         String value = ((SingleValueKey)key).value().get();
+        StateKey delta = await(stateStore.getKey(Topology.Host.class, hostId,
+                                                 MidonetBackend.HostDeltaKey()));
 
-        State.HostState.Builder builder = State.HostState.newBuilder();
-        TextFormat.merge(value, builder);
-        return builder.build();
+        return HostStateUtil.merge(value, ((SingleValueKey)delta).value());
+    }
+
+    private State.HostState eventuallyGetHostState(UUID hostId,
+                                                   int interfaceCount)
+        throws Exception {
+        for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            State.HostState hostState = getHostState(hostId);
+            if (hostState != null &&
+                hostState.getInterfacesCount() == interfaceCount) {
+                return hostState;
+            }
+            Thread.sleep(WAIT_MILLIS / 10);
+        }
+        throw new Exception("Eventually host did not have " + interfaceCount
+                            + " interfaces");
     }
 
     private void eventuallyAssertHostState() throws Exception {
@@ -521,4 +601,9 @@ public class HostServiceTest {
         return backendConfig.rootKey() + "/zoom/0/state/"
                + stateStore.namespace() + "/Host/" + hostId + "/host";
     }
+
+    public String getDeltaPath(UUID hostId) {
+        return backendConfig.rootKey() + "/zoom/0/state/"
+               + stateStore.namespace() + "/Host/" + hostId + "/host_delta";
+    }
 }
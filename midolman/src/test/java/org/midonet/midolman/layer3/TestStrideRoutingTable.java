@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.midonet.midolman.layer3.Route.NextHop;
+import org.midonet.packets.IPv4Addr;
+
+public class TestStrideRoutingTable {
+
+    private final Random random = new Random(1234);
+
+    private Route randomRoute() {
+        // Use a small address space to have overlapping prefixes.
+        int dst = random.nextInt(64) << 26 | random.nextInt(256) << 8;
+        int dstLength = random.nextInt(33);
+        dst &= dstLength == 0 ? 0 : -1 << (32 - dstLength);
+        int src = random.nextBoolean() ? 0 : random.nextInt();
+        int srcLength = src == 0 ? 0 : random.nextInt(3);
+        return new Route(src, srcLength, dst, dstLength, NextHop.PORT,
+                         UUID.randomUUID(), 0, random.nextInt(3), null, null);
+    }
+
+    private int randomAddress() {
+        return random.nextInt(64) << 26 | random.nextInt(256) << 8
+               | random.nextInt(256);
+    }
+
+    @Test
+    public void testEmptyRoutingTable() {
+        IPv4StrideRoutingTable table = new IPv4StrideRoutingTable();
+        Assert.assertTrue(table.lookup(IPv4Addr.fromInt(0x0a010108),
+                                       IPv4Addr.fromInt(0x0a010106)).isEmpty());
+    }
+
+    @Test
+    public void testLookupMatchesRoutingTable() {
+        RoutingTable legacy = new RoutingTable();
+        IPv4StrideRoutingTable table = new IPv4StrideRoutingTable();
+        List<Route> routes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Route rt = randomRoute();
+            routes.add(rt);
+            legacy.addRoute(rt);
+            table.addRoute(rt);
+        }
+        assertSameLookups(legacy, table);
+
+        // Delete half of the routes.
+        for (int i = 0; i < routes.size(); i += 2) {
+            legacy.deleteRoute(routes.get(i));
+            table.deleteRoute(routes.get(i));
+        }
+        assertSameLookups(legacy, table);
+    }
+
+    @Test
+    public void testIncrementalUpdatesMatchRoutingTable() {
+        RoutingTable legacy = new RoutingTable();
+        IPv4StrideRoutingTable table = new IPv4StrideRoutingTable();
+        List<Route> routes = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            // Add and delete a few routes between lookups, such that every
+            // snapshot is built from the previous one.
+            for (int i = 0; i < 50; i++) {
+                Route rt = randomRoute();
+                routes.add(rt);
+                legacy.addRoute(rt);
+                table.addRoute(rt);
+            }
+            for (int i = 0; i < 20; i++) {
+                Route rt = routes.remove(random.nextInt(routes.size()));
+                legacy.deleteRoute(rt);
+                table.deleteRoute(rt);
+            }
+            assertSameLookups(legacy, table);
+        }
+    }
+
+    @Test
+    public void testVersionIsNotModified() {
+        IPv4StrideRoutingTable table = new IPv4StrideRoutingTable();
+        Route rt1 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                              UUID.randomUUID(), 0, 100, null, null);
+        Route rt2 = new Route(0, 0, 0x0a010200, 24, NextHop.PORT,
+                              UUID.randomUUID(), 0, 100, null, null);
+        IPv4Addr src = IPv4Addr.fromString("192.168.1.1");
+        IPv4Addr dst = IPv4Addr.fromString("10.1.2.3");
+        table.addRoute(rt1);
+        IPv4StrideRoutingTable.Version version1 = table.version();
+
+        table.addRoute(rt2);
+        IPv4StrideRoutingTable.Version version2 = table.version();
+        Assert.assertEquals(Collections.singletonList(rt1),
+                            version1.lookup(src, dst));
+        Assert.assertEquals(Collections.singletonList(rt2),
+                            version2.lookup(src, dst));
+
+        table.deleteRoute(rt1);
+        table.deleteRoute(rt2);
+        Assert.assertTrue(table.version().lookup(src, dst).isEmpty());
+        Assert.assertEquals(Collections.singletonList(rt1),
+                            version1.lookup(src, dst));
+        Assert.assertEquals(Collections.singletonList(rt2),
+                            version2.lookup(src, dst));
+        Assert.assertEquals(1, version1.size());
+        Assert.assertEquals(2, version2.size());
+    }
+
+    private void assertSameLookups(RoutingTable legacy,
+                                   IPv4StrideRoutingTable table) {
+        for (int i = 0; i < 10000; i++) {
+            int src = random.nextInt();
+            int dst = randomAddress();
+            Assert.assertEquals(
+                new HashSet<>(legacy.lookup(src, dst)),
+                new HashSet<>(table.lookup(IPv4Addr.fromInt(src),
+                                           IPv4Addr.fromInt(dst))));
+        }
+    }
+
+    @Test
+    public void testSourceMismatchFallsBackToShorterPrefix() {
+        IPv4StrideRoutingTable table = new IPv4StrideRoutingTable();
+        Route rt1 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                              UUID.randomUUID(), 0, 100, null, null);
+        Route rt2 = new Route(0xc0a80000, 16, 0x0a010200, 24, NextHop.PORT,
+                              UUID.randomUUID(), 0, 100, null, null);
+        table.addRoute(rt1);
+        table.addRoute(rt2);
+
+        List<Route> matches = table.lookup(IPv4Addr.fromString("192.168.1.1"),
+                                           IPv4Addr.fromString("10.1.2.3"));
+        Assert.assertEquals(1, matches.size());
+        Assert.assertTrue(matches.contains(rt2));
+
+        matches = table.lookup(IPv4Addr.fromString("172.16.1.1"),
+                               IPv4Addr.fromString("10.1.2.3"));
+        Assert.assertEquals(1, matches.size());
+        Assert.assertTrue(matches.contains(rt1));
+    }
+}
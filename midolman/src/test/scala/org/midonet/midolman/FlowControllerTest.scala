@@ -183,6 +183,22 @@ class FlowControllerTest extends MidolmanSpec {
         }
     }
 
+    feature("Flow marks encode the worker ID") {
+        scenario("Up to 16 workers use 4 bits for the worker ID") {
+            FlowController.workerBits(1) shouldBe 4
+            FlowController.workerBits(16) shouldBe 4
+            FlowController.indexShift(16) shouldBe FlowController.IndexShift
+            FlowController.maxTableSize(16) shouldBe FlowController.MaxTableSize
+        }
+
+        scenario("More workers take bits from the flow index") {
+            FlowController.workerBits(17) shouldBe 5
+            FlowController.workerBits(64) shouldBe 6
+            FlowController.workerBits(PacketWorkersService.MaxWorkers) shouldBe 8
+            FlowController.maxTableSize(PacketWorkersService.MaxWorkers) shouldBe (1 << 24)
+        }
+    }
+
     final class TestableFlow(val fmatch: FlowMatch = new FlowMatch(),
                              val linked: FlowMatch = null) {
         var callbackCalled = false
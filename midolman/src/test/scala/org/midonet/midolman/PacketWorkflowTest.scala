@@ -509,6 +509,34 @@ class PacketWorkflowTest extends MidolmanSpec {
             metrics.contextsBeingProcessed.getCount shouldBe 0
         }
 
+        scenario("Contexts processed out of order are returned to the pool") {
+            Given("Two successful simulations")
+            packetWorkflow.handlePackets(makePacket(1), makePacket(2))
+            packetWorkflow.complete(null)
+            packetWorkflow.process()
+            packetsOut should be (2)
+            metrics.contextsBeingProcessed.getCount shouldBe 2
+
+            When("the second context is processed first")
+            val contexts = mockDpChannel.contextsSeen.asScala
+            contexts(1).setPacketProcessed()
+            contexts(1).setFlowProcessed()
+            packetWorkflow.process()
+
+            Then("the second context is returned to the pool")
+            metrics.contextsPooled.getCount shouldBe 1
+            metrics.contextsBeingProcessed.getCount shouldBe 1
+
+            When("the first context is processed")
+            contexts(0).setFlowProcessed()
+            contexts(0).setPacketProcessed()
+            packetWorkflow.process()
+
+            Then("the first context is returned to the pool")
+            metrics.contextsPooled.getCount shouldBe 2
+            metrics.contextsBeingProcessed.getCount shouldBe 0
+        }
+
         scenario("Pool never exceeds size") {
             Given("More packets than there are pool places")
             val packets = 1.to(1200) map { i => makePacket(i.toShort) }
@@ -144,6 +144,52 @@ class DatapathChannelTest extends MidolmanSpec {
                                      FlowActions.reader.deserializeFrom, actions)
         }
 
+        scenario ("Can batch flow creations") {
+            val batchRingBuffer = RingBuffer.createSingleProducer[PacketContextHolder](
+                DisruptorDatapathChannel.Factory, capacity)
+            val batchFp = new FlowProcessor(
+                new DatapathStateDriver(datapath), ovsFamilies, maxPendingRequests = 1024,
+                maxRequestSize = 2048, factory, factory.selectorProvider,
+                simBackChannel, new DatapathMetrics(metricRegistry), clock,
+                batchFlowCreates = true)
+            val batchProcessor = new BackChannelEventProcessor[PacketContextHolder](
+                batchRingBuffer, batchFp, batchFp)
+            val batchBarrier = batchRingBuffer.newBarrier(batchProcessor.getSequence)
+            val batchChannel = new DisruptorDatapathChannel(
+                batchRingBuffer, Array(batchProcessor))
+
+            val contexts = for (i <- 0 until 3) yield {
+                val context = packetContextFor(ethernet, UUID.randomUUID())
+                context.flowActions.addAll(actions)
+                val flow = new ManagedFlowImpl(null)
+                flow._mark = i + 1
+                context.flow = flow
+                batchChannel.handoff(context)
+                context
+            }
+
+            batchChannel.start()
+            try {
+                batchBarrier.waitFor(2)
+                nlChannel.packetsWritten.get() should be (1)
+
+                val bb = nlChannel.written.poll()
+                for (context <- contexts) {
+                    val start = bb.position()
+                    val len = bb.getInt(start + NetlinkMessage.NLMSG_LEN_OFFSET)
+                    bb.getInt(start + NetlinkMessage.NLMSG_SEQ_OFFSET) should be (
+                        context.flow.mark)
+                    bb.position(start + ((len + 3) & ~3))
+                }
+                bb.remaining() should be (0)
+                metricRegistry.histogram(
+                    "org.midonet.midolman.monitoring.metrics.DatapathHistogram" +
+                    ".flows.createBatchSize").getCount should be (1)
+            } finally {
+                batchChannel.stop()
+            }
+        }
+
         scenario ("Channel is bounded and thread spins when ring buffer is full") {
             var i = 0
             val context = packetContextFor(ethernet, UUID.randomUUID())
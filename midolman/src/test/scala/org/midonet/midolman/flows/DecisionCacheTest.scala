@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.PacketWorkflow.{Drop, FlowCreated}
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.odp.flows.FlowActions.output
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.sdn.flows.FlowTagger
+
+@RunWith(classOf[JUnitRunner])
+class DecisionCacheTest extends MidolmanSpec {
+
+    private val srcMac = MAC.random()
+    private val dstMac = MAC.random()
+    private val dstIp = IPv4Addr.random
+    private val deviceTag = FlowTagger.tagForBridge(UUID.randomUUID())
+
+    private val expiration = FlowExpirationIndexer.FLOW_EXPIRATION.value * 10
+
+    private var cache: DecisionCache = _
+
+    override def beforeTest(): Unit = {
+        NO_CONNTRACK.flush()
+        NO_NAT.flush()
+        cache = new DecisionCache(16, expiration, clock, metrics)
+    }
+
+    private def context(srcPort: Int, dst: IPv4Addr = dstIp): PacketContext = {
+        packetContextFor({ eth src srcMac dst dstMac } <<
+                         { ip4 src IPv4Addr.random dst dst } <<
+                         { udp src srcPort dst 80 })
+    }
+
+    private def simulate(context: PacketContext): Unit = {
+        // A simulation that only reads the destination address.
+        context.origMatch.getNetworkDstIP
+        context.addFlowTag(deviceTag)
+        context.flowActions.add(output(1))
+        context.packetActions.add(output(1))
+        context.flowExpiration = FlowExpirationIndexer.FLOW_EXPIRATION
+    }
+
+    feature("The decision cache caches simulation outcomes") {
+        scenario("Packets with the same seen fields hit the cache") {
+            Given("A simulated packet")
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, FlowCreated, 1000L)
+
+            When("A packet differing in unseen fields is looked up")
+            val decision = cache.get(context(2000))
+
+            Then("The cached decision is returned")
+            decision should not be null
+            decision.flowActions should contain only output(1)
+            decision.flowTags should contain (deviceTag)
+            decision.expiration shouldBe FlowExpirationIndexer.FLOW_EXPIRATION
+            metrics.decisionCacheHits.getCount shouldBe 1
+            metrics.decisionCacheSavedTime.getCount shouldBe 1000L
+
+            And("A packet differing in seen fields misses the cache")
+            cache.get(context(1000, IPv4Addr.random)) shouldBe null
+            metrics.decisionCacheMisses.getCount shouldBe 1
+        }
+
+        scenario("Decisions are invalidated by flow tags") {
+            Given("A cached decision")
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, FlowCreated, 1000L)
+            cache.size shouldBe 1
+
+            When("Invalidating the flows of the device")
+            cache.invalidate(deviceTag)
+
+            Then("The decision is removed")
+            cache.size shouldBe 0
+            cache.get(context(1000)) shouldBe null
+        }
+
+        scenario("Decisions outlive the flow expiration") {
+            Given("A cached decision")
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, FlowCreated, 1000L)
+
+            When("The flow expiration passes")
+            clock.time += FlowExpirationIndexer.FLOW_EXPIRATION.value + 1
+
+            Then("The decision is replayed for the same packet")
+            val decision = cache.get(context(1000))
+            decision should not be null
+            decision.flowActions should contain only output(1)
+            cache.size shouldBe 1
+        }
+
+        scenario("Decisions expire with the cache expiration") {
+            Given("A cached decision")
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, FlowCreated, 1000L)
+
+            When("The cache expiration passes")
+            clock.time += expiration + 1
+
+            Then("The decision is not returned")
+            cache.get(context(1000)) shouldBe null
+            cache.size shouldBe 0
+        }
+
+        scenario("The cache evicts the least recently used decision") {
+            val cache = new DecisionCache(1, expiration, clock, metrics)
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, FlowCreated, 1000L)
+            val second = context(1000, IPv4Addr.random)
+            simulate(second)
+            cache.put(second, FlowCreated, 1000L)
+
+            cache.size shouldBe 1
+            cache.get(context(1000)) shouldBe null
+        }
+    }
+
+    feature("The decision cache ignores stateful simulations") {
+        scenario("Simulations looking up connection tracking state") {
+            val first = context(1000)
+            simulate(first)
+            NO_CONNTRACK.get(ConnTrackKey(first.origMatch, UUID.randomUUID()))
+            cache.put(first, FlowCreated, 1000L)
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations registering flow removal callbacks") {
+            val first = context(1000)
+            simulate(first)
+            first.addFlowRemovedCallback(null)
+            cache.put(first, FlowCreated, 1000L)
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations that did not create a flow") {
+            val first = context(1000)
+            simulate(first)
+            cache.put(first, Drop, 1000L)
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations with a temporary flow") {
+            val first = context(1000)
+            simulate(first)
+            first.flowExpiration =
+                FlowExpirationIndexer.ERROR_CONDITION_EXPIRATION
+            cache.put(first, FlowCreated, 1000L)
+            cache.size shouldBe 0
+        }
+    }
+}
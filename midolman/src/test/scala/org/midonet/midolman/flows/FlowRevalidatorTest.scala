@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.insights.Insights
+import org.midonet.midolman.PacketWorkflow.{FlowCreated, NoOp}
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.{FlowController, FlowControllerImpl, MockFlowTablePreallocation}
+import org.midonet.odp.flows.FlowActions.output
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+import org.midonet.sdn.flows.FlowTagger
+
+@RunWith(classOf[JUnitRunner])
+class FlowRevalidatorTest extends MidolmanSpec {
+
+    private val deviceTag = FlowTagger.tagForBridge(UUID.randomUUID())
+
+    private var flowController: FlowController = _
+    private var revalidator: FlowRevalidator = _
+
+    override def beforeTest(): Unit = {
+        NO_CONNTRACK.flush()
+        NO_NAT.flush()
+        val preallocation = new MockFlowTablePreallocation(config)
+        flowController = new FlowControllerImpl(
+            config, clock, flowProcessor, 0, 0, metrics,
+            preallocation.takeMeterRegistry(), preallocation, cbRegistry,
+            Insights.NONE)
+        revalidator = new FlowRevalidator(16)
+    }
+
+    private val frame: Ethernet =
+        { eth src MAC.random() dst MAC.random() } <<
+        { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+        { udp src 1000 dst 80 }
+
+    private def context(): PacketContext = packetContextFor(frame)
+
+    private def simulate(context: PacketContext, port: Int = 1): Unit = {
+        // A simulation that only reads the destination address.
+        context.origMatch.getNetworkDstIP
+        context.addFlowTag(deviceTag)
+        context.flowActions.add(output(port))
+        context.flowExpiration = FlowExpirationIndexer.FLOW_EXPIRATION
+        context.flow = flowController.addFlow(context.origMatch,
+                                              context.flowTags,
+                                              context.flowRemovedCallbacks,
+                                              context.flowExpiration)
+    }
+
+    feature("The flow revalidator tracks stateless flows") {
+        scenario("Invalidated flows are scheduled for revalidation") {
+            Given("A tracked flow")
+            val ctx = context()
+            simulate(ctx)
+            revalidator.track(ctx, FlowCreated)
+            revalidator.size shouldBe 1
+
+            When("Invalidating the tag of the flow")
+            flowController.invalidateFlowsFor(deviceTag, revalidator)
+
+            Then("The flow remains in the datapath")
+            flowController.flowExists(ctx.flow.mark) shouldBe true
+
+            And("The flow is pending revalidation")
+            revalidator.hasPending shouldBe true
+            val flow = revalidator.poll()
+            flow.id shouldBe ctx.flow.id
+            flow.flowActions should contain only output(1)
+            revalidator.hasPending shouldBe false
+        }
+
+        scenario("Untracked flows are removed") {
+            Given("A flow that is not tracked")
+            val ctx = context()
+            simulate(ctx)
+
+            When("Invalidating the tag of the flow")
+            flowController.invalidateFlowsFor(deviceTag, revalidator)
+
+            Then("The flow is removed")
+            flowController.flowExists(ctx.flow.mark) shouldBe false
+            revalidator.hasPending shouldBe false
+        }
+
+        scenario("Stateful flows are not tracked") {
+            Given("A simulation that used connection tracking")
+            val ctx = context()
+            simulate(ctx)
+            NO_CONNTRACK.get(ConnTrackKey(ctx.origMatch, UUID.randomUUID()))
+
+            When("Tracking the flow")
+            revalidator.track(ctx, FlowCreated)
+
+            Then("The flow is not tracked")
+            revalidator.size shouldBe 0
+        }
+
+        scenario("Simulations without flows are not tracked") {
+            val ctx = context()
+            simulate(ctx)
+            revalidator.track(ctx, NoOp)
+            revalidator.size shouldBe 0
+        }
+    }
+
+    feature("Revalidated flows are kept or removed") {
+        scenario("A flow with the same outcome is kept") {
+            Given("A flow pending revalidation")
+            val ctx = context()
+            simulate(ctx)
+            revalidator.track(ctx, FlowCreated)
+            flowController.invalidateFlowsFor(deviceTag, revalidator)
+            val flow = revalidator.poll()
+
+            When("Simulating the flow match again")
+            val again = context()
+            again.origMatch.getNetworkDstIP
+            again.flowActions.add(output(1))
+
+            Then("The outcome is unchanged")
+            flow.unchangedBy(again) shouldBe true
+
+            When("Restoring the tags of the flow")
+            flowController.restoreFlowTags(flow.id, ctx.flowTags) shouldBe true
+            revalidator.keep(flow)
+
+            Then("A later invalidation removes the flow without revalidator")
+            flowController.invalidateFlowsFor(deviceTag)
+            flowController.flowExists(ctx.flow.mark) shouldBe false
+        }
+
+        scenario("A flow with different actions is changed") {
+            Given("A flow pending revalidation")
+            val ctx = context()
+            simulate(ctx)
+            revalidator.track(ctx, FlowCreated)
+            flowController.invalidateFlowsFor(deviceTag, revalidator)
+            val flow = revalidator.poll()
+
+            When("Simulating the flow match to a different port")
+            val again = context()
+            again.origMatch.getNetworkDstIP
+            again.flowActions.add(output(2))
+
+            Then("The outcome changed")
+            flow.unchangedBy(again) shouldBe false
+
+            And("The flow can be removed")
+            flowController.removeFlow(flow.id)
+            flowController.flowExists(ctx.flow.mark) shouldBe false
+            flowController.restoreFlowTags(flow.id, ctx.flowTags) shouldBe false
+        }
+
+        scenario("A flow seeing more fields is changed") {
+            Given("A flow pending revalidation")
+            val ctx = context()
+            simulate(ctx)
+            revalidator.track(ctx, FlowCreated)
+            flowController.invalidateFlowsFor(deviceTag, revalidator)
+            val flow = revalidator.poll()
+
+            When("Simulating the flow match reading the source address")
+            val again = context()
+            again.origMatch.getNetworkDstIP
+            again.origMatch.getNetworkSrcIP
+            again.flowActions.add(output(1))
+
+            Then("The outcome changed, since the datapath flow mask differs")
+            flow.unchangedBy(again) shouldBe false
+        }
+    }
+}
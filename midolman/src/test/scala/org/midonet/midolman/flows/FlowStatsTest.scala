@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.concurrent.TimeUnit
+import java.util.{HashMap => JHashMap, Random}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.insights.Insights
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.flows.FlowExpirationIndexer.FLOW_EXPIRATION
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MockFlowProcessor
+import org.midonet.midolman.{FlowController, FlowControllerImpl, MockFlowTablePreallocation}
+import org.midonet.odp.{Flow, FlowMatch, FlowMatches}
+
+@RunWith(classOf[JUnitRunner])
+class FlowStatsTest extends MidolmanSpec {
+
+    private val random = new Random()
+
+    private var datapathFlows: JHashMap[FlowMatch, Flow] = _
+    private var flowController: FlowController = _
+
+    private def createFlowController(rate: Int = 1000): Unit = {
+        val statsConfig = MidolmanConfig.forTests(
+            s"""
+               |agent.datapath.flow_stats : true
+               |agent.datapath.flow_stats_rate : $rate
+               |agent.datapath.flow_idle_timeout : 10s
+               |""".stripMargin)
+        datapathFlows = new JHashMap[FlowMatch, Flow]()
+        val preallocation = new MockFlowTablePreallocation(statsConfig)
+        flowController = new FlowControllerImpl(
+            statsConfig, clock, new MockFlowProcessor(datapathFlows), 0, 0,
+            metrics, preallocation.takeMeterRegistry(), preallocation,
+            cbRegistry, Insights.NONE)
+    }
+
+    private def addFlow(): ManagedFlow = {
+        val fmatch = FlowMatches.generateFlowMatch(random)
+        val flow = flowController.addFlow(fmatch, FlowController.NoTags,
+                                          FlowController.NoCallbacks,
+                                          FLOW_EXPIRATION)
+        datapathFlows.put(flow.flowMatch, new Flow(flow.flowMatch))
+        flow
+    }
+
+    private def nowMillis: Long = TimeUnit.NANOSECONDS.toMillis(clock.time)
+
+    private def expire(): Unit = {
+        clock.time += FLOW_EXPIRATION.value + 1
+        // Request the statistics of the expired flows, and process them.
+        flowController.process()
+        flowController.process()
+    }
+
+    feature("Expired flows are removed only when idle") {
+        scenario("An idle flow is removed when it expires") {
+            Given("A flow that was never used")
+            createFlowController()
+            val flow = addFlow()
+
+            When("The flow expires")
+            expire()
+
+            Then("The flow is removed")
+            flowController.flowExists(flow.mark) shouldBe false
+            datapathFlows shouldBe empty
+            metrics.flowsIdleExpired.getCount shouldBe 1
+        }
+
+        scenario("An active flow has its expiration extended") {
+            Given("A flow used recently")
+            createFlowController()
+            val flow = addFlow()
+            clock.time += FLOW_EXPIRATION.value + 1
+            datapathFlows.get(flow.flowMatch).setLastUsedMillis(nowMillis - 1)
+
+            When("The flow expires")
+            flowController.process()
+            flowController.process()
+
+            Then("The flow remains installed")
+            flowController.flowExists(flow.mark) shouldBe true
+            metrics.flowsExpirationExtended.getCount shouldBe 1
+
+            When("The flow expires again without being used")
+            expire()
+
+            Then("The flow is removed")
+            flowController.flowExists(flow.mark) shouldBe false
+            metrics.flowsIdleExpired.getCount shouldBe 1
+        }
+
+        scenario("Flows are removed when no requests are available") {
+            Given("A flow controller sending one request per second")
+            createFlowController(rate = 1)
+            val flow1 = addFlow()
+            val flow2 = addFlow()
+
+            When("Both flows expire")
+            clock.time += FLOW_EXPIRATION.value + 1
+            flowController.process()
+
+            Then("The second flow is removed without requesting statistics")
+            flowController.flowExists(flow1.mark) shouldBe true
+            flowController.flowExists(flow2.mark) shouldBe false
+            metrics.flowStatsRequests.getCount shouldBe 1
+
+            When("Processing the statistics of the first flow")
+            flowController.process()
+
+            Then("The first flow is removed as idle")
+            flowController.flowExists(flow1.mark) shouldBe false
+            metrics.flowsIdleExpired.getCount shouldBe 1
+        }
+    }
+
+    feature("The statistics of installed flows are refreshed") {
+        scenario("Installed flows are not removed by the refresh") {
+            Given("An idle flow")
+            createFlowController()
+            val flow = addFlow()
+
+            When("Processing the flow controller before the flow expires")
+            flowController.process()
+
+            Then("The statistics of the flow are requested")
+            metrics.flowStatsRequests.getCount shouldBe 1
+
+            When("Processing the statistics of the flow")
+            flowController.process()
+
+            Then("The flow is not removed")
+            flowController.flowExists(flow.mark) shouldBe true
+            metrics.flowsIdleExpired.getCount shouldBe 0
+        }
+    }
+}
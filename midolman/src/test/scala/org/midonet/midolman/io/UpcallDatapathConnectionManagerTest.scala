@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.io
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.PacketWorker
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.state.FlowStateAgentPackets
+import org.midonet.odp.protos.OvsDatapathConnection
+import org.midonet.odp.{FlowMatch, FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+import org.midonet.util._
+
+@RunWith(classOf[JUnitRunner])
+class UpcallDatapathConnectionManagerTest extends FeatureSpec
+                                          with Matchers
+                                          with GivenWhenThen {
+
+    private val config = MidolmanConfig.forTests
+
+    private class TestWorker extends PacketWorker {
+        val packets = mutable.ArrayBuffer[Packet]()
+        override def submit(packet: Packet): Boolean = {
+            packets += packet
+            true
+        }
+    }
+
+    private class TestConnectionManager
+        extends UpcallDatapathConnectionManagerBase(
+            config, new TokenBucketPolicy(config, new TokenBucketTestRate, 1,
+                                          _ => Bucket.BOTTOMLESS)) {
+
+        def upcallHandler(workers: IndexedSeq[PacketWorker])
+        : BatchCollector[Packet] = makeUpcallHandler(workers)
+
+        override def makeConnection(name: String, bucket: Bucket,
+                                    t: ChannelType) = null
+        override def stopConnection(conn: ManagedDatapathConnection) {}
+        override protected def setUpcallHandler(conn: OvsDatapathConnection) {}
+    }
+
+    feature("The upcall handler dispatches packets to the workers") {
+        scenario("Malformed flow state packets are dropped") {
+            Given("An upcall handler")
+            val worker = new TestWorker
+            val handler =
+                new TestConnectionManager().upcallHandler(IndexedSeq(worker))
+
+            And("A flow state packet with a malformed frame")
+            val fmatch = new FlowMatch()
+                .setTunnelKey(FlowStateAgentPackets.TUNNEL_KEY)
+            val packet = new Packet(new Array[Byte](4), fmatch)
+
+            When("The packet is submitted")
+            val submitted = handler.submit(packet)
+
+            Then("The packet is dropped")
+            submitted shouldBe false
+            worker.packets shouldBe empty
+        }
+
+        scenario("Well-formed packets are not deserialized") {
+            Given("An upcall handler")
+            val worker = new TestWorker
+            val handler =
+                new TestConnectionManager().upcallHandler(IndexedSeq(worker))
+
+            And("A packet received from the datapath")
+            val frame: Ethernet =
+                { eth src MAC.random() dst MAC.random() } <<
+                { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                { udp src 1000 dst 80 }
+            val packet = new Packet(frame.serialize(),
+                                    FlowMatches.fromEthernetPacket(frame))
+
+            When("The packet is submitted")
+            handler.submit(packet) shouldBe true
+
+            Then("The worker receives the packet")
+            worker.packets shouldBe Seq(packet)
+
+            And("The packet frame was not deserialized")
+            packet.hasEthernet shouldBe false
+        }
+    }
+}
@@ -17,8 +17,12 @@ package org.midonet.midolman.simulation
 
 import org.midonet.midolman.rules._
 import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
 import org.midonet.odp.FlowMatch
-import org.midonet.packets.IPAddr
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.packets.{IPAddr, IPv4, IPv4Subnet, TCP, UDP}
+import org.midonet.sdn.state.{FlowStateTransaction, OnHeapShardedFlowStateTable}
+import org.midonet.util.Range
 
 import java.util.UUID
 import org.junit.runner.RunWith
@@ -272,6 +276,115 @@ class ChainTest extends Suite
         applyChain(innerAndOuterChain).action should be (Action.REJECT)
     }
 
+    /*
+     * A chain large enough to be compiled, where only the last rules match
+     * the packet. The compiled chain must return the same result and record
+     * the same traversed rules as the linear evaluation.
+     */
+    def testCompiledChainMatchesLinearEvaluation(): Unit = {
+        def makeRules(): List[Rule] = {
+            val rules = for (i <- 0 until 64) yield {
+                val cond = new Condition()
+                i % 4 match {
+                    case 0 => cond.nwProto = UDP.PROTOCOL_NUMBER
+                    case 1 => cond.nwDstIp = IPv4Subnet.fromCidr(s"10.0.$i.0/24")
+                    case 2 => cond.tpDst = new Range[Integer](i, i)
+                    case 3 => cond.inPortIds = Set(UUID.randomUUID).asJava
+                }
+                val rule: Rule = new LiteralRule(cond, Action.DROP)
+                rule.id = UUID.randomUUID
+                rule
+            }
+            val cond = new Condition()
+            cond.nwProto = TCP.PROTOCOL_NUMBER
+            cond.nwDstIp = IPv4Subnet.fromCidr("1.2.0.0/16")
+            cond.tpDst = new Range[Integer](80, 80)
+            val accept: Rule = new LiteralRule(cond, Action.ACCEPT)
+            accept.id = UUID.randomUUID
+            (rules :+ accept).toList
+        }
+
+        pktMatch.setNetworkProto(TCP.PROTOCOL_NUMBER)
+        pktMatch.setDstPort(80)
+
+        val rules = makeRules()
+        val linear = makeChain(rules)
+        val compiled = makeChain(rules).compile()
+        compiled.isCompiled shouldBe true
+
+        val linearContext = PacketContext.generated(1, null, pktMatch)
+        linearContext.currentDevice = ownerId
+        val compiledContext = PacketContext.generated(1, null, pktMatch)
+        compiledContext.currentDevice = ownerId
+
+        linear.process(linearContext).action shouldBe Action.ACCEPT
+        compiled.process(compiledContext).action shouldBe Action.ACCEPT
+
+        compiledContext.traversedRules shouldBe linearContext.traversedRules
+        compiledContext.traversedRuleResults shouldBe
+            linearContext.traversedRuleResults
+        compiledContext.traversedRulesMatched shouldBe
+            linearContext.traversedRulesMatched
+        compiledContext.traversedRulesApplied shouldBe
+            linearContext.traversedRulesApplied
+
+        // The fields that excluded rules must be seen by the flow match.
+        compiledContext.wcmatch.isSeen(Field.NetworkProto) shouldBe true
+        compiledContext.wcmatch.isSeen(Field.NetworkDst) shouldBe true
+        compiledContext.wcmatch.isSeen(Field.DstPort) shouldBe true
+    }
+
+    /*
+     * A forward flow rule whose protocol does not match the packet. The
+     * compiled chain must still evaluate it, such that the connection is
+     * tracked and the flow tagged as with the linear evaluation.
+     */
+    def testCompiledChainEvaluatesConntrackRules(): Unit = {
+        val rules = (for (i <- 0 until RuleIndex.MinRules) yield {
+            val cond = new Condition()
+            cond.nwProto = UDP.PROTOCOL_NUMBER
+            cond.matchForwardFlow = i == 0
+            val rule: Rule = new LiteralRule(cond, Action.DROP)
+            rule.id = UUID.randomUUID
+            rule
+        }).toList
+
+        pktMatch.setEtherType(IPv4.ETHERTYPE)
+        pktMatch.setNetworkSrc(IPAddr.fromString("10.0.0.1"))
+        pktMatch.setNetworkProto(TCP.PROTOCOL_NUMBER)
+        pktMatch.setSrcPort(5000)
+        pktMatch.setDstPort(80)
+
+        def makeContext(): PacketContext = {
+            val context = new PacketContext {
+                override protected def fetchIngressDevice(): UUID = ownerId
+            }
+            context.prepare(1, null, pktMatch, null, null, null, null, null)
+            context.conntrackTx = new FlowStateTransaction(
+                new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue]()
+                    .addShard())
+            context.currentDevice = ownerId
+            context
+        }
+
+        val linear = makeChain(rules)
+        val compiled = makeChain(rules).compile()
+        compiled.isCompiled shouldBe true
+
+        val linearContext = makeContext()
+        val compiledContext = makeContext()
+
+        linear.process(linearContext).action shouldBe Action.ACCEPT
+        compiled.process(compiledContext).action shouldBe Action.ACCEPT
+
+        linearContext.flowTags should not be empty
+        compiledContext.flowTags shouldBe linearContext.flowTags
+    }
+
+    def testSmallChainIsNotCompiled(): Unit = {
+        makeChain(List(acceptRule)).compile().isCompiled shouldBe false
+    }
+
     private def applyChain(c: Chain) = {
         pktCtx.currentDevice = ownerId
         if (c ne null)
@@ -59,6 +59,7 @@ import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.state.FlowStateTransaction
+import org.midonet.services.flowstate.FlowStateInternalMessageType
 import org.midonet.util.reactivex._
 import org.mockito.Mockito._
 import org.mockito.{ArgumentCaptor, Matchers => mockito}
@@ -193,6 +194,10 @@ class FlowStateReplicatorTest extends MidolmanSpec with TopologyBuilder {
             """.stripMargin
         ))
 
+    val batchMidolmanConfig = MidolmanConfig.forTests(
+        ConfigFactory.parseString(
+            "agent.minions.flow_state.batch_messages : true"))
+
     override def beforeTest(): Unit = {
         ingressPortNoGroup = makePort(hostId)
         egressPortNoGroup = makePort(hostId)
@@ -415,6 +420,40 @@ class FlowStateReplicatorTest extends MidolmanSpec with TopologyBuilder {
             Then("The flow state is forwarded to the minion")
             verify(recipient.flowStateSocket, times(0)).send(mockito.any())
         }
+
+        scenario("Incoming keys are forwarded to the minion in batches") {
+            Given("A recipient coalescing the messages sent to the minion")
+            recipient = new TestableFlowStateReplicator(recipientUnderlay,
+                                                        batchMidolmanConfig)
+
+            When("Accepting the state of two packets")
+            connTrackTx.putAndRef(connTrackKeys.head, ConnTrackState.RETURN_FLOW)
+            acceptPushedState(sendState(ingressPort.getId, egressPort1.getId)._1)
+            connTrackTx.putAndRef(connTrackKeys(1), ConnTrackState.RETURN_FLOW)
+            acceptPushedState(sendState(ingressPort.getId, egressPort1.getId)._1)
+
+            Then("The flow state is not sent until the batch is flushed")
+            verify(recipient.flowStateSocket, times(0)).send(mockito.any())
+
+            When("Flushing the batch")
+            recipient.flush()
+
+            Then("Both messages are sent to the minion in one datagram")
+            val captor = ArgumentCaptor.forClass(classOf[java.net.DatagramPacket])
+            verify(recipient.flowStateSocket, times(1)).send(captor.capture())
+            val datagram = ByteBuffer.wrap(captor.getValue.getData)
+            datagram.getInt shouldBe FlowStateInternalMessageType.FlowStateMessageBatch
+            val batchSize = datagram.getInt
+            batchSize shouldBe captor.getValue.getLength - 8
+            val firstSize = datagram.getInt
+            datagram.position(datagram.position + firstSize)
+            val secondSize = datagram.getInt
+            firstSize + secondSize + 8 shouldBe batchSize
+
+            And("Flushing an empty batch sends nothing")
+            recipient.flush()
+            verify(recipient.flowStateSocket, times(1)).send(mockito.any())
+        }
     }
 
     feature("Unref callbacks are correctly added") {
@@ -637,11 +676,12 @@ class FlowStateReplicatorTest extends MidolmanSpec with TopologyBuilder {
     }
 
     class TestableFlowStateReplicator(
-            val underlay: UnderlayResolver) extends {
+            val underlay: UnderlayResolver,
+            initialConfig: MidolmanConfig = midolmanConfig) extends {
         val conntrackTable = new MockFlowStateTable[ConnTrackKey, ConnTrackValue]()
         val natTable = new MockFlowStateTable[NatKey, NatBinding]()
         val traceTable = new MockFlowStateTable[TraceKey, TraceContext]()
-        var localConfig = midolmanConfig
+        var localConfig = initialConfig
     } with FlowStateReplicator(conntrackTable, natTable, traceTable,
                                hostId, peerResolver, underlay,
                                mockFlowInvalidation, midolmanConfig,
@@ -337,4 +337,81 @@ class NatLeaserTest extends FeatureSpec
             }
         }
     }
+
+    feature("NatBlocks are prefetched") {
+        scenario("A block is leased when the watermark is reached") {
+            Given("A NAT leaser with a prefetch watermark of one half")
+            val prefetchingLeaser = new NatLeaser {
+                override val log = natLeaser.log
+                override val allocator = natLeaser.allocator
+                override val clock = natLeaser.clock
+                override val prefetchWatermark = 0.5
+            }
+
+            And("A NAT target spanning two blocks")
+            val natTarget = new NatTarget(IPv4Addr("10.0.1.1").addr,
+                                          IPv4Addr("10.0.1.1").addr,
+                                          NatBlock.BLOCK_SIZE,
+                                          3 * NatBlock.BLOCK_SIZE - 1)
+            val ip = IPv4Addr.random
+            val port = 80
+            intercept[NotYetException] {
+                prefetchingLeaser.allocateNatBinding(dev, ip, port, Array(natTarget))
+            }
+
+            When("Binding ports below the watermark")
+            for (_ <- 1 until NatBlock.BLOCK_SIZE / 2) {
+                prefetchingLeaser.allocateNatBinding(dev, ip, port, Array(natTarget))
+            }
+
+            Then("The leaser does not request another block")
+            allocatedBlocks should be (mutable.Set(
+                new NatBlock(dev, IPv4Addr("10.0.1.1"), 1)))
+
+            When("Binding the port that reaches the watermark")
+            prefetchingLeaser.allocateNatBinding(dev, ip, port, Array(natTarget))
+
+            Then("The leaser requests another block")
+            allocatedBlocks should be (mutable.Set(
+                new NatBlock(dev, IPv4Addr("10.0.1.1"), 1),
+                new NatBlock(dev, IPv4Addr("10.0.1.1"), 2)))
+
+            When("Binding all ports of the first block")
+            for (_ <- 0 until NatBlock.BLOCK_SIZE / 2) {
+                prefetchingLeaser.allocateNatBinding(dev, ip, port, Array(natTarget))
+            }
+
+            Then("The next binding uses the prefetched block without waiting")
+            val binding = prefetchingLeaser.allocateNatBinding(
+                dev, ip, port, Array(natTarget))
+            blockOf(binding.transportPort) should be (2)
+        }
+
+        scenario("Other destinations do not trigger the prefetching") {
+            Given("A NAT leaser with a prefetch watermark of one half")
+            val prefetchingLeaser = new NatLeaser {
+                override val log = natLeaser.log
+                override val allocator = natLeaser.allocator
+                override val clock = natLeaser.clock
+                override val prefetchWatermark = 0.5
+            }
+            val natTarget = new NatTarget(IPv4Addr("10.0.1.1").addr,
+                                          IPv4Addr("10.0.1.1").addr,
+                                          NatBlock.BLOCK_SIZE,
+                                          3 * NatBlock.BLOCK_SIZE - 1)
+            val ip = IPv4Addr.random
+            intercept[NotYetException] {
+                prefetchingLeaser.allocateNatBinding(dev, ip, 0, Array(natTarget))
+            }
+
+            When("Binding all ports to different destinations")
+            for (port <- 0 until NatBlock.BLOCK_SIZE) {
+                prefetchingLeaser.allocateNatBinding(dev, ip, port, Array(natTarget))
+            }
+
+            Then("The leaser does not request another block")
+            allocatedBlocks should be (mutable.Set(
+                new NatBlock(dev, IPv4Addr("10.0.1.1"), 1)))
+        }
+    }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import scala.concurrent.duration._
+import scala.concurrent.{Future, Promise}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+import org.slf4j.LoggerFactory
+
+import rx.Observable
+import rx.observers.TestObserver
+import rx.subjects.PublishSubject
+
+import org.midonet.cluster.data.storage.StateTable
+import org.midonet.cluster.data.storage.StateTable.Update
+import org.midonet.util.logging.Logger
+
+object LazyStateTableTest {
+
+    /** A state table that completes the remote snapshots on demand. */
+    class TestTable extends StateTable[String, String] {
+        val updates = PublishSubject.create[Update[String, String]]
+        var remote = Map.empty[String, String]
+        var writeOnly = false
+        var started = false
+        var snapshots = 0
+        private var promise: Promise[Map[String, String]] = null
+
+        def completeSnapshot(): Unit = {
+            val p = promise
+            promise = null
+            p.success(remote)
+        }
+
+        override def start(): Unit = started = true
+        override def startWriteOnly(): Unit = { started = true; writeOnly = true }
+        override def stop(): Unit = started = false
+        override def add(key: String, value: String): Unit = ???
+        override def addPersistent(key: String, value: String): Future[Unit] = ???
+        override def remove(key: String): String = ???
+        override def remove(key: String, value: String): Boolean = ???
+        override def removePersistent(key: String, value: String): Future[Boolean] = ???
+        override def containsLocal(key: String): Boolean = ???
+        override def containsLocal(key: String, value: String): Boolean = ???
+        override def containsRemote(key: String): Future[Boolean] = ???
+        override def containsRemote(key: String, value: String): Future[Boolean] = ???
+        override def containsPersistent(key: String, value: String): Future[Boolean] = ???
+        override def getLocal(key: String): String = ???
+        override def getLocalByValue(value: String): Set[String] = ???
+        override def getRemote(key: String): Future[String] = ???
+        override def getRemoteByValue(value: String): Future[Set[String]] = ???
+        override def localSnapshot: Map[String, String] = ???
+        override def remoteSnapshot: Future[Map[String, String]] = {
+            snapshots += 1
+            promise = Promise[Map[String, String]]()
+            promise.future
+        }
+        override def observable: Observable[Update[String, String]] = updates
+        override def ready: Observable[StateTable.Key] = ???
+        override def isReady: Boolean = ???
+    }
+
+}
+
+@RunWith(classOf[JUnitRunner])
+class LazyStateTableTest extends FlatSpec with Matchers with GivenWhenThen {
+
+    import LazyStateTableTest._
+
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+    private val expiration = 1 second
+
+    private def lazyTable(table: TestTable, capacity: Int = 16,
+                          snapshotInterval: Duration = Duration.Zero)
+    : LazyStateTable[String, String] = {
+        new LazyStateTable[String, String](table, capacity, expiration,
+                                           snapshotInterval, log)
+    }
+
+    "Lazy table" should "start the table write-only" in {
+        Given("A lazy table")
+        val table = new TestTable
+        val cache = lazyTable(table)
+
+        Then("The table is started write-only")
+        table.started shouldBe true
+        table.writeOnly shouldBe true
+
+        When("Completing the lazy table")
+        cache.complete()
+
+        Then("The table is stopped")
+        table.started shouldBe false
+    }
+
+    "Lazy table" should "fetch the entries on demand in batches" in {
+        Given("A lazy table with remote entries")
+        val table = new TestTable
+        table.remote = Map("key0" -> "value0", "key1" -> "value1")
+        val cache = lazyTable(table)
+        val observer = new TestObserver[Update[String, String]]
+        cache.observable.subscribe(observer)
+
+        When("Looking up a key")
+        cache.get("key0") shouldBe null
+
+        Then("The table fetches the entries")
+        table.snapshots shouldBe 1
+
+        When("Looking up other keys while fetching")
+        cache.get("key0") shouldBe null
+        cache.get("key1") shouldBe null
+        cache.get("key2") shouldBe null
+
+        Then("The table does not fetch the entries")
+        table.snapshots shouldBe 1
+
+        When("The fetch completes")
+        table.completeSnapshot()
+
+        Then("The first key is cached")
+        cache.get("key0") shouldBe "value0"
+        observer.getOnNextEvents should contain only
+            Update("key0", null, "value0")
+
+        And("The table fetches the other keys")
+        table.snapshots shouldBe 2
+
+        When("The fetch completes")
+        table.completeSnapshot()
+
+        Then("The keys are cached, including the missing key")
+        cache.get("key1") shouldBe "value1"
+        cache.get("key2") shouldBe null
+        cache.size shouldBe 3
+        table.snapshots shouldBe 2
+    }
+
+    "Lazy table" should "cache the local writes" in {
+        Given("A lazy table")
+        val table = new TestTable
+        val cache = lazyTable(table)
+        val observer = new TestObserver[Update[String, String]]
+        cache.observable.subscribe(observer)
+
+        When("The table adds a local entry")
+        table.updates onNext Update("key0", null, "value0")
+
+        Then("The entry is cached without fetching")
+        cache.get("key0") shouldBe "value0"
+        table.snapshots shouldBe 0
+        observer.getOnNextEvents should contain only
+            Update("key0", null, "value0")
+
+        When("The table removes the local entry")
+        table.updates onNext Update("key0", "value0", null)
+
+        Then("The entry is removed from the cache")
+        cache.size shouldBe 0
+        observer.getOnNextEvents should contain inOrderOnly (
+            Update("key0", null, "value0"), Update("key0", "value0", null))
+    }
+
+    "Lazy table" should "refresh the expired entries" in {
+        Given("A lazy table with a cached entry")
+        val table = new TestTable
+        table.remote = Map("key0" -> "value0", "key1" -> "value1")
+        val cache = lazyTable(table)
+        val observer = new TestObserver[Update[String, String]]
+        cache.observable.subscribe(observer)
+        cache.get("key0")
+        cache.get("key1")
+        table.completeSnapshot()
+        table.completeSnapshot()
+        cache.size shouldBe 2
+
+        When("Looking up the first entry")
+        cache.get("key0") shouldBe "value0"
+
+        And("The entries expire")
+        table.remote = Map("key0" -> "value2", "key1" -> "value1")
+        cache.expire(System.nanoTime() + expiration.toNanos * 2)
+
+        Then("The looked up entry is fetched again")
+        table.snapshots shouldBe 3
+        cache.get("key0") shouldBe "value0"
+
+        And("The other entry is removed")
+        cache.size shouldBe 1
+        observer.getOnNextEvents should contain (
+            Update("key1", "value1", null))
+
+        When("The fetch completes")
+        table.completeSnapshot()
+
+        Then("The entry is updated")
+        cache.get("key0") shouldBe "value2"
+        observer.getOnNextEvents should contain (
+            Update("key0", "value0", "value2"))
+    }
+
+    "Lazy table" should "not exceed its capacity" in {
+        Given("A lazy table with a small capacity")
+        val table = new TestTable
+        table.remote = Map("key0" -> "value0", "key1" -> "value1",
+                           "key2" -> "value2")
+        val cache = lazyTable(table, capacity = 2)
+
+        When("Looking up more keys than the capacity")
+        cache.get("key0")
+        table.completeSnapshot()
+        cache.get("key1")
+        table.completeSnapshot()
+        cache.get("key2")
+        table.completeSnapshot()
+
+        Then("The cache does not exceed its capacity")
+        cache.size shouldBe 2
+        cache.get("key2") shouldBe "value2"
+    }
+
+    "Lazy table" should "notify the evicted entries" in {
+        Given("A lazy table with a small capacity")
+        val table = new TestTable
+        table.remote = Map("key0" -> "value0", "key1" -> "value1")
+        val cache = lazyTable(table, capacity = 1)
+        val observer = new TestObserver[Update[String, String]]
+        cache.observable.subscribe(observer)
+
+        When("Looking up more keys than the capacity")
+        cache.get("key0")
+        table.completeSnapshot()
+        cache.get("key1")
+        table.completeSnapshot()
+
+        Then("The evicted entry is notified as removed")
+        cache.size shouldBe 1
+        observer.getOnNextEvents should contain inOrderOnly (
+            Update("key0", null, "value0"), Update("key0", "value0", null),
+            Update("key1", null, "value1"))
+    }
+
+    "Lazy table" should "reuse the last table copy within the interval" in {
+        Given("A lazy table with a snapshot interval")
+        val table = new TestTable
+        table.remote = Map("key0" -> "value0", "key1" -> "value1")
+        val cache = lazyTable(table, snapshotInterval = 1 hour)
+
+        When("Looking up a key")
+        cache.get("key0")
+        table.completeSnapshot()
+        table.snapshots shouldBe 1
+
+        And("Looking up another key")
+        cache.get("key1")
+
+        Then("The key is fetched from the last copy of the table")
+        table.snapshots shouldBe 1
+        cache.get("key1") shouldBe "value1"
+
+        When("The interval passes")
+        cache.expire(System.nanoTime() + (1 hour).toNanos)
+
+        And("Looking up a missing key")
+        cache.get("key2")
+
+        Then("The table is read again")
+        table.snapshots shouldBe 2
+    }
+}
@@ -20,6 +20,7 @@ import java.util.UUID
 import scala.concurrent.Await.{ready, result}
 import scala.concurrent.Future
 import scala.concurrent.duration._
+import com.codahale.metrics.MetricRegistry
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 import rx.{Notification, Observable}
@@ -29,11 +30,14 @@ import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.NotYetException
+import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.topology.VirtualTopology.Key
-import org.midonet.midolman.simulation.{Port => SimulationPort}
+import org.midonet.midolman.simulation.{Bridge => SimulationBridge, Port => SimulationPort}
 import org.midonet.midolman.topology.devices.{BgpPort, BgpRouter}
 import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MockRuleLogEventChannel
+import org.midonet.util.concurrent.{Executors, SameThreadButAfterExecutorService}
 
 @RunWith(classOf[JUnitRunner])
 class VirtualTopologyTest extends MidolmanSpec with TopologyBuilder {
@@ -590,4 +594,54 @@ class VirtualTopologyTest extends MidolmanSpec with TopologyBuilder {
             vt.observables.containsKey(Key(classOf[BgpPort], port.getId)) shouldBe false
         }
     }
+
+    feature("The topology maps devices on several threads") {
+        scenario("A bridge referencing ports mapped on other threads") {
+            Given("A topology with four topology threads")
+            val shardedVt = new VirtualTopology(
+                injector.getInstance(classOf[MidonetBackend]),
+                MidolmanConfig.forTests("agent.midolman.topology_threads : 4"),
+                simBackChannel,
+                new MockRuleLogEventChannel,
+                new MetricRegistry,
+                Executors.singleThreadScheduledExecutor(
+                    "devices-service", isDaemon = true,
+                    Executors.CallerRunsPolicy),
+                new SameThreadButAfterExecutorService,
+                () => false,
+                cbRegistry)
+            shardedVt.startAsync().awaitRunning()
+
+            try {
+                And("A bridge with several ports")
+                val ports = for (_ <- 0 until 16) yield
+                    createBridgePort(bridgeId = Some(bridgeId))
+                store.multi(ports.map(CreateOp(_)))
+
+                And("The ports are mapped on several threads")
+                ports.map(port => shardedVt.shardOf(port.getId))
+                     .toSet.size should be > 1
+
+                When("Requesting the bridge")
+                val bridge = result(
+                    shardedVt.get(classOf[SimulationBridge], bridgeId), timeout)
+
+                Then("The topology returns the bridge")
+                bridge.id shouldBe bridgeId
+
+                And("The topology cache contains all ports")
+                for (port <- ports) {
+                    shardedVt.devices.containsKey(port.getId.asJava) shouldBe true
+                }
+
+                And("Mapper assertions fail on a non topology thread")
+                intercept[DeviceMapperException] {
+                    shardedVt.assertThread(shardedVt.shardOf(bridgeId))
+                }
+            } finally {
+                shardedVt.vtExecutor.shutdownNow()
+                shardedVt.shutdownShardExecutors()
+            }
+        }
+    }
 }
@@ -33,7 +33,7 @@ import org.midonet.midolman.ShardedSimulationBackChannel
 import org.midonet.midolman.CallbackRegistry.CallbackSpec
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
-import org.midonet.midolman.flows.ManagedFlow
+import org.midonet.midolman.flows.{FlowRevalidator, ManagedFlow}
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.io.UpcallDatapathConnectionManager
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
@@ -127,6 +127,12 @@ trait MidolmanServices {
         override def shouldProcess = false
         override def process(): Unit = {}
         override def invalidateFlowsFor(tag: FlowTag) = tags = tags :+ tag
+        override def invalidateFlowsFor(tag: FlowTag,
+                                        revalidator: FlowRevalidator) =
+            invalidateFlowsFor(tag)
+        override def restoreFlowTags(id: Long,
+                                     tags: ArrayList[FlowTag]): Boolean = false
+        override def removeFlow(id: Long): Unit = {}
     }
 
     def dpConn()(implicit ec: ExecutionContext, as: ActorSystem):
@@ -144,6 +144,7 @@ trait MidolmanSpec extends FeatureSpecLike
             """cassandra.servers = "localhost:9171"
               |agent.midolman.stats_http_server_port = 0
               |agent.midolman.jmx_server.enabled = false
+              |agent.router.routes_coalescing_window = 0ms
             """.stripMargin
 
         config.withFallback(ConfigFactory.parseString(defaults))
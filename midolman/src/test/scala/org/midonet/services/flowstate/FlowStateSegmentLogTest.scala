@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.services.flowstate
+
+import java.nio.ByteBuffer
+import java.util.{Arrays, UUID}
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+import com.google.common.io.Files
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.config.{FlowStateConfig, MidolmanConfig}
+import org.midonet.services.flowstate.stream.FlowStateSegmentLog
+
+@RunWith(classOf[JUnitRunner])
+class FlowStateSegmentLogTest extends FlowStateBaseTest {
+
+    private var directory: String = _
+
+    before {
+        directory = s"${Files.createTempDir().getAbsolutePath}/log"
+    }
+
+    private def config(expirationTime: String = "20s"): FlowStateConfig = {
+        MidolmanConfig.forTests(
+            s"""
+               |agent.minions.flow_state.segmented_log : true
+               |agent.minions.flow_state.segment_size : 1048576
+               |agent.minions.flow_state.segment_count : 2
+               |agent.minions.flow_state.expiration_time : $expirationTime
+               |""".stripMargin).flowState
+    }
+
+    private def randomMessage(length: Int = 256): Array[Byte] = {
+        val message = new Array[Byte](length)
+        Random.nextBytes(message)
+        message
+    }
+
+    private def contents(slice: ByteBuffer): Array[Byte] = {
+        val buffer = slice.duplicate()
+        val length = buffer.getInt()
+        length shouldBe buffer.remaining
+        val message = new Array[Byte](length)
+        buffer.get(message)
+        message
+    }
+
+    private def assertMessages(log: FlowStateSegmentLog, portId: UUID,
+                               expected: Seq[Array[Byte]]): Unit = {
+        val messages = log.messages(portId).asScala.map(contents)
+        messages should have size expected.size
+        for ((message, original) <- messages zip expected) {
+            Arrays.equals(message, original) shouldBe true
+        }
+    }
+
+    feature("Segmented flow state log") {
+        scenario("Appends and reads messages for a port") {
+            Given("A segmented log")
+            val log = new FlowStateSegmentLog(config(), directory)
+            val portId = UUID.randomUUID()
+
+            When("Appending messages for a port")
+            val messages = for (i <- 1 to 10) yield randomMessage(i * 10)
+            for (message <- messages) {
+                log.append(Arrays.asList(portId), message, message.length)
+            }
+
+            Then("The messages are read in the same order")
+            log.contains(portId) shouldBe true
+            assertMessages(log, portId, messages)
+
+            And("Other ports do not have messages")
+            log.contains(UUID.randomUUID()) shouldBe false
+            log.messages(UUID.randomUUID()) shouldBe empty
+            log.close()
+        }
+
+        scenario("Writes a message once for several ports") {
+            Given("A segmented log")
+            val log = new FlowStateSegmentLog(config(), directory)
+            val ingressPort = UUID.randomUUID()
+            val egressPort = UUID.randomUUID()
+
+            When("Appending a message for two ports")
+            val shared = randomMessage()
+            log.append(Arrays.asList(ingressPort, egressPort), shared,
+                       shared.length)
+            val other = randomMessage()
+            log.append(Arrays.asList(egressPort), other, other.length)
+
+            Then("Both ports read the shared message")
+            assertMessages(log, ingressPort, Seq(shared))
+            assertMessages(log, egressPort, Seq(shared, other))
+
+            When("Removing a port")
+            log.remove(ingressPort)
+
+            Then("The port does not have messages")
+            log.contains(ingressPort) shouldBe false
+            assertMessages(log, egressPort, Seq(shared, other))
+            log.close()
+        }
+
+        scenario("Rebuilds the index when reopened") {
+            Given("A segmented log with messages")
+            val portId = UUID.randomUUID()
+            val log = new FlowStateSegmentLog(config(), directory)
+            val messages = for (_ <- 1 to 100) yield randomMessage()
+            for (message <- messages) {
+                log.append(Arrays.asList(portId), message, message.length)
+            }
+            log.commit() shouldBe 1
+            log.commit() shouldBe 0
+            log.close()
+
+            When("Opening the log again")
+            val reopened = new FlowStateSegmentLog(config(), directory)
+
+            Then("The messages are available")
+            assertMessages(reopened, portId, messages)
+
+            And("New messages are appended after the existing ones")
+            val message = randomMessage()
+            reopened.append(Arrays.asList(portId), message, message.length)
+            assertMessages(reopened, portId, messages :+ message)
+            reopened.close()
+        }
+
+        scenario("Recycles the oldest segment when the log is full") {
+            Given("A segmented log with two segments")
+            val log = new FlowStateSegmentLog(config(), directory)
+            val oldPort = UUID.randomUUID()
+            val newPort = UUID.randomUUID()
+
+            When("Appending a message for a port")
+            val message = randomMessage(1024)
+            log.append(Arrays.asList(oldPort), message, message.length)
+
+            And("Filling both segments for another port")
+            val messages = for (_ <- 1 to 2500) yield randomMessage(1024)
+            for (message <- messages) {
+                log.append(Arrays.asList(newPort), message, message.length)
+            }
+
+            Then("The messages of the recycled segment are discarded")
+            log.messages(oldPort) shouldBe empty
+            val read = log.messages(newPort).asScala.map(contents)
+            read.size should be < messages.size
+            Arrays.equals(read.last, messages.last) shouldBe true
+            log.close()
+        }
+
+        scenario("Rebuilds the index in write order after a wraparound") {
+            Given("A segmented log where the writers wrapped around")
+            val portId = UUID.randomUUID()
+            val log = new FlowStateSegmentLog(config(), directory)
+            val messages = for (_ <- 1 to 2500) yield randomMessage(1024)
+            for (message <- messages) {
+                log.append(Arrays.asList(portId), message, message.length)
+            }
+            val read = log.messages(portId).asScala.map(contents)
+            log.close()
+
+            When("Opening the log again")
+            val reopened = new FlowStateSegmentLog(config(), directory)
+
+            Then("The messages are returned in the order they were written")
+            val reread = reopened.messages(portId).asScala.map(contents)
+            reread should have size read.size
+            for ((message, original) <- reread zip read) {
+                Arrays.equals(message, original) shouldBe true
+            }
+
+            And("New messages are appended to the last segment")
+            val message = randomMessage()
+            reopened.append(Arrays.asList(portId), message, message.length)
+            Arrays.equals(
+                reopened.messages(portId).asScala.map(contents).last,
+                message) shouldBe true
+            reopened.close()
+        }
+
+        scenario("Messages are not overwritten when the segment is recycled") {
+            Given("A segmented log with a message")
+            val log = new FlowStateSegmentLog(config(), directory)
+            val portId = UUID.randomUUID()
+            val message = randomMessage(1024)
+            log.append(Arrays.asList(portId), message, message.length)
+
+            When("Reading the messages of the port")
+            val messages = log.messages(portId)
+
+            And("Filling both segments for another port")
+            val otherPort = UUID.randomUUID()
+            for (_ <- 1 to 2500) {
+                val other = randomMessage(1024)
+                log.append(Arrays.asList(otherPort), other, other.length)
+            }
+
+            Then("The message read is unchanged")
+            log.messages(portId) shouldBe empty
+            Arrays.equals(contents(messages.get(0)), message) shouldBe true
+            log.close()
+        }
+
+        scenario("Prunes the ports that are no longer bound") {
+            Given("A segmented log with a short expiration time")
+            val log = new FlowStateSegmentLog(config("500ms"), directory)
+            val boundPort = UUID.randomUUID()
+            val unboundPort = UUID.randomUUID()
+            val message = randomMessage()
+            log.append(Arrays.asList(boundPort, unboundPort), message,
+                       message.length)
+
+            Then("The ports with flow state are not pruned")
+            log.prune(Set(boundPort)) shouldBe 0
+            log.contains(unboundPort) shouldBe true
+
+            When("The flow state expires")
+            Thread.sleep(600)
+
+            Then("The unbound port is pruned")
+            log.prune(Set(boundPort)) shouldBe 1
+            log.contains(unboundPort) shouldBe false
+            log.contains(boundPort) shouldBe true
+            log.close()
+        }
+
+        scenario("Expired messages are not returned") {
+            Given("A segmented log with a short expiration time")
+            val log = new FlowStateSegmentLog(config("1ms"), directory)
+            val portId = UUID.randomUUID()
+            val message = randomMessage()
+            log.append(Arrays.asList(portId), message, message.length)
+
+            When("The message expires")
+            Thread.sleep(10)
+
+            Then("The message is not returned")
+            log.messages(portId) shouldBe empty
+            log.close()
+        }
+
+        scenario("Messages larger than a segment are rejected") {
+            Given("A segmented log")
+            val log = new FlowStateSegmentLog(config(), directory)
+            val message = randomMessage(1 << 20)
+
+            Then("Appending a message larger than a segment fails")
+            intercept[IllegalArgumentException] {
+                log.append(Arrays.asList(UUID.randomUUID()), message,
+                           message.length)
+            }
+            log.close()
+        }
+    }
+}
@@ -16,7 +16,8 @@
 package org.midonet.services.flowstate
 
 
-import java.net.{BindException, DatagramSocket, ServerSocket}
+import java.net.{BindException, DatagramSocket, InetSocketAddress, ServerSocket}
+import java.nio.ByteBuffer
 import java.util.UUID
 import java.util.concurrent.{Executors, ScheduledExecutorService, TimeUnit}
 
@@ -43,7 +44,8 @@ import org.midonet.services.flowstate.stream.FlowStateManager
 import org.midonet.services.flowstate.transfer.StateTransferProtocolParser.parseStateResponse
 import org.midonet.services.flowstate.transfer.internal._
 
-import io.netty.buffer.ByteBuf
+import io.netty.buffer.{ByteBuf, Unpooled}
+import io.netty.channel.socket.DatagramPacket
 import io.netty.channel.{ChannelFuture, ChannelHandlerContext}
 
 @RunWith(classOf[JUnitRunner])
@@ -353,6 +355,42 @@ class FlowStateServiceTest extends FlowStateBaseTest
             Then("The message is saved in local storage")
             handler.localWrites shouldBe 1
         }
+
+        scenario("Service handle calls storage with a batch of messages") {
+            Given("A flow state message handler")
+            val handler = new TestableWriteHandler(streamContext)
+            And("A batch of two valid messages")
+            val (_, protos1, encoder1) = validFlowStateInternalMessage()
+            val (_, protos2, encoder2) = validFlowStateInternalMessage()
+            val batch = ByteBuffer.allocate(MaxMessageSize)
+            batch.putInt(FlowStateInternalMessageType.FlowStateMessageBatch)
+            batch.putInt(0)
+            for (encoder <- Seq(encoder1, encoder2)) {
+                batch.putInt(encoder.encodedLength())
+                batch.put(encoder.flowStateBuffer.byteArray(), 0,
+                          encoder.encodedLength())
+            }
+            batch.putInt(4, batch.position - FlowStateInternalMessageHeaderSize)
+            batch.flip()
+            val datagram = new DatagramPacket(Unpooled.wrappedBuffer(batch),
+                                              new InetSocketAddress(6688))
+
+            When("The batch is handled")
+            handler.channelRead0(null, datagram)
+
+            Then("The handler sends the keys of both messages to legacy storage")
+            val mockedLegacyStorage = handler.contextProvider.get.storage.get
+            verify(mockedLegacyStorage, times(1)).touchConnTrackKey(
+                mockito.eq(protos1.conntrackKeys.head),
+                mockito.eq(protos1.ingressPort), mockito.any())
+            verify(mockedLegacyStorage, times(1)).touchConnTrackKey(
+                mockito.eq(protos2.conntrackKeys.head),
+                mockito.eq(protos2.ingressPort), mockito.any())
+            verify(mockedLegacyStorage, times(2)).submit()
+
+            And("Both messages are saved in local storage")
+            handler.localWrites shouldBe 2
+        }
     }
 
     feature("Flow state read message handling") {
@@ -119,6 +119,9 @@ class C3POConfig(val conf: Config) extends ScheduledMinionConfig[C3POMinion] {
     def jdbcDriver = conf.getString(s"$prefix.jdbc_driver_class")
     def user = conf.getString(s"$prefix.user")
     def password = conf.getString(s"$prefix.password")
+    def prefetchTasks = conf.getInt(s"$prefix.prefetch_tasks")
+    def batchTasks = conf.getInt(s"$prefix.batch_tasks")
+    def batchSize = conf.getInt(s"$prefix.batch_size")
 }
 
 class HeartbeatConfig(val conf: Config) extends ScheduledMinionConfig[Heartbeat] {
@@ -173,6 +176,7 @@ class RestApiConfig(val conf: Config) extends MinionConfig[RestApi] {
         conf.getDuration(s"$prefix.http_idle_timeout", TimeUnit.MILLISECONDS)
     def httpsIdleTimeoutMs =
         conf.getDuration(s"$prefix.https_idle_timeout", TimeUnit.MILLISECONDS)
+    def listCache = conf.getBoolean(s"$prefix.list_cache")
 }
 
 class ContainersConfig(val conf: Config) extends MinionConfig[ContainerService] {
@@ -194,6 +198,10 @@ class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
     def notifyBatchSize =
         conf.getInt(s"$prefix.notify_batch_size")
     def cacheThreads = conf.getInt(s"$prefix.cache_threads")
+    def cacheChangeLog = conf.getBoolean(s"$prefix.cache_change_log")
+    def cacheCheckInterval =
+        conf.getDuration(s"$prefix.cache_check_interval",
+                         TimeUnit.MILLISECONDS) millis
     def serverAddress = conf.getString(s"$prefix.server.address")
     def serverPort = conf.getInt(s"$prefix.server.port")
     def serverInterface = conf.getString(s"$prefix.server.interface")
@@ -226,4 +234,5 @@ class TopologyCacheConfig(val conf: Config) extends MinionConfig[TopologyCache]
    final val prefix = "cluster.topology_cache"
 
     override def isEnabled = conf.getBoolean(s"$prefix.enabled")
+    def hostSnapshots = conf.getBoolean(s"$prefix.host_snapshots")
 }
\ No newline at end of file
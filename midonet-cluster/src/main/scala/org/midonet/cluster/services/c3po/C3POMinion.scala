@@ -17,11 +17,16 @@
 package org.midonet.cluster.services.c3po
 
 import java.sql.Driver
+import java.util.concurrent.Executors
 
 import javax.sql.DataSource
 
+import scala.collection.mutable.ListBuffer
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.{Meter, MetricRegistry}
 import com.google.inject.Inject
 import com.google.protobuf.Message
 
@@ -40,6 +45,7 @@ import org.midonet.cluster.{C3POConfig, C3poLog, ClusterConfig}
 import org.midonet.minion.MinionService.TargetNode
 import org.midonet.minion.ScheduledMinion.checkConfigParamDefined
 import org.midonet.minion.{Context, MinionService, ScheduledMinion}
+import org.midonet.util.concurrent.NamedThreadFactory
 
 /** The service that translates and imports neutron models into the MidoNet
   * backend storage.
@@ -50,6 +56,8 @@ import org.midonet.minion.{Context, MinionService, ScheduledMinion}
   * @param backend The MidoNet backend service
   * @param curator API for access to ZK for internal uses of the C3PO service
   * @param backendCfg the Backend configuration
+  * @param metrics the metric registry, where the service exports the rate of
+  *                imported tasks
   */
 @MinionService(name = "neutron-importer", runsOn = TargetNode.CLUSTER)
 class C3POMinion @Inject()(nodeContext: Context,
@@ -57,9 +65,12 @@ class C3POMinion @Inject()(nodeContext: Context,
                            dataSrc: DataSource,
                            backend: MidonetBackend,
                            curator: CuratorFramework,
-                           backendCfg: MidonetBackendConfig)
+                           backendCfg: MidonetBackendConfig,
+                           metrics: MetricRegistry)
     extends ScheduledMinion(nodeContext, config.c3po) {
 
+    import C3POMinion._
+
     protected override val log = LoggerFactory.getLogger(C3poLog)
 
     private val neutronImporter = new SqlNeutronImporter(dataSrc)
@@ -74,9 +85,20 @@ class C3POMinion @Inject()(nodeContext: Context,
     private val leaderLatch = new LeaderLatch(curator, LEADER_LATCH_PATH,
                                               nodeContext.nodeId.toString)
 
+    // Reads the next tasks from the Neutron DB while the current tasks are
+    // imported.
+    private val prefetchExecutor = Executors.newSingleThreadExecutor(
+        new NamedThreadFactory("neutron-importer-prefetch", isDaemon = true))
+    private val prefetchContext =
+        ExecutionContext.fromExecutor(prefetchExecutor)
+
+    private val tasksMeter = new Meter()
+
     override def isEnabled = config.c3po.isEnabled
 
     override def doStart(): Unit = {
+        metrics.register(MetricRegistry.name(classOf[C3POMinion], "tasks"),
+                         tasksMeter)
         leaderLatch.start()
         super.doStart()
     }
@@ -87,6 +109,7 @@ class C3POMinion @Inject()(nodeContext: Context,
             log.info("Non leader shutting down, removing myself from pool")
         }
         leaderLatch.close()
+        prefetchExecutor.shutdownNow()
         super.doStop()
     }
 
@@ -107,17 +130,25 @@ class C3POMinion @Inject()(nodeContext: Context,
             val lastTaskId = dataMgr.lastProcessedTaskId
             log.debug(".. last processed task ID: {}.", lastTaskId)
 
-            val txns = neutronImporter.getTasksSince(lastTaskId)
-            log.debug(".. {} transaction(s) to import: {}", txns.size, txns)
-
-            for (txn <- txns) {
-                if (txn.isFlushTxn) {
-                    log.info(".. flushing storage")
-                    dataMgr.flushTopology()
-                    neutronImporter.deleteTask(txn.lastTaskId)
-                } else {
-                    dataMgr.interpretAndExecTxn(translateTxn(txn))
-                }
+            var txns = neutronImporter.getTasksSince(
+                lastTaskId, config.c3po.prefetchTasks)
+            while (txns.nonEmpty) {
+                log.debug(".. {} transaction(s) to import: {}", txns.size, txns)
+
+                // Read the following tasks while importing the current ones:
+                // the following tasks are discarded if the import fails, and
+                // read again from the last processed task ID.
+                val nextTaskId = txns.last.lastTaskId
+                val nextTxns = Future {
+                    neutronImporter.getTasksSince(nextTaskId,
+                                                  config.c3po.prefetchTasks)
+                }(prefetchContext)
+
+                importTxns(txns)
+
+                txns = if (leaderLatch.hasLeadership)
+                           Await.result(nextTxns, PrefetchTimeout)
+                       else Nil
             }
 
             val newLastTaskId = dataMgr.lastProcessedTaskId
@@ -130,6 +161,45 @@ class C3POMinion @Inject()(nodeContext: Context,
         }
     }
 
+    /** Imports the given Neutron transactions, grouping consecutive
+      * transactions into batches executed in a single storage transaction.
+      */
+    private def importTxns(txns: List[importer.Transaction]): Unit = {
+        val batch = new ListBuffer[Transaction]
+        var batchTasks = 0
+        var batchSize = 0
+
+        def execBatch(): Unit = {
+            if (batch.nonEmpty) {
+                dataMgr.interpretAndExecTxns(batch.toList)
+                tasksMeter.mark(batchTasks)
+                batch.clear()
+                batchTasks = 0
+                batchSize = 0
+            }
+        }
+
+        for (txn <- txns) {
+            if (txn.isFlushTxn) {
+                execBatch()
+                log.info(".. flushing storage")
+                dataMgr.flushTopology()
+                neutronImporter.deleteTask(txn.lastTaskId)
+            } else {
+                val translatedTxn = translateTxn(txn)
+                val size = sizeOf(translatedTxn)
+                if (batchTasks + txn.tasks.size > config.c3po.batchTasks ||
+                    batchSize + size > config.c3po.batchSize) {
+                    execBatch()
+                }
+                batch += translatedTxn
+                batchTasks += txn.tasks.size
+                batchSize += size
+            }
+        }
+        execBatch()
+    }
+
     private def translateTxn(txn: importer.Transaction) =
         Transaction(txn.id, txn.tasks.map(translateTask))
 
@@ -153,6 +223,11 @@ class C3POMinion @Inject()(nodeContext: Context,
 
 object C3POMinion {
 
+    private val PrefetchTimeout = 1 minute
+
+    /** The estimated size of a delete operation in a storage transaction. */
+    private val DeleteSize = 64
+
     val CnxnStrCfgKey = "cluster.neutron_importer.connection_string"
     val JdbcDriverCfgKey = "cluster.neutron_importer.jdbc_driver_class"
 
@@ -185,6 +260,17 @@ object C3POMinion {
                 InvalidCnxnStrErrMsg.format(cnxnStr))
     }
 
+    /** Estimates the size of the Neutron models of a transaction. */
+    private def sizeOf(txn: Transaction): Int = {
+        var size = 0
+        for (task <- txn.tasks) task.op match {
+            case Create(model) => size += model.getSerializedSize
+            case Update(model, _) => size += model.getSerializedSize
+            case _ => size += DeleteSize
+        }
+        size
+    }
+
     def initDataManager(config: ClusterConfig,
                         backend: MidonetBackend,
                         sequenceDispenser: SequenceDispenser): C3POStorageManager = {
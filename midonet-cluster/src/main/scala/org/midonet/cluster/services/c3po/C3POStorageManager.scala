@@ -192,4 +192,58 @@ class C3POStorageManager(config: ClusterConfig,
                 s"in transaction ${txn.txnId}.", e)
         }
     }
+
+    /** Interprets a batch of transactions of external model operations,
+      * translating and executing all their tasks in a single storage
+      * transaction, which also updates the last processed task ID. The tasks
+      * of a transaction may read the objects created or modified by the
+      * previous tasks, because the storage transaction returns its own
+      * changes.
+      *
+      * If the batch fails, for instance because a task cannot be translated or
+      * because the storage transaction is too large, the method executes the
+      * transactions one at a time with `interpretAndExecTxn`, skipping the
+      * tasks already processed, such that every task is executed once. */
+    @throws[ProcessingException]
+    def interpretAndExecTxns(txns: Seq[Transaction]): Unit = {
+        assert(initialized)
+
+        if (txns.isEmpty) {
+            return
+        }
+        if (txns.size == 1) {
+            interpretAndExecTxn(txns.head)
+            return
+        }
+
+        val firstTaskId = txns.head.tasks.head.taskId
+        val lastTaskId = txns.last.lastTaskId
+        try {
+            val tx = backend.store.transaction(ZoomOwner.ClusterNeutron)
+            try {
+                for (txn <- txns; task <- txn.tasks) {
+                    translate(tx, task.op)
+                }
+                tx.update(C3POState.at(lastTaskId))
+                tx.commit()
+            } finally {
+                tx.close()
+            }
+            log.info(s"Executed C3PO tasks with IDs $firstTaskId to " +
+                     s"$lastTaskId in ${txns.size} transactions.")
+        } catch {
+            case NonFatal(e) =>
+                log.info(s"Failed to execute C3PO tasks with IDs " +
+                         s"$firstTaskId to $lastTaskId in a single storage " +
+                         s"transaction: executing each transaction " +
+                         s"separately (${e.getMessage})")
+                val lastProcessed = lastProcessedTaskId
+                for (txn <- txns) {
+                    val tasks = txn.tasks.filter(_.taskId > lastProcessed)
+                    if (tasks.nonEmpty) {
+                        interpretAndExecTxn(Transaction(txn.txnId, tasks))
+                    }
+                }
+        }
+    }
 }
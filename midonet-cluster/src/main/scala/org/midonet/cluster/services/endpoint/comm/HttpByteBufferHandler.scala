@@ -16,6 +16,7 @@
 
 package org.midonet.cluster.services.endpoint.comm
 
+import scala.collection.JavaConverters._
 import scala.concurrent.{ExecutionContext, Future}
 import scala.util.{Failure, Success}
 
@@ -27,6 +28,13 @@ import io.netty.handler.codec.http._
 import io.netty.handler.stream.ChunkedStream
 import io.netty.util.CharsetUtil
 
+/**
+  * A buffer returned by a [[HttpByteBufferProvider]], together with the
+  * additional headers to be sent in the response.
+  */
+case class HttpByteBuffer(buffer: ByteBuf,
+                          headers: Map[String, String] = Map.empty)
+
 /**
   * Provider of a ByteBuffer containing the data to be sent as a response
   * on the HTTPByteBufferHandler.
@@ -34,6 +42,16 @@ import io.netty.util.CharsetUtil
 trait HttpByteBufferProvider {
     def getAndRef(): Future[ByteBuf]
 
+    /**
+      * Gets the buffer for a request with the given query parameters. By
+      * default, the parameters are ignored and the response does not include
+      * any additional headers.
+      */
+    def getAndRef(parameters: Map[String, String])
+                 (implicit ec: ExecutionContext): Future[HttpByteBuffer] = {
+        getAndRef() map { HttpByteBuffer(_) }
+    }
+
     def unref(): Unit
 }
 
@@ -62,9 +80,12 @@ class HttpByteBufferHandler(provider: HttpByteBufferProvider)
             val response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
                                                    HttpResponseStatus.OK)
 
-            provider.getAndRef() onComplete {
-                case Success(buffer) =>
+            provider.getAndRef(parameters(request)) onComplete {
+                case Success(HttpByteBuffer(buffer, extraHeaders)) =>
                     val headers = new CombinedHttpHeaders(true)
+                    for ((name, value) <- extraHeaders) {
+                        headers.add(name, value)
+                    }
                     headers.add(HttpHeaderNames.CACHE_CONTROL,
                                 HttpHeaderValues.NO_STORE)
                     headers.add(HttpHeaderNames.CACHE_CONTROL,
@@ -83,6 +104,13 @@ class HttpByteBufferHandler(provider: HttpByteBufferProvider)
         }
     }
 
+    private def parameters(request: FullHttpRequest): Map[String, String] = {
+        val decoder = new QueryStringDecoder(request.uri())
+        decoder.parameters().asScala.collect {
+            case (name, values) if !values.isEmpty => name -> values.get(0)
+        }.toMap
+    }
+
     private def sendContents(ctx: ChannelHandlerContext,
                              buffer: ByteBuf) = {
         val future: ChannelProgressiveFuture = ctx.writeAndFlush(
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentSkipListMap}
+
+import scala.collection.JavaConverters._
+
+import com.google.protobuf.Message
+
+import org.slf4j.LoggerFactory
+
+import rx.{Observable, Observer, Subscriber, Subscription}
+
+import org.midonet.cluster.RestApiLog
+import org.midonet.cluster.data.getIdString
+import org.midonet.cluster.data.storage.Storage
+
+object ResourceCache {
+
+    /**
+      * The cached objects of a class, sorted by identifier. The cache mirrors
+      * the storage using the class observable, and it is verified against
+      * storage before serving any request: a list request served from storage
+      * verifies the cache if the cache did not change during the read and it
+      * contains the same objects. Since the watch notifications of a write
+      * made by this API server may arrive after the write completes, every
+      * local write invalidates the cache until the next verification.
+      */
+    final class ClassCache private[ResourceCache](val clazz: Class[_ <: Message],
+                                                  store: Storage)
+        extends Observer[Observable[Message]] {
+
+        private val log = LoggerFactory.getLogger(RestApiLog)
+        private val classInfo = store.objectClasses(clazz)
+        private val objects = new ConcurrentSkipListMap[String, Message]
+        private val counter = new AtomicLong
+        @volatile private var verified = false
+        @volatile private var closed = false
+
+        private val subscription: Subscription =
+            store.observable(clazz.asInstanceOf[Class[Message]]).subscribe(this)
+
+        /** The version of the cache, which changes whenever the cache is
+          * updated or invalidated. */
+        def version: Long = counter.get
+
+        /** Whether the cache can serve requests. */
+        def isVerified: Boolean = verified && !closed
+
+        def isClosed: Boolean = closed
+
+        /** @return The identifier of the object as a string. */
+        def idOf(obj: Message): String = getIdString(classInfo.idOf(obj))
+
+        /**
+          * @return All cached objects following the given marker identifier,
+          *         sorted by identifier. If the marker is null, the method
+          *         returns the objects from the first one.
+          */
+        def list(marker: String, limit: Int): Seq[Message] = {
+            val map = if (marker eq null) objects
+                      else objects.tailMap(marker, false)
+            val iterator = map.values().iterator()
+            val result = Seq.newBuilder[Message]
+            var count = 0
+            while (iterator.hasNext && count < limit) {
+                result += iterator.next()
+                count += 1
+            }
+            result.result()
+        }
+
+        /**
+          * @return The cached objects with the given identifiers, in the same
+          *         order, or null if any object is missing from the cache.
+          */
+        def get(ids: Seq[String]): Seq[Message] = {
+            val result = Seq.newBuilder[Message]
+            result.sizeHint(ids.size)
+            val iterator = ids.iterator
+            while (iterator.hasNext) {
+                val obj = objects.get(iterator.next())
+                if (obj eq null) return null
+                result += obj
+            }
+            result.result()
+        }
+
+        /**
+          * Verifies the cache against the objects read from storage, where
+          * `version` is the cache version before the read.
+          */
+        def verify(objs: Seq[Message], version: Long): Unit = synchronized {
+            if (verified || closed || counter.get != version ||
+                objects.size != objs.size) {
+                return
+            }
+            verified = !objs.exists(obj => objects.get(idOf(obj)) != obj)
+        }
+
+        /** Invalidates the cache until the next verification. */
+        def invalidate(): Unit = synchronized {
+            verified = false
+            counter.incrementAndGet()
+        }
+
+        def close(): Unit = {
+            closed = true
+            subscription.unsubscribe()
+        }
+
+        override def onNext(observable: Observable[Message]): Unit = {
+            observable.subscribe(new ObjectSubscriber)
+        }
+
+        override def onError(e: Throwable): Unit = {
+            log.warn(s"Cache for class ${clazz.getSimpleName} failed", e)
+            closed = true
+        }
+
+        override def onCompleted(): Unit = {
+            closed = true
+        }
+
+        /** Updates the cache with the notifications of an object. The cache
+          * is updated before the version, such that a response tagged with a
+          * version includes at least the changes of that version. */
+        private class ObjectSubscriber extends Subscriber[Message] {
+            private var id: String = null
+
+            override def onNext(obj: Message): Unit = {
+                if (id eq null) id = idOf(obj)
+                objects.put(id, obj)
+                counter.incrementAndGet()
+            }
+
+            override def onError(e: Throwable): Unit = {
+                onCompleted()
+            }
+
+            override def onCompleted(): Unit = {
+                if (id ne null) {
+                    objects.remove(id)
+                    counter.incrementAndGet()
+                }
+            }
+        }
+    }
+
+}
+
+/**
+  * A cache of the topology objects listed by the REST API, with one
+  * [[ResourceCache.ClassCache]] per class created on first use. When the
+  * cache is disabled, the REST API reads all objects from storage.
+  */
+class ResourceCache(store: Storage, enabled: Boolean) {
+
+    import ResourceCache._
+
+    private val classes = new ConcurrentHashMap[Class[_], ClassCache]
+
+    /**
+      * @return The cache for the given class, or null if the cache is
+      *         disabled. A cache that was closed because of a storage error
+      *         is replaced by a new one.
+      */
+    def apply(clazz: Class[_ <: Message]): ClassCache = {
+        if (!enabled) {
+            return null
+        }
+        var cache = classes.get(clazz)
+        while ((cache eq null) || cache.isClosed) {
+            val newCache = new ClassCache(clazz, store)
+            if (cache eq null) {
+                cache = classes.putIfAbsent(clazz, newCache)
+                if (cache eq null) return newCache
+            } else if (classes.replace(clazz, cache, newCache)) {
+                return newCache
+            } else {
+                cache = classes.get(clazz)
+            }
+            newCache.close()
+        }
+        cache
+    }
+
+    /** Invalidates the cache of every class following a write made by this
+      * API server. */
+    def invalidate(): Unit = {
+        for (cache <- classes.values().asScala) {
+            cache.invalidate()
+        }
+    }
+
+    def close(): Unit = {
+        for (cache <- classes.values().asScala) {
+            cache.close()
+        }
+        classes.clear()
+    }
+
+}
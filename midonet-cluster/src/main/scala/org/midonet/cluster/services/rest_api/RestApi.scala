@@ -78,6 +78,8 @@ object RestApi {
 
         val resProvider = new ResourceProvider(reflections, log)
         val sequenceDispenser = new SequenceDispenser(curator, config.backend)
+        val resourceCache = new ResourceCache(backend.store,
+                                              config.restApi.listCache)
 
         override def configureServlets(): Unit = {
             // To redirect JDK log to slf4j. Ref: MNA-706
@@ -94,6 +96,7 @@ object RestApi {
             bind(classOf[MidonetBackend]).toInstance(backend)
             bind(classOf[MidonetBackendConfig]).toInstance(config.backend)
             bind(classOf[SequenceDispenser]).toInstance(sequenceDispenser)
+            bind(classOf[ResourceCache]).toInstance(resourceCache)
             bind(classOf[MidoNodeConfigurator])
                 .toInstance(MidoNodeConfigurator(
                 curator.usingNamespace(config.backend.rootKey.stripPrefix("/")),
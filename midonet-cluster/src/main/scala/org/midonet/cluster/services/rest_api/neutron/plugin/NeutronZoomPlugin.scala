@@ -73,7 +73,12 @@ class NeutronZoomPlugin @Inject()(resourceContext: ResourceContext,
     private def tryRead[T](f: => T): T = tryStorageOp(f)
 
     private def tryWrite(f: (Transaction) => Unit): Unit = {
-        tryStorageOp(store.tryTransaction(ZoomOwner.ClusterNeutron)(f))
+        try tryStorageOp(store.tryTransaction(ZoomOwner.ClusterNeutron)(f))
+        finally {
+            if (resourceContext.resourceCache ne null) {
+                resourceContext.resourceCache.invalidate()
+            }
+        }
     }
 
     /** Transform StorageExceptions to appropriate HTTP exceptions. */
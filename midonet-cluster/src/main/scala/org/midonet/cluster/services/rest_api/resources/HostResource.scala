@@ -26,11 +26,9 @@ import scala.collection.JavaConverters._
 
 import com.google.inject.Inject
 import com.google.inject.servlet.RequestScoped
-import com.google.protobuf.TextFormat
 
 import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.data.storage.SingleValueKey
-import org.midonet.cluster.models.State
 import org.midonet.cluster.rest_api.ResponseUtils._
 import org.midonet.cluster.rest_api.annotation.{AllowCreate, ApiResource, AllowGet, AllowList}
 import org.midonet.cluster.rest_api.models.{TunnelZone, Host, HostState, Interface}
@@ -38,6 +36,7 @@ import org.midonet.cluster.rest_api.validation.MessageProperty._
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.rest_api.MidonetMediaTypes._
 import org.midonet.cluster.services.rest_api.resources.MidonetResource._
+import org.midonet.cluster.util.HostStateUtil
 
 @ApiResource(version = 1, name = "hosts", template = "hostTemplate")
 @Path("hosts")
@@ -125,6 +124,8 @@ class HostResource @Inject()(resContext: ResourceContext)
         initHost(host)
     }
 
+    protected override def listCacheable: Boolean = false
+
     protected override def listFilter(hosts: Seq[Host]): Seq[Host] = {
         hosts foreach initHost
         hosts
@@ -149,13 +150,17 @@ class HostResource @Inject()(resContext: ResourceContext)
     }
 
     private def getInterfaces(hostId: String): Seq[Interface] = {
-        getResourceState(hostId.toString,classOf[Host], hostId,
+        getResourceState(hostId.toString, classOf[Host], hostId,
                          MidonetBackend.HostKey) match {
             case SingleValueKey(_, Some(value), _) =>
-                val builder = State.HostState.newBuilder()
-                TextFormat.merge(value, builder)
-                val hostState = ZoomConvert.fromProto(builder.build(),
-                                                      classOf[HostState])
+                val delta = getResourceState(hostId.toString, classOf[Host],
+                                             hostId,
+                                             MidonetBackend.HostDeltaKey) match {
+                    case SingleValueKey(_, d, _) => d
+                    case _ => None
+                }
+                val hostState = ZoomConvert.fromProto(
+                    HostStateUtil.merge(value, delta), classOf[HostState])
                 hostState.interfaces.asScala
             case _ => List.empty
         }
@@ -25,16 +25,15 @@ import scala.collection.JavaConverters._
 
 import com.google.inject.Inject
 import com.google.inject.servlet.RequestScoped
-import com.google.protobuf.TextFormat
 
 import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.data.storage.SingleValueKey
-import org.midonet.cluster.models.State
 import org.midonet.cluster.rest_api.NotFoundHttpException
 import org.midonet.cluster.rest_api.models.{Host, HostState, Interface}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.rest_api.MidonetMediaTypes._
 import org.midonet.cluster.services.rest_api.resources.MidonetResource.ResourceContext
+import org.midonet.cluster.util.HostStateUtil
 
 @RequestScoped
 class InterfaceResource @Inject()(hostId: UUID, resContext: ResourceContext)
@@ -70,10 +69,14 @@ class InterfaceResource @Inject()(hostId: UUID, resContext: ResourceContext)
         getResourceState(hostId.toString, classOf[Host], hostId,
                          MidonetBackend.HostKey) match {
             case SingleValueKey(_, Some(value), _) =>
-                val builder = State.HostState.newBuilder()
-                TextFormat.merge(value, builder)
-                val hostState = ZoomConvert.fromProto(builder.build(),
-                                                      classOf[HostState])
+                val delta = getResourceState(hostId.toString, classOf[Host],
+                                             hostId,
+                                             MidonetBackend.HostDeltaKey) match {
+                    case SingleValueKey(_, d, _) => d
+                    case _ => None
+                }
+                val hostState = ZoomConvert.fromProto(
+                    HostStateUtil.merge(value, delta), classOf[HostState])
                 hostState.interfaces.asScala
             case _ => List.empty
         }
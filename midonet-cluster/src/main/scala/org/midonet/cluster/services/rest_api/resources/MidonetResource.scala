@@ -20,6 +20,7 @@ import java.lang.annotation.Annotation
 import java.net.URI
 import java.util.{ConcurrentModificationException, List => JList, Set => JSet}
 
+import javax.servlet.http.HttpServletResponse
 import javax.validation.{ConstraintViolation, Validator}
 import javax.ws.rs._
 import javax.ws.rs.core.Response.Status._
@@ -42,12 +43,15 @@ import org.midonet.cluster.{RestApiConfig, _}
 import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.data.ZoomConvert.ConvertException
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
+import org.midonet.cluster.data.getIdString
 import org.midonet.cluster.data.storage._
 import org.midonet.cluster.rest_api.ResponseUtils.buildErrorResponse
 import org.midonet.cluster.rest_api._
 import org.midonet.cluster.rest_api.annotation.{AllowCreate, AllowGet, AllowList, AllowUpdate}
 import org.midonet.cluster.rest_api.models.UriResource
 import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.rest_api.ResourceCache
+import org.midonet.cluster.services.rest_api.ResourceCache.ClassCache
 import org.midonet.cluster.services.rest_api.resources.MidonetResource._
 import org.midonet.cluster.util.SequenceDispenser
 import org.midonet.cluster.util.logging.ProtoTextPrettifier.makeReadable
@@ -63,6 +67,11 @@ object MidonetResource {
         Response.created(uri).entity(entity).build()
     }
 
+    /** Query parameters of the paginated list requests: at most `limit`
+      * resources are returned, following the resource identifier `marker`. */
+    final val LimitParam = "limit"
+    final val MarkerParam = "marker"
+
     final val DefaultHandler: PartialFunction[Response, Response] = {
         case r => r
     }
@@ -131,7 +140,10 @@ object MidonetResource {
                                           executionContext: ExecutionContext,
                                           uriInfo: UriInfo,
                                           validator: Validator,
-                                          seqDispenser: SequenceDispenser)
+                                          seqDispenser: SequenceDispenser,
+                                          resourceCache: ResourceCache = null,
+                                          request: Request = null,
+                                          response: HttpServletResponse = null)
 
 }
 
@@ -217,11 +229,30 @@ abstract class MidonetResource[T >: Null <: UriResource]
     @GET
     def list(@HeaderParam("Accept") accept: String): JList[T] = {
         validateMediaType(accept, getAnnotation(classOf[AllowList]).value())
+        val clazz = tag.runtimeClass.asInstanceOf[Class[T]]
+        val zoomClass = UriResource.getZoomClass(clazz)
+        val cache = classCache(zoomClass)
         val ids = listIds
-        val list = if (ids eq null) {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]]))
+        val params = uriInfo.getQueryParameters
+        val marker = if (listPageable) params.getFirst(MarkerParam) else null
+        val limit = if (listPageable) listLimit(params.getFirst(LimitParam))
+                    else Int.MaxValue
+
+        val entityTag =
+            if ((cache ne null) && cache.isVerified && listCacheable)
+                checkNotModified(cache, accept, ids)
+            else null
+
+        // The limit applies after the list filter, which may exclude any of
+        // the listed resources.
+        val messages = if (ids eq null) {
+            listMessages(zoomClass, cache, marker)
         } else {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]], ids))
+            listMessages(zoomClass, cache, idsAfter(ids, marker))
+        }
+        val list = listFilter(messages.map(fromProto(_, clazz))).take(limit)
+        if ((entityTag ne null) && (resContext.response ne null)) {
+            resContext.response.setHeader(HttpHeaders.ETAG, entityTag.toString)
         }
         list.asJava
     }
@@ -291,6 +322,16 @@ abstract class MidonetResource[T >: Null <: UriResource]
 
     protected def listFilter(list: Seq[T]): Seq[T] = list
 
+    /** Whether the list responses depend only on the topology, such that
+      * they can be tagged with the version of the cache. Resources whose list
+      * filters read the state must override this to false. */
+    protected def listCacheable: Boolean = true
+
+    /** Whether the list requests support the `limit` and `marker` query
+      * parameters. Resources whose list filters depend on the whole list
+      * must override this to false. */
+    protected def listPageable: Boolean = true
+
     protected def createFilter(t: T, tx: ResourceTransaction): Unit = {
         tx.create(t)
     }
@@ -327,17 +368,102 @@ abstract class MidonetResource[T >: Null <: UriResource]
 
     protected def listResources[U >: Null <: UriResource](clazz: Class[U])
     : Seq[U] = {
-        store.getAll(UriResource.getZoomClass(clazz))
-             .map(_.map(fromProto(_, clazz)))
-             .getOrThrow
+        val zoomClass = UriResource.getZoomClass(clazz)
+        listMessages(zoomClass, classCache(zoomClass), null)
+            .map(fromProto(_, clazz))
     }
 
     protected def listResources[U >: Null <: UriResource](clazz: Class[U],
                                                           ids: Seq[Any])
     : Seq[U] = {
-        store.getAll(UriResource.getZoomClass(clazz), ids)
-             .map(_.map(fromProto(_, clazz)))
-             .getOrThrow
+        val zoomClass = UriResource.getZoomClass(clazz)
+        listMessages(zoomClass, classCache(zoomClass), ids)
+            .map(fromProto(_, clazz))
+    }
+
+    private def classCache(clazz: Class[_ <: Message]): ClassCache = {
+        if (resContext.resourceCache eq null) null
+        else resContext.resourceCache(clazz)
+    }
+
+    /** Lists the objects of the given class following the marker identifier,
+      * from the cache if verified, or otherwise from storage. A storage read
+      * verifies the cache. */
+    private def listMessages(clazz: Class[_ <: Message], cache: ClassCache,
+                             marker: String): Seq[Message] = {
+        if ((cache ne null) && cache.isVerified) {
+            return cache.list(marker, Int.MaxValue)
+        }
+        val version = if (cache ne null) cache.version else 0L
+        val messages: Seq[Message] = store.getAll(clazz).getOrThrow
+        if (cache ne null) {
+            cache.verify(messages, version)
+        }
+        if (marker eq null) {
+            messages
+        } else {
+            val classInfo = store.objectClasses(clazz)
+            messages.map(m => (getIdString(classInfo.idOf(m)), m))
+                    .filter(_._1 > marker)
+                    .sortBy(_._1)
+                    .map(_._2)
+        }
+    }
+
+    /** Lists the objects of the given class with the given identifiers, from
+      * the cache if verified and containing all objects, or otherwise from
+      * storage. */
+    private def listMessages(clazz: Class[_ <: Message], cache: ClassCache,
+                             ids: Seq[Any]): Seq[Message] = {
+        if ((cache ne null) && cache.isVerified) {
+            val messages = cache.get(ids.map(getIdString))
+            if (messages ne null) {
+                return messages
+            }
+        }
+        store.getAll(clazz, ids).getOrThrow
+    }
+
+    /** Selects the identifiers following the marker identifier, preserving
+      * their order. */
+    private def idsAfter(ids: Seq[Any], marker: String): Seq[Any] = {
+        val start = if (marker eq null) 0
+                    else ids.indexWhere(getIdString(_) == marker) + 1
+        if (start == 0) ids else ids.drop(start)
+    }
+
+    private def listLimit(value: String): Int = {
+        if (value eq null) {
+            return Int.MaxValue
+        }
+        try {
+            val limit = Integer.parseInt(value)
+            if (limit > 0) return limit
+        } catch {
+            case e: NumberFormatException =>
+        }
+        throw new BadRequestHttpException(s"Invalid $LimitParam: $value")
+    }
+
+    /** Computes the entity tag of a list response served from a verified
+      * cache, and throws a 304 Not Modified response if it matches the
+      * `If-None-Match` header of the request. */
+    @throws[WebApplicationException]
+    private def checkNotModified(cache: ClassCache, accept: String,
+                                 ids: Seq[Any]): EntityTag = {
+        var hash = uriInfo.getRequestUri.hashCode
+        hash = 31 * hash + (if (accept ne null) accept.hashCode else 0)
+        hash = 31 * hash + (if (ids ne null) ids.map(getIdString).hashCode
+                            else 0)
+        val entityTag = new EntityTag(
+            f"${cache.clazz.getSimpleName}-${cache.version}%x-$hash%08x")
+        if (resContext.request ne null) {
+            val builder = resContext.request.evaluatePreconditions(entityTag)
+            if (builder ne null) {
+                throw new WebApplicationException(builder.tag(entityTag).build())
+            }
+        }
+        entityTag
     }
 
     protected def getResource[U >: Null <: UriResource](clazz: Class[U], id: Any)
@@ -429,6 +555,12 @@ abstract class MidonetResource[T >: Null <: UriResource]
             case NonFatal(e) =>
                 log.error("Unhandled exception", e)
                 buildErrorResponse(INTERNAL_SERVER_ERROR, e.getMessage)
+        } finally {
+            // The cache may receive the notifications of this write after
+            // the response: invalidate it to read our writes.
+            if (resContext.resourceCache ne null) {
+                resContext.resourceCache.invalidate()
+            }
         }
     }
 
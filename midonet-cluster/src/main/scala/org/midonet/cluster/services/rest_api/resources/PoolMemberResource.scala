@@ -77,6 +77,8 @@ class PoolMemberResource @Inject()(resContext: ResourceContext)
         pm
     }
 
+    protected override def listCacheable: Boolean = false
+
     override protected def listFilter(pms: Seq[PoolMember]): Seq[PoolMember] = {
         val updates = Observable.merge(pms.map(getStatus).asJava)
             .toList.toBlocking.first().asScala
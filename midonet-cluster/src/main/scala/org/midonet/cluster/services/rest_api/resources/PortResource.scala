@@ -54,6 +54,8 @@ class AbstractPortResource[P >: Null <: Port] (resContext: ResourceContext)
         port
     }
 
+    protected override def listCacheable: Boolean = false
+
     protected override def listFilter(ports: Seq[P]): Seq[P] = {
         ports foreach { port => setActive(port); setBgpStatus(port) }
         ports
@@ -83,6 +83,8 @@ class ChainRuleResource @Inject()(chainId: UUID, resContext: ResourceContext)
         getResource(classOf[Chain], chainId).ruleIds.asScala
     }
 
+    protected override def listPageable: Boolean = false
+
     protected override def listFilter(rules: Seq[Rule]): Seq[Rule] = {
         for (index <- rules.indices) rules(index).position = index + 1
         rules
@@ -73,6 +73,8 @@ class ServiceContainerResource @Inject()(resContext: ResourceContext)
         } else null
     }
 
+    protected override def listCacheable: Boolean = false
+
     protected override def listFilter(list: Seq[ServiceContainer])
     : Seq[ServiceContainer] = {
         list.map(setStatus)
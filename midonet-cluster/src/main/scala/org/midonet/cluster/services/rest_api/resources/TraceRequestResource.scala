@@ -46,6 +46,8 @@ import org.midonet.cluster.services.rest_api.resources.MidonetResource._
 class TraceRequestResource @Inject()(resContext: ResourceContext)
         extends MidonetResource[TraceRequest](resContext) {
 
+    protected override def listCacheable: Boolean = false
+
     protected override def listFilter(
         traceRequests: Seq[TraceRequest]): Seq[TraceRequest] = {
 
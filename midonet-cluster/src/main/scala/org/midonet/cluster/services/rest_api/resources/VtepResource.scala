@@ -68,6 +68,8 @@ class VtepResource @Inject()(resContext: ResourceContext,
         initVtep(vtep)
     }
 
+    protected override def listCacheable: Boolean = false
+
     protected override def listFilter(vteps: Seq[Vtep]): Seq[Vtep] = {
         for (vtep <- vteps) yield initVtep(vtep)
     }
@@ -17,7 +17,7 @@
 package org.midonet.cluster.services.state
 
 import java.util
-import java.util.concurrent.ExecutorService
+import java.util.concurrent.{ExecutorService, ScheduledExecutorService, ScheduledFuture, TimeUnit}
 import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong, AtomicReference}
 
 import scala.concurrent.ExecutionContext
@@ -30,10 +30,12 @@ import org.apache.curator.framework.api.{BackgroundCallback, CuratorEvent}
 import org.apache.curator.framework.state.{ConnectionState, ConnectionStateListener}
 import org.apache.zookeeper.KeeperException.Code
 import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.Watcher.Event.EventType
 import org.apache.zookeeper.{KeeperException, WatchedEvent, Watcher}
 import org.slf4j.LoggerFactory
 
-import org.midonet.cluster.data.storage.StateTableStorage
+import org.midonet.cluster.data.storage.StateTableLog.{AddOp, Record}
+import org.midonet.cluster.data.storage.{StateTableLog, StateTableStorage}
 import org.midonet.cluster.rpc.State.KeyValue
 import org.midonet.cluster.rpc.State.ProxyResponse.Notify
 import org.midonet.cluster.rpc.State.ProxyResponse.Notify.Update
@@ -306,6 +308,25 @@ object StateTableCache {
                              val version: Int)
 
     private type TableEntries = util.HashMap[String, TableEntry]
+    private type ShadowedEntries =
+        util.HashMap[String, util.ArrayList[TableEntry]]
+
+    /**
+      * The context of a listing of the table entries that synchronizes the
+      * cache with the change log: the listing includes the changes of the
+      * given log records.
+      */
+    private case class LogSync(startTime: Long, records: util.ArrayList[Record])
+
+    /**
+      * The log records read from the change log, with the status of the
+      * table directory read afterwards.
+      */
+    private case class LogRead(records: util.ArrayList[Record], stat: Stat)
+
+    private object LogReadContext
+    private object LogCreateContext
+    private object LogCheckContext
 
     private final val NoSubscriptions = new Array[Subscription](0)
     private final val NoUpdates = new Array[Update](0)
@@ -343,6 +364,13 @@ object StateTableCache {
   * ensures a total order of updates as seen by the subscribers. The executor
   * also offloads the processing of the table changes from the
   * [[CuratorFramework]] thread, which is available to process other requests.
+  *
+  * By default, the cache lists all table entries for every change. When the
+  * change log is enabled, the cache lists the table entries only to
+  * synchronize with the [[StateTableLog]], and then applies the log records
+  * following the last consumed record. The cache synchronizes again when the
+  * log records are no longer contiguous, or when the periodic check of the
+  * table directory finds changes without log records.
   */
 class StateTableCache(val config: StateProxyConfig,
                       storage: StateTableStorage,
@@ -384,6 +412,32 @@ class StateTableCache(val config: StateProxyConfig,
     private val diffRemoveCache = new util.ArrayList[TableEntry](8)
 
     private val path = storage.tablePath(objectClass, objectId, name, args: _*)
+
+    // Change log support: when enabled, the cache lists all table entries
+    // only to synchronize with the log, and otherwise it applies the log
+    // records as they are appended. The following variables are accessed
+    // only on the dispatcher thread.
+    private val logEnabled = config.cacheChangeLog
+    private val logPath = path + StateTableLog.LogPath
+    // The entries that are not in the cache because another entry for the
+    // same key takes precedence.
+    private var shadowed: ShadowedEntries = null
+    // The sequence number of the last consumed log record, or -1 if none.
+    private var logSequence = -1L
+    // The child version of the table directory when the cache was last
+    // synchronized with the log, and the number of records consumed since.
+    private var logCversion = 0L
+    private var logRecords = 0L
+    // Indicates whether the last check found changes without log records.
+    private var logSuspect = false
+    // Indicates whether a synchronization with the log is in progress, and
+    // whether log records arrived meanwhile.
+    private val logSyncing = new AtomicBoolean(false)
+    private var logDirty = false
+    // Queue of size one to store the last log read, similar to the event
+    // queue.
+    private val logQueue = new AtomicReference[LogRead](null)
+    @volatile private var logCheck: ScheduledFuture[_] = null
     protected[state] val logId =
         s"${objectClass.getSimpleName}/$objectId/$name"
 
@@ -403,6 +457,19 @@ class StateTableCache(val config: StateProxyConfig,
             processWatcher(event)
     }
 
+    @volatile
+    private var logCallback = new BackgroundCallback {
+        override def processResult(client: CuratorFramework,
+                                   event: CuratorEvent): Unit =
+            processLogCallback(event)
+    }
+
+    @volatile
+    private var logWatcher = new Watcher {
+        override def process(event: WatchedEvent): Unit =
+            processLogWatcher(event)
+    }
+
     @volatile
     private var connectionListener = new ConnectionStateListener {
         override def stateChanged(client: CuratorFramework,
@@ -519,6 +586,9 @@ class StateTableCache(val config: StateProxyConfig,
         }
 
         curator.getConnectionStateListenable.addListener(connectionListener)
+        if (logEnabled) {
+            scheduleLogCheck()
+        }
         refresh()
     }
 
@@ -531,12 +601,20 @@ class StateTableCache(val config: StateProxyConfig,
         if (newState.closed) {
             curator.getConnectionStateListenable.removeListener(connectionListener)
             curator.clearWatcherReferences(watcher)
+            curator.clearWatcherReferences(logWatcher)
+            val check = logCheck
+            if (check ne null) {
+                check.cancel(false)
+            }
 
             onClose(this)
 
             connectionListener = null
             watcher = null
             callback = null
+            logWatcher = null
+            logCallback = null
+            logCheck = null
             cache = null
         }
     }
@@ -567,6 +645,10 @@ class StateTableCache(val config: StateProxyConfig,
         if (!connected.get || state.get.closed) {
             return
         }
+        if (logEnabled) {
+            synchronizeLog()
+            return
+        }
         try {
             val context = Long.box(System.currentTimeMillis())
             curator.getChildren
@@ -658,6 +740,11 @@ class StateTableCache(val config: StateProxyConfig,
                 val last = eventQueue.getAndSet(null)
                 if (last ne null) {
                     processEntries(last.getChildren, last.getStat)
+                    last.getContext match {
+                        case sync: LogSync =>
+                            processLogSync(sync.records, last.getStat)
+                        case _ =>
+                    }
                 }
             })
         }
@@ -709,6 +796,7 @@ class StateTableCache(val config: StateProxyConfig,
         diffRemoveCache.clear()
         // create a table that can hold all the entries without resizing.
         val newCache = new TableEntries(entries.size()*2)
+        val newShadowed = if (logEnabled) new ShadowedEntries else null
 
         // Add/update new entries in the cache.
         val entryIterator = entries.iterator()
@@ -719,12 +807,13 @@ class StateTableCache(val config: StateProxyConfig,
                 // Compute the diff with respect to the previous version
                 // of the cache.
                 val currentEntry = newCache.get(newEntry.cacheKey)
-                if ((currentEntry eq null) ||
-                    currentEntry.version == PersistentVersion ||
-                    (currentEntry.version < newEntry.version &&
-                     newEntry.version != PersistentVersion)) {
-
+                if (supersedes(newEntry, currentEntry)) {
                     newCache.put(newEntry.cacheKey, newEntry)
+                    if ((newShadowed ne null) && (currentEntry ne null)) {
+                        shadow(newShadowed, currentEntry)
+                    }
+                } else if (newShadowed ne null) {
+                    shadow(newShadowed, newEntry)
                 }
             }
         }
@@ -751,7 +840,18 @@ class StateTableCache(val config: StateProxyConfig,
 
         // Update the cache.
         cache = newCache
+        shadowed = newShadowed
 
+        publishDiff(lastVersion)
+    }
+
+    /**
+      * Notifies the subscribers of the differential updates from the given
+      * version to the current version, using the entries added to and
+      * removed from the cache. This method must be executed on the dispatcher
+      * thread.
+      */
+    private def publishDiff(lastVersion: Long): Unit = {
         // Compute the differential updates based on the current batch size.
         val updateCount = diffAddCache.size() + diffRemoveCache.size()
         val updates = if (updateCount > 0) {
@@ -851,6 +951,425 @@ class StateTableCache(val config: StateProxyConfig,
         }
     }
 
+    /**
+      * @return True if the new entry takes precedence over the current entry
+      *         for the same key. Persistent entries have the lowest
+      *         precedence, otherwise the entry with the greater version wins.
+      */
+    private def supersedes(newEntry: TableEntry,
+                           currentEntry: TableEntry): Boolean = {
+        (currentEntry eq null) ||
+        currentEntry.version == PersistentVersion ||
+        (currentEntry.version < newEntry.version &&
+         newEntry.version != PersistentVersion)
+    }
+
+    /**
+      * Adds an entry that does not take precedence for its key to the given
+      * shadowed entries.
+      */
+    private def shadow(entries: ShadowedEntries, entry: TableEntry): Unit = {
+        var list = entries.get(entry.cacheKey)
+        if (list eq null) {
+            list = new util.ArrayList[TableEntry](2)
+            entries.put(entry.cacheKey, list)
+        }
+        list.add(entry)
+    }
+
+    /**
+      * @return The index of the given entry in the shadowed entries of its
+      *         key, or -1 if the entry is not shadowed.
+      */
+    private def shadowIndex(entry: TableEntry): Int = {
+        val list = shadowed.get(entry.cacheKey)
+        if (list ne null) {
+            var index = 0
+            while (index < list.size()) {
+                if (sameEntry(list.get(index), entry)) {
+                    return index
+                }
+                index += 1
+            }
+        }
+        -1
+    }
+
+    /**
+      * Removes the given entry from the shadowed entries, if present.
+      */
+    private def unshadow(entry: TableEntry): Unit = {
+        val index = shadowIndex(entry)
+        if (index >= 0) {
+            val list = shadowed.get(entry.cacheKey)
+            list.remove(index)
+            if (list.isEmpty) {
+                shadowed.remove(entry.cacheKey)
+            }
+        }
+    }
+
+    private def sameEntry(entry1: TableEntry, entry2: TableEntry): Boolean = {
+        entry1.version == entry2.version && entry1.value == entry2.value
+    }
+
+    /**
+      * Synchronizes the cache with the change log. The method lists the log
+      * records, setting the log watcher, and then lists the table entries
+      * without a watcher. Because the second listing includes the changes of
+      * all records from the first listing, the cache only consumes the
+      * records following the last record of the first listing.
+      */
+    private def synchronizeLog(): Unit = {
+        if (!connected.get || state.get.closed) {
+            return
+        }
+        logSyncing set true
+        try {
+            val context = LogSync(System.currentTimeMillis(), null)
+            curator.getChildren
+                   .usingWatcher(logWatcher)
+                   .inBackground(logCallback, context)
+                   .forPath(logPath)
+        } catch {
+            case NonFatal(e) =>
+                Log.debug(s"($logId) Synchronizing state table cache failed", e)
+                close(e)
+        }
+    }
+
+    /**
+      * Reads the log records appended since the cache was synchronized,
+      * setting the log watcher.
+      */
+    private def readLog(): Unit = {
+        if (!connected.get || state.get.closed) {
+            return
+        }
+        try {
+            curator.getChildren
+                   .usingWatcher(logWatcher)
+                   .inBackground(logCallback, LogReadContext)
+                   .forPath(logPath)
+        } catch {
+            case NonFatal(e) =>
+                Log.debug(s"($logId) Reading state table log failed", e)
+                close(e)
+        }
+    }
+
+    /**
+      * Schedules the periodic check of the table directory, which detects the
+      * changes without log records: the entries that expire with the session
+      * of their writer, and the entries added or removed by writers that do
+      * not support the change log. The check is possible only with a
+      * scheduled executor.
+      */
+    private def scheduleLogCheck(): Unit = executor match {
+        case scheduler: ScheduledExecutorService =>
+            val interval = config.cacheCheckInterval.toMillis
+            logCheck = scheduler.scheduleWithFixedDelay(makeRunnable {
+                if (connected.get && !state.get.closed) {
+                    try {
+                        curator.checkExists()
+                               .inBackground(logCallback, LogCheckContext)
+                               .forPath(path)
+                    } catch {
+                        case NonFatal(e) =>
+                            Log.debug(s"($logId) Checking state table " +
+                                      "cache failed", e)
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS)
+        case _ =>
+            Log debug s"($logId) Cache executor does not support scheduling: " +
+                      "changes without log records are not checked"
+    }
+
+    /**
+      * Processes the results of the change log operations.
+      */
+    private def processLogCallback(event: CuratorEvent): Unit = {
+        if (state.get.closed) {
+            return
+        }
+
+        val code = Code.get(event.getResultCode)
+        try {
+            (event.getContext, code) match {
+                case (sync: LogSync, Code.OK) =>
+                    val records = StateTableLog.decodeRecords(event.getChildren)
+                    Log trace s"($logId) Read ${records.size()} log records " +
+                              s"in ${latency(sync)} ms"
+                    curator.getChildren
+                           .inBackground(callback, sync.copy(records = records))
+                           .forPath(path)
+                case (LogReadContext, Code.OK) =>
+                    val records = StateTableLog.decodeRecords(event.getChildren)
+                    curator.checkExists()
+                           .inBackground(logCallback, LogRead(records, null))
+                           .forPath(path)
+                case (read: LogRead, Code.OK) =>
+                    enqueueLog(read.copy(stat = event.getStat))
+                case (LogCheckContext, Code.OK) =>
+                    val stat = event.getStat
+                    executor.submit(makeRunnable { processLogCheck(stat) })
+                case (LogCreateContext, Code.OK | Code.NODEEXISTS) =>
+                    synchronizeLog()
+                case (_: LogSync | LogReadContext, Code.NONODE) =>
+                    // The table directory predates the change log, or its
+                    // log was deleted: create the log and synchronize.
+                    Log debug s"($logId) Creating state table log"
+                    curator.create()
+                           .inBackground(logCallback, LogCreateContext)
+                           .forPath(logPath)
+                case (_, Code.NONODE) =>
+                    Log debug s"($logId) State table does not exist or deleted"
+                    close(KeeperException.create(Code.NONODE, event.getPath))
+                case (_, Code.CONNECTIONLOSS) =>
+                    Log warn s"($logId) Cache connection lost"
+                    close(KeeperException.create(Code.CONNECTIONLOSS,
+                                                 event.getPath))
+                case _ =>
+                    Log warn s"($logId) Reading state table log failed $code"
+                    close(KeeperException.create(code, event.getPath))
+            }
+        } catch {
+            case NonFatal(e) =>
+                Log.debug(s"($logId) Reading state table log failed", e)
+                close(e)
+        }
+    }
+
+    /**
+      * Processes watcher notifications for the change log, by reading the new
+      * log records.
+      */
+    private def processLogWatcher(event: WatchedEvent): Unit = {
+        if (!state.get.closed) {
+            if (event.getType == EventType.NodeDeleted) {
+                Log debug s"($logId) State table log deleted: synchronizing"
+                synchronizeLog()
+            } else {
+                Log trace s"($logId) State table log changed: reading"
+                readLog()
+            }
+        }
+    }
+
+    /**
+      * Enqueues the records read from the change log, similar to
+      * `enqueueEvent`: the latest read overwrites any previous read in the
+      * queue, since the log records are cumulative.
+      */
+    private def enqueueLog(read: LogRead): Unit = {
+        val current = logQueue.getAndSet(read)
+        if (current eq null) {
+            executor.submit(makeRunnable {
+                val last = logQueue.getAndSet(null)
+                if (last ne null) {
+                    processLog(last.records, last.stat)
+                }
+            })
+        }
+    }
+
+    /**
+      * Completes the synchronization with the change log, after processing
+      * the listing of the table entries. This method must be executed on the
+      * dispatcher thread.
+      */
+    private def processLogSync(records: util.ArrayList[Record],
+                               stat: Stat): Unit = {
+        logSequence =
+            if (records.isEmpty) -1L
+            else records.get(records.size() - 1).sequence
+        logCversion = stat.getCversion
+        logRecords = 0L
+        logSuspect = false
+        logSyncing set false
+
+        Log trace s"($logId) Synchronized with log sequence $logSequence " +
+                  s"child version $logCversion"
+
+        if (logDirty) {
+            logDirty = false
+            readLog()
+        }
+    }
+
+    /**
+      * Processes the records read from the change log. The method updates
+      * the cache and notifies all subscribers of the changes. Processing is
+      * done on the dispatcher thread.
+      */
+    private def processLog(records: util.ArrayList[Record], stat: Stat): Unit = {
+        try {
+            processLogUnsafe(records, stat)
+        } catch {
+            case NonFatal(e) =>
+                val message =
+                    s"($logId) Unexpected exception when processing " +
+                    s"log records for version ${stat.getPzxid}"
+                Log.error(message, e)
+                close(new IllegalStateException(message))
+        }
+    }
+
+    /**
+      * Unsafely processes the records read from the change log, see
+      * `processEntriesUnsafe`. This method must be executed on the dispatcher
+      * thread.
+      */
+    @throws[Exception]
+    private def processLogUnsafe(records: util.ArrayList[Record],
+                                 stat: Stat): Unit = {
+        val currentCache = cache
+        if (currentCache eq null) {
+            return
+        }
+        if (logSyncing.get) {
+            // The records are consumed after the synchronization completes.
+            logDirty = true
+            return
+        }
+
+        // Skip the records that were already consumed. If the log no longer
+        // includes the last consumed record, the records following it may
+        // have been compacted before the cache consumed them.
+        var index = 0
+        var consumed = logSequence < 0
+        while (index < records.size() &&
+               records.get(index).sequence <= logSequence) {
+            consumed |= records.get(index).sequence == logSequence
+            index += 1
+        }
+        if (index == records.size()) {
+            return
+        }
+        if (!consumed) {
+            Log debug s"($logId) State table log compacted past sequence " +
+                      s"$logSequence: synchronizing"
+            synchronizeLog()
+            return
+        }
+
+        Log trace s"($logId) Log records version:${stat.getPzxid} from " +
+                  s"sequence ${records.get(index).sequence}"
+
+        diffAddCache.clear()
+        diffRemoveCache.clear()
+
+        logRecords += records.size() - index
+        while (index < records.size()) {
+            val record = records.get(index)
+            val entry = decodeEntry(record.entry)
+            // Ignore entries that cannot be decoded.
+            if (entry ne null) {
+                if (record.op == AddOp) addEntry(currentCache, entry)
+                else removeEntry(currentCache, entry)
+            }
+            logSequence = record.sequence
+            index += 1
+        }
+
+        val lastVersion = version
+        version = Math.max(version, stat.getPzxid)
+
+        publishDiff(lastVersion)
+    }
+
+    /**
+      * Adds to the cache an entry from a log record. Adding an entry that is
+      * already cached or shadowed has no effect, since the record may
+      * precede the listing that synchronized the cache.
+      */
+    private def addEntry(entries: TableEntries, entry: TableEntry): Unit = {
+        val currentEntry = entries.get(entry.cacheKey)
+        if (((currentEntry ne null) && sameEntry(currentEntry, entry)) ||
+            shadowIndex(entry) >= 0) {
+            return
+        }
+        if (supersedes(entry, currentEntry)) {
+            entries.put(entry.cacheKey, entry)
+            if (currentEntry ne null) {
+                shadow(shadowed, currentEntry)
+            }
+            diffAddCache.add(entry)
+        } else {
+            shadow(shadowed, entry)
+        }
+    }
+
+    /**
+      * Removes from the cache an entry from a log record. If the entry is
+      * cached, the shadowed entry with the highest precedence for the same
+      * key, if any, replaces the removed entry.
+      */
+    private def removeEntry(entries: TableEntries, entry: TableEntry): Unit = {
+        val currentEntry = entries.get(entry.cacheKey)
+        if ((currentEntry eq null) || !sameEntry(currentEntry, entry)) {
+            unshadow(entry)
+            return
+        }
+
+        var nextEntry: TableEntry = null
+        val list = shadowed.get(entry.cacheKey)
+        if (list ne null) {
+            var index = 0
+            while (index < list.size()) {
+                if (supersedes(list.get(index), nextEntry)) {
+                    nextEntry = list.get(index)
+                }
+                index += 1
+            }
+        }
+
+        if (nextEntry ne null) {
+            unshadow(nextEntry)
+            entries.put(entry.cacheKey, nextEntry)
+            diffAddCache.add(nextEntry)
+        } else {
+            entries.remove(entry.cacheKey)
+            diffRemoveCache.add(entry)
+        }
+    }
+
+    /**
+      * Compares the child version of the table directory with the number of
+      * log records consumed since the last synchronization. A greater child
+      * version means changes without log records, and if the difference
+      * persists for two consecutive checks, such that the log records in
+      * flight are consumed, the cache synchronizes with the table directory.
+      * A smaller child version means that the cache consumed records of
+      * changes included in the synchronization listing, and the method
+      * adjusts the baseline. This method must be executed on the dispatcher
+      * thread.
+      */
+    private def processLogCheck(stat: Stat): Unit = {
+        if (cache eq null) {
+            return
+        }
+        if (logSyncing.get) {
+            logSuspect = false
+            return
+        }
+
+        val deficit = stat.getCversion - (logCversion + logRecords)
+        if (deficit < 0) {
+            logCversion = stat.getCversion - logRecords
+            logSuspect = false
+        } else if (deficit == 0) {
+            logSuspect = false
+        } else if (logSuspect) {
+            Log debug s"($logId) State table has $deficit changes without " +
+                      "log records: synchronizing"
+            synchronizeLog()
+        } else {
+            logSuspect = true
+        }
+    }
+
     /**
       * Computes the latency of a state table operation assuming that the
       * context includes the start timestamp. Returns -1 otherwise.
@@ -859,6 +1378,8 @@ class StateTableCache(val config: StateProxyConfig,
         context match {
             case startTime: java.lang.Long =>
                 System.currentTimeMillis() - startTime
+            case sync: LogSync =>
+                System.currentTimeMillis() - sync.startTime
             case _ => -1L
         }
     }
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology_cache
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType
+import com.google.protobuf.Descriptors.{Descriptor, FieldDescriptor}
+import com.google.protobuf.Message
+
+import org.midonet.cluster.models.Topology._
+import org.midonet.cluster.models.{Commons, Topology}
+import org.midonet.cluster.services.topology_cache.TopologySnapshotProvider.ObjectVersions
+import org.midonet.cluster.topology.snapshot._
+import org.midonet.cluster.util.UUIDUtil
+import org.midonet.util.logging.Logger
+
+object HostTopologySnapshots {
+
+    /**
+      * The classes whose objects are included in every host snapshot. These
+      * objects are not expanded, since they reference the objects of every
+      * host.
+      */
+    private val GlobalClasses: Set[Class[_]] =
+        Set(classOf[Host], classOf[TunnelZone])
+
+    /**
+      * The reference fields that point back to the objects referencing an
+      * object, rather than to the objects used by the object. Following them
+      * would add to a host snapshot every device that shares a chain, mirror,
+      * policy or group with a device of the host.
+      */
+    private val BackReferences: Set[FieldDescriptor] = Set(
+        field(Chain.getDescriptor, "network_inbound_ids"),
+        field(Chain.getDescriptor, "network_outbound_ids"),
+        field(Chain.getDescriptor, "router_inbound_ids"),
+        field(Chain.getDescriptor, "router_outbound_ids"),
+        field(Chain.getDescriptor, "port_inbound_ids"),
+        field(Chain.getDescriptor, "port_outbound_ids"),
+        field(Chain.getDescriptor, "jump_rule_ids"),
+        field(Chain.getDescriptor, "router_redirect_ids"),
+        field(IPAddrGroup.getDescriptor, "rule_ids"),
+        field(IPAddrGroup.IPAddrPorts.getDescriptor, "port_ids"),
+        field(LoggingResource.getDescriptor, "logger_ids"),
+        field(Mirror.getDescriptor, "network_inbound_ids"),
+        field(Mirror.getDescriptor, "network_outbound_ids"),
+        field(Mirror.getDescriptor, "router_inbound_ids"),
+        field(Mirror.getDescriptor, "router_outbound_ids"),
+        field(Mirror.getDescriptor, "port_inbound_ids"),
+        field(Mirror.getDescriptor, "port_outbound_ids"),
+        field(Mirror.getDescriptor, "port_post_in_filter_ids"),
+        field(Mirror.getDescriptor, "port_pre_out_filter_ids"),
+        field(PortGroup.getDescriptor, "port_ids"),
+        field(QosPolicy.getDescriptor, "port_ids"),
+        field(QosPolicy.getDescriptor, "network_ids"),
+        field(ServiceContainerGroup.getDescriptor, "service_container_ids"))
+
+    private def field(descriptor: Descriptor, name: String): FieldDescriptor = {
+        val field = descriptor.findFieldByName(name)
+        if (field eq null) {
+            throw new IllegalArgumentException(
+                s"Unknown field $name for ${descriptor.getName}")
+        }
+        field
+    }
+
+    private[topology_cache] final val InitialBufferSize = 64 * 1024
+
+    // Estimates of the encoded size of the snapshot header, of a group
+    // entry, such as a class or an object identifier, and of an object,
+    // excluding the variable length data.
+    private[topology_cache] final val HeaderSize = 64
+    private[topology_cache] final val GroupSize = 32
+
+    private[topology_cache] def objectSize(obj: Object): Int = obj match {
+        case update: ObjectUpdate =>
+            val data = update.childData()
+            GroupSize + (if (data eq null) 0 else data.getData.length)
+        case _ => GroupSize
+    }
+
+    private[topology_cache] def stateSize(keys: StateKeys): Int = {
+        var size = 0
+        val iterator = keys.entrySet().iterator()
+        while (iterator.hasNext) {
+            val entry = iterator.next()
+            size += GroupSize + entry.getKey.length
+            entry.getValue match {
+                case state: StateUpdate =>
+                    val single = state.singleData()
+                    if (single ne null) size += single.length
+                    val multi = state.multiData()
+                    if (multi ne null) {
+                        var index = 0
+                        while (index < multi.length) {
+                            size += GroupSize + multi(index).length
+                            index += 1
+                        }
+                    }
+                case _ =>
+            }
+        }
+        size
+    }
+
+    /** An object of a host snapshot and its version. */
+    private case class Member(clazz: Class[_], id: UUID, version: java.lang.Long)
+
+    /**
+      * A snapshot of the topology cache, where the index of the objects by
+      * identifier is only built when requesting a host snapshot.
+      */
+    private class Round(val number: Long,
+                        val objectSnapshot: ObjectSnapshot,
+                        val stateSnapshot: StateSnapshot,
+                        val objectVersions: ObjectVersions) {
+
+        lazy val index: util.HashMap[UUID, util.ArrayList[ObjectUpdate]] = {
+            val index = new util.HashMap[UUID, util.ArrayList[ObjectUpdate]]
+            val classes = objectSnapshot.values().iterator()
+            while (classes.hasNext) {
+                val objects = classes.next().values().iterator()
+                while (objects.hasNext) {
+                    val update = objects.next().asInstanceOf[ObjectUpdate]
+                    var updates = index.get(update.id())
+                    if (updates eq null) {
+                        updates = new util.ArrayList[ObjectUpdate](2)
+                        index.put(update.id(), updates)
+                    }
+                    updates.add(update)
+                }
+            }
+            index
+        }
+
+        def versionOf(clazz: Class[_], id: UUID): java.lang.Long = {
+            val versions = objectVersions.get(clazz)
+            if (versions eq null) null else versions.get(id)
+        }
+    }
+
+    /**
+      * The encoded snapshot of a host for a round, and the objects reachable
+      * from the host, which are valid while none of them changes.
+      */
+    private case class HostSnapshot(round: Long,
+                                    members: util.ArrayList[Member],
+                                    data: Array[Byte])
+
+}
+
+/**
+  * Computes the topology snapshots for individual hosts. A host snapshot
+  * includes the objects reachable from the host, starting with the ports
+  * bound to the host and following the references of the topology objects
+  * (devices, chains, rules, IP address groups, peer ports and their devices,
+  * etc.) except for back-references, together with the objects of the global
+  * classes. The Neutron objects are included when they share the identifier
+  * of a reachable topology object, but they are not expanded.
+  *
+  * Since an object can only become reachable when a reachable object adds a
+  * reference to it, the set of reachable objects is cached per host until one
+  * of them changes. The encoded snapshot is cached per host for each snapshot
+  * of the topology cache, since it includes the current state of the objects.
+  */
+class HostTopologySnapshots(log: Logger) {
+
+    import HostTopologySnapshots._
+
+    @volatile private var round: Round = _
+    private val snapshots = new ConcurrentHashMap[UUID, HostSnapshot]()
+
+    private val buffers = new ThreadLocal[Array[Byte]] {
+        override def initialValue(): Array[Byte] =
+            new Array[Byte](InitialBufferSize)
+    }
+
+    /**
+      * Updates the topology for the host snapshots, and removes the cached
+      * snapshots of the hosts that no longer exist. This method must be
+      * called from the snapshot task of the topology cache.
+      */
+    def update(objectSnapshot: ObjectSnapshot, stateSnapshot: StateSnapshot,
+               objectVersions: ObjectVersions): Unit = {
+        val number = if (round eq null) 1L else round.number + 1L
+        round = new Round(number, objectSnapshot, stateSnapshot,
+                          objectVersions)
+
+        val hosts = objectVersions.get(classOf[Host])
+        val iterator = snapshots.keySet().iterator()
+        while (iterator.hasNext) {
+            if ((hosts eq null) || !hosts.containsKey(iterator.next())) {
+                iterator.remove()
+            }
+        }
+    }
+
+    /**
+      * Returns the encoded topology snapshot for the given host, or an empty
+      * array if the topology cache has not taken a snapshot yet.
+      */
+    def get(hostId: UUID): Array[Byte] = {
+        val current = round
+        if (current eq null) {
+            return Array.emptyByteArray
+        }
+
+        val cached = snapshots.get(hostId)
+        if ((cached ne null) && cached.round == current.number) {
+            return cached.data
+        }
+
+        val mark = System.nanoTime()
+        val members =
+            if ((cached ne null) && isValid(current, cached.members)) {
+                cached.members
+            } else {
+                closureOf(current, hostId)
+            }
+        val data = encode(current, members)
+        snapshots.put(hostId, HostSnapshot(current.number, members, data))
+
+        log.debug(s"Topology snapshot for host $hostId with " +
+                  s"${members.size()} objects (${data.length} bytes) " +
+                  s"encoded in ${(System.nanoTime() - mark) / 1000000} ms.")
+        data
+    }
+
+    private def isValid(round: Round,
+                        members: util.ArrayList[Member]): Boolean = {
+        var index = 0
+        while (index < members.size()) {
+            val member = members.get(index)
+            if (round.versionOf(member.clazz, member.id) != member.version) {
+                return false
+            }
+            index += 1
+        }
+        true
+    }
+
+    /**
+      * Computes the objects reachable from the given host, excluding the
+      * objects of the global classes other than the host itself.
+      */
+    private def closureOf(round: Round,
+                          hostId: UUID): util.ArrayList[Member] = {
+        val members = new util.ArrayList[Member]
+        val visited = new util.HashSet[UUID]
+        val pending = new util.ArrayDeque[UUID]
+        visited.add(hostId)
+        pending.add(hostId)
+
+        while (!pending.isEmpty) {
+            val id = pending.poll()
+            val updates = round.index.get(id)
+            var index = 0
+            while ((updates ne null) && index < updates.size()) {
+                val update = updates.get(index)
+                val clazz = update.objectClass()
+                val version = round.versionOf(clazz, id)
+                if ((version ne null) &&
+                    ((id == hostId) || !GlobalClasses.contains(clazz))) {
+                    members.add(Member(clazz, id, version))
+                    val message = update.message()
+                    if ((message ne null) &&
+                        message.getDescriptorForType.getFile ==
+                            Topology.getDescriptor) {
+                        addReferences(message, visited, pending)
+                    }
+                }
+                index += 1
+            }
+        }
+        members
+    }
+
+    private def addReferences(message: Message, visited: util.Set[UUID],
+                              pending: util.Queue[UUID]): Unit = {
+        val fields = message.getAllFields.entrySet().iterator()
+        while (fields.hasNext) {
+            val entry = fields.next()
+            val field = entry.getKey
+            if (field.getJavaType == JavaType.MESSAGE &&
+                !BackReferences.contains(field)) {
+                entry.getValue match {
+                    case values: util.List[_] =>
+                        val iterator = values.iterator()
+                        while (iterator.hasNext) {
+                            addReference(iterator.next(), visited, pending)
+                        }
+                    case value =>
+                        addReference(value, visited, pending)
+                }
+            }
+        }
+    }
+
+    private def addReference(value: Any, visited: util.Set[UUID],
+                             pending: util.Queue[UUID]): Unit = {
+        value match {
+            case uuid: Commons.UUID =>
+                val id = UUIDUtil.fromProto(uuid)
+                if (visited.add(id)) {
+                    pending.add(id)
+                }
+            case message: Message =>
+                addReferences(message, visited, pending)
+            case _ =>
+        }
+    }
+
+    private def encode(round: Round,
+                       members: util.ArrayList[Member]): Array[Byte] = {
+        val objectSnapshot = new ObjectSnapshot
+        val ids = new util.HashSet[UUID](members.size() * 2)
+        var size = HeaderSize
+
+        def addObjects(objects: Objects): Unit = {
+            val iterator = objects.values().iterator()
+            while (iterator.hasNext) {
+                size += objectSize(iterator.next())
+            }
+        }
+
+        var index = 0
+        while (index < members.size()) {
+            val member = members.get(index)
+            if (!GlobalClasses.contains(member.clazz)) {
+                val update =
+                    round.objectSnapshot.get(member.clazz).get(member.id)
+                var objects = objectSnapshot.get(member.clazz)
+                if (objects eq null) {
+                    objects = new Objects()
+                    objectSnapshot.put(member.clazz, objects)
+                    size += GroupSize + member.clazz.getName.length
+                }
+                objects.put(member.id, update)
+                size += objectSize(update)
+            }
+            ids.add(member.id)
+            index += 1
+        }
+        // The global classes include all their objects, and the serializer
+        // does not modify the objects of the current round.
+        for (clazz <- GlobalClasses) {
+            val objects = round.objectSnapshot.get(clazz)
+            if (objects ne null) {
+                objectSnapshot.put(clazz, objects)
+                size += GroupSize + clazz.getName.length
+                addObjects(objects)
+            }
+        }
+
+        // Include the state of the included objects.
+        val stateSnapshot = new StateSnapshot
+        val owners = round.stateSnapshot.entrySet().iterator()
+        while (owners.hasNext) {
+            val owner = owners.next()
+            val stateClasses = new StateClasses
+            val classes = owner.getValue.entrySet().iterator()
+            while (classes.hasNext) {
+                val clazz = classes.next()
+                val global = GlobalClasses.contains(clazz.getKey)
+                val stateIds = new StateIds
+                val objects = clazz.getValue.entrySet().iterator()
+                while (objects.hasNext) {
+                    val obj = objects.next()
+                    if (global || ids.contains(obj.getKey)) {
+                        stateIds.put(obj.getKey, obj.getValue)
+                        size += GroupSize + stateSize(obj.getValue)
+                    }
+                }
+                if (!stateIds.isEmpty) {
+                    stateClasses.put(clazz.getKey, stateIds)
+                    size += GroupSize + clazz.getKey.getName.length
+                }
+            }
+            if (!stateClasses.isEmpty) {
+                stateSnapshot.put(owner.getKey, stateClasses)
+                size += GroupSize
+            }
+        }
+
+        serialize(TopologySnapshot(objectSnapshot, stateSnapshot), size)
+    }
+
+    /**
+      * Serializes the host snapshot into the buffer of the current thread,
+      * which grows to the largest host snapshot encoded by the thread. The
+      * size is an estimate, such that the buffer also grows if the
+      * serialization overflows it.
+      */
+    private def serialize(snapshot: TopologySnapshot, size: Int): Array[Byte] = {
+        var buffer = buffers.get()
+        if (buffer.length < size) {
+            buffer = new Array[Byte](Integer.highestOneBit(size) << 1)
+            buffers.set(buffer)
+        }
+        val serializer = new TopologySnapshotSerializer
+        var length = -1
+        while (length < 0) {
+            try {
+                length = serializer.serialize(buffer, snapshot)
+            } catch {
+                case _: IndexOutOfBoundsException =>
+                    buffer = new Array[Byte](buffer.length << 1)
+                    buffers.set(buffer)
+            }
+        }
+        util.Arrays.copyOf(buffer, length)
+    }
+
+}
@@ -106,7 +106,8 @@ class TopologyCache @Inject()(context: Context,
                          s"$elapsed milliseconds")
 
                 localSnapshotProvider = new TopologySnapshotProvider(
-                    objectCache, stateCache, executor, log)
+                    objectCache, stateCache, executor, log,
+                    config.topologyCache.hostSnapshots)
 
                 // TODO: make the period between snapshots configurable
                 scheduledSnapshot = executor.scheduleWithFixedDelay(
@@ -127,6 +128,12 @@ class TopologyCache @Inject()(context: Context,
         }
     }
 
+    /** Takes a topology snapshot on the cache thread without waiting for
+      * the scheduled snapshot. */
+    private[topology_cache] def snapshotNow(): Unit = {
+        executor.execute(snapshotProvider.snapshot)
+    }
+
     override def doStop(): Unit = {
         log.info("Stopping NSDB topology cache")
         val timestamp = System.nanoTime()
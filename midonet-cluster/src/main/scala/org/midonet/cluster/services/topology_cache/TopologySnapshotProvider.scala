@@ -16,14 +16,19 @@
 
 package org.midonet.cluster.services.topology_cache
 
+import java.util
+import java.util.UUID
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.{ConcurrentLinkedQueue, ScheduledExecutorService}
 
 import scala.annotation.tailrec
 import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.Try
+import scala.util.control.NonFatal
 
 import org.midonet.cluster.cache.{ObjectCache, StateCache}
-import org.midonet.cluster.services.endpoint.comm.HttpByteBufferProvider
+import org.midonet.cluster.data.storage.cached.TopologyCacheClient._
+import org.midonet.cluster.services.endpoint.comm.{HttpByteBuffer, HttpByteBufferProvider}
 import org.midonet.cluster.topology.snapshot._
 import org.midonet.util.functors.makeRunnable
 import org.midonet.util.logging.Logger
@@ -32,14 +37,67 @@ import io.netty.buffer.{ByteBuf, Unpooled}
 
 final class SnapshotInProgress extends Exception
 
+object TopologySnapshotProvider {
+
+    /**
+      * The maximum number of previous topology versions for which the
+      * provider keeps a delta to the current version.
+      */
+    final val MaxDeltaVersions = 16
+
+    type ObjectVersions =
+        util.HashMap[Class[_], util.HashMap[Object, java.lang.Long]]
+
+    /**
+      * The current topology version and the encoded deltas from the
+      * previous versions to the current one, indexed by base version.
+      */
+    private[topology_cache] case class Versions(version: Long,
+                                                deltas: Map[Long, Array[Byte]])
+
+}
+
+/**
+  * Provides the topology snapshots served by the topology cache. Every
+  * snapshot where the topology objects have changed increments the topology
+  * version, where the provider identifies its versions with a random epoch.
+  * A client that has the snapshot for a recent version can request only the
+  * delta to the current version by sending the epoch and version as
+  * request parameters.
+  *
+  * When `hostSnapshots` is enabled, a client may instead request the snapshot
+  * for a host by sending the host identifier as request parameter, which
+  * only includes the objects relevant to that host. Host snapshots are never
+  * deltas and do not have a version.
+  */
 class TopologySnapshotProvider(objectCache: ObjectCache,
                                stateCache: StateCache,
                                executor: ScheduledExecutorService,
-                               log: Logger)
+                               log: Logger,
+                               hostSnapshots: Boolean = false)
     extends HttpByteBufferProvider {
 
+    import HostTopologySnapshots.{GroupSize, HeaderSize, InitialBufferSize, objectSize, stateSize}
+    import TopologySnapshotProvider._
+
     implicit private val ec = ExecutionContext.fromExecutor(executor)
 
+    private[topology_cache] val epoch = UUID.randomUUID().toString
+
+    // The object versions for the previous topology versions: only accessed
+    // from the snapshot task.
+    private val history = new util.LinkedHashMap[Long, ObjectVersions]()
+
+    // The buffer for encoding the deltas, which grows to the largest delta:
+    // only accessed from the snapshot task.
+    private var deltaBuffer = new Array[Byte](InitialBufferSize)
+
+    @volatile
+    private[topology_cache] var versions = Versions(0L, Map.empty)
+
+    private[topology_cache] val hostTopologySnapshots =
+        if (hostSnapshots) new HostTopologySnapshots(log) else null
+
     private[topology_cache] val refs = new AtomicInteger(0)
 
     private[topology_cache] val pendingRequests =
@@ -84,6 +142,62 @@ class TopologySnapshotProvider(objectCache: ObjectCache,
         }
     }
 
+    override def getAndRef(parameters: Map[String, String])
+                          (implicit ec: ExecutionContext)
+    : Future[HttpByteBuffer] = {
+        getAndRef() map { buffer =>
+            // The versions cannot change while holding a reference.
+            val current = versions
+            val host =
+                if (hostTopologySnapshots eq null) None
+                else parameters.get(HostParameter)
+                               .flatMap(host => Try(UUID.fromString(host))
+                                                    .toOption)
+            val delta =
+                if (host.isEmpty &&
+                    parameters.get(EpochParameter).contains(epoch)) {
+                    parameters.get(SinceParameter)
+                        .flatMap(since => Try(since.toLong).toOption)
+                        .flatMap(since => current.deltas.get(since)
+                                                 .map((since, _)))
+                } else None
+
+            (host, delta) match {
+                case (Some(hostId), _) =>
+                    // The host snapshots cannot change either. If the host
+                    // snapshot fails, serve the complete snapshot instead,
+                    // since the reference must be released by the caller.
+                    try {
+                        val data = hostTopologySnapshots.get(hostId)
+                        log.debug(s"getAndRef: Serving snapshot for host " +
+                                  s"$hostId at version ${current.version}.")
+                        HttpByteBuffer(Unpooled.wrappedBuffer(data),
+                                       Map(BaseVersionHeader -> "0"))
+                    } catch {
+                        case NonFatal(e) =>
+                            log.warn(s"Failed to encode the snapshot for " +
+                                     s"host $hostId", e)
+                            HttpByteBuffer(buffer,
+                                           headers(current.version, 0L))
+                    }
+                case (None, Some((since, data))) =>
+                    log.debug(s"getAndRef: Serving delta from version $since " +
+                              s"to version ${current.version}.")
+                    HttpByteBuffer(Unpooled.wrappedBuffer(data),
+                                   headers(current.version, since))
+                case (None, None) =>
+                    HttpByteBuffer(buffer, headers(current.version, 0L))
+            }
+        }
+    }
+
+    private def headers(version: Long, baseVersion: Long)
+    : Map[String, String] = {
+        Map(EpochHeader -> epoch,
+            VersionHeader -> version.toString,
+            BaseVersionHeader -> baseVersion.toString)
+    }
+
     override def unref(): Unit = {
         unrefRec()
     }
@@ -173,6 +287,12 @@ class TopologySnapshotProvider(objectCache: ObjectCache,
                 serializedLength = topologySerializer.serialize(
                     serializedTopology, snapshot)
             }
+            val objectVersions = versionsOf(objectSnaphot)
+            updateVersions(objectVersions, objectSnaphot, stateSnapshot)
+            if (hostTopologySnapshots ne null) {
+                hostTopologySnapshots.update(objectSnaphot, stateSnapshot,
+                                             objectVersions)
+            }
 
             notifyPendingRequests()
 
@@ -183,4 +303,163 @@ class TopologySnapshotProvider(objectCache: ObjectCache,
                       s"${(System.nanoTime() - mark1) / 1000000} ms.")
         }
     }
+
+    /**
+      * Updates the topology version if the objects have changed since the
+      * last snapshot, and encodes the deltas from the previous versions. The
+      * deltas include the complete state, such that a client always receives
+      * the current state.
+      */
+    private def updateVersions(objectVersions: ObjectVersions,
+                               objectSnapshot: ObjectSnapshot,
+                               stateSnapshot: StateSnapshot): Unit = {
+        val lastVersion = versions.version
+        val version = if (objectVersions == history.get(lastVersion)) {
+            lastVersion
+        } else {
+            history.put(lastVersion + 1, objectVersions)
+            if (history.size() > MaxDeltaVersions) {
+                history.remove(history.keySet().iterator().next())
+            }
+            lastVersion + 1
+        }
+
+        val mark = System.nanoTime()
+        val serializer = new TopologySnapshotSerializer
+        val stateLength = stateSnapshotSize(stateSnapshot)
+        val deltas = Map.newBuilder[Long, Array[Byte]]
+        val entries = history.entrySet().iterator()
+        while (entries.hasNext) {
+            val entry = entries.next()
+            deltas += entry.getKey -> encodeDelta(serializer, entry.getValue,
+                                                  objectVersions,
+                                                  objectSnapshot,
+                                                  stateSnapshot,
+                                                  stateLength)
+        }
+        versions = Versions(version, deltas.result())
+
+        log.debug(s"Topology version $version: encoded ${history.size()} " +
+                  s"deltas in ${(System.nanoTime() - mark) / 1000000} ms.")
+    }
+
+    private def versionsOf(snapshot: ObjectSnapshot): ObjectVersions = {
+        val versions = new ObjectVersions
+        val classes = snapshot.entrySet().iterator()
+        while (classes.hasNext) {
+            val clazz = classes.next()
+            val objectVersions = new util.HashMap[Object, java.lang.Long]
+            val objects = clazz.getValue.entrySet().iterator()
+            while (objects.hasNext) {
+                val obj = objects.next()
+                val data = obj.getValue.asInstanceOf[ObjectUpdate].childData()
+                if (data ne null) {
+                    // The modification transaction changes with every write
+                    // and does not repeat when an object is re-created.
+                    val objectVersion =
+                        if (data.getStat ne null) data.getStat.getMzxid
+                        else util.Arrays.hashCode(data.getData).toLong
+                    objectVersions.put(obj.getKey, Long.box(objectVersion))
+                }
+            }
+            versions.put(clazz.getKey, objectVersions)
+        }
+        versions
+    }
+
+    /**
+      * Estimates the encoded size of the state snapshot, which is the same
+      * for all deltas of a topology snapshot.
+      */
+    private def stateSnapshotSize(stateSnapshot: StateSnapshot): Int = {
+        var size = 0
+        val owners = stateSnapshot.values().iterator()
+        while (owners.hasNext) {
+            size += GroupSize
+            val classes = owners.next().entrySet().iterator()
+            while (classes.hasNext) {
+                val clazz = classes.next()
+                size += GroupSize + clazz.getKey.getName.length
+                val objects = clazz.getValue.values().iterator()
+                while (objects.hasNext) {
+                    size += GroupSize + stateSize(objects.next())
+                }
+            }
+        }
+        size
+    }
+
+    private def encodeDelta(serializer: TopologySnapshotSerializer,
+                            baseVersions: ObjectVersions,
+                            objectVersions: ObjectVersions,
+                            objectSnapshot: ObjectSnapshot,
+                            stateSnapshot: StateSnapshot,
+                            stateLength: Int): Array[Byte] = {
+        val delta = new ObjectSnapshot
+        var size = HeaderSize + stateLength
+
+        def deltaObjects(clazz: Class[_]): Objects = {
+            var objects = delta.get(clazz)
+            if (objects eq null) {
+                objects = new Objects()
+                delta.put(clazz, objects)
+            }
+            objects
+        }
+
+        // Created and modified objects.
+        val classes = objectSnapshot.entrySet().iterator()
+        while (classes.hasNext) {
+            val clazz = classes.next()
+            val base = baseVersions.get(clazz.getKey)
+            val current = objectVersions.get(clazz.getKey)
+            val objects = clazz.getValue.entrySet().iterator()
+            while (objects.hasNext) {
+                val obj = objects.next()
+                val version = current.get(obj.getKey)
+                if ((version ne null) &&
+                    ((base eq null) || base.get(obj.getKey) != version)) {
+                    deltaObjects(clazz.getKey).put(obj.getKey, obj.getValue)
+                    size += objectSize(obj.getValue)
+                }
+            }
+        }
+
+        // Deleted objects.
+        val baseClasses = baseVersions.entrySet().iterator()
+        while (baseClasses.hasNext) {
+            val clazz = baseClasses.next()
+            val current = objectVersions.get(clazz.getKey)
+            val objects = clazz.getValue.keySet().iterator()
+            while (objects.hasNext) {
+                val id = objects.next()
+                if ((current eq null) || !current.containsKey(id)) {
+                    deltaObjects(clazz.getKey).put(id, DeletedObject)
+                    size += GroupSize
+                }
+            }
+        }
+
+        val deltaClasses = delta.keySet().iterator()
+        while (deltaClasses.hasNext) {
+            size += GroupSize + deltaClasses.next().getName.length
+        }
+
+        // The size is an estimate, such that the buffer also grows if the
+        // serialization overflows it.
+        if (deltaBuffer.length < size) {
+            deltaBuffer = new Array[Byte](Integer.highestOneBit(size) << 1)
+        }
+        var length = -1
+        while (length < 0) {
+            try {
+                length = serializer.serialize(
+                    deltaBuffer, TopologySnapshot(delta, stateSnapshot))
+            } catch {
+                case _: IndexOutOfBoundsException =>
+                    deltaBuffer = new Array[Byte](deltaBuffer.length << 1)
+            }
+        }
+        util.Arrays.copyOf(deltaBuffer, length)
+    }
 }
@@ -270,6 +270,56 @@ class C3POStorageManagerTest extends FlatSpec with BeforeAndAfterEach {
         }
     }
 
+    "Neutron transaction batch" should "execute all tasks in a single " +
+                                       "multi call." in {
+        when(mockNetworkTranslator
+                .translateOp(transaction, Create(neutronNetwork)))
+                .thenReturn(List(Create(neutronNetwork),
+                                 Create(midoNetwork)))
+        when(mockPortTranslator
+                .translateOp(transaction, Create(neutronNetworkPort)))
+                .thenReturn(List(Create(neutronNetworkPort),
+                                 Create(midoPort)))
+
+        buildManager(Map(classOf[NeutronNetwork] -> mockNetworkTranslator,
+                         classOf[NeutronPort] -> mockPortTranslator))
+
+        storageManager.interpretAndExecTxns(
+                Seq(txn("txn1", c3poCreate(3, neutronNetwork)),
+                    txn("txn2", c3poCreate(4, neutronNetworkPort))))
+
+        verify(transaction).create(midoNetwork)
+        verify(transaction).create(midoPort)
+        verify(transaction, never()).update(C3POState.at(3), null)
+        verify(transaction).update(C3POState.at(4), null)
+        verify(transaction, times(1)).commit()
+    }
+
+    "Neutron transaction batch failure" should "execute each transaction " +
+                                               "separately." in {
+        when(mockNetworkTranslator
+                .translateOp(transaction, Create(neutronNetwork)))
+                .thenReturn(List(Create(neutronNetwork),
+                                 Create(midoNetwork)))
+        when(mockPortTranslator
+                .translateOp(transaction, Create(neutronNetworkPort)))
+                .thenThrow(new TranslationException(Create(neutronNetworkPort),
+                                                    null, "Batch failure test"))
+                .thenReturn(List(Create(neutronNetworkPort),
+                                 Create(midoPort)))
+
+        buildManager(Map(classOf[NeutronNetwork] -> mockNetworkTranslator,
+                         classOf[NeutronPort] -> mockPortTranslator))
+
+        storageManager.interpretAndExecTxns(
+                Seq(txn("txn1", c3poCreate(3, neutronNetwork)),
+                    txn("txn2", c3poCreate(4, neutronNetworkPort))))
+
+        verify(transaction).update(C3POState.at(3), null)
+        verify(transaction).update(C3POState.at(4), null)
+        verify(transaction, times(2)).commit()
+    }
+
     "C3PO Storage Mgr" should "return the last processed C3PO task ID." in {
         val lastProcessed = storageManager.lastProcessedTaskId
 
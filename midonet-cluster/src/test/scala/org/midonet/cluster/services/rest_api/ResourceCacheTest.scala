@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.UUID
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FlatSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.util.UUIDUtil._
+
+@RunWith(classOf[JUnitRunner])
+class ResourceCacheTest extends FlatSpec with BeforeAndAfter with Matchers
+                                with GivenWhenThen {
+
+    private var store: InMemoryStorage = _
+
+    before {
+        store = new InMemoryStorage
+        store.registerClass(classOf[Network])
+        store.build()
+    }
+
+    private def createNetwork(name: String = ""): Network = {
+        val network = Network.newBuilder()
+                             .setId(UUID.randomUUID().asProto)
+                             .setName(name)
+                             .build()
+        store.create(network)
+        network
+    }
+
+    private def readAll(): Seq[Network] = {
+        Await.result(store.getAll(classOf[Network]), 5 seconds)
+    }
+
+    private def sorted(networks: Network*): Seq[Network] = {
+        networks.sortBy(_.getId.asJava.toString)
+    }
+
+    "Disabled cache" should "not return class caches" in {
+        new ResourceCache(store, enabled = false)(classOf[Network]) shouldBe null
+    }
+
+    "Class cache" should "serve requests only when verified" in {
+        Given("Several networks")
+        val network1 = createNetwork()
+        val network2 = createNetwork()
+        val network3 = createNetwork()
+
+        And("A class cache")
+        val cache = new ResourceCache(store, enabled = true)(classOf[Network])
+
+        Then("The cache is not verified")
+        cache.isVerified shouldBe false
+
+        When("Verifying the cache with a stale version")
+        val version = cache.version
+        val networks = readAll()
+        createNetwork()
+        cache.verify(networks, version)
+
+        Then("The cache is not verified")
+        cache.isVerified shouldBe false
+
+        When("Verifying the cache with the current objects")
+        cache.verify(readAll(), cache.version)
+
+        Then("The cache is verified")
+        cache.isVerified shouldBe true
+        cache.list(null, Int.MaxValue) should have size 4
+        cache.get(Seq(network1, network3).map(_.getId.asJava.toString)) shouldBe
+            Seq(network1, network3)
+
+        When("Invalidating the cache")
+        cache.invalidate()
+
+        Then("The cache is not verified")
+        cache.isVerified shouldBe false
+    }
+
+    "Class cache" should "list the objects in pages sorted by identifier" in {
+        Given("Several networks")
+        val networks = sorted(createNetwork(), createNetwork(), createNetwork(),
+                              createNetwork(), createNetwork())
+
+        And("A verified class cache")
+        val cache = new ResourceCache(store, enabled = true)(classOf[Network])
+        cache.verify(readAll(), cache.version)
+
+        Then("The cache lists the objects sorted by identifier")
+        cache.list(null, Int.MaxValue) shouldBe networks
+
+        And("The cache lists the objects in pages")
+        cache.list(null, 2) shouldBe networks.slice(0, 2)
+        cache.list(cache.idOf(networks(1)), 2) shouldBe networks.slice(2, 4)
+        cache.list(cache.idOf(networks(3)), 2) shouldBe networks.slice(4, 5)
+        cache.list(cache.idOf(networks(4)), 2) shouldBe empty
+    }
+
+    "Class cache" should "follow the storage updates" in {
+        Given("A network")
+        val network1 = createNetwork()
+
+        And("A verified class cache")
+        val cache = new ResourceCache(store, enabled = true)(classOf[Network])
+        cache.verify(readAll(), cache.version)
+        val version = cache.version
+
+        When("Creating a network")
+        val network2 = createNetwork()
+
+        Then("The cache contains both networks")
+        cache.list(null, Int.MaxValue) shouldBe sorted(network1, network2)
+
+        When("Updating a network")
+        val network3 = network1.toBuilder.setName("network").build()
+        store.update(network3)
+
+        Then("The cache contains the updated network")
+        cache.list(null, Int.MaxValue) shouldBe sorted(network3, network2)
+
+        When("Deleting a network")
+        store.delete(classOf[Network], network2.getId)
+
+        Then("The cache contains the remaining network")
+        cache.list(null, Int.MaxValue) shouldBe Seq(network3)
+        cache.get(Seq(cache.idOf(network2))) shouldBe null
+
+        And("The cache is still verified with a new version")
+        cache.isVerified shouldBe true
+        cache.version should be > version
+    }
+}
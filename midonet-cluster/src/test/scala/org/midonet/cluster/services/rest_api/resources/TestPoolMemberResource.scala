@@ -24,6 +24,7 @@ import javax.ws.rs.core.UriInfo
 import scala.collection.JavaConverters._
 import scala.concurrent.ExecutionContext
 
+import com.sun.jersey.core.util.MultivaluedMapImpl
 import com.typesafe.config.ConfigFactory
 
 import org.junit.runner.RunWith
@@ -36,6 +37,7 @@ import org.midonet.cluster.data.storage.{KeyType, StateStorage, Storage}
 import org.midonet.cluster.models.Commons
 import org.midonet.cluster.models.Commons.{LBStatus => PLBStatus}
 import org.midonet.cluster.models.Topology.{PoolMember => PPoolMember}
+import org.midonet.cluster.rest_api.models.PoolMember
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.StatusKey
 import org.midonet.cluster.services.rest_api.MidonetMediaTypes.{APPLICATION_POOL_MEMBER_COLLECTION_JSON, APPLICATION_POOL_MEMBER_JSON}
@@ -55,6 +57,8 @@ class TestPoolMemberResource extends FlatSpec
     private var backend: MidonetBackend = _
     private var resource: PoolMemberResource = _
     private var config: ClusterConfig = _
+    private var params: MultivaluedMapImpl = _
+    private var resCtx: ResourceContext = _
 
     private val executionCtx = ExecutionContext.global
 
@@ -72,8 +76,10 @@ class TestPoolMemberResource extends FlatSpec
 
         val mockUriInfo = Mockito.mock(classOf[UriInfo])
         Mockito.when(mockUriInfo.getBaseUri).thenReturn(new URI("http://test"))
+        params = new MultivaluedMapImpl()
+        Mockito.when(mockUriInfo.getQueryParameters).thenReturn(params)
 
-        val resCtx = ResourceContext(config.restApi, backend, executionCtx,
+        resCtx = ResourceContext(config.restApi, backend, executionCtx,
                                      mockUriInfo, null, null)
         resource = new PoolMemberResource(resCtx)
     }
@@ -120,6 +126,42 @@ class TestPoolMemberResource extends FlatSpec
         pmMap(pm6.getId.asJava) shouldBe LBStatus.INACTIVE
     }
 
+    it should "list pool members in pages sorted by identifier" in {
+        val ids = (0 until 5).map(_ => createPoolMember().getId.asJava)
+                             .sortBy(_.toString)
+
+        params.putSingle(MidonetResource.LimitParam, "2")
+        resource.list(APPLICATION_POOL_MEMBER_COLLECTION_JSON)
+            .asScala.map(_.id) shouldBe ids.slice(0, 2)
+
+        params.putSingle(MidonetResource.MarkerParam, ids(1).toString)
+        resource.list(APPLICATION_POOL_MEMBER_COLLECTION_JSON)
+            .asScala.map(_.id) shouldBe ids.slice(2, 4)
+
+        params.putSingle(MidonetResource.MarkerParam, ids(3).toString)
+        resource.list(APPLICATION_POOL_MEMBER_COLLECTION_JSON)
+            .asScala.map(_.id) shouldBe ids.slice(4, 5)
+    }
+
+    it should "list pool members in pages after the list filter" in {
+        val filtered = new PoolMemberResource(resCtx) {
+            override protected def listFilter(pms: Seq[PoolMember])
+            : Seq[PoolMember] = super.listFilter(pms).filter(_.adminStateUp)
+        }
+        val ids = (0 until 6).map(i => createPoolMember(i % 2 == 0))
+                             .filter(_.getAdminStateUp)
+                             .map(_.getId.asJava)
+                             .sortBy(_.toString)
+
+        params.putSingle(MidonetResource.LimitParam, "2")
+        filtered.list(APPLICATION_POOL_MEMBER_COLLECTION_JSON)
+            .asScala.map(_.id) shouldBe ids.slice(0, 2)
+
+        params.putSingle(MidonetResource.MarkerParam, ids(1).toString)
+        filtered.list(APPLICATION_POOL_MEMBER_COLLECTION_JSON)
+            .asScala.map(_.id) shouldBe ids.slice(2, 3)
+    }
+
     it should "set PoolMember status to ACTIVE or INACTIVE according to the " +
               "value in state storage" in {
         val pm = createPoolMember()
@@ -150,9 +150,18 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
             s"""
                |cluster.state_proxy.initial_subscriber_queue_size : 16
                |cluster.state_proxy.notify_batch_size : 4
+               |cluster.state_proxy.cache_change_log : false
+               |cluster.state_proxy.cache_check_interval : 5s
              """.stripMargin))
     }
 
+    private def enableChangeLog(): Unit = {
+        proxyConfig = new StateProxyConfig(ConfigFactory.parseString(
+            s"""
+               |cluster.state_proxy.cache_change_log : true
+             """.stripMargin).withFallback(proxyConfig.conf))
+    }
+
     private def tablePath(id: UUID): String = {
         storage.tablePath(classOf[Bridge], id, MidonetBackend.MacTable)
     }
@@ -192,6 +201,25 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
                 .forPath(s"${tablePath(id)}/$key,$value,${"%010d".format(version)}")
     }
 
+    private def addLogged(id: UUID, key: Any, value: Any, version: Int)
+    : Unit = {
+        addEphemeral(id, key, value, version)
+        appendLog(id, StateTableLog.AddOp, key, value, version)
+    }
+
+    private def removeLogged(id: UUID, key: Any, value: Any, version: Int)
+    : Unit = {
+        removeEntry(id, key, value, version)
+        appendLog(id, StateTableLog.RemoveOp, key, value, version)
+    }
+
+    private def appendLog(id: UUID, op: Char, key: Any, value: Any,
+                          version: Int): Unit = {
+        val entry = s"$key,$value,${"%010d".format(version)}"
+        zkClient.create().withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                .forPath(tablePath(id) + StateTableLog.recordPath(op, entry))
+    }
+
     private implicit def asMatcher(notify: Notify): NotifyMatcher = {
         new NotifyMatcher(notify)
     }
@@ -884,6 +912,164 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
         }
     }
 
+    feature("Cache consumes the change log") {
+        scenario("Cache creates the change log") {
+            Given("A state table cache with the change log")
+            enableChangeLog()
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("An entry without a log")
+            val key1 = MAC.random()
+            val value1 = UUID.randomUUID()
+            addEphemeral(id, key1, value1, 0)
+
+            And("An observer")
+            val observer = new TestObserver
+
+            When("The observer subscribes")
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The observer receives a snapshot with the entry")
+            observer.awaitOnNext(1, timeout) shouldBe true
+            observer.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = true, key1 -> value1)
+
+            And("The cache created the log")
+            zkClient.checkExists().forPath(
+                tablePath(id) + StateTableLog.LogPath) should not be null
+
+            cache.close()
+        }
+
+        scenario("Cache applies the log records") {
+            Given("A state table cache with the change log")
+            enableChangeLog()
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("An observer")
+            val observer = new TestObserver
+
+            When("The observer subscribes")
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The observer receives an empty snapshot")
+            observer.awaitOnNext(1, timeout) shouldBe true
+            observer.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = true)
+
+            When("Adding a first entry")
+            val key1 = MAC.random()
+            val value1 = UUID.randomUUID()
+            addLogged(id, key1, value1, 1)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(2, timeout) shouldBe true
+            observer.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key1 -> value1)
+
+            When("Adding a second entry")
+            val key2 = MAC.random()
+            val value2 = UUID.randomUUID()
+            addLogged(id, key2, value2, 2)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(3, timeout) shouldBe true
+            observer.getOnNextEvents.get(2) shouldBeUpdateFor(begin = true,
+                end = true, key2 -> value2)
+
+            When("Removing the first entry")
+            removeLogged(id, key1, value1, 1)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(4, timeout) shouldBe true
+            observer.getOnNextEvents.get(3) shouldBeUpdateFor(begin = true,
+                end = true, key1 -> null)
+
+            cache.close()
+        }
+
+        scenario("Cache restores the previous key version") {
+            Given("A state table cache with the change log")
+            enableChangeLog()
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("A first entry")
+            val key = MAC.random()
+            val value1 = UUID.randomUUID()
+            addEphemeral(id, key, value1, 0)
+
+            And("An observer")
+            val observer = new TestObserver
+
+            When("The observer subscribes")
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The observer receives a snapshot with the entry")
+            observer.awaitOnNext(1, timeout) shouldBe true
+            observer.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = true, key -> value1)
+
+            When("Adding an entry for the same key with higher version")
+            val value2 = UUID.randomUUID()
+            addLogged(id, key, value2, 1)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(2, timeout) shouldBe true
+            observer.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key -> value2)
+
+            When("Removing the second entry")
+            removeLogged(id, key, value2, 1)
+
+            Then("The observer receives the key reverted to previous value")
+            observer.awaitOnNext(3, timeout) shouldBe true
+            observer.getOnNextEvents.get(2) shouldBeUpdateFor(begin = true,
+                end = true, key -> value1)
+
+            cache.close()
+        }
+
+        scenario("Cache ignores duplicate log records") {
+            Given("A state table cache with the change log")
+            enableChangeLog()
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("An observer")
+            val observer = new TestObserver
+
+            When("The observer subscribes")
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The observer receives an empty snapshot")
+            observer.awaitOnNext(1, timeout) shouldBe true
+
+            When("Adding an entry whose record is appended twice")
+            val key = MAC.random()
+            val value = UUID.randomUUID()
+            addLogged(id, key, value, 1)
+            appendLog(id, StateTableLog.AddOp, key, value, 1)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(2, timeout) shouldBe true
+            observer.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key -> value)
+
+            When("Removing the entry")
+            removeLogged(id, key, value, 1)
+
+            Then("The observer receives only the removal")
+            observer.awaitOnNext(3, timeout) shouldBe true
+            observer.getOnNextEvents.get(2) shouldBeUpdateFor(begin = true,
+                end = true, key -> null)
+
+            cache.close()
+        }
+    }
+
     feature("Cache handles connection changes") {
         scenario("Connection closed by client") {
             Given("A state table cache")
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology_cache
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import com.google.protobuf.Message
+
+import org.apache.curator.framework.recipes.cache.ChildData
+import org.apache.zookeeper.data.Stat
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.models.Commons
+import org.midonet.cluster.models.Neutron.NeutronPort
+import org.midonet.cluster.models.Topology._
+import org.midonet.cluster.services.topology_cache.TopologySnapshotProvider.ObjectVersions
+import org.midonet.cluster.topology.snapshot._
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.logging.Logger
+
+object HostTopologySnapshotsTest {
+
+    /** An object update with the given version. */
+    class TestUpdate(msg: Message, version: Long) extends ObjectUpdate {
+        private val stat = new Stat()
+        stat.setMzxid(version)
+        private val data = new ChildData(s"/$id", stat,
+                                         msg.toString.getBytes)
+
+        override def objectClass(): Class[_] = msg.getClass
+        override def id(): UUID = fromProto(msg.getField(
+            msg.getDescriptorForType.findFieldByName("id"))
+            .asInstanceOf[Commons.UUID])
+        override def childData(): ChildData = data
+        override def message(): Message = msg
+        override def isDeleted: Boolean = false
+        override def tenantId(): String = null
+    }
+
+}
+
+@RunWith(classOf[JUnitRunner])
+class HostTopologySnapshotsTest extends FlatSpec with Matchers
+                                with GivenWhenThen {
+
+    import HostTopologySnapshotsTest._
+
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+
+    private val host1 = UUID.randomUUID()
+    private val host2 = UUID.randomUUID()
+    private val tunnelZone = UUID.randomUUID()
+    private val port1 = UUID.randomUUID()
+    private val port2 = UUID.randomUUID()
+    private val port3 = UUID.randomUUID()
+    private val port4 = UUID.randomUUID()
+    private val port5 = UUID.randomUUID()
+    private val network1 = UUID.randomUUID()
+    private val network2 = UUID.randomUUID()
+    private val router = UUID.randomUUID()
+    private val chain = UUID.randomUUID()
+    private val rule = UUID.randomUUID()
+
+    private def topology(network1Ports: Seq[UUID])
+    : Seq[Message] = Seq(
+        Host.newBuilder().setId(host1).addPortIds(port1).build(),
+        Host.newBuilder().setId(host2).addPortIds(port4).build(),
+        TunnelZone.newBuilder().setId(tunnelZone)
+            .addHostIds(host1).addHostIds(host2).build(),
+        Port.newBuilder().setId(port1).setNetworkId(network1)
+            .setHostId(host1).build(),
+        Port.newBuilder().setId(port2).setNetworkId(network1)
+            .setPeerId(port3).build(),
+        Port.newBuilder().setId(port3).setRouterId(router)
+            .setPeerId(port2).build(),
+        Port.newBuilder().setId(port4).setNetworkId(network2)
+            .setHostId(host2).build(),
+        Port.newBuilder().setId(port5).setNetworkId(network1).build(),
+        Network.newBuilder().setId(network1)
+            .addAllPortIds(network1Ports.map(toProto).asJava)
+            .setInboundFilterId(chain).build(),
+        Network.newBuilder().setId(network2).addPortIds(port4)
+            .setInboundFilterId(chain).build(),
+        Router.newBuilder().setId(router).addPortIds(port3).build(),
+        Chain.newBuilder().setId(chain).addRuleIds(rule)
+            .addNetworkInboundIds(network1)
+            .addNetworkInboundIds(network2).build(),
+        Rule.newBuilder().setId(rule).setChainId(chain).build(),
+        NeutronPort.newBuilder().setId(port1).build())
+
+    private def update(snapshots: HostTopologySnapshots,
+                       messages: Seq[Message],
+                       versions: Map[UUID, Long] = Map.empty): Unit = {
+        val objectSnapshot = new ObjectSnapshot
+        val objectVersions = new ObjectVersions
+        for (message <- messages) {
+            val update = new TestUpdate(message,
+                                        versions.getOrElse(idOf(message), 1L))
+            objectSnapshot.putIfAbsent(update.objectClass(), new Objects)
+            objectSnapshot.get(update.objectClass()).put(update.id(), update)
+            objectVersions.putIfAbsent(
+                update.objectClass(),
+                new java.util.HashMap[Object, java.lang.Long])
+            objectVersions.get(update.objectClass()).put(
+                update.id(), Long.box(update.childData().getStat.getMzxid))
+        }
+        snapshots.update(objectSnapshot, new StateSnapshot, objectVersions)
+    }
+
+    private def idOf(message: Message): UUID = {
+        new TestUpdate(message, 0L).id()
+    }
+
+    private def objectsOf(data: Array[Byte]): Map[Class[_], Set[UUID]] = {
+        val snapshot = new TopologySnapshotDeserializer().deserialize(data)
+        snapshot.objectSnapshot.asScala.map { case (clazz, objects) =>
+            clazz -> objects.keySet().asScala.map(_.asInstanceOf[UUID]).toSet
+        }.toMap
+    }
+
+    "Host snapshots" should "be empty before the first update" in {
+        new HostTopologySnapshots(log).get(host1) shouldBe empty
+    }
+
+    "Host snapshots" should "include the objects reachable from the host" in {
+        Given("A topology with two hosts")
+        val snapshots = new HostTopologySnapshots(log)
+        update(snapshots, topology(Seq(port1, port2)))
+
+        When("Requesting the snapshot for the first host")
+        val objects = objectsOf(snapshots.get(host1))
+
+        Then("The snapshot includes the reachable objects")
+        objects(classOf[Port]) shouldBe Set(port1, port2, port3)
+        objects(classOf[Network]) shouldBe Set(network1)
+        objects(classOf[Router]) shouldBe Set(router)
+        objects(classOf[Chain]) shouldBe Set(chain)
+        objects(classOf[Rule]) shouldBe Set(rule)
+
+        And("The snapshot includes the global objects")
+        objects(classOf[Host]) shouldBe Set(host1, host2)
+        objects(classOf[TunnelZone]) shouldBe Set(tunnelZone)
+
+        And("The snapshot includes the Neutron objects of reachable objects")
+        objects(classOf[NeutronPort]) shouldBe Set(port1)
+    }
+
+    "Host snapshots" should "be cached until a reachable object changes" in {
+        Given("A topology with two hosts")
+        val snapshots = new HostTopologySnapshots(log)
+        update(snapshots, topology(Seq(port1, port2)))
+
+        When("Requesting the snapshot for the first host twice")
+        val data1 = snapshots.get(host1)
+        val data2 = snapshots.get(host1)
+
+        Then("The snapshot is cached")
+        data2 should be theSameInstanceAs data1
+
+        When("The topology is updated without changes")
+        update(snapshots, topology(Seq(port1, port2)))
+
+        Then("The snapshot is encoded again with the same objects")
+        val data3 = snapshots.get(host1)
+        data3 should not be theSameInstanceAs (data1)
+        objectsOf(data3) shouldBe objectsOf(data1)
+
+        When("A port is added to the network of the first host")
+        update(snapshots, topology(Seq(port1, port2, port5)),
+               Map(network1 -> 2L))
+
+        Then("The snapshot includes the new port")
+        objectsOf(snapshots.get(host1))(classOf[Port]) shouldBe
+            Set(port1, port2, port3, port5)
+    }
+
+    "Host snapshots" should "be removed for deleted hosts" in {
+        Given("A topology with two hosts")
+        val snapshots = new HostTopologySnapshots(log)
+        update(snapshots, topology(Seq(port1, port2)))
+        val data1 = snapshots.get(host2)
+
+        When("The second host is deleted")
+        update(snapshots, topology(Seq(port1, port2))
+            .filterNot(message => idOf(message) == host2))
+
+        Then("The snapshot for the second host does not include the host")
+        val objects = objectsOf(snapshots.get(host2))
+        objects(classOf[Host]) shouldBe Set(host1)
+        objects should not contain key (classOf[Port])
+        objectsOf(data1)(classOf[Port]) shouldBe Set(port4)
+    }
+}
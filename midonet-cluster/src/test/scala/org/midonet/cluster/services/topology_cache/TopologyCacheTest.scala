@@ -18,7 +18,8 @@ package org.midonet.cluster.services.topology_cache
 
 import java.util.UUID
 
-import scala.concurrent.Await
+import scala.collection.JavaConverters._
+import scala.concurrent.{Await, ExecutionContext}
 import scala.concurrent.duration._
 
 import com.codahale.metrics.MetricRegistry
@@ -34,9 +35,11 @@ import org.slf4j.LoggerFactory
 
 import org.midonet.cluster.ClusterConfig
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
-import org.midonet.cluster.models.Topology.{Network, Port}
+import org.midonet.cluster.data.storage.cached.TopologyCacheClient._
+import org.midonet.cluster.models.Topology.{Host, Network, Port}
 import org.midonet.cluster.services.{MidonetBackend, MidonetBackendService}
 import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.topology.snapshot.TopologySnapshotDeserializer
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.conf.{HostIdGenerator, MidoTestConfigurator}
 import org.midonet.minion.Context
@@ -93,6 +96,26 @@ class TopologyCacheTest extends FeatureSpec
         testServer.stop()
     }
 
+    private implicit val ec = ExecutionContext.global
+
+    private def request(cache: TopologyCache, parameters: Map[String, String])
+    : (Map[Class[_], Set[UUID]], Map[String, String]) = {
+        val buffer = Await.result(
+            cache.snapshotProvider.getAndRef(parameters), 10 seconds)
+        try {
+            val data = new Array[Byte](buffer.buffer.readableBytes())
+            buffer.buffer.getBytes(buffer.buffer.readerIndex(), data)
+            val snapshot = new TopologySnapshotDeserializer().deserialize(data)
+            val objects = snapshot.objectSnapshot.asScala.map {
+                case (clazz, objs) =>
+                    clazz -> objs.keySet().asScala.map(_.asInstanceOf[UUID]).toSet
+            }.toMap
+            (objects, buffer.headers)
+        } finally {
+            cache.snapshotProvider.unref()
+        }
+    }
+
     feature("Topology Cache lifecycle") {
         scenario("Service starts and stops") {
             Given("A topology cache service")
@@ -235,4 +258,142 @@ class TopologyCacheTest extends FeatureSpec
         }
     }
 
+    feature("Snapshot for a host") {
+        scenario("The snapshot includes the objects of the host") {
+            Given("A topology cache service")
+            val cache = new TopologyCache(context,
+                                          backend,
+                                          clusterConfig,
+                                          metrics)
+            cache.startAsync().awaitRunning()
+
+            And("Two hosts with a bridge port each")
+            val host1 = createHost()
+            val host2 = createHost()
+            val bridge1 = createBridge()
+            val bridge2 = createBridge()
+            val port1 = createBridgePort(bridgeId = Some(bridge1.getId.asJava),
+                                         hostId = Some(host1.getId.asJava))
+            val port2 = createBridgePort(bridgeId = Some(bridge2.getId.asJava),
+                                         hostId = Some(host2.getId.asJava))
+            backend.store.tryTransaction(ZoomOwner.None) { tx =>
+                tx.create(host1)
+                tx.create(host2)
+                tx.create(bridge1)
+                tx.create(bridge2)
+                tx.create(port1)
+                tx.create(port2)
+            }
+
+            When("Requesting the snapshot for the first host")
+            eventually {
+                cache.snapshotNow()
+                val (objects, headers) = request(
+                    cache, Map(HostParameter -> host1.getId.asJava.toString))
+
+                Then("The snapshot includes the objects of the first host")
+                objects(classOf[Port]) shouldBe Set(port1.getId.asJava)
+                objects(classOf[Network]) shouldBe Set(bridge1.getId.asJava)
+
+                And("The snapshot includes all hosts")
+                objects(classOf[Host]) shouldBe
+                    Set(host1.getId.asJava, host2.getId.asJava)
+
+                And("The snapshot does not have a version")
+                headers.get(VersionHeader) shouldBe None
+                headers.get(BaseVersionHeader) shouldBe Some("0")
+            }
+
+            When("Requesting the snapshot without a host")
+            val (objects, headers) = request(cache, Map.empty)
+
+            Then("The snapshot includes all objects")
+            objects(classOf[Port]) shouldBe
+                Set(port1.getId.asJava, port2.getId.asJava)
+            headers.get(VersionHeader) should not be None
+
+            And("Stop the cache to clear subscriptions")
+            cache.stopAsync().awaitTerminated()
+        }
+    }
+
+    feature("Snapshot deltas") {
+        scenario("The delta includes the changes since the base version") {
+            Given("A topology cache service")
+            val cache = new TopologyCache(context,
+                                          backend,
+                                          clusterConfig,
+                                          metrics)
+            cache.startAsync().awaitRunning()
+            val epoch = cache.snapshotProvider.epoch
+
+            And("A bridge with a port")
+            val bridge1 = createBridge()
+            val port1 = createBridgePort(bridgeId = Some(bridge1.getId.asJava))
+            backend.store.tryTransaction(ZoomOwner.None) { tx =>
+                tx.create(bridge1)
+                tx.create(port1)
+            }
+
+            And("The snapshot with the bridge")
+            val version1 = eventually {
+                cache.snapshotNow()
+                val (objects, headers) = request(cache, Map.empty)
+                objects(classOf[Port]) shouldBe Set(port1.getId.asJava)
+                headers(VersionHeader)
+            }
+
+            When("Adding a second bridge with a port")
+            val bridge2 = createBridge()
+            val port2 = createBridgePort(bridgeId = Some(bridge2.getId.asJava))
+            backend.store.tryTransaction(ZoomOwner.None) { tx =>
+                tx.create(bridge2)
+                tx.create(port2)
+            }
+
+            Then("The delta from the first version includes the new objects")
+            val version2 = eventually {
+                cache.snapshotNow()
+                val (objects, headers) = request(
+                    cache, Map(EpochParameter -> epoch,
+                               SinceParameter -> version1))
+                headers.get(BaseVersionHeader) shouldBe Some(version1)
+                objects(classOf[Port]) shouldBe Set(port2.getId.asJava)
+                objects(classOf[Network]) shouldBe Set(bridge2.getId.asJava)
+                headers(VersionHeader)
+            }
+            version2.toLong should be > version1.toLong
+
+            When("Deleting the second port")
+            backend.store.tryTransaction(ZoomOwner.None) { tx =>
+                tx.delete(classOf[Port], port2.getId)
+            }
+
+            Then("The delta from the second version includes the deletion")
+            eventually {
+                cache.snapshotNow()
+                val (objects, headers) = request(
+                    cache, Map(EpochParameter -> epoch,
+                               SinceParameter -> version2))
+                headers.get(BaseVersionHeader) shouldBe Some(version2)
+                objects(classOf[Port]) shouldBe Set(port2.getId.asJava)
+                objects(classOf[Network]) shouldBe Set(bridge2.getId.asJava)
+            }
+
+            When("Requesting a delta for a different epoch")
+            val (objects, headers) = request(
+                cache, Map(EpochParameter -> UUID.randomUUID().toString,
+                           SinceParameter -> version1))
+
+            Then("The response is the complete snapshot")
+            headers.get(BaseVersionHeader) shouldBe Some("0")
+            objects(classOf[Port]) shouldBe Set(port1.getId.asJava)
+            objects(classOf[Network]) shouldBe
+                Set(bridge1.getId.asJava, bridge2.getId.asJava)
+
+            And("Stop the cache to clear subscriptions")
+            cache.stopAsync().awaitTerminated()
+        }
+    }
+
 }
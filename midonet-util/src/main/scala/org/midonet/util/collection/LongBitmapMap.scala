@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+/**
+  * A map of primitive long keys to 64-bit bitmaps, using open addressing with
+  * linear probing over two arrays, such that neither the keys nor the values
+  * are boxed. A key is present only when its bitmap is not zero: setting the
+  * bitmap of a key to zero removes the key.
+  *
+  * This class is not thread-safe.
+  */
+final class LongBitmapMap(initialCapacity: Int = 8) {
+
+    private var keys = new Array[Long](LongBitmapMap.capacityFor(initialCapacity))
+    private var bitmaps = new Array[Long](keys.length)
+    private var mask = keys.length - 1
+    private var count = 0
+
+    /** The number of keys with a non-zero bitmap. */
+    def size: Int = count
+
+    def isEmpty: Boolean = count == 0
+
+    /** The number of slots of the map. */
+    def capacity: Int = keys.length
+
+    /** Returns the bitmap of the given key, or zero if the key is absent. */
+    def apply(key: Long): Long = {
+        var index = slot(key)
+        while (bitmaps(index) != 0L) {
+            if (keys(index) == key) {
+                return bitmaps(index)
+            }
+            index = (index + 1) & mask
+        }
+        0L
+    }
+
+    /** Sets the bitmap of the given key, removing the key if the bitmap is
+      * zero. */
+    def update(key: Long, bitmap: Long): Unit = {
+        if (bitmap == 0L) remove(key)
+        else put(key, bitmap)
+    }
+
+    /** Removes all keys. */
+    def clear(): Unit = {
+        java.util.Arrays.fill(bitmaps, 0L)
+        count = 0
+    }
+
+    private def put(key: Long, bitmap: Long): Unit = {
+        var index = slot(key)
+        while (bitmaps(index) != 0L) {
+            if (keys(index) == key) {
+                bitmaps(index) = bitmap
+                return
+            }
+            index = (index + 1) & mask
+        }
+        keys(index) = key
+        bitmaps(index) = bitmap
+        count += 1
+        if (count * 4 > keys.length * 3) {
+            resize(keys.length << 1)
+        }
+    }
+
+    private def remove(key: Long): Unit = {
+        var hole = slot(key)
+        while (keys(hole) != key || bitmaps(hole) == 0L) {
+            if (bitmaps(hole) == 0L) {
+                return
+            }
+            hole = (hole + 1) & mask
+        }
+        // Shift back the following entries of the probe sequence, such that
+        // lookups do not stop at the removed slot.
+        var next = (hole + 1) & mask
+        while (bitmaps(next) != 0L) {
+            val ideal = slot(keys(next))
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                keys(hole) = keys(next)
+                bitmaps(hole) = bitmaps(next)
+                hole = next
+            }
+            next = (next + 1) & mask
+        }
+        bitmaps(hole) = 0L
+        count -= 1
+    }
+
+    private def resize(newCapacity: Int): Unit = {
+        val oldKeys = keys
+        val oldBitmaps = bitmaps
+        keys = new Array[Long](newCapacity)
+        bitmaps = new Array[Long](newCapacity)
+        mask = newCapacity - 1
+        count = 0
+        var index = 0
+        while (index < oldKeys.length) {
+            if (oldBitmaps(index) != 0L) {
+                put(oldKeys(index), oldBitmaps(index))
+            }
+            index += 1
+        }
+    }
+
+    private def slot(key: Long): Int = {
+        val hash = key * 0x9E3779B97F4A7C15L
+        (hash ^ (hash >>> 32)).toInt & mask
+    }
+}
+
+object LongBitmapMap {
+
+    private def capacityFor(size: Int): Int = {
+        val capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1
+        Math.max(capacity, 2)
+    }
+}
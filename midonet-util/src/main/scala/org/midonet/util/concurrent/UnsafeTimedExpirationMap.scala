@@ -0,0 +1,699 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.concurrent
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.concurrent.duration.Duration
+
+import org.midonet.Util
+import org.midonet.util.collection.Reducer
+import org.midonet.util.logging.Logger
+
+/**
+ * Encodes values of a type in a fixed number of bytes of off-heap memory,
+ * such that they can be compared and read in place.
+ */
+trait FixedWidthCodec[T] {
+    /** The number of bytes of an encoded value. */
+    def size: Int
+    /** The hash code of a value, which must be consistent with `matches`. */
+    def hash(value: T): Int
+    /** Writes the value at the given address. */
+    def write(value: T, address: Long): Unit
+    /** Indicates whether the value encoded at the given address is equal to
+      * the given value, without decoding it. */
+    def matches(value: T, address: Long): Boolean
+    /** Decodes the value at the given address. */
+    def read(address: Long): T
+}
+
+object UnsafeTimedExpirationMap {
+
+    private val unsafe = Util.getUnsafe
+
+    // Slot layout: all offsets are in bytes from the start of the slot.
+    private final val SeqOffset = 0
+    private final val StatusOffset = 4
+    private final val HashOffset = 8
+    private final val RefsOffset = 12
+    private final val ExpirationOffset = 16
+    private final val PrevOffset = 24
+    private final val NextOffset = 28
+    private final val QueueOffset = 32
+    private final val KeyOffset = 40
+
+    private final val Empty = 0
+    private final val Full = 1
+    private final val Deleted = 2
+    private final val Busy = 3
+
+    // The slot links and queue indexes are stored plus one, such that the
+    // zeroed memory of a new table means no link and no queue.
+    private final val NoSlot = 0
+
+    private final val MaxProbes = 256
+    private final val MaxQueues = 16
+    private final val Stripes = 64
+
+    private def align(size: Int): Int = (size + 7) & ~7
+
+    private def spread(hash: Int): Int = {
+        val h = hash * 0x9e3779b9
+        h ^ (h >>> 16)
+    }
+}
+
+/**
+ * A [[TimedExpirationMap]] stored in off-heap memory by the JVM, as an
+ * alternative to the [[OffHeapTimedExpirationMap]] that avoids the JNI calls
+ * and the serialization of the keys and values into byte arrays. The entries
+ * are kept in an open-addressing table with linear probing, where every slot
+ * contains the reference count and expiration of the entry, the links of the
+ * expiration queue of the entry and the key and value encoded in place by
+ * fixed width codecs. Looking up an entry does not allocate memory, other
+ * than the decoded value when the value codec allocates one.
+ *
+ * The reads are lock-free: every slot has a sequence number that is odd
+ * while the key or value of the slot are written, and readers retry when the
+ * sequence number changed while reading the slot. The writes of an entry are
+ * serialized by one of several locks selected by the hash of the key, and
+ * new entries claim a free slot with a compare-and-set of its status. The
+ * entries with a zero reference count are appended to an expiration queue
+ * for their expiration period, linked through their slots, such that
+ * obliterateIdleEntries() removes them in expiration order. Like in the
+ * [[OnHeapTimedExpirationMap]], the reducer is called before removing an
+ * entry, while puts of the same key are blocked.
+ *
+ * The capacity of the table is fixed, and inserting an entry fails with an
+ * [[IllegalStateException]] when no free slot is found within a bounded
+ * number of probes. The removed entries leave a tombstone that is reused by
+ * later insertions. Since a lookup of a missing key probes up to the first
+ * empty slot, obliterateIdleEntries() compacts the table in place when the
+ * tombstones exceed a quarter of its slots. The compaction holds all the
+ * locks, and the lock-free reads that overlap it are retried.
+ *
+ * The memory of the table is freed by close(), after which the map must not
+ * be used.
+ */
+final class UnsafeTimedExpirationMap[K <: AnyRef, V >: Null]
+    (log: Logger,
+     expirationFor: K => Duration,
+     capacity: Int,
+     keyCodec: FixedWidthCodec[K],
+     valueCodec: FixedWidthCodec[V])
+    extends TimedExpirationMap[K, V] with AutoCloseable {
+
+    import UnsafeTimedExpirationMap._
+
+    private def logger = log.wrapper
+
+    private val slots = Util.findNextPositivePowerOfTwo(capacity)
+    private val mask = slots - 1
+    private val maxProbes = Math.min(slots, MaxProbes)
+    private val valueOffset = KeyOffset + keyCodec.size
+    private val slotSize = align(valueOffset + valueCodec.size)
+
+    private val base = unsafe.allocateMemory(slots.toLong * slotSize)
+    unsafe.setMemory(base, slots.toLong * slotSize, 0)
+
+    private val locks = Array.fill(Stripes)(new Object)
+
+    // The version of the table is odd while a compaction moves the entries,
+    // which happens only while holding the compaction lock and all the locks
+    // of the keys.
+    private val compactionLock = new Object
+    @volatile private var version = 0
+    private val tombstones = new AtomicInteger
+    private var closed = false
+
+    // The expiration queues, protected by the queue lock, which is always
+    // acquired after the lock of a key.
+    private val queueLock = new Object
+    private val periods = new Array[Long](MaxQueues)
+    private val heads = new Array[Int](MaxQueues)
+    private val tails = new Array[Int](MaxQueues)
+    private var queues = 0
+
+    @inline private def address(slot: Int): Long =
+        base + slot.toLong * slotSize
+
+    @inline private def lockFor(hash: Int): AnyRef =
+        locks(hash & (Stripes - 1))
+
+    private def withAllLocks[U](stripe: Int)(f: => U): U = {
+        if (stripe == Stripes) f
+        else locks(stripe).synchronized { withAllLocks(stripe + 1)(f) }
+    }
+
+    /** The number of slots of removed entries that were not reused. */
+    private[concurrent] def tombstoneCount: Int = tombstones.get
+
+    /**
+     * Finds the slot of the given key, or returns -1 if the key is not in the
+     * table. Must be called with the lock of the key, or retried if the table
+     * version changed.
+     */
+    private def find(key: K, hash: Int): Int = {
+        var slot = hash & mask
+        var probes = 0
+        while (probes < maxProbes) {
+            val addr = address(slot)
+            val seq = unsafe.getIntVolatile(null, addr + SeqOffset)
+            if ((seq & 1) == 0) {
+                val status = unsafe.getIntVolatile(null, addr + StatusOffset)
+                if (status == Empty) {
+                    return -1
+                }
+                if (status == Full &&
+                    unsafe.getInt(addr + HashOffset) == hash &&
+                    keyCodec.matches(key, addr + KeyOffset)) {
+                    unsafe.loadFence()
+                    if (unsafe.getInt(addr + SeqOffset) == seq) {
+                        return slot
+                    }
+                } else {
+                    slot = (slot + 1) & mask
+                    probes += 1
+                }
+            }
+        }
+        -1
+    }
+
+    /**
+     * Inserts a new entry for a key that is not in the table. Must be called
+     * with the lock of the key.
+     */
+    private def insert(key: K, hash: Int, value: V): Unit = {
+        while (true) {
+            var slot = hash & mask
+            var probes = 0
+            while (probes < maxProbes) {
+                val addr = address(slot)
+                val status = unsafe.getIntVolatile(null, addr + StatusOffset)
+                if ((status == Empty || status == Deleted) &&
+                    unsafe.compareAndSwapInt(null, addr + StatusOffset,
+                                             status, Busy)) {
+                    val seq = unsafe.getInt(addr + SeqOffset)
+                    unsafe.putOrderedInt(null, addr + SeqOffset, seq + 1)
+                    unsafe.storeFence()
+                    unsafe.putInt(addr + HashOffset, hash)
+                    unsafe.putInt(addr + RefsOffset, 1)
+                    unsafe.putLong(addr + ExpirationOffset, Long.MaxValue)
+                    keyCodec.write(key, addr + KeyOffset)
+                    writeValue(addr, value)
+                    unsafe.putOrderedInt(null, addr + SeqOffset, seq + 2)
+                    unsafe.putIntVolatile(null, addr + StatusOffset, Full)
+                    if (status == Deleted) {
+                        tombstones.decrementAndGet()
+                    }
+                    logger.debug(log.marker,
+                                 s"Incrementing reference count of $key to 1")
+                    return
+                }
+                if (status == Empty) {
+                    // Another writer claimed the empty slot, start again.
+                    probes = maxProbes + 1
+                } else {
+                    slot = (slot + 1) & mask
+                    probes += 1
+                }
+            }
+            if (probes == maxProbes) {
+                throw new IllegalStateException(
+                    s"No space left for $key in a table of $slots entries")
+            }
+        }
+    }
+
+    private def writeValue(addr: Long, value: V): Unit = {
+        if (value eq null) {
+            unsafe.setMemory(addr + valueOffset, valueCodec.size, 0)
+        } else {
+            valueCodec.write(value, addr + valueOffset)
+        }
+    }
+
+    /**
+     * Replaces the value of a slot. Must be called with the lock of the key.
+     */
+    private def replaceValue(addr: Long, value: V): Unit = {
+        val seq = unsafe.getInt(addr + SeqOffset)
+        unsafe.putOrderedInt(null, addr + SeqOffset, seq + 1)
+        unsafe.storeFence()
+        writeValue(addr, value)
+        unsafe.putOrderedInt(null, addr + SeqOffset, seq + 2)
+    }
+
+    private def incrementRefs(addr: Long, key: K): Int = {
+        val refs = unsafe.getInt(addr + RefsOffset) + 1
+        unsafe.putIntVolatile(null, addr + RefsOffset, refs)
+        logger.debug(log.marker, s"Incrementing ref count of $key to $refs")
+        if (refs == 1) {
+            logger.debug(log.marker, s"Unscheduling removal of $key")
+        }
+        refs
+    }
+
+    override def putAndRef(key: K, value: V): V = {
+        val hash = spread(keyCodec.hash(key))
+        lockFor(hash).synchronized {
+            val slot = find(key, hash)
+            if (slot >= 0) {
+                val addr = address(slot)
+                val oldValue = valueCodec.read(addr + valueOffset)
+                incrementRefs(addr, key)
+                replaceValue(addr, value)
+                oldValue
+            } else {
+                insert(key, hash, value)
+                null
+            }
+        }
+    }
+
+    override def putIfAbsentAndRef(key: K, value: V): Int = {
+        val hash = spread(keyCodec.hash(key))
+        lockFor(hash).synchronized {
+            val slot = find(key, hash)
+            if (slot >= 0) {
+                incrementRefs(address(slot), key)
+            } else {
+                insert(key, hash, value)
+                1
+            }
+        }
+    }
+
+    override def get(key: K): V = {
+        val hash = spread(keyCodec.hash(key))
+        while (true) {
+            val v = version
+            if ((v & 1) == 0) {
+                val value = lookup(key, hash)
+                unsafe.loadFence()
+                if (version == v) {
+                    return value
+                }
+            }
+        }
+        null
+    }
+
+    /** Reads the value of the given key, which must be retried if the table
+      * version changed. */
+    private def lookup(key: K, hash: Int): V = {
+        var slot = hash & mask
+        var probes = 0
+        while (probes < maxProbes) {
+            val addr = address(slot)
+            val seq = unsafe.getIntVolatile(null, addr + SeqOffset)
+            if ((seq & 1) == 0) {
+                val status = unsafe.getIntVolatile(null, addr + StatusOffset)
+                if (status == Empty) {
+                    return null
+                }
+                if (status == Full &&
+                    unsafe.getInt(addr + HashOffset) == hash &&
+                    keyCodec.matches(key, addr + KeyOffset)) {
+                    val refs = unsafe.getIntVolatile(null, addr + RefsOffset)
+                    val value = valueCodec.read(addr + valueOffset)
+                    unsafe.loadFence()
+                    if (unsafe.getInt(addr + SeqOffset) == seq) {
+                        return if (refs == -1) null else value
+                    }
+                } else {
+                    slot = (slot + 1) & mask
+                    probes += 1
+                }
+            }
+        }
+        null
+    }
+
+    override def fold[U](seed: U, func: Reducer[K, V, U]): U =
+        compactionLock.synchronized {
+            foldSlots(seed, func)
+        }
+
+    private def foldSlots[U](seed: U, func: Reducer[K, V, U]): U = {
+        var acc = seed
+        var slot = 0
+        while (slot < slots) {
+            val addr = address(slot)
+            val seq = unsafe.getIntVolatile(null, addr + SeqOffset)
+            if ((seq & 1) == 0 &&
+                unsafe.getIntVolatile(null, addr + StatusOffset) == Full) {
+                val key = keyCodec.read(addr + KeyOffset)
+                val value = valueCodec.read(addr + valueOffset)
+                unsafe.loadFence()
+                if (unsafe.getInt(addr + SeqOffset) == seq) {
+                    acc = func(acc, key, value)
+                }
+            }
+            slot += 1
+        }
+        acc
+    }
+
+    override def ref(key: K): V = {
+        val hash = spread(keyCodec.hash(key))
+        lockFor(hash).synchronized {
+            val slot = find(key, hash)
+            if (slot >= 0) {
+                val addr = address(slot)
+                incrementRefs(addr, key)
+                valueCodec.read(addr + valueOffset)
+            } else {
+                null
+            }
+        }
+    }
+
+    override def refAndGetCount(key: K): Int = {
+        val hash = spread(keyCodec.hash(key))
+        lockFor(hash).synchronized {
+            val slot = find(key, hash)
+            if (slot >= 0) incrementRefs(address(slot), key) else 0
+        }
+    }
+
+    override def refCount(key: K): Int = {
+        val hash = spread(keyCodec.hash(key))
+        while (true) {
+            val v = version
+            if ((v & 1) == 0) {
+                val slot = find(key, hash)
+                val refs =
+                    if (slot >= 0)
+                        unsafe.getIntVolatile(null, address(slot) + RefsOffset)
+                    else 0
+                unsafe.loadFence()
+                if (version == v) {
+                    return refs
+                }
+            }
+        }
+        0
+    }
+
+    override def unref(key: K, currentTimeMillis: Long): V = {
+        val hash = spread(keyCodec.hash(key))
+        lockFor(hash).synchronized {
+            val slot = find(key, hash)
+            if (slot >= 0) {
+                val addr = address(slot)
+                val refs = unsafe.getInt(addr + RefsOffset)
+                if (refs <= 0) {
+                    logger.error(log.marker,
+                                 s"Decrement a ref count past 0 for $key")
+                } else {
+                    unsafe.putIntVolatile(null, addr + RefsOffset, refs - 1)
+                    logger.debug(log.marker,
+                                 s"Decrementing reference count of $key to " +
+                                 s"${refs - 1}")
+                    if (refs == 1) {
+                        logger.debug(log.marker, s"Scheduling removal of $key")
+                        scheduleRemoval(slot, currentTimeMillis +
+                                              expirationFor(key).toMillis,
+                                        expirationFor(key).toMillis)
+                    }
+                }
+                valueCodec.read(addr + valueOffset)
+            } else {
+                null
+            }
+        }
+    }
+
+    override def obliterateIdleEntries[U](currentTimeMillis: Long): Unit =
+        obliterateIdleEntries(currentTimeMillis, (), identityReducer)
+
+    /**
+     * Cleans up resources that have had their reference count at 0 for longer
+     * than the configured expiration.
+     *
+     * WARNING: This method is not thread-safe for multiple callers.
+     */
+    override def obliterateIdleEntries[U](currentTimeMillis: Long, seed: U,
+                                          reducer: Reducer[K, V, U]): U = {
+        var acc = seed
+        var queue = 0
+        while (queue < queueLock.synchronized { queues }) {
+            acc = obliterateIdleEntries(queue, currentTimeMillis, acc, reducer)
+            queue += 1
+        }
+        if (tombstones.get > (slots >>> 2)) {
+            compact()
+        }
+        acc
+    }
+
+    private def obliterateIdleEntries[U](queue: Int, currentTimeMillis: Long,
+                                         seed: U,
+                                         reducer: Reducer[K, V, U]): U = {
+        var acc = seed
+        var slot = expiredHead(queue, currentTimeMillis)
+        while (slot >= 0) {
+            // Only this method removes the entries of the queues, so the hash
+            // of the slot does not change until the slot is removed.
+            val addr = address(slot)
+            lockFor(unsafe.getInt(addr + HashOffset)).synchronized {
+                // The entry may have been rescheduled before taking the lock.
+                val expired = queueLock.synchronized {
+                    if (heads(queue) == slot + 1 &&
+                        unsafe.getLong(addr + ExpirationOffset) <=
+                            currentTimeMillis) {
+                        unlink(slot)
+                        true
+                    } else {
+                        false
+                    }
+                }
+                // Entries referenced again are unlinked, and scheduled again
+                // when their reference count drops to zero.
+                if (expired && unsafe.getInt(addr + RefsOffset) == 0) {
+                    unsafe.putIntVolatile(null, addr + RefsOffset, -1)
+                    val key = keyCodec.read(addr + KeyOffset)
+                    logger.debug(log.marker, s"Forgetting entry $key")
+                    /* The following operations are precisely ordered as
+                     * explained in the header of TimedExpirationMap. */
+                    acc = reducer(acc, key, valueCodec.read(addr + valueOffset))
+                    unsafe.putIntVolatile(null, addr + StatusOffset, Deleted)
+                    unsafe.putInt(addr + RefsOffset, 0)
+                    tombstones.incrementAndGet()
+                }
+            }
+            slot = expiredHead(queue, currentTimeMillis)
+        }
+        acc
+    }
+
+    /**
+     * Rebuilds the table in place without tombstones: the tombstones become
+     * empty slots, and every entry moves to the first empty slot from the
+     * slot of its hash, until no entry can move. An entry only moves closer
+     * to the slot of its hash, such that the probes of a lookup never grow.
+     */
+    private def compact(): Unit = compactionLock.synchronized {
+        withAllLocks(0) {
+            queueLock.synchronized {
+                version += 1
+                try {
+                    var slot = 0
+                    while (slot < slots) {
+                        val addr = address(slot)
+                        if (unsafe.getInt(addr + StatusOffset) == Deleted) {
+                            unsafe.putIntVolatile(null, addr + StatusOffset,
+                                                  Empty)
+                        }
+                        slot += 1
+                    }
+                    tombstones.set(0)
+
+                    // Moving an entry may empty a slot in the probes of an
+                    // entry moved before, hence the repeated passes.
+                    var moved = true
+                    while (moved) {
+                        moved = false
+                        slot = 0
+                        while (slot < slots) {
+                            val addr = address(slot)
+                            if (unsafe.getInt(addr + StatusOffset) == Full) {
+                                val target = firstEmpty(
+                                    unsafe.getInt(addr + HashOffset) & mask,
+                                    slot)
+                                if (target != slot) {
+                                    move(slot, target)
+                                    moved = true
+                                }
+                            }
+                            slot += 1
+                        }
+                    }
+                } finally {
+                    version += 1
+                }
+            }
+        }
+        logger.debug(log.marker, s"Compacted table of $slots entries")
+    }
+
+    /** Returns the first empty slot from a slot, or the last slot if none of
+      * the slots before it is empty. */
+    private def firstEmpty(from: Int, last: Int): Int = {
+        var slot = from
+        while (slot != last &&
+               unsafe.getInt(address(slot) + StatusOffset) != Empty) {
+            slot = (slot + 1) & mask
+        }
+        slot
+    }
+
+    /** Moves an entry to an empty slot, updating the links of its expiration
+      * queue. Must be called during a compaction. */
+    private def move(from: Int, to: Int): Unit = {
+        val src = address(from)
+        val dst = address(to)
+        val srcSeq = unsafe.getInt(src + SeqOffset)
+        val dstSeq = unsafe.getInt(dst + SeqOffset)
+        unsafe.putOrderedInt(null, src + SeqOffset, srcSeq + 1)
+        unsafe.putOrderedInt(null, dst + SeqOffset, dstSeq + 1)
+        unsafe.storeFence()
+        unsafe.copyMemory(src + HashOffset, dst + HashOffset,
+                          slotSize - HashOffset)
+        unsafe.putIntVolatile(null, dst + StatusOffset, Full)
+        unsafe.putIntVolatile(null, src + StatusOffset, Empty)
+
+        val queue = unsafe.getInt(dst + QueueOffset) - 1
+        if (queue >= 0) {
+            val prev = unsafe.getInt(dst + PrevOffset)
+            val next = unsafe.getInt(dst + NextOffset)
+            if (prev == NoSlot) {
+                heads(queue) = to + 1
+            } else {
+                unsafe.putInt(address(prev - 1) + NextOffset, to + 1)
+            }
+            if (next == NoSlot) {
+                tails(queue) = to + 1
+            } else {
+                unsafe.putInt(address(next - 1) + PrevOffset, to + 1)
+            }
+            unsafe.putInt(src + QueueOffset, 0)
+            unsafe.putInt(src + PrevOffset, NoSlot)
+            unsafe.putInt(src + NextOffset, NoSlot)
+        }
+        unsafe.putOrderedInt(null, src + SeqOffset, srcSeq + 2)
+        unsafe.putOrderedInt(null, dst + SeqOffset, dstSeq + 2)
+    }
+
+    /**
+     * Frees the memory of the table. The map must not be used afterwards,
+     * since the lock-free reads would access the freed memory.
+     */
+    override def close(): Unit = compactionLock.synchronized {
+        withAllLocks(0) {
+            if (!closed) {
+                closed = true
+                unsafe.freeMemory(base)
+            }
+        }
+    }
+
+    /** Returns the slot at the head of a queue if it expired, or -1. */
+    private def expiredHead(queue: Int, currentTimeMillis: Long): Int =
+        queueLock.synchronized {
+            val head = heads(queue)
+            if (head == NoSlot ||
+                unsafe.getLong(address(head - 1) + ExpirationOffset) >
+                    currentTimeMillis) {
+                -1
+            } else {
+                head - 1
+            }
+        }
+
+    /** Moves a slot to the tail of the queue of its expiration period. */
+    private def scheduleRemoval(slot: Int, expiration: Long,
+                                expirationPeriod: Long): Unit =
+        queueLock.synchronized {
+            unsafe.putLong(address(slot) + ExpirationOffset, expiration)
+            unlink(slot)
+            append(slot, queueFor(expirationPeriod))
+        }
+
+    /** Returns the index of the queue for an expiration period. Must be
+      * called with the queue lock. */
+    private def queueFor(expirationPeriod: Long): Int = {
+        var queue = 0
+        while (queue < queues) {
+            if (periods(queue) == expirationPeriod) {
+                return queue
+            }
+            queue += 1
+        }
+        if (queues == MaxQueues) {
+            throw new IllegalStateException(
+                s"More than $MaxQueues expiration periods")
+        }
+        periods(queues) = expirationPeriod
+        queues += 1
+        queue
+    }
+
+    /** Appends a slot to the tail of a queue. Must be called with the queue
+      * lock. */
+    private def append(slot: Int, queue: Int): Unit = {
+        val addr = address(slot)
+        val tail = tails(queue)
+        unsafe.putInt(addr + QueueOffset, queue + 1)
+        unsafe.putInt(addr + PrevOffset, tail)
+        unsafe.putInt(addr + NextOffset, NoSlot)
+        if (tail == NoSlot) {
+            heads(queue) = slot + 1
+        } else {
+            unsafe.putInt(address(tail - 1) + NextOffset, slot + 1)
+        }
+        tails(queue) = slot + 1
+    }
+
+    /** Removes a slot from its queue, if any. Must be called with the queue
+      * lock. */
+    private def unlink(slot: Int): Unit = {
+        val addr = address(slot)
+        val queue = unsafe.getInt(addr + QueueOffset) - 1
+        if (queue < 0) {
+            return
+        }
+        val prev = unsafe.getInt(addr + PrevOffset)
+        val next = unsafe.getInt(addr + NextOffset)
+        if (prev == NoSlot) {
+            heads(queue) = next
+        } else {
+            unsafe.putInt(address(prev - 1) + NextOffset, next)
+        }
+        if (next == NoSlot) {
+            tails(queue) = prev
+        } else {
+            unsafe.putInt(address(next - 1) + PrevOffset, prev)
+        }
+        unsafe.putInt(addr + QueueOffset, 0)
+        unsafe.putInt(addr + PrevOffset, NoSlot)
+        unsafe.putInt(addr + NextOffset, NoSlot)
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.concurrent
+
+import java.nio.ByteBuffer
+import java.util.UUID
+import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
+
+import scala.concurrent.duration._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.Util
+import org.midonet.util.logging.Logger
+
+object TimedExpirationMapBenchmark {
+
+    object UUIDCodec extends FixedWidthCodec[UUID] {
+        private val unsafe = Util.getUnsafe
+
+        override val size = 16
+
+        override def hash(value: UUID): Int = value.hashCode
+
+        override def write(value: UUID, address: Long): Unit = {
+            unsafe.putLong(address, value.getMostSignificantBits)
+            unsafe.putLong(address + 8, value.getLeastSignificantBits)
+        }
+
+        override def matches(value: UUID, address: Long): Boolean =
+            unsafe.getLong(address) == value.getMostSignificantBits &&
+            unsafe.getLong(address + 8) == value.getLeastSignificantBits
+
+        override def read(address: Long): UUID =
+            new UUID(unsafe.getLong(address), unsafe.getLong(address + 8))
+    }
+
+    def toBytes(value: UUID): Array[Byte] =
+        if (value eq null) null
+        else ByteBuffer.allocate(16).putLong(value.getMostSignificantBits)
+                                    .putLong(value.getLeastSignificantBits)
+                                    .array()
+
+    def fromBytes(bytes: Array[Byte]): UUID =
+        if ((bytes eq null) || bytes.length != 16) null
+        else {
+            val bb = ByteBuffer.wrap(bytes)
+            new UUID(bb.getLong, bb.getLong)
+        }
+}
+
+/**
+ * Compares the on-heap, the native off-heap and the JVM off-heap timed
+ * expiration maps with millions of entries, such that most lookups miss the
+ * CPU caches.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class TimedExpirationMapBenchmark {
+
+    import TimedExpirationMapBenchmark._
+
+    @Param(Array("onheap", "native", "java"))
+    var implementation: String = _
+
+    @Param(Array("1000000", "10000000"))
+    var entries: Int = _
+
+    var map: TimedExpirationMap[UUID, UUID] = _
+    var keys: Array[UUID] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val log = Logger(NOPLogger.NOP_LOGGER)
+        val expiration = (_: UUID) => 1 minute
+        map = implementation match {
+            case "onheap" =>
+                new OnHeapTimedExpirationMap[UUID, UUID](log, expiration)
+            case "native" =>
+                new OffHeapTimedExpirationMap[UUID, UUID](
+                    log, expiration, toBytes, fromBytes, toBytes, fromBytes)
+            case "java" =>
+                new UnsafeTimedExpirationMap[UUID, UUID](
+                    log, expiration, entries * 2, UUIDCodec, UUIDCodec)
+        }
+        keys = Array.fill(entries)(UUID.randomUUID())
+        var index = 0
+        while (index < entries) {
+            map.putAndRef(keys(index), keys(index))
+            index += 1
+        }
+    }
+
+    @TearDown
+    def teardown(): Unit = map match {
+        case closeable: AutoCloseable => closeable.close()
+        case _ =>
+    }
+
+    private def randomKey(): UUID =
+        keys(ThreadLocalRandom.current().nextInt(entries))
+
+    @Benchmark
+    def get(bh: Blackhole): Unit = {
+        bh.consume(map.get(randomKey()))
+    }
+
+    @Benchmark
+    def getMissing(bh: Blackhole): Unit = {
+        bh.consume(map.get(new UUID(ThreadLocalRandom.current().nextLong(), 0L)))
+    }
+
+    @Benchmark
+    def refAndUnref(bh: Blackhole): Unit = {
+        val key = randomKey()
+        bh.consume(map.ref(key))
+        bh.consume(map.unref(key, 0L))
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class LongBitmapMapTest extends FeatureSpec with Matchers {
+
+    feature("The map stores bitmaps by key") {
+        scenario("Absent keys have an empty bitmap") {
+            val map = new LongBitmapMap()
+            map(1L) shouldBe 0L
+            map.isEmpty shouldBe true
+        }
+
+        scenario("Setting and clearing bitmaps") {
+            val map = new LongBitmapMap()
+
+            map(1L) = 0x3L
+            map(-1L) = Long.MinValue
+            map(0L) = 0x1L
+
+            map(1L) shouldBe 0x3L
+            map(-1L) shouldBe Long.MinValue
+            map(0L) shouldBe 0x1L
+            map.size shouldBe 3
+
+            map(1L) = 0x2L
+            map(1L) shouldBe 0x2L
+            map.size shouldBe 3
+
+            map(1L) = 0L
+            map(1L) shouldBe 0L
+            map.size shouldBe 2
+
+            map.clear()
+            map(-1L) shouldBe 0L
+            map.isEmpty shouldBe true
+        }
+
+        scenario("The map grows") {
+            val map = new LongBitmapMap(2)
+            for (key <- 0L until 1000L) {
+                map(key << 32) = key + 1
+            }
+            map.size shouldBe 1000
+            map.capacity should be >= 1000
+            for (key <- 0L until 1000L) {
+                map(key << 32) shouldBe key + 1
+            }
+        }
+
+        scenario("Random updates match a reference map") {
+            val random = new Random(1234)
+            val map = new LongBitmapMap()
+            val reference = new mutable.HashMap[Long, Long]()
+            for (_ <- 0 until 100000) {
+                val key = random.nextInt(500).toLong
+                val bitmap = if (random.nextInt(3) == 0) 0L
+                             else random.nextLong() | 1L
+                map(key) = bitmap
+                if (bitmap == 0L) reference -= key
+                else reference(key) = bitmap
+            }
+            map.size shouldBe reference.size
+            for (key <- 0L until 500L) {
+                map(key) shouldBe reference.getOrElse(key, 0L)
+            }
+        }
+    }
+}
@@ -23,7 +23,7 @@ import scala.concurrent.duration._
 
 import org.slf4j.helpers.NOPLogger
 import org.junit.runner.RunWith
-import org.scalatest.{FeatureSpec, Matchers, OneInstancePerTest}
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers, OneInstancePerTest}
 import org.scalatest.junit.JUnitRunner
 
 import org.midonet.util.collection.Reducer
@@ -237,3 +237,111 @@ class OffHeapTimedExpirationMapTest extends TimedExpirationMapTest {
         Logger(NOPLogger.NOP_LOGGER), expirationFor,
         str2bytes, bytes2str, str2bytes, bytes2str)
 }
+
+class UnsafeTimedExpirationMapTest extends TimedExpirationMapTest
+                                   with BeforeAndAfter {
+    object StringCodec extends FixedWidthCodec[String] {
+        private val unsafe = org.midonet.Util.getUnsafe
+
+        override val size = 16
+
+        override def hash(value: String): Int = value.hashCode
+
+        override def write(value: String, address: Long): Unit = {
+            val bytes = value.getBytes(UTF_8)
+            unsafe.putByte(address, bytes.length.toByte)
+            var i = 0
+            while (i < bytes.length) {
+                unsafe.putByte(address + 1 + i, bytes(i))
+                i += 1
+            }
+        }
+
+        override def matches(value: String, address: Long): Boolean =
+            read(address) == value
+
+        override def read(address: Long): String = {
+            val bytes = new Array[Byte](unsafe.getByte(address))
+            var i = 0
+            while (i < bytes.length) {
+                bytes(i) = unsafe.getByte(address + 1 + i)
+                i += 1
+            }
+            new String(bytes, UTF_8)
+        }
+    }
+
+    override val map = new UnsafeTimedExpirationMap[String, String](
+        Logger(NOPLogger.NOP_LOGGER), expirationFor, 16384, StringCodec,
+        StringCodec)
+
+    after {
+        map.close()
+    }
+
+    feature("Fixed capacity") {
+        scenario("Removed entries free their slots") {
+            val small = new UnsafeTimedExpirationMap[String, String](
+                Logger(NOPLogger.NOP_LOGGER), expirationFor, 4, StringCodec,
+                StringCodec)
+            for (i <- 0 until 4) {
+                small.putAndRef(i.toString, "X")
+            }
+            an [IllegalStateException] should be thrownBy {
+                small.putAndRef("4", "X")
+            }
+
+            small.unref("0", 0) should be ("X")
+            small.obliterateIdleEntries(1)
+            small.get("0") should be (null)
+
+            small.putAndRef("4", "Y") should be (null)
+            small.get("4") should be ("Y")
+            for (i <- 1 until 4) {
+                small.get(i.toString) should be ("X")
+            }
+            small.close()
+        }
+
+        scenario("Compaction removes the tombstones") {
+            val expiration = (key: String) =>
+                if (key.startsWith("h")) 1.day else 0.millis
+            val small = new UnsafeTimedExpirationMap[String, String](
+                Logger(NOPLogger.NOP_LOGGER), expiration, 16, StringCodec,
+                StringCodec)
+            val kept = (0 until 4).map("k" + _)
+            val queued = (0 until 4).map("h" + _)
+            val removed = (0 until 8).map(_.toString)
+            for (key <- kept ++ queued ++ removed) {
+                small.putAndRef(key, "X")
+            }
+            for (key <- queued ++ removed) {
+                small.unref(key, 0)
+            }
+
+            // Removing more entries than a quarter of the slots compacts.
+            small.obliterateIdleEntries(1)
+
+            small.tombstoneCount should be (0)
+            for (key <- kept ++ queued) {
+                small.get(key) should be ("X")
+            }
+            for (key <- removed) {
+                small.get(key) should be (null)
+            }
+
+            // The expiration queues follow the moved entries.
+            small.obliterateIdleEntries(
+                2.days.toMillis, Set.empty[String],
+                new Reducer[String, String, Set[String]] {
+                    override def apply(acc: Set[String], key: String,
+                                       value: String): Set[String] =
+                        acc + key
+                }) should be (queued.toSet)
+            for (key <- kept) {
+                small.get(key) should be ("X")
+            }
+            small.close()
+        }
+    }
+}
@@ -15,18 +15,26 @@
  */
 package org.midonet.odp;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.midonet.packets.Ethernet;
+import org.midonet.packets.MalformedPacketException;
 
 /**
  * An abstraction over the Ovs kernel datapath Packet entity. Contains an
  * {@link FlowMatch} object and a <code>byte[] data</code> member when triggered
  * via a kernel notification.
  *
+ * The {@link Ethernet} of a packet received from the datapath is only
+ * deserialized from the packet data when first requested, since most packets
+ * are simulated using only the flow match. The packet data is executed as
+ * received unless the packet is rewritten in userspace, in which case the
+ * {@link Ethernet} is serialized again.
+ *
  * @see FlowMatch
  */
 public class Packet {
@@ -41,7 +49,9 @@ public class Packet {
     private FlowMatch match;
     private Long userData;
     private Reason reason;
-    private Ethernet eth;
+    private volatile Ethernet eth;
+    private final byte[] data;
+    private volatile boolean modified = false;
     public final int packetLen;
 
     // user field used by midolman packet pipeline to track time statistics,
@@ -50,6 +60,7 @@ public class Packet {
 
     public Packet(Ethernet eth, FlowMatch match, int len) {
         this.eth = eth;
+        this.data = null;
         this.match = match;
         this.packetLen = len;
     }
@@ -58,16 +69,82 @@ public class Packet {
         this(eth, match, (eth != null) ? eth.length() : 0);
     }
 
+    /**
+     * Creates a packet with the data received from the datapath, whose
+     * {@link Ethernet} is deserialized on demand.
+     */
+    public Packet(byte[] data, FlowMatch match) {
+        this.eth = null;
+        this.data = data;
+        this.match = match;
+        this.packetLen = data.length;
+    }
+
+    /**
+     * Returns the packet {@link Ethernet}, deserializing it from the packet
+     * data if needed.
+     *
+     * @throws IllegalArgumentException If the packet data is malformed.
+     */
     public Ethernet getEthernet() {
+        Ethernet ethernet = eth;
+        if (ethernet == null && data != null) {
+            ethernet = deserializeEthernet();
+        }
+        return ethernet;
+    }
+
+    private synchronized Ethernet deserializeEthernet() {
+        if (eth == null) {
+            Ethernet ethernet = new Ethernet();
+            try {
+                ethernet.deserialize(ByteBuffer.wrap(data));
+            } catch (MalformedPacketException e) {
+                throw new IllegalArgumentException("Malformed packet", e);
+            }
+            eth = ethernet;
+        }
         return eth;
     }
 
+    /**
+     * @return True if the packet {@link Ethernet} has been set or
+     * deserialized, and therefore it may differ from the packet data.
+     */
+    public boolean hasEthernet() {
+        return eth != null;
+    }
+
     public void setEthernet(Ethernet eth) {
         this.eth = eth;
+        this.modified = true;
+    }
+
+    /**
+     * Marks that the packet {@link Ethernet} was rewritten in place, such
+     * that the packet data must be serialized from it. The code that changes
+     * the {@link Ethernet} returned by {@link #getEthernet()} must call this
+     * method, otherwise the packet is executed with the original data.
+     */
+    public void markModified() {
+        this.modified = true;
+    }
+
+    /**
+     * @return True if the packet was rewritten in userspace, and therefore
+     * its data is serialized from the {@link Ethernet}.
+     */
+    public boolean isModified() {
+        return modified || data == null;
     }
 
+    /**
+     * Returns the serialized packet. When the packet was not rewritten in
+     * userspace, this returns the data received from the datapath without
+     * copying it, even if the {@link Ethernet} has been deserialized.
+     */
     public byte[] getData() {
-        return eth.serialize();
+        return data != null && !modified ? data : eth.serialize();
     }
 
     public FlowMatch getMatch() {
@@ -99,7 +176,7 @@ public class Packet {
         @SuppressWarnings("unchecked")
         Packet that = (Packet) o;
 
-        return Objects.equals(this.eth, that.eth)
+        return Objects.equals(this.getEthernet(), that.getEthernet())
             && Objects.equals(this.match, that.match)
             && Objects.equals(this.userData, that.userData)
             && (this.reason == that.reason);
@@ -107,7 +184,7 @@ public class Packet {
 
     @Override
     public int hashCode() {
-        int result = Objects.hashCode(eth);
+        int result = Objects.hashCode(getEthernet());
         result = 31 * result + Objects.hashCode(match);
         result = 31 * result + Objects.hashCode(userData);
         result = 31 * result + Objects.hashCode(reason);
@@ -117,7 +194,8 @@ public class Packet {
     @Override
     public String toString() {
         return "Packet{" +
-            "data=" + eth +
+            "data=" + (eth == null && data != null
+                       ? data.length + " bytes" : eth) +
             ", match=" + match +
             ", userData=" + userData +
             ", reason=" + reason +
@@ -335,6 +335,25 @@ public class FlowKeys {
         return keys;
     }
 
+    /**
+     * @return True if the given flow keys must be completed with userspace
+     * keys by calling {@link #addUserspaceKeys(Ethernet, List)}, which needs
+     * the deserialized packet.
+     */
+    public static boolean needsUserspaceKeys(List<FlowKey> keys) {
+        for (int i = 0; i < keys.size(); ++i) {
+            FlowKey key = keys.get(i);
+            if (key instanceof FlowKeyICMP) {
+                return true;
+            }
+            if (key instanceof FlowKeyEncap &&
+                needsUserspaceKeys(((FlowKeyEncap) key).keys)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void addUserspaceKeys(Ethernet ethPkt, List<FlowKey> keys) {
         FlowKey icmpUserSpace = null;
         if (ethPkt.getPayload() != null &&
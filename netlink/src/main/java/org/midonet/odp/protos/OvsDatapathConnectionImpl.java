@@ -16,7 +16,6 @@
 package org.midonet.odp.protos;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -74,43 +73,56 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
         packetFamily = ovsNetlinkFamilies.packetFamily();
     }
 
+    /**
+     * Builds the packets from the upcall messages. The packet data is copied
+     * from the message and only deserialized when the flow keys must be
+     * completed with userspace keys, otherwise the packet defers it until
+     * the {@link Ethernet} is requested.
+     */
     static class PacketBuilder implements AttributeHandler {
         private ArrayList<FlowKey> keys = new ArrayList<>(16);
-        private Ethernet eth;
+        private byte[] data;
         private Long userData;
-        private int packetLen = 0;
 
         public Packet buildFrom(ByteBuffer buf) {
             int datapathIndex = buf.getInt(); // ignored
             NetlinkMessage.scanAttributes(buf, this);
-            if (eth == null) {
-                keys.clear();
-                return null;
+            Packet p = null;
+            if (data != null) {
+                if (FlowKeys.needsUserspaceKeys(keys)) {
+                    Ethernet eth = deserialize(data);
+                    if (eth != null) {
+                        FlowKeys.addUserspaceKeys(eth, keys);
+                        p = new Packet(eth, new FlowMatch(keys), data.length);
+                    }
+                } else {
+                    p = new Packet(data, new FlowMatch(keys));
+                }
+            }
+            if (p != null) {
+                p.setUserData(userData);
             }
-            FlowKeys.addUserspaceKeys(eth, keys);
-            Packet p = new Packet(eth, new FlowMatch(keys), packetLen);
-            p.setUserData(userData);
-            eth = null;
+            data = null;
             keys.clear();
             userData = null;
             return p;
         }
 
+        private static Ethernet deserialize(byte[] data) {
+            try {
+                return Ethernet.deserialize(data);
+            } catch (Exception e) {
+                log.warn("Dropping malformed packet", e);
+                return null;
+            }
+        }
+
         @Override
         public void use(ByteBuffer buffer, short id) {
             switch(NetlinkMessage.unnest(id)) {
                 case OpenVSwitch.Packet.Attr.Packet:
-                    ByteOrder originalOrder = buffer.order();
-                    try {
-                        eth = new Ethernet();
-                        packetLen = buffer.remaining();
-                        eth.deserialize(buffer);
-                    } catch (Exception e) {
-                        log.warn("Dropping malformed packet", e);
-                        this.eth = null;
-                    } finally {
-                        buffer.order(originalOrder);
-                    }
+                    data = new byte[buffer.remaining()];
+                    buffer.get(data);
                     break;
 
                 case OpenVSwitch.Packet.Attr.Key:
@@ -187,11 +187,20 @@ sealed class OvsProtocol(pid: Int,
     }
 
     def prepareFlowDelete(datapathId: Int, keys: java.lang.Iterable[FlowKey],
-                          buf: ByteBuffer): Unit = {
+                          buf: ByteBuffer): Unit =
+        prepareFlowDelete(datapathId, keys, buf, NLFlag.ECHO)
+
+    /**
+     * Prepares a flow deletion with the given flags in addition to REQUEST:
+     * ECHO replies with the deleted flow, whereas ACK only acknowledges the
+     * deletion, which spares the kernel from serializing the flow.
+     */
+    def prepareFlowDelete(datapathId: Int, keys: java.lang.Iterable[FlowKey],
+                          buf: ByteBuffer, nlFlags: Short): Unit = {
         import org.midonet.odp.OpenVSwitch.Flow.Attr
 
         val message = messageFor(buf, datapathId, flowFamily.contextDel,
-            (NLFlag.REQUEST | NLFlag.ECHO).toShort)
+            (NLFlag.REQUEST | nlFlags).toShort)
         NetlinkMessage.writeAttrSeq(buf, Attr.Key, keys, FlowKeys.writer)
         message.finalize(pid)
     }
@@ -217,8 +226,7 @@ sealed class OvsProtocol(pid: Int,
             FlowKeys.writer)
         NetlinkMessage.writeAttrSeq(buf, Attr.Actions, actions,
             FlowActions.writer)
-        NetlinkMessage.writeRawAttribute(buf, Attr.Packet,
-            packet.getEthernet.serialize())
+        NetlinkMessage.writeRawAttribute(buf, Attr.Packet, packet.getData)
 
         message.finalize(pid)
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+import java.util.{ArrayList => JArrayList}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.netlink.BytesUtil
+import org.midonet.odp.family.{DatapathFamily, FlowFamily, PacketFamily, PortFamily}
+import org.midonet.odp.flows.{FlowAction, FlowActions}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+
+/**
+ * Measures the number of packet execute messages a packet executor thread
+ * prepares per second, without the system call. An upcall packet is executed
+ * with its original data, even when the simulation deserialized it, whereas
+ * a packet rewritten in userspace is serialized from its Ethernet.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class PacketExecuteBenchmark {
+
+    @Param(Array("64", "512", "1400"))
+    var payloadSize: Int = _
+
+    private val families = new OvsNetlinkFamilies(new DatapathFamily(1),
+                                                  new PortFamily(2),
+                                                  new FlowFamily(3),
+                                                  new PacketFamily(4), 5, 6)
+    private val protocol = new OvsProtocol(10, families)
+    private val buf: ByteBuffer = BytesUtil.instance.allocateDirect(64 * 1024)
+    private val actions = new JArrayList[FlowAction]()
+
+    private var upcallPacket: Packet = _
+    private var modifiedPacket: Packet = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val eth: Ethernet =
+            ({ eth src MAC.random() dst MAC.random() } <<
+             { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+             { tcp src 10000 dst 80 } <<
+             payload(new Array[Byte](payloadSize))).packet
+        val data = eth.serialize()
+
+        upcallPacket = new Packet(data, FlowMatches.fromEthernetPacket(eth))
+        upcallPacket.getEthernet
+
+        modifiedPacket = new Packet(data, FlowMatches.fromEthernetPacket(eth))
+        modifiedPacket.getEthernet
+        modifiedPacket.markModified()
+
+        actions.add(FlowActions.output(1))
+    }
+
+    private def execute(packet: Packet): ByteBuffer = {
+        buf.clear()
+        protocol.preparePacketExecute(11, packet, actions, buf)
+        buf
+    }
+
+    @Benchmark
+    def executeUpcallPacket(): ByteBuffer = execute(upcallPacket)
+
+    @Benchmark
+    def executeModifiedPacket(): ByteBuffer = execute(modifiedPacket)
+}
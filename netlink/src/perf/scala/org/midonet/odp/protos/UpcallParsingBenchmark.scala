@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp.protos
+
+import java.nio.{ByteBuffer, ByteOrder}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.netlink.NetlinkMessage
+import org.midonet.odp.flows.FlowKeys
+import org.midonet.odp.{OpenVSwitch, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+
+/**
+ * Measures the cost of building a packet from an upcall message. The lazy
+ * benchmark only builds the flow match, whereas the eager one also
+ * deserializes the packet, as the upcall path did for every packet. Run with
+ * the GC profiler (-prof gc) to compare the allocation rate per packet.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class UpcallParsingBenchmark {
+
+    @Param(Array("64", "512", "1400"))
+    var payloadSize: Int = _
+
+    val builder = new OvsDatapathConnectionImpl.PacketBuilder
+    val buf = ByteBuffer.allocate(4096).order(ByteOrder.nativeOrder())
+
+    @JmhSetup
+    def setup(): Unit = {
+        val eth: Ethernet =
+            ({ eth src MAC.random() dst MAC.random() } <<
+             { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+             { tcp src 10000 dst 80 } <<
+             payload(new Array[Byte](payloadSize))).packet
+
+        buf.clear()
+        buf.putInt(0)
+        NetlinkMessage.writeAttrSeq(buf, OpenVSwitch.Packet.Attr.Key,
+                                    FlowKeys.fromEthernetPacket(eth),
+                                    FlowKeys.writer)
+        NetlinkMessage.writeRawAttribute(buf, OpenVSwitch.Packet.Attr.Packet,
+                                         eth.serialize())
+        buf.flip()
+    }
+
+    @Benchmark
+    def lazyUpcall(): Packet = {
+        buf.position(0)
+        builder.buildFrom(buf)
+    }
+
+    @Benchmark
+    def eagerUpcall(): Ethernet = {
+        buf.position(0)
+        builder.buildFrom(buf).getEthernet
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.midonet.odp.flows.FlowKey;
+import org.midonet.odp.flows.FlowKeys;
+import org.midonet.packets.Data;
+import org.midonet.packets.Ethernet;
+import org.midonet.packets.ICMP;
+import org.midonet.packets.IPv4;
+import org.midonet.packets.MAC;
+import org.midonet.packets.UDP;
+
+public class PacketTest {
+
+    private static Ethernet udpPacket() {
+        UDP udp = new UDP();
+        udp.setSourcePort(1000);
+        udp.setDestinationPort(2000);
+        udp.setPayload(new Data(new byte[16]));
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress("10.0.0.1");
+        ip.setDestinationAddress("10.0.0.2");
+        ip.setProtocol(UDP.PROTOCOL_NUMBER);
+        ip.setPayload(udp);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MAC.random());
+        eth.setDestinationMACAddress(MAC.random());
+        eth.setEtherType(IPv4.ETHERTYPE);
+        eth.setPayload(ip);
+        return eth;
+    }
+
+    @Test
+    public void testEthernetIsDeserializedOnDemand() {
+        Ethernet eth = udpPacket();
+        byte[] data = eth.serialize();
+        Packet packet = new Packet(data, FlowMatches.fromEthernetPacket(eth));
+
+        Assert.assertFalse(packet.hasEthernet());
+        Assert.assertEquals(data.length, packet.packetLen);
+        Assert.assertSame(data, packet.getData());
+        Assert.assertFalse(packet.hasEthernet());
+
+        Assert.assertEquals(eth, packet.getEthernet());
+        Assert.assertTrue(packet.hasEthernet());
+        Assert.assertSame(packet.getEthernet(), packet.getEthernet());
+        Assert.assertFalse(packet.isModified());
+        Assert.assertSame(data, packet.getData());
+    }
+
+    @Test
+    public void testModifiedEthernetIsSerialized() throws Exception {
+        Ethernet eth = udpPacket();
+        Packet packet = new Packet(eth.serialize(),
+                                   FlowMatches.fromEthernetPacket(eth));
+
+        MAC mac = MAC.random();
+        packet.getEthernet().setSourceMACAddress(mac);
+        packet.markModified();
+
+        Assert.assertTrue(packet.isModified());
+        Assert.assertEquals(mac, Ethernet.deserialize(packet.getData())
+                                         .getSourceMACAddress());
+    }
+
+    @Test
+    public void testSetEthernetIsSerialized() throws Exception {
+        Ethernet eth = udpPacket();
+        Packet packet = new Packet(eth.serialize(),
+                                   FlowMatches.fromEthernetPacket(eth));
+
+        Ethernet other = udpPacket();
+        packet.setEthernet(other);
+
+        Assert.assertTrue(packet.isModified());
+        Assert.assertArrayEquals(other.serialize(), packet.getData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedPacket() {
+        Packet packet = new Packet(new byte[4], new FlowMatch());
+        packet.getEthernet();
+    }
+
+    @Test
+    public void testNeedsUserspaceKeys() {
+        List<FlowKey> keys = FlowKeys.fromEthernetPacket(udpPacket());
+        Assert.assertFalse(FlowKeys.needsUserspaceKeys(keys));
+
+        keys.add(FlowKeys.icmp(ICMP.TYPE_ECHO_REQUEST, (byte) 0));
+        Assert.assertTrue(FlowKeys.needsUserspaceKeys(keys));
+    }
+}
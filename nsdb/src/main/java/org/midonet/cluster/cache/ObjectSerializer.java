@@ -21,6 +21,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.TextFormat;
@@ -28,6 +29,8 @@ import com.google.protobuf.TextFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.midonet.cluster.data.storage.ZoomEncoding;
+
 
 /**
  * Implements a topology object serializer for a specific object class.
@@ -42,6 +45,8 @@ public final class ObjectSerializer {
 
     private final Class<? extends MessageOrBuilder> clazz;
 
+    private volatile Message defaultInstance;
+
     static {
         TEXT_PARSER = createProtoParser();
         CHARSET = Charset.forName("UTF-8");
@@ -52,23 +57,45 @@ public final class ObjectSerializer {
     }
 
     /**
-     * Converts a data object from serialized text format to a Protocol Buffers
-     * message.
-     * @param textData The text serialized data.
+     * Converts a data object from its serialized storage format to a Protocol
+     * Buffers message. The data may use either the text format or the
+     * binary ZOOM encoding.
+     * @param textData The serialized data.
      * @return The binary serialized data.
      */
     public Message convertTextToMessage(byte[] textData) throws IOException {
         try {
-            Message.Builder builder =
-                (Message.Builder) clazz.getMethod("newBuilder").invoke(null);
-            TEXT_PARSER.merge(new String(textData, CHARSET), builder);
+            Message.Builder builder = defaultInstance().newBuilderForType();
+            if (ZoomEncoding.isBinary(textData)) {
+                builder.mergeFrom(textData, ZoomEncoding.HeaderSize(),
+                                  textData.length - ZoomEncoding.HeaderSize());
+            } else {
+                TEXT_PARSER.merge(new String(textData, CHARSET), builder);
+            }
             return builder.build();
         } catch (NoSuchMethodException | IllegalAccessException |
-                 InvocationTargetException | TextFormat.ParseException e) {
+                 InvocationTargetException | TextFormat.ParseException |
+                 InvalidProtocolBufferException e) {
             throw new IOException("Failed to deserialize topology object", e);
         }
     }
 
+    /**
+     * Returns the default instance of the message class, used as a builder
+     * factory.
+     */
+    private Message defaultInstance() throws NoSuchMethodException,
+                                             IllegalAccessException,
+                                             InvocationTargetException {
+        Message instance = defaultInstance;
+        if (instance == null) {
+            instance = (Message) clazz.getMethod("getDefaultInstance")
+                                      .invoke(null);
+            defaultInstance = instance;
+        }
+        return instance;
+    }
+
     /**
      * Creates a parser for Protocol Buffers text format.
      */
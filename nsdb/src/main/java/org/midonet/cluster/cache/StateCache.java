@@ -72,6 +72,19 @@ public final class StateCache extends AbstractService {
     private static final byte[] EMPTY_SINGLE_STATE = new byte[0];
     private static final String[] EMPTY_MULTI_STATE = new String[0];
 
+    /**
+     * The data of a single value key and of its delta key.
+     */
+    private static final class DeltaData {
+        final ChildData data;
+        final ChildData delta;
+
+        DeltaData(ChildData data, ChildData delta) {
+            this.data = data;
+            this.delta = delta;
+        }
+    }
+
     static {
         Map<Class<?>, List<StateKey>> keys = new HashMap<>();
 
@@ -80,7 +93,7 @@ public final class StateCache extends AbstractService {
                                  HostStateOwnership.class));
         registerKey(keys, Topology.Host.class,
                     new StateKey(KeyType.SingleLastWriteWins(), "host",
-                                 HostStateOwnership.class,
+                                 "host_delta", HostStateOwnership.class,
                                  HostStateConverter.class));
         registerKey(keys, Topology.Port.class,
                     new StateKey(KeyType.SingleLastWriteWins(), "active",
@@ -335,6 +348,17 @@ public final class StateCache extends AbstractService {
                     } else {
                         singleData = key.converter().singleValue(childData.getData());
                     }
+                } else if (o instanceof DeltaData) {
+                    // If the object is a DeltaData (single value key with a
+                    // delta key), fetch the state from both entries.
+                    DeltaData deltaData = (DeltaData) o;
+                    if (deltaData.data.getData() == null) {
+                        singleData = EMPTY_SINGLE_STATE;
+                    } else {
+                        singleData = key.converter().singleValue(
+                            deltaData.data.getData(),
+                            deltaData.delta.getData());
+                    }
                 } else if (o instanceof scala.collection.immutable.Set) {
                     // If the object is a Set of strings (multi value key),
                     // fetch the data from the set.
@@ -476,12 +500,21 @@ public final class StateCache extends AbstractService {
         protected Observable<?> keyObservable(UUID owner) {
             if (owner == null) {
                 return NULL_OBSERVABLE;
+            } else if (key.deltaName() == null) {
+                return nodeObservable(owner, key.name());
             } else {
-                return NodeObservable.create(
-                    curator, paths.keyPath(owner, clazz, id, key.name()),
-                    metrics, false, asFunction(this::closeInternal));
+                return Observable.combineLatest(
+                    nodeObservable(owner, key.name()),
+                    nodeObservable(owner, key.deltaName()),
+                    DeltaData::new);
             }
         }
+
+        private Observable<ChildData> nodeObservable(UUID owner, String name) {
+            return NodeObservable.create(
+                curator, paths.keyPath(owner, clazz, id, name),
+                metrics, false, asFunction(this::closeInternal));
+        }
     }
 
     /**
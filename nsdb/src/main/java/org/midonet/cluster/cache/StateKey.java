@@ -25,7 +25,9 @@ import org.midonet.cluster.data.storage.KeyType.KeyTypeVal;
 
 /**
  * Contains the information for a state key, which includes the key type,
- * name and ownership.
+ * name and ownership. A single value key may have a delta key, whose value
+ * is a delta to the value of the key, such that the cached value of the key
+ * is converted from both values.
  */
 public class StateKey {
 
@@ -39,6 +41,7 @@ public class StateKey {
 
     private final KeyTypeVal type;
     private final String name;
+    private final String deltaName;
     private final StateOwnership ownership;
     private final StateConverter converter;
 
@@ -50,6 +53,12 @@ public class StateKey {
     StateKey(KeyTypeVal type, String name,
              Class<? extends StateOwnership> ownershipClass,
              Class<? extends StateConverter> converterClass) {
+        this(type, name, null, ownershipClass, converterClass);
+    }
+
+    StateKey(KeyTypeVal type, String name, String deltaName,
+             Class<? extends StateOwnership> ownershipClass,
+             Class<? extends StateConverter> converterClass) {
         StateOwnership ownership = null;
         try {
             ownership = ownershipClass.newInstance();
@@ -70,6 +79,7 @@ public class StateKey {
 
         this.type = type;
         this.name = name;
+        this.deltaName = deltaName;
         this.ownership = ownership;
         this.converter = converter;
     }
@@ -88,6 +98,14 @@ public class StateKey {
         return name;
     }
 
+    /**
+     * @return The name of the delta key, or null if the key does not have a
+     * delta key.
+     */
+    public String deltaName() {
+        return deltaName;
+    }
+
     /**
      * @return The state {@link StateOwnership} instance.
      */
@@ -16,10 +16,13 @@
 
 package org.midonet.cluster.cache.state;
 
+import scala.Option;
+
 import com.google.common.base.Charsets;
 import com.google.protobuf.TextFormat;
 
 import org.midonet.cluster.models.State;
+import org.midonet.cluster.util.HostStateUtil;
 
 public final class HostStateConverter implements StateConverter {
 
@@ -36,4 +39,20 @@ public final class HostStateConverter implements StateConverter {
         }
     }
 
+    /**
+     * Converts the host state merged with the interfaces delta, which the
+     * agent writes instead of rewriting the full host state.
+     */
+    @Override
+    public byte[] singleValue(byte[] value, byte[] delta) {
+        try {
+            Option<String> deltaValue = Option.apply(
+                delta == null ? null : new String(delta, Charsets.UTF_8));
+            return HostStateUtil.merge(new String(value, Charsets.UTF_8),
+                                       deltaValue).toByteArray();
+        } catch (TextFormat.ParseException e) {
+            return EMPTY;
+        }
+    }
+
 }
@@ -31,6 +31,17 @@ public interface StateConverter {
         return value;
     }
 
+    /**
+     * Converts a single value key that has a delta key.
+     * @param value The local value.
+     * @param delta The local value of the delta key, or null if the delta
+     *              key does not exist.
+     * @return The cloud value.
+     */
+    default byte[] singleValue(byte[] value, byte[] delta) {
+        return singleValue(value);
+    }
+
     /**
      * Converts a multi value key.
      * @param value The local value.
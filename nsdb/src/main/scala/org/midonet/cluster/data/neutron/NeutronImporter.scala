@@ -156,6 +156,11 @@ trait NeutronImporter {
       * grouped into Transactions according to transaction ID. */
     def getTasksSince(taskId: Int): List[importer.Transaction]
 
+    /** Gets the tasks with task ID greater than taskId, similar to
+      * `getTasksSince(taskId)`, but reads at most maxTasks tasks, unless the
+      * first transaction has more tasks. Transactions are never truncated. */
+    def getTasksSince(taskId: Int, maxTasks: Int): List[importer.Transaction]
+
     /** Deletes the specified task. */
     def deleteTask(taskId: Int)
 }
@@ -180,14 +185,20 @@ class SqlNeutronImporter(dataSrc: DataSource) extends NeutronImporter {
     private val dataCol = 6
 
     override def getTasksSince(taskId: Int): List[Transaction] = {
+        getTasksSince(taskId, maxTasks = 0)
+    }
+
+    override def getTasksSince(taskId: Int,
+                               maxTasks: Int): List[Transaction] = {
         val con = dataSrc.getConnection
-        try getTasksSince(taskId, con) finally con.close()
+        try getTasksSince(taskId, maxTasks, con) finally con.close()
     }
 
-    private def getTasksSince(taskId: Int,
+    private def getTasksSince(taskId: Int, maxTasks: Int,
                               con: Connection): List[Transaction] = {
         log.debug("Querying Neutron DB for tasks with ID > {}", taskId)
-        val rslt = queryTasksSince(taskId, con)
+        val rslt = queryTasksSince(taskId, maxTasks, con)
+        var rows = 0
         val txns = ListBuffer[Transaction]()
         var lastTxnId: String = null
         val txnTasks = ListBuffer[importer.Task]()
@@ -215,19 +226,33 @@ class SqlNeutronImporter(dataSrc: DataSource) extends NeutronImporter {
             }
 
             txnTasks += row.toTask
+            rows += 1
         }
 
         // Close off the last transaction.
         if (lastTxnId != null)
             txns += buildTxn()
 
+        // If the query returned the maximum number of tasks, the last
+        // transaction may be incomplete: discard it, or read all tasks if this
+        // is the only transaction.
+        if (maxTasks > 0 && rows >= maxTasks) {
+            if (txns.size > 1) {
+                txns.remove(txns.size - 1)
+            } else {
+                return getTasksSince(taskId, 0, con)
+            }
+        }
+
         log.debug("Received {} transactions from Neutron DB.", txns.size)
         txns.toList
     }
 
-    private def queryTasksSince(lastTaskId: Int, con: Connection): ResultSet = {
+    private def queryTasksSince(lastTaskId: Int, maxTasks: Int,
+                                con: Connection): ResultSet = {
         val stmt = con.prepareStatement(NEW_TASKS_QUERY)
         stmt.setInt(1, lastTaskId)
+        stmt.setMaxRows(maxTasks)
         val rslt = stmt.executeQuery()
         rslt
     }
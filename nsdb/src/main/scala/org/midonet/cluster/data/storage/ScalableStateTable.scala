@@ -126,6 +126,14 @@ trait ScalableStateTable[K, V] extends StateTable[K, V] with StateTableEncoder[K
         startInternal(1)
     }
 
+    /**
+      * @see [[StateTable.startWriteOnly()]]
+      */
+    @inline
+    override def startWriteOnly(): Unit = sync.synchronized {
+        startInternal(1, synchronize = false)
+    }
+
     /**
       * @see [[StateTable.stop()]]
       */
@@ -268,11 +276,12 @@ trait ScalableStateTable[K, V] extends StateTable[K, V] with StateTableEncoder[K
       * Starts the synchronization of this state table with the backend storage
       * and state proxy servers.
       */
-    private def startInternal(inc: Int): ScalableStateTableManager[K, V] = {
+    private def startInternal(inc: Int, synchronize: Boolean = true)
+    : ScalableStateTableManager[K, V] = {
         subscriptions += inc
         if (manager eq null) {
-            log debug "Starting state table"
-            manager = new ScalableStateTableManager[K, V](this)
+            log debug s"Starting state table (synchronize: $synchronize)"
+            manager = new ScalableStateTableManager[K, V](this, synchronize)
             manager.start()
         }
         manager
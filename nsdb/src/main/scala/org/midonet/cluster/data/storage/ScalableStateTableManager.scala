@@ -17,7 +17,7 @@
 package org.midonet.cluster.data.storage
 
 import java.util
-import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue}
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, ThreadLocalRandom, TimeUnit}
 import java.util.concurrent.atomic.AtomicBoolean
 
 import scala.util.control.NonFatal
@@ -32,8 +32,9 @@ import rx.observers.SafeSubscriber
 
 import org.midonet.cluster.backend.DirectoryCallback
 import org.midonet.cluster.data.storage.ScalableStateTable.{PersistentVersion, TableEntry}
-import org.midonet.cluster.data.storage.ScalableStateTableManager.{EmptySubscriber, KeyValue, ProtectedSubscriber}
+import org.midonet.cluster.data.storage.ScalableStateTableManager.{EmptySubscriber, KeyValue, LogCheckInterval, ProtectedSubscriber}
 import org.midonet.cluster.data.storage.StateTable.{Key, Update}
+import org.midonet.cluster.data.storage.StateTableLog.{AddOp, CompactionInterval, LogPath, RemoveOp, Retention}
 import org.midonet.cluster.rpc.State.ProxyResponse.Notify
 import org.midonet.cluster.services.state.client.StateSubscriptionKey
 import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => ProxyConnectionState}
@@ -90,13 +91,24 @@ object ScalableStateTableManager {
         override def onError(e: Throwable): Unit = { }
     }
 
+    /**
+      * The minimum interval between two checks for the change log of the
+      * table, while the log does not exist.
+      */
+    private final val LogCheckInterval = TimeUnit.SECONDS.toNanos(10)
+
 }
 
 /**
   * Represents the state for this state table, encapsulating the storage
   * callback, watcher and connection subscriber, and the proxy subscriber.
+  * When `synchronize` is false, the manager only writes the entries added
+  * by this table, without subscribing to the state proxy or watching the
+  * storage, such that its cache only contains the entries owned by this
+  * table.
   */
-private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
+private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V],
+                                              synchronize: Boolean = true)
     extends SubscriptionList[Update[K, V]] {
 
     /**
@@ -142,6 +154,70 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         }
     }
 
+    /**
+      * Completes the check for the change log of the table.
+      */
+    private class LogExistsCallback extends DirectoryCallback[java.lang.Boolean] {
+
+        override def onSuccess(exists: java.lang.Boolean, stat: Stat,
+                               context: Object): Unit = {
+            logExists = exists
+        }
+
+        override def onError(e: KeeperException, context: Object): Unit = {
+            log debug s"Checking the change log failed ${e.code()}"
+        }
+    }
+
+    /**
+      * Completes the addition of a record to the change log.
+      */
+    private class LogAddCallback extends DirectoryCallback[String] {
+
+        override def onSuccess(path: String, stat: Stat, context: Object): Unit = {
+            if (ThreadLocalRandom.current().nextInt(CompactionInterval) == 0) {
+                compactLog()
+            }
+        }
+
+        override def onError(e: KeeperException, context: Object): Unit = {
+            if (e.code() == Code.NONODE) {
+                log debug "The change log was deleted"
+                logExists = false
+            } else {
+                log debug s"Adding change log record ${e.getPath} failed " +
+                          s"${e.code()}"
+            }
+        }
+    }
+
+    /**
+      * Completes the listing of the change log records for a compaction.
+      */
+    private class LogCompactCallback
+        extends DirectoryCallback[util.Collection[String]] {
+
+        override def onSuccess(names: util.Collection[String], stat: Stat,
+                               context: Object): Unit = {
+            processLogCompaction(names)
+        }
+
+        override def onError(e: KeeperException, context: Object): Unit = {
+            log debug s"Compacting the change log failed ${e.code()}"
+        }
+    }
+
+    /**
+      * Completes the deletion of a change log record: the record may have been
+      * deleted by the concurrent compaction of another writer.
+      */
+    private class LogDeleteCallback extends DirectoryCallback[Void] {
+
+        override def onSuccess(arg: Void, stat: Stat, context: Object): Unit = { }
+
+        override def onError(e: KeeperException, context: Object): Unit = { }
+    }
+
     /**
       * Handles [[KeeperWatcher]] notifications when the storage directory for
       * this state table has changed.
@@ -284,6 +360,10 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     private val getCallback = new GetCallback
     private val deleteCallback = new DeleteCallback
     private val watcher = new Watcher
+    private val logExistsCallback = new LogExistsCallback
+    private val logAddCallback = new LogAddCallback
+    private val logCompactCallback = new LogCompactCallback
+    private val logDeleteCallback = new LogDeleteCallback
 
     private val storageConnectionSubscriber = new StorageConnectionSubscriber
     private val proxyConnectionSubscriber = new ProxyConnectionSubscriber
@@ -310,6 +390,11 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     @volatile private var snapshotReady = false
     @volatile private var snapshotInProgress = false
 
+    // Indicates whether the table has a change log, and the last time when
+    // the manager checked for it.
+    @volatile private var logExists = false
+    @volatile private var logCheckTime = 0L
+
     private def log = table.log
 
     /**
@@ -321,9 +406,17 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         if (get().terminated) {
             throw new IllegalStateException("State closed")
         }
-        table.proxy.connection.subscribe(proxyConnectionSubscriber)
+        if (synchronize) {
+            table.proxy.connection.subscribe(proxyConnectionSubscriber)
+        }
         table.connection.subscribe(storageConnectionSubscriber)
-        refresh()
+        checkLog()
+        if (synchronize) {
+            refresh()
+        } else {
+            // A write-only table has no snapshot to load.
+            this.synchronized { readySubscriptionList.ready() }
+        }
     }
 
     /**
@@ -367,6 +460,11 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     def add(key: K, value: V): Unit = {
         log trace s"Add $key -> $value"
 
+        if (!logExists &&
+            System.nanoTime() - logCheckTime > LogCheckInterval) {
+            checkLog()
+        }
+
         val path = table.encodeEntryPrefix(key, value)
         val keyValue = KeyValue(key, value)
         if (storageConnectedFlag.get()) {
@@ -875,11 +973,11 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
 
     /**
       * Refreshes the state table cache using data from storage. The method
-      * does nothing if the storage is not connected or the table is
-      * being synchronized using the state proxy client.
+      * does nothing if the table is write-only, the storage is not connected
+      * or the table is being synchronized using the state proxy client.
       */
     private def refresh(): Unit = {
-        if (!storageConnectedFlag.get() || get().terminated) {
+        if (!synchronize || !storageConnectedFlag.get() || get().terminated) {
             return
         }
         if (proxyConnectedFlag.get() && !proxySubscriber.isUnsubscribed) {
@@ -1066,6 +1164,8 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       * entries that have been added through this table.
       */
     private def processAddCallback(path: String, context: Object): Unit = {
+        appendLog(AddOp, path)
+
         // Ignore, if the manager is terminated.
         if (get().terminated) {
             return
@@ -1133,12 +1233,15 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       * Processes delete completions.
       */
     private def processDeleteCallback(context: Object): Unit = {
+        val entry = context.asInstanceOf[TableEntry[K, V]]
+        appendLog(RemoveOp, table.encodeEntryWithVersion(entry))
+
         // Ignore, if the manager is terminated.
         if (get().terminated) {
             return
         }
 
-        removeComplete(context.asInstanceOf[TableEntry[K, V]])
+        removeComplete(entry)
     }
 
     /**
@@ -1168,6 +1271,57 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         }
     }
 
+    /**
+      * Checks whether the table has a change log. Readers such as the state
+      * proxy create the log when they consume it.
+      */
+    private def checkLog(): Unit = {
+        logCheckTime = System.nanoTime()
+        table.directory.asyncExists(LogPath, logExistsCallback, null)
+    }
+
+    /**
+      * Appends to the change log, if it exists, a record for an entry added to
+      * or deleted from the table directory. The record is appended even if
+      * the manager is terminated, since the table directory has changed.
+      */
+    private def appendLog(op: Char, path: String): Unit = {
+        if (logExists && storageConnectedFlag.get()) {
+            table.directory.asyncAdd(StateTableLog.recordPath(op, path), null,
+                                     CreateMode.PERSISTENT_SEQUENTIAL,
+                                     logAddCallback, null)
+        }
+    }
+
+    /**
+      * Begins the compaction of the change log. Every record triggers a
+      * compaction with a probability of 1 / [[CompactionInterval]], such that
+      * the log is compacted on average every [[CompactionInterval]] records,
+      * regardless of the number of writers.
+      */
+    private def compactLog(): Unit = {
+        table.directory.asyncGetChildren(LogPath, logCompactCallback,
+                                         null, null)
+    }
+
+    /**
+      * Deletes all but the most recent [[Retention]] records of the change
+      * log. The records are deleted in order, such that a reader that finds
+      * the last record it consumed knows that no following record was
+      * deleted.
+      */
+    private def processLogCompaction(names: util.Collection[String]): Unit = {
+        val records = StateTableLog.decodeRecords(names)
+        val count = records.size() - Retention
+        log trace s"Compacting ${Math.max(count, 0)} change log records"
+        var index = 0
+        while (index < count) {
+            table.directory.asyncDelete(s"$LogPath/${records.get(index).name}",
+                                        -1, logDeleteCallback, null)
+            index += 1
+        }
+    }
+
     /**
       * Processes a watcher event for the current state table.
       */
@@ -104,6 +104,16 @@ trait StateTable[K, V] {
       */
     def start(): Unit
 
+    /**
+      * Starts the state table without synchronizing the entries of other
+      * writers: the table writes the learned entries and its local methods
+      * only return the entries added by this table, while the other entries
+      * must be read with the remote methods. A table that does not support
+      * this mode starts with synchronization. The mode is set by the first
+      * start of the table, and it is stopped with `stop()`.
+      */
+    def startWriteOnly(): Unit = start()
+
     /**
       * Stops the synchronization of the state table.
       */
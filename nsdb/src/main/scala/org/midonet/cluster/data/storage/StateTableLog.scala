@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util
+
+/**
+  * The change log of a state table. The log is a persistent node under the
+  * table directory, whose children are persistent sequential records: one
+  * record for every entry that a writer adds to or deletes from the table
+  * directory. The record name is the operation, followed by the name of the
+  * table entry and the sequence number appended by storage, for example:
+  * `+01:02:03:04:05:06,3c5b0c1e-...,0000000042,0000000007`.
+  *
+  * Readers such as the state proxy consume only the records following the
+  * last record they have seen, instead of listing the whole table directory
+  * for every change. The log is not authoritative: the entries that expire
+  * with the session of their writer, and the entries of writers that do not
+  * support the log, have no records. The readers detect these changes by
+  * comparing the number of consumed records with the child version of the
+  * table directory, and fall back to listing the table directory.
+  *
+  * The legacy readers ignore the log node, because its name does not decode
+  * as a table entry.
+  */
+object StateTableLog {
+
+    final val LogNode = "log"
+    final val LogPath = "/" + LogNode
+
+    final val AddOp = '+'
+    final val RemoveOp = '-'
+
+    /** The average number of records appended between two compactions. */
+    final val CompactionInterval = 500
+    /** The number of most recent records kept by a compaction. */
+    final val Retention = 1000
+
+    /**
+      * A log record.
+      *
+      * @param op The operation, either [[AddOp]] or [[RemoveOp]].
+      * @param entry The name of the table entry, without a leading slash.
+      * @param sequence The sequence number of the record.
+      */
+    case class Record(op: Char, entry: String, sequence: Long) {
+        /** The name of the record node. */
+        def name: String = f"$op$entry,$sequence%010d"
+    }
+
+    private val SequenceOrdering = new util.Comparator[Record] {
+        override def compare(x: Record, y: Record): Int =
+            java.lang.Long.compare(x.sequence, y.sequence)
+    }
+
+    /**
+      * @return The path of a new record for the given operation and table
+      *         entry, relative to the table directory. The record must be
+      *         created in sequential mode.
+      */
+    def recordPath(op: Char, entry: String): String = {
+        val name = if (entry.startsWith("/")) entry.substring(1) else entry
+        s"$LogPath/$op$name,"
+    }
+
+    /**
+      * Decodes the name of a log record, and returns null if the name is not
+      * a valid record.
+      */
+    def decodeRecord(name: String): Record = {
+        if (name.length < 2) {
+            return null
+        }
+        val op = name.charAt(0)
+        if (op != AddOp && op != RemoveOp) {
+            return null
+        }
+        val index = name.lastIndexOf(',')
+        if (index <= 1 || index == name.length - 1) {
+            return null
+        }
+        try {
+            Record(op, name.substring(1, index),
+                   java.lang.Long.parseLong(name.substring(index + 1)))
+        } catch {
+            case _: NumberFormatException => null
+        }
+    }
+
+    /**
+      * Decodes the names of the log records, ignoring the invalid names, and
+      * returns the records sorted by sequence number.
+      */
+    def decodeRecords(names: util.Collection[String]): util.ArrayList[Record] = {
+        val records = new util.ArrayList[Record](names.size())
+        val iterator = names.iterator()
+        while (iterator.hasNext) {
+            val record = decodeRecord(iterator.next())
+            if (record ne null) {
+                records.add(record)
+            }
+        }
+        records.sort(SequenceOrdering)
+        records
+    }
+
+}
@@ -202,7 +202,17 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     @throws[ConcurrentModificationException]
     override def getAll[T](clazz: Class[T]): Seq[T] = {
         val ids = getIds(clazz).filterNot { id => isDeleted(getKey(clazz, id)) }
-        getAll(clazz, ids)
+        // Include the objects created by this transaction, which are not yet
+        // in storage.
+        val created = ops.collect {
+            case (Key(c, id), TxCreate(_, _)) if c == clazz => id
+        }.toSeq
+        if (created.isEmpty) {
+            getAll(clazz, ids)
+        } else {
+            val existing = ids.map(getIdString).toSet
+            getAll(clazz, ids ++ created.filterNot(existing.contains))
+        }
     }
 
     /** Gets the specified objects within the context of the current transaction.
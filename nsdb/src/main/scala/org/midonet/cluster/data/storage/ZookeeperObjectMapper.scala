@@ -118,6 +118,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     import ZookeeperObjectMapper._
 
     private final val version = new AtomicLong(0)
+    private final val binaryObjects = config.binaryObjects
     protected[cluster] override val rootPath = config.rootKey
     protected[cluster] override val zoomPath = s"$rootPath/zoom/${version.get}"
 
@@ -309,7 +310,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 case TxCreate(obj, change) =>
                     var path = objectPath(key.clazz, key.id)
                     Log.debug(s"Create: $path")
-                    txn.create.forPath(path, serialize(obj))
+                    txn.create.forPath(path, serialize(obj, binaryObjects))
 
                     path = altObjectPath(key.clazz, key.id)
                     Log.debug(s"Create: $path")
@@ -318,7 +319,8 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 case TxUpdate(obj, ver, change) =>
                     var path = objectPath(key.clazz, key.id)
                     Log.debug(s"Update ($ver): $path")
-                    txn.setData().withVersion(ver).forPath(path, serialize(obj))
+                    txn.setData().withVersion(ver)
+                       .forPath(path, serialize(obj, binaryObjects))
 
                     path = altObjectPath(key.clazz, key.id)
                     raw.get(key) match {
@@ -26,7 +26,7 @@ import scala.util.control.NonFatal
 
 import com.fasterxml.jackson.core.JsonFactory
 import com.fasterxml.jackson.databind.ObjectMapper
-import com.google.protobuf.{Message, TextFormat}
+import com.google.protobuf.{CodedOutputStream, Message, TextFormat}
 
 import org.apache.curator.framework.recipes.cache.ChildData
 
@@ -38,6 +38,28 @@ import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
 import org.midonet.cluster.models.Zoom.{ZoomObject, ZoomProvenance}
 import org.midonet.util.functors.makeFunc1
 
+/**
+  * Encodings of the Protocol Buffers objects stored by ZOOM. Objects are
+  * stored either in text format, or in binary format prefixed by a two-byte
+  * header: a zero magic byte, which cannot start a text-format message, and
+  * the binary format version. Readers accept both encodings, such that a
+  * deployment can switch formats while objects are gradually rewritten.
+  */
+object ZoomEncoding {
+
+    final val Magic: Byte = 0
+    final val BinaryV1: Byte = 1
+    final val HeaderSize = 2
+
+    /**
+      * Returns whether the data uses the binary encoding.
+      */
+    def isBinary(data: Array[Byte]): Boolean = {
+        data.length >= HeaderSize && data(0) == Magic && data(1) == BinaryV1
+    }
+
+}
+
 private[storage] object ZoomSerializer {
 
     private val JsonFactory = new JsonFactory(new ObjectMapper())
@@ -47,12 +69,25 @@ private[storage] object ZoomSerializer {
     private val Deserializers =
         new TrieMap[Class[_], Func1[ChildData, Notification[_]]]
 
+    private val DefaultInstances = new TrieMap[Class[_], Message]
+
     /**
-      * Serializes an object to a byte array for writing to storage.
+      * Serializes an object to a byte array for writing to storage, using
+      * the text format for Protocol Buffers messages.
       */
     @throws[InternalObjectMapperException]
     def serialize(obj: Obj): Array[Byte] = {
+        serialize(obj, binary = false)
+    }
+
+    /**
+      * Serializes an object to a byte array for writing to storage. If
+      * `binary` is true, Protocol Buffers messages use the binary encoding.
+      */
+    @throws[InternalObjectMapperException]
+    def serialize(obj: Obj, binary: Boolean): Array[Byte] = {
         obj match {
+            case message: Message if binary => serializeBinaryMessage(message)
             case message: Message => serializeMessage(message)
             case _ => serializeJava(obj)
         }
@@ -183,12 +218,28 @@ private[storage] object ZoomSerializer {
         builder.toString.getBytes(Utf8)
     }
 
+    private def serializeBinaryMessage(message: Message): Array[Byte] = {
+        val size = message.getSerializedSize
+        val data = new Array[Byte](ZoomEncoding.HeaderSize + size)
+        data(0) = ZoomEncoding.Magic
+        data(1) = ZoomEncoding.BinaryV1
+        val output = CodedOutputStream.newInstance(
+            data, ZoomEncoding.HeaderSize, size)
+        message.writeTo(output)
+        output.checkNoSpaceLeft()
+        data
+    }
+
     @throws[InternalObjectMapperException]
     private def deserializeMessage[T](data: Array[Byte], clazz: Class[T]): T = {
         try {
-            val builder = clazz.getMethod("newBuilder").invoke(null)
-                .asInstanceOf[Message.Builder]
-            ProtoParser.merge(new String(data, Utf8), builder)
+            val builder = defaultInstanceOf(clazz).newBuilderForType()
+            if (ZoomEncoding.isBinary(data)) {
+                builder.mergeFrom(data, ZoomEncoding.HeaderSize,
+                                  data.length - ZoomEncoding.HeaderSize)
+            } else {
+                ProtoParser.merge(new String(data, Utf8), builder)
+            }
             builder.build().asInstanceOf[T]
         } catch {
             case NonFatal(e) =>
@@ -198,6 +249,18 @@ private[storage] object ZoomSerializer {
         }
     }
 
+    /**
+      * Returns the cached default instance for a message class, which is used
+      * as a factory for new builders instead of looking up the `newBuilder`
+      * method by reflection on every read.
+      */
+    private def defaultInstanceOf(clazz: Class[_]): Message = {
+        DefaultInstances.getOrElseUpdate(clazz, {
+            clazz.getMethod("getDefaultInstance").invoke(null)
+                .asInstanceOf[Message]
+        })
+    }
+
     private def createProtoParser: TextFormat.Parser = {
         val builder = TextFormat.Parser.newBuilder()
         val builderClass = builder.getClass
@@ -36,9 +36,15 @@ import org.midonet.util.logging.Logger
   * For performance, the objects are only finally deserialized into their
   * message type once a client asks for the object. This saves the cost of
   * deserializing the whole map on startup before starting to use it.
+  *
+  * When the snapshot is not `complete`, such as a snapshot that only includes
+  * the objects relevant to this host, the objects that are missing from the
+  * cache are read from the backend storage instead of being reported as
+  * not found.
   */
 class CachedStorage(private val store: Storage,
-                    private val snapshot: ObjSnapshot)
+                    private val snapshot: ObjSnapshot,
+                    private val complete: Boolean = true)
     extends Storage {
 
     private val log = Logger("org.midonet.cluster.cached-storage")
@@ -139,6 +145,10 @@ class CachedStorage(private val store: Storage,
                 log.debug("Cache hit, returning cached value for " +
                           s"[$clazz, ${oneLiner(id)}] -> ${oneLiner(cached)}")
                 Future.successful(cached)
+            case None if !complete =>
+                log.debug("Cache miss, getting value from storage " +
+                          s"[$clazz, ${oneLiner(id)}]")
+                store.get(clazz, id)
             case None =>
                 log.debug("Cache miss, failing for value " +
                           s"[$clazz, ${oneLiner(id)}]")
@@ -156,7 +166,11 @@ class CachedStorage(private val store: Storage,
                            ids: Seq[_ <: ObjId]): Future[Seq[T]] = {
         val allCached = getAllDeserialized(clazz, filter = ids contains _)
             .getOrElse(Seq.empty)
-        Future.successful(allCached)
+        if (!complete && allCached.size < ids.size) {
+            store.getAll(clazz, ids)
+        } else {
+            Future.successful(allCached)
+        }
     }
 
     /**
@@ -167,8 +181,12 @@ class CachedStorage(private val store: Storage,
       * latest version.
       */
     override def getAll[T](clazz: Class[T]): Future[Seq[T]] = {
-        val allCached = getAllDeserialized(clazz).getOrElse(Seq.empty)
-        Future.successful(allCached)
+        if (complete) {
+            val allCached = getAllDeserialized(clazz).getOrElse(Seq.empty)
+            Future.successful(allCached)
+        } else {
+            store.getAll(clazz)
+        }
     }
 
     /**
@@ -177,7 +195,11 @@ class CachedStorage(private val store: Storage,
       */
     override def exists(clazz: Class[_], id: ObjId): Future[Boolean] = {
         val existsCached = Option(snapshot get clazz).exists(_ containsKey id)
-        Future.successful(existsCached)
+        if (!complete && !existsCached) {
+            store.exists(clazz, id)
+        } else {
+            Future.successful(existsCached)
+        }
     }
 
     private def getDeserialized[T](clazz: Class[T], id: ObjId): Option[T] = {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage.cached
+
+import java.io._
+import java.nio.file.{Files, Paths, StandardCopyOption}
+
+import org.midonet.cluster.data.storage.cached.TopologyCacheClient.SnapshotVersion
+
+object LocalTopologySnapshot {
+    final val Magic = 0x4d4e5453
+    final val FormatVersion = 1
+}
+
+/**
+  * Stores the last topology snapshot received from the topology cache service
+  * in a local file, together with its version. After a restart, the agent
+  * loads the stored snapshot and requests from the topology cache only the
+  * delta from the stored version.
+  */
+class LocalTopologySnapshot(path: String) {
+
+    import LocalTopologySnapshot._
+
+    private val file = Paths.get(path)
+    private val tmpFile = Paths.get(s"$path.tmp")
+
+    /**
+      * Loads the stored snapshot. Returns [[None]] if there is no stored
+      * snapshot.
+      */
+    @throws[IOException]
+    def load(): Option[(SnapshotVersion, Array[Byte])] = {
+        if (!Files.exists(file)) {
+            return None
+        }
+        val in = new DataInputStream(new BufferedInputStream(
+            Files.newInputStream(file)))
+        try {
+            if (in.readInt() != Magic || in.readInt() != FormatVersion) {
+                throw new IOException(s"Invalid topology snapshot file $path")
+            }
+            val version = SnapshotVersion(in.readUTF(), in.readLong())
+            val data = new Array[Byte](in.readInt())
+            in.readFully(data)
+            Some((version, data))
+        } finally {
+            in.close()
+        }
+    }
+
+    /**
+      * Stores the snapshot with the given version, replacing the previous
+      * one. The snapshot is written to a temporary file first, such that a
+      * failure never leaves a partial snapshot.
+      */
+    @throws[IOException]
+    def store(version: SnapshotVersion, data: Array[Byte],
+              length: Int): Unit = {
+        if (file.getParent ne null) {
+            Files.createDirectories(file.getParent)
+        }
+        val out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(tmpFile)))
+        try {
+            out.writeInt(Magic)
+            out.writeInt(FormatVersion)
+            out.writeUTF(version.epoch)
+            out.writeLong(version.version)
+            out.writeInt(length)
+            out.write(data, 0, length)
+        } finally {
+            out.close()
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE)
+    }
+
+}
@@ -30,17 +30,20 @@ import org.midonet.util.logging.Logger
 /**
   * This class provides a wrapper over a regular storage object. This wrapper
   * can use the cached version or the regular version of the storage, depending
-  * on if the cached version has been invalidated or not.
+  * on if the cached version has been invalidated or not. A snapshot that is
+  * not `complete` only serves the objects it contains, while the missing
+  * objects are read from the regular storage.
   *
   */
 class StorageWrapper(private val cacheTtlMs: Long,
                      private val store: Storage,
-                     private val snapshot: ObjSnapshot)
+                     private val snapshot: ObjSnapshot,
+                     private val complete: Boolean = true)
     extends Storage {
 
     private val log = Logger(LoggerFactory.getLogger("org.midonet.cluster.storage-wrapper"))
 
-    private val cachedStore = new CachedStorage(store, snapshot)
+    private val cachedStore = new CachedStorage(store, snapshot, complete)
 
     @volatile
     protected var cacheValid: Boolean = true
@@ -17,15 +17,19 @@
 package org.midonet.cluster.data.storage.cached
 
 import java.net.URI
+import java.util.UUID
 
 import javax.net.ssl.SSLContext
 
+import scala.util.Try
+
 import com.google.common.net.HostAndPort
 
 import org.apache.commons.io.IOUtils
 import org.apache.http.HttpException
 import org.apache.http.client.config.RequestConfig
 import org.apache.http.client.methods.{CloseableHttpResponse, HttpGet}
+import org.apache.http.client.utils.URIBuilder
 import org.apache.http.impl.client.HttpClients
 import org.slf4j.LoggerFactory
 
@@ -36,14 +40,57 @@ import io.netty.handler.codec.http.HttpResponseStatus
 
 object TopologyCacheClient {
     val SocketTimeoutMillis: Int = 500
+
+    final val EpochParameter = "epoch"
+    final val SinceParameter = "since"
+    final val HostParameter = "host"
+
+    final val EpochHeader = "X-Topology-Epoch"
+    final val VersionHeader = "X-Topology-Version"
+    final val BaseVersionHeader = "X-Topology-Base-Version"
+
+    /**
+      * Identifies a topology snapshot version of a topology cache service.
+      * Versions are only comparable for the same epoch.
+      */
+    case class SnapshotVersion(epoch: String, version: Long)
+
+    /**
+      * A topology snapshot received from the topology cache service. If the
+      * base version is greater than zero, the data is a delta from that
+      * version that must be applied to the snapshot of the base version.
+      */
+    case class SnapshotResponse(data: Array[Byte],
+                                version: Option[SnapshotVersion],
+                                baseVersion: Long) {
+        def isDelta: Boolean = baseVersion > 0
+    }
 }
 
 trait TopologyCacheClient {
     def fetch(): Array[Byte]
+
+    /**
+      * Fetches the topology snapshot, requesting only the delta from the
+      * given version if available.
+      */
+    def fetch(since: Option[TopologyCacheClient.SnapshotVersion])
+    : TopologyCacheClient.SnapshotResponse
+
+    /**
+      * Fetches the topology snapshot for the given host, which only includes
+      * the objects relevant to that host if the topology cache service serves
+      * host snapshots. A host snapshot is never a delta and it has no
+      * version, such that it cannot be the base version of a later delta.
+      */
+    def fetch(since: Option[TopologyCacheClient.SnapshotVersion],
+              host: Option[UUID]): TopologyCacheClient.SnapshotResponse
 }
 
 abstract class TopologyCacheClientBase extends TopologyCacheClient {
 
+    import TopologyCacheClient._
+
     private val log = Logger(LoggerFactory.getLogger(this.getClass))
 
     private val client = {
@@ -60,17 +107,59 @@ abstract class TopologyCacheClientBase extends TopologyCacheClient {
     protected def ssl: Option[SSLContext]
     protected def url: URI
 
-    override def fetch(): Array[Byte] = {
+    override def fetch(): Array[Byte] = fetch(None).data
+
+    override def fetch(since: Option[SnapshotVersion]): SnapshotResponse =
+        fetch(since, None)
+
+    override def fetch(since: Option[SnapshotVersion],
+                       host: Option[UUID]): SnapshotResponse = {
         val srvUrl = url
         if (srvUrl == null) {
             throw new HttpException("Topology cache service unavailable")
         } else {
-            log.debug(s"Requesting topology snapshot from $srvUrl")
-            val response = client.execute(new HttpGet(srvUrl))
-            checkResponse(response)
+            val reqUrl = if (since.isEmpty && host.isEmpty) srvUrl else {
+                val builder = new URIBuilder(srvUrl)
+                for (SnapshotVersion(epoch, version) <- since) {
+                    builder.addParameter(EpochParameter, epoch)
+                           .addParameter(SinceParameter, version.toString)
+                }
+                for (hostId <- host) {
+                    builder.addParameter(HostParameter, hostId.toString)
+                }
+                builder.build()
+            }
+            log.debug(s"Requesting topology snapshot from $reqUrl")
+            val response = client.execute(new HttpGet(reqUrl))
+            try {
+                val data = checkResponse(response)
+                SnapshotResponse(data, versionOf(response),
+                                 longHeader(response, BaseVersionHeader)
+                                     .getOrElse(0L))
+            } finally {
+                response.close()
+            }
         }
     }
 
+    private def versionOf(resp: CloseableHttpResponse)
+    : Option[SnapshotVersion] = {
+        for (epoch <- header(resp, EpochHeader);
+             version <- longHeader(resp, VersionHeader)) yield {
+            SnapshotVersion(epoch, version)
+        }
+    }
+
+    private def header(resp: CloseableHttpResponse,
+                       name: String): Option[String] = {
+        Option(resp.getFirstHeader(name)).map(_.getValue)
+    }
+
+    private def longHeader(resp: CloseableHttpResponse,
+                           name: String): Option[Long] = {
+        header(resp, name).flatMap(value => Try(value.toLong).toOption)
+    }
+
     private def checkResponse(resp: CloseableHttpResponse): Array[Byte] = {
         val code = resp.getStatusLine.getStatusCode
         if (code != HttpResponseStatus.OK.code()) {
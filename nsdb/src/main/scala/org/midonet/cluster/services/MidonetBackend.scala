@@ -50,6 +50,7 @@ object MidonetBackend {
     final val ContainerKey = "container"
     final val FloodingProxyKey = "flooding_proxy"
     final val HostKey = "host"
+    final val HostDeltaKey = "host_delta"
     final val RoutesKey = "routes"
     final val StatusKey = "status"
     final val VtepConfig = "config"
@@ -272,6 +273,7 @@ object MidonetBackend {
         stateStore.registerKey(classOf[Host], AliveKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Host], ContainerKey, FailFast)
         stateStore.registerKey(classOf[Host], HostKey, SingleLastWriteWins)
+        stateStore.registerKey(classOf[Host], HostDeltaKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[PoolMember], StatusKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], ActiveKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], BgpKey, SingleLastWriteWins)
@@ -18,7 +18,7 @@ package org.midonet.cluster.storage
 
 import java.util.concurrent.TimeUnit
 
-import com.typesafe.config.Config
+import com.typesafe.config.{Config, ConfigException}
 
 import org.midonet.cluster.services.state.client.StateProxyClientConfig
 import org.midonet.conf.MidoNodeConfigurator
@@ -67,6 +67,15 @@ class MidonetBackendConfig(val conf: Config,
     def stateClient = new StateProxyClientConfig(conf)
     def lockTimeoutMs = conf.getDuration("zookeeper.lock_timeout", TimeUnit.MILLISECONDS)
     def transactionAttempts = conf.getInt("zookeeper.transaction_attempts")
+    def binaryObjects = {
+        val key = "zookeeper.object_format"
+        if (!conf.hasPath(key)) false else conf.getString(key) match {
+            case "text" => false
+            case "binary" => true
+            case format => throw new ConfigException.BadValue(
+                key, s"Unknown object format $format: must be text or binary")
+        }
+    }
 }
 
 class CassandraConfig(val conf: Config) {
@@ -70,6 +70,43 @@ package object snapshot {
     private val Log = Logger(LoggerFactory.getLogger(
         "org.midonet.nsdb.snapshot-serializer"))
 
+    /**
+      * The object data used in a snapshot delta to mark that an object has
+      * been deleted since the base version of the delta. No valid object
+      * serializes to an empty array, since all objects have an identifier.
+      */
+    final val DeletedObject = Array.emptyByteArray
+
+    /**
+      * Applies a snapshot delta to a deserialized topology snapshot. A delta
+      * is a snapshot that contains only the objects created, modified or
+      * deleted since its base version, and the complete state. The objects of
+      * the base snapshot are modified in place.
+      */
+    def applyDelta(base: TopologySnapshot,
+                   delta: TopologySnapshot): TopologySnapshot = {
+        val classes = delta.objectSnapshot.entrySet().iterator()
+        while (classes.hasNext) {
+            val clazz = classes.next()
+            var objects = base.objectSnapshot.get(clazz.getKey)
+            if (objects eq null) {
+                objects = new Objects()
+                base.objectSnapshot.put(clazz.getKey, objects)
+            }
+            val updates = clazz.getValue.entrySet().iterator()
+            while (updates.hasNext) {
+                val update = updates.next()
+                val data = update.getValue.asInstanceOf[Array[Byte]]
+                if (data.length == 0) objects.remove(update.getKey)
+                else objects.put(update.getKey, data)
+            }
+            if (objects.isEmpty) {
+                base.objectSnapshot.remove(clazz.getKey)
+            }
+        }
+        TopologySnapshot(base.objectSnapshot, delta.stateSnapshot)
+    }
+
     class TopologySnapshotSerializer {
         val snapshotMessageEncoder = new TopologySnapshotEncoder
         val snapshotHeaderEncoder = new MessageHeaderEncoder
@@ -93,18 +130,24 @@ package object snapshot {
             }
         }
 
+        // Objects are either updates from the object cache, or the raw data
+        // of a deserialized snapshot, in which case the map key is the object
+        // identifier. An empty data array marks a deleted object.
         private def encodeObject(encoder: ObjectEncoder,
                                  objects: Objects): Unit = {
-            val objs = objects.values.iterator()
+            val objs = objects.entrySet().iterator()
             while (objs.hasNext) {
                 val obj = objs.next()
-                val update = obj.asInstanceOf[ObjectUpdate]
+                val (id, data) = obj.getValue match {
+                    case update: ObjectUpdate =>
+                        (update.id(), update.childData().getData)
+                    case bytes: Array[Byte] =>
+                        (obj.getKey.asInstanceOf[UUID], bytes)
+                }
                 encoder.next()
-                encoder.uuid(0, update.id().getMostSignificantBits)
-                encoder.uuid(1, update.id().getLeastSignificantBits)
-                encoder.putData(
-                    update.childData().getData,
-                    0, update.childData().getData.length)
+                encoder.uuid(0, id.getMostSignificantBits)
+                encoder.uuid(1, id.getLeastSignificantBits)
+                encoder.putData(data, 0, data.length)
             }
         }
 
@@ -161,31 +204,51 @@ package object snapshot {
             }
         }
 
-        // State keys group encoder/decoder
+        // State keys group encoder/decoder. Keys are either updates from the
+        // state cache, or the state keys of a deserialized snapshot.
         private def encodeStateKey(encoder: StateKeyEncoder,
                                    objects: StateKeys): Unit = {
             val entries = objects.entrySet().iterator()
             while (entries.hasNext) {
                 val entry = entries.next()
                 encoder.next()
-                val state = entry.getValue.asInstanceOf[StateUpdate]
-
-                if (state.`type`().isSingle) {
-                    encoder.stateType(TopologyStateType.SINGLE)
-                } else {
-                    encoder.stateType(TopologyStateType.MULTI)
+                entry.getValue match {
+                    case state: StateUpdate =>
+                        if (state.`type`().isSingle) {
+                            encoder.stateType(TopologyStateType.SINGLE)
+                        } else {
+                            encoder.stateType(TopologyStateType.MULTI)
+                        }
+                        encodeStateValue(encoder, state.key(),
+                                         state.multiData(), state.singleData())
+                    case SingleValueKey(key, Some(value), _) =>
+                        encoder.stateType(TopologyStateType.SINGLE)
+                        encodeStateValue(
+                            encoder, key, Array.empty[String],
+                            value.getBytes(StateStorage.StringEncoding))
+                    case SingleValueKey(key, None, _) =>
+                        encoder.stateType(TopologyStateType.NULL_VAL)
+                        encodeStateValue(encoder, key, Array.empty[String],
+                                         Array.emptyByteArray)
+                    case MultiValueKey(key, values) =>
+                        encoder.stateType(TopologyStateType.MULTI)
+                        encodeStateValue(encoder, key, values.toArray,
+                                         Array.emptyByteArray)
                 }
+            }
+        }
 
-                val values = encoder.multiValueCount(state.multiData().length)
-
-                for (value <- state.multiData()) {
-                    values.next().multiValueEntry(value)
-                }
+        private def encodeStateValue(encoder: StateKeyEncoder, key: String,
+                                     multiData: Array[String],
+                                     singleData: Array[Byte]): Unit = {
+            val values = encoder.multiValueCount(multiData.length)
 
-                encoder.key(state.key())
-                encoder.putSingleValue(
-                    state.singleData(), 0, state.singleData().length)
+            for (value <- multiData) {
+                values.next().multiValueEntry(value)
             }
+
+            encoder.key(key)
+            encoder.putSingleValue(singleData, 0, singleData.length)
         }
 
         def serialize(byteArray: Array[Byte],
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.util
+
+import java.nio.charset.StandardCharsets
+import java.util.Base64
+import java.util.zip.CRC32
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import com.google.protobuf.TextFormat
+
+import org.midonet.cluster.models.State.{HostInterfacesDelta, HostState}
+
+/**
+ * Utility functions for the host state, which an agent publishes as a full
+ * [[HostState]] in the text format, followed by [[HostInterfacesDelta]]
+ * messages encoded in binary that are relative to that state.
+ */
+object HostStateUtil {
+
+    /** Returns the CRC32 checksum of a host state text value. */
+    def checksum(state: String): Int = {
+        val crc = new CRC32
+        crc.update(state.getBytes(StandardCharsets.UTF_8))
+        crc.getValue.toInt
+    }
+
+    /** Parses a host state from the text format. */
+    @throws[TextFormat.ParseException]
+    def parse(state: String): HostState = {
+        val builder = HostState.newBuilder()
+        TextFormat.merge(state, builder)
+        builder.build()
+    }
+
+    /** Computes the delta between the `base` host state, whose text value is
+      * `baseValue`, and the `current` host state. */
+    def delta(base: HostState, baseValue: String, current: HostState)
+    : HostInterfacesDelta = {
+        val baseInterfaces = base.getInterfacesList.asScala
+            .map(i => i.getName -> i).toMap
+        val currentInterfaces = current.getInterfacesList.asScala
+        val builder = HostInterfacesDelta.newBuilder()
+            .setBaseChecksum(checksum(baseValue))
+        for (interface <- currentInterfaces
+             if !baseInterfaces.get(interface.getName).contains(interface)) {
+            builder.addUpdated(interface)
+        }
+        val currentNames = currentInterfaces.map(_.getName).toSet
+        for (name <- baseInterfaces.keys if !currentNames.contains(name)) {
+            builder.addRemoved(name)
+        }
+        builder.build()
+    }
+
+    /** Encodes a delta as a string value for the state storage. */
+    def encodeDelta(delta: HostInterfacesDelta): String = {
+        Base64.getEncoder.encodeToString(delta.toByteArray)
+    }
+
+    /** Decodes a delta from a string value of the state storage. */
+    @throws[IllegalArgumentException]
+    @throws[com.google.protobuf.InvalidProtocolBufferException]
+    def decodeDelta(value: String): HostInterfacesDelta = {
+        HostInterfacesDelta.parseFrom(Base64.getDecoder.decode(value))
+    }
+
+    /** Applies a delta to a host state: the interfaces of the delta replace
+      * the interfaces with the same name, or are appended, and the removed
+      * interfaces are deleted. */
+    def applyDelta(state: HostState, delta: HostInterfacesDelta): HostState = {
+        val interfaces = new mutable.LinkedHashMap[String, HostState.Interface]
+        for (interface <- state.getInterfacesList.asScala) {
+            interfaces.put(interface.getName, interface)
+        }
+        for (interface <- delta.getUpdatedList.asScala) {
+            interfaces.put(interface.getName, interface)
+        }
+        for (name <- delta.getRemovedList.asScala) {
+            interfaces.remove(name)
+        }
+        state.toBuilder
+            .clearInterfaces()
+            .addAllInterfaces(interfaces.values.asJava)
+            .build()
+    }
+
+    /** Returns the host state for the text `state` value and the optional
+      * encoded `delta` value. The delta is ignored when it is not relative to
+      * the given state, which happens when the host rewrites the full state
+      * between reading the two values, or when it cannot be decoded. */
+    @throws[TextFormat.ParseException]
+    def merge(state: String, delta: Option[String]): HostState = {
+        val hostState = parse(state)
+        delta match {
+            case Some(value) =>
+                try {
+                    val hostDelta = decodeDelta(value)
+                    if (hostDelta.getBaseChecksum == checksum(state))
+                        applyDelta(hostState, hostDelta)
+                    else hostState
+                } catch {
+                    case NonFatal(_) => hostState
+                }
+            case None => hostState
+        }
+    }
+
+}
@@ -336,15 +336,23 @@ class SbeEncoder {
     def decodedLength(): Int = flowStateHeaderDecoder.encodedLength() +
                                flowStateMessageDecoder.encodedLength()
 
-    def decodeFrom(bytes: Array[Byte]): FlowStateDecoder = {
+    def decodeFrom(bytes: Array[Byte]): FlowStateDecoder =
+        decodeFrom(bytes, 0)
+
+    /**
+     * Decodes the flow state message starting at the given offset, such as
+     * any message of a batch of consecutive messages.
+     */
+    def decodeFrom(bytes: Array[Byte], offset: Int): FlowStateDecoder = {
         flowStateBuffer.wrap(bytes)
-        flowStateHeaderDecoder.wrap(flowStateBuffer, 0)
+        flowStateHeaderDecoder.wrap(flowStateBuffer, offset)
         val templateId = flowStateHeaderDecoder.templateId
         if (templateId != FlowStateDecoder.TEMPLATE_ID) {
             throw new IllegalArgumentException(
                 s"Invalid template id for flow state $templateId")
         }
         flowStateMessageDecoder.wrap(flowStateBuffer,
+                                     offset +
                                      flowStateHeaderDecoder.encodedLength(),
                                      flowStateHeaderDecoder.blockLength,
                                      flowStateHeaderDecoder.version)
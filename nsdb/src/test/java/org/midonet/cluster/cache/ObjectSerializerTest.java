@@ -26,6 +26,7 @@ import com.google.protobuf.TextFormat;
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.midonet.cluster.data.storage.ZoomEncoding;
 import org.midonet.cluster.models.Topology;
 import org.midonet.cluster.cache.ObjectSerializer;
 import org.midonet.cluster.TopologyBuilder;
@@ -56,6 +57,28 @@ public class ObjectSerializerTest implements TopologyBuilder {
         Assert.assertArrayEquals(network.toByteArray(), message.toByteArray());
     }
 
+    @Test
+    public void testConvertBinaryToBinary() throws IOException {
+        // Given a serializer.
+        ObjectSerializer serializer =
+            new ObjectSerializer(Topology.Network.class);
+
+        // And a topology object in the binary storage encoding.
+        Topology.Network network = createNetwork(UUID.randomUUID());
+        byte[] binary = network.toByteArray();
+        byte[] data = new byte[binary.length + ZoomEncoding.HeaderSize()];
+        data[0] = ZoomEncoding.Magic();
+        data[1] = ZoomEncoding.BinaryV1();
+        System.arraycopy(binary, 0, data, ZoomEncoding.HeaderSize(),
+                         binary.length);
+
+        // When converting the data to a message.
+        Message message = serializer.convertTextToMessage(data);
+
+        // Then the data should be the same as converting the object to binary.
+        Assert.assertArrayEquals(binary, message.toByteArray());
+    }
+
     @Test(expected = IOException.class)
     public void testConvertTextToBinaryMalformed() throws IOException {
         // Given a serializer.
@@ -27,6 +27,7 @@ import scala.runtime.AbstractFunction0;
 import scala.runtime.BoxedUnit;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.protobuf.TextFormat;
 import com.typesafe.config.ConfigFactory;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -49,6 +50,7 @@ import org.midonet.cluster.models.State;
 import org.midonet.cluster.models.Topology;
 import org.midonet.cluster.services.MidonetBackend$;
 import org.midonet.cluster.storage.MidonetBackendConfig;
+import org.midonet.cluster.util.HostStateUtil;
 import org.midonet.cluster.util.UUIDUtil$;
 import org.midonet.cluster.ZooKeeperTest;
 import org.midonet.util.reactivex.TestAwaitableObserver;
@@ -458,6 +460,79 @@ public class StateCacheTest extends ZooKeeperTest {
         objectCache.stopAsync().awaitTerminated();
     }
 
+    @Test
+    public void testCacheMergesHostStateDelta() throws Exception {
+        // Given an object and state cache.
+        ObjectCache objectCache = new ObjectCache(curator, paths, metricRegistry);
+        StateCache cache = new StateCache(curator, paths, metricRegistry,
+                                          objectCache.observable());
+
+        // And an observer.
+        TestAwaitableObserver<StateNotification> observer =
+            new TestAwaitableObserver<>();
+
+        // When the cache is started and the observer subscribes.
+        objectCache.startAsync().awaitRunning();
+        cache.startAsync().awaitRunning();
+        Subscription sub = cache.observable().subscribe(observer);
+        observer.awaitOnNext(1, TIMEOUT);
+
+        // And adding a host to the topology.
+        UUID id = UUID.randomUUID();
+        Topology.Host host = Topology.Host.newBuilder()
+            .setId(UUIDUtil$.MODULE$.toProto(id))
+            .build();
+        storage.create(host);
+        observer.awaitOnNext(3, TIMEOUT);
+
+        // And adding the host state.
+        State.HostState.Interface eth0 = State.HostState.Interface.newBuilder()
+            .setName("eth0").setMtu(1500).build();
+        State.HostState.Interface eth1 = State.HostState.Interface.newBuilder()
+            .setName("eth1").setMtu(1500).build();
+        State.HostState base = State.HostState.newBuilder()
+            .setHostId(UUIDUtil$.MODULE$.toProto(id))
+            .addInterfaces(eth0)
+            .build();
+        String baseValue = TextFormat.shortDebugString(base);
+        addSingle(id, Topology.Host.class, id, "host", baseValue);
+
+        // Then the observer receives the host state.
+        observer.awaitOnNext(4, TIMEOUT);
+        StateNotification.Update update =
+            (StateNotification.Update) observer.getOnNextEvents().get(3);
+        assertUpdateEquals(update, id, Topology.Host.class, id, "host",
+                           KeyType.SingleLastWriteWins(), base.toByteArray(),
+                           null);
+
+        // When the host writes an interfaces delta.
+        State.HostState current = base.toBuilder().addInterfaces(eth1).build();
+        addSingle(id, Topology.Host.class, id, "host_delta",
+                  HostStateUtil.encodeDelta(
+                      HostStateUtil.delta(base, baseValue, current)));
+
+        // Then the observer receives the merged host state.
+        observer.awaitOnNext(5, TIMEOUT);
+        update = (StateNotification.Update) observer.getOnNextEvents().get(4);
+        assertUpdateEquals(update, id, Topology.Host.class, id, "host",
+                           KeyType.SingleLastWriteWins(),
+                           current.toByteArray(), null);
+
+        // When the host rewrites the full state and removes the delta.
+        removeSingle(id, Topology.Host.class, id, "host_delta");
+
+        // Then the observer receives the base host state.
+        observer.awaitOnNext(6, TIMEOUT);
+        update = (StateNotification.Update) observer.getOnNextEvents().get(5);
+        assertUpdateEquals(update, id, Topology.Host.class, id, "host",
+                           KeyType.SingleLastWriteWins(), base.toByteArray(),
+                           null);
+
+        sub.unsubscribe();
+        cache.stopAsync().awaitTerminated();
+        objectCache.stopAsync().awaitTerminated();
+    }
+
     @Test
     public void testCachePublishesPortActiveState() throws Exception {
         // Given an object and state cache.
@@ -48,6 +48,7 @@ import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTab
 import org.midonet.cluster.services.state.client.StateTableClient.{ConnectionState => ProxyConnectionState}
 import org.midonet.cluster.util.CuratorTestFramework
 import org.midonet.util.MidonetEventually
+import org.midonet.util.concurrent._
 import org.midonet.util.eventloop.CallingThreadReactor
 import org.midonet.util.reactivex.TestAwaitableObserver
 
@@ -1303,6 +1304,54 @@ class ScalableStateTableTest extends FeatureSpec with Matchers
         }
     }
 
+    feature("Table supports write-only mode") {
+        scenario("Write-only table writes without synchronizing") {
+            Given("A proxy client")
+            val proxy = new TestableProxyClient
+
+            And("A state table with ZooKeeper directory and a remote entry")
+            val (table, path) = zkTable(proxy = proxy)
+            curator.create().forPath(s"$path/key1,value1,0000000000")
+
+            When("Starting the table write-only")
+            table.startWriteOnly()
+
+            Then("The table is ready")
+            table.isReady shouldBe true
+
+            When("The proxy notifies as connected")
+            proxy.state onNext ProxyConnectionState.Connected
+
+            Then("The table should not subscribe to the client")
+            proxy.updates.hasObservers shouldBe false
+
+            When("Adding a new entry")
+            table.add("key0", "value0")
+
+            Then("The table should only contain the local entry")
+            eventually { table.containsLocal("key0") shouldBe true }
+            table.localSnapshot shouldBe Map("key0" -> "value0")
+
+            And("The store should contain both entries")
+            curator.getChildren.forPath(s"$path") should contain allOf
+                ("key1,value1,0000000000", "key0,value0,0000000001")
+
+            And("The remote entry can be read from storage")
+            table.getRemote("key1").await(timeout) shouldBe "value1"
+
+            When("Removing the local entry")
+            table.remove("key0", "value0") shouldBe true
+
+            Then("The store should contain the remote entry")
+            eventually {
+                curator.getChildren.forPath(s"$path") should contain only
+                    "key1,value1,0000000000"
+            }
+
+            table.stop()
+        }
+    }
+
     feature("Table uses state proxy") {
         scenario("Table subscribes to state client") {
             Given("A proxy client")
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.storage.StateTableLog._
+import org.midonet.packets.MAC
+
+@RunWith(classOf[JUnitRunner])
+class StateTableLogTest extends FlatSpec with Matchers with GivenWhenThen {
+
+    "Log record" should "decode the name of a sequential record" in {
+        Given("A table entry")
+        val entry = s"${MAC.random()},${UUID.randomUUID()},0000000001"
+
+        When("Computing the record path")
+        val path = recordPath(AddOp, "/" + entry)
+
+        Then("The path is relative to the table directory")
+        path shouldBe s"/log/+$entry,"
+
+        When("Decoding the record name with the sequence number")
+        val record = decodeRecord(path.substring(LogPath.length + 1) +
+                                  "0000000042")
+
+        Then("The record matches the entry")
+        record shouldBe Record(AddOp, entry, 42L)
+        record.name shouldBe s"+$entry,0000000042"
+    }
+
+    "Log record" should "not decode invalid names" in {
+        decodeRecord("") shouldBe null
+        decodeRecord("+") shouldBe null
+        decodeRecord("*entry,0000000001") shouldBe null
+        decodeRecord("+entry,") shouldBe null
+        decodeRecord("-0000000001") shouldBe null
+        decodeRecord("+entry,sequence") shouldBe null
+    }
+
+    "Log records" should "be sorted by sequence number" in {
+        Given("A list of record names")
+        val names = Seq("-a,b,0000000001,0000000003",
+                        "invalid",
+                        "+a,b,0000000001,0000000001",
+                        "+c,d,0000000002,0000000002")
+
+        When("Decoding the records")
+        val records = decodeRecords(names.asJava).asScala
+
+        Then("The valid records are sorted")
+        records shouldBe Seq(Record(AddOp, "a,b,0000000001", 1L),
+                             Record(AddOp, "c,d,0000000002", 2L),
+                             Record(RemoveOp, "a,b,0000000001", 3L))
+    }
+}
@@ -178,6 +178,18 @@ class TransactionManagerTest extends FeatureSpec with Matchers
             manager.getAll(classOf[FakeDevice]) should have size 0
         }
 
+        scenario("Transaction manager returns created objects in getAll()") {
+            Given("A transaction manager")
+            val manager = new TestableTransactionManager
+
+            When("Creating an object")
+            manager.create(notFoundDevice)
+
+            Then("Requesting all objects returns the created object")
+            manager.getAll(classOf[FakeDevice]) should contain theSameElementsAs
+                Seq(defaultDevice, notFoundDevice)
+        }
+
         scenario("Transaction manager returns true for exists()") {
             Given("A transaction manager")
             val manager = new TestableTransactionManager
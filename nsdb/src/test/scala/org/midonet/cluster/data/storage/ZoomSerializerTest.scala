@@ -82,6 +82,47 @@ class ZoomSerializerTest extends FeatureSpec with Matchers with GivenWhenThen {
         message1 shouldBe message2
     }
 
+    scenario("Test Protobuf message binary serializer") {
+        Given("A message")
+        val message1 = createProtoNetwork()
+
+        Then("Serializing the message in binary should return a byte array")
+        val data = ZoomSerializer.serialize(message1, binary = true)
+        ZoomEncoding.isBinary(data) shouldBe true
+        data.length should be < ZoomSerializer.serialize(message1).length
+
+        And("Deserializing the byte array should return a message")
+        val message2 = ZoomSerializer.deserialize(data, classOf[Network])
+
+        And("The messages should be equal")
+        message1 shouldBe message2
+    }
+
+    scenario("Test Protobuf message deserializer reads both formats") {
+        Given("A message serialized in text and binary formats")
+        val message = createProtoNetwork()
+        val text = ZoomSerializer.serialize(message, binary = false)
+        val binary = ZoomSerializer.serialize(message, binary = true)
+
+        Then("The text data is not recognized as binary")
+        ZoomEncoding.isBinary(text) shouldBe false
+
+        And("Both are deserialized to the same message")
+        ZoomSerializer.deserialize(text, classOf[Network]) shouldBe message
+        ZoomSerializer.deserialize(binary, classOf[Network]) shouldBe message
+    }
+
+    scenario("Test Protobuf message binary deserializer handles exceptions") {
+        Given("Bad binary data")
+        val data = Array[Byte](ZoomEncoding.Magic, ZoomEncoding.BinaryV1,
+                               0xff.toByte, 0xff.toByte)
+
+        Then("Deserializing the data should throw an exception")
+        intercept[InternalObjectMapperException] {
+            ZoomSerializer.deserialize(data, classOf[Network])
+        }
+    }
+
     scenario("Test create object") {
         Given("An owner and change number")
         val owner = ZoomOwner.ClusterContainers
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage.cached
+
+import java.io.IOException
+import java.nio.file.{Files, Path}
+import java.util.UUID
+
+import org.apache.commons.io.FileUtils
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FlatSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.data.storage.cached.TopologyCacheClient.SnapshotVersion
+
+@RunWith(classOf[JUnitRunner])
+class LocalTopologySnapshotTest extends FlatSpec with Matchers
+                                with GivenWhenThen with BeforeAndAfter {
+
+    private var directory: Path = _
+
+    before {
+        directory = Files.createTempDirectory("topology")
+    }
+
+    after {
+        FileUtils.deleteDirectory(directory.toFile)
+    }
+
+    private def path(name: String): String = directory.resolve(name).toString
+
+    "Local snapshot" should "be empty when there is no file" in {
+        new LocalTopologySnapshot(path("snapshot")).load() shouldBe None
+    }
+
+    "Local snapshot" should "load the stored snapshot and version" in {
+        Given("A local snapshot in a new directory")
+        val snapshot = new LocalTopologySnapshot(path("dir/snapshot"))
+        val version = SnapshotVersion(UUID.randomUUID().toString, 5L)
+
+        When("Storing the first bytes of a buffer")
+        snapshot.store(version, Array[Byte](1, 2, 3, 4, 5), 3)
+
+        Then("Loading returns the stored version and bytes")
+        val (loadedVersion, data) = snapshot.load().get
+        loadedVersion shouldBe version
+        data shouldBe Array[Byte](1, 2, 3)
+
+        And("The temporary file is removed")
+        Files.exists(directory.resolve("dir/snapshot.tmp")) shouldBe false
+    }
+
+    "Local snapshot" should "replace the previous snapshot" in {
+        Given("A stored snapshot")
+        val snapshot = new LocalTopologySnapshot(path("snapshot"))
+        val epoch = UUID.randomUUID().toString
+        snapshot.store(SnapshotVersion(epoch, 1L), Array[Byte](1, 2), 2)
+
+        When("Storing a new snapshot")
+        snapshot.store(SnapshotVersion(epoch, 2L), Array[Byte](3), 1)
+
+        Then("Loading returns the new snapshot")
+        val (version, data) = snapshot.load().get
+        version shouldBe SnapshotVersion(epoch, 2L)
+        data shouldBe Array[Byte](3)
+    }
+
+    "Local snapshot" should "fail to load an invalid file" in {
+        Given("A file that is not a topology snapshot")
+        Files.write(directory.resolve("snapshot"), Array[Byte](1, 2, 3, 4, 5))
+
+        Then("Loading the snapshot fails")
+        intercept[IOException] {
+            new LocalTopologySnapshot(path("snapshot")).load()
+        }
+    }
+
+}
@@ -129,6 +129,33 @@ class StorageWrapperTest extends FeatureSpec with Matchers with BeforeAndAfter {
         }
     }
 
+    feature("Query a partial snapshot in the wrapper") {
+        scenario("Missing objects are read from storage") {
+            val port2 = Port.newBuilder().setId(randomUuidProto).build()
+            store.create(port1)
+            store.create(port2)
+            val partial = new StorageWrapper(cacheTtl, store, objSnapshot,
+                                             complete = false)
+
+            partial.get(classOf[Port], port1Id).await() shouldBe port1
+            partial.get(classOf[Port], port2.getId).await() shouldBe port2
+            partial.exists(classOf[Port], port2.getId).await() shouldBe true
+            partial.getAll(classOf[Port], Seq(port1Id, port2.getId))
+                .await() should contain theSameElementsAs Seq(port1, port2)
+            partial.getAll(classOf[Port])
+                .await() should contain theSameElementsAs Seq(port1, port2)
+        }
+
+        scenario("Missing objects are not found in a complete snapshot") {
+            val port2 = Port.newBuilder().setId(randomUuidProto).build()
+            store.create(port2)
+
+            wrapper.exists(classOf[Port], port2.getId).await() shouldBe false
+            wrapper.getAll(classOf[Port], Seq(port1Id, port2.getId))
+                .await() should contain only port1
+        }
+    }
+
     feature("Create, delete or update objects") {
         scenario("Only read operations are supported on the cache") {
             a [NotImplementedError] shouldBe thrownBy {
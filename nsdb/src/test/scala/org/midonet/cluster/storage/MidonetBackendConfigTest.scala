@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.storage
+
+import com.typesafe.config.{ConfigException, ConfigFactory}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class MidonetBackendConfigTest extends FlatSpec with Matchers {
+
+    private def config(format: String): MidonetBackendConfig = {
+        new MidonetBackendConfig(ConfigFactory.parseString(
+            s"zookeeper.object_format : $format"))
+    }
+
+    "Object format" should "select the text or binary format" in {
+        config("text").binaryObjects shouldBe false
+        config("binary").binaryObjects shouldBe true
+    }
+
+    "Object format" should "reject unknown formats" in {
+        intercept[ConfigException.BadValue] {
+            config("json").binaryObjects
+        }
+    }
+
+    "Object format" should "default to text" in {
+        new MidonetBackendConfig(ConfigFactory.empty())
+            .binaryObjects shouldBe false
+    }
+
+}
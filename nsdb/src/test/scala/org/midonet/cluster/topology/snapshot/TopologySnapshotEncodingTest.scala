@@ -442,4 +442,65 @@ class TopologySnapshotEncodingTest extends FeatureSpec
             checkSnapshots(original, deserialized)
         }
     }
+
+    feature("SBE topology snapshot deltas") {
+
+        scenario("serializing a deserialized snapshot") {
+            val objectSnapshot = createObjectSnapshot(
+                Seq(createNetworkObjects, createPortObjects), 3)
+            val stateSnapshot = createStateSnapshot(numOwners = 3,
+                                                    numClasses = 3,
+                                                    numIds = 3,
+                                                    numSingleKeys = 3,
+                                                    numMultiKeys = 3)
+            val original = TopologySnapshot(objectSnapshot, stateSnapshot)
+            serializer.serialize(array, original)
+            val deserialized = deserializer.deserialize(array)
+
+            val reserialized = new Array[Byte](array.length)
+            serializer.serialize(reserialized, deserialized)
+            checkSnapshots(original, deserializer.deserialize(reserialized))
+        }
+
+        scenario("applying a delta to a deserialized snapshot") {
+            val (clazz, networks) = createNetworkObjects(3)
+            val objectSnapshot = new ObjectSnapshot
+            objectSnapshot.put(clazz, networks)
+            val original = TopologySnapshot(objectSnapshot,
+                                            createStateSnapshot(numOwners = 1))
+            serializer.serialize(array, original)
+            val base = deserializer.deserialize(array)
+
+            val ids = networks.keySet().toSeq
+            val modified = Topology.Network.newBuilder()
+                .setId(ids.head.asInstanceOf[UUID].asProto)
+                .setName("modified")
+                .build()
+            val deltaNetworks = new util.HashMap[Object, Object]()
+            deltaNetworks.put(ids.head, new TestObjectUpdate(
+                clazz, ids.head.asInstanceOf[UUID], serializeMessage(modified)))
+            deltaNetworks.put(ids(1), DeletedObject)
+            val deltaSnapshot = createObjectSnapshot(Seq(createPortObjects), 1)
+            deltaSnapshot.put(clazz, deltaNetworks)
+            val delta = TopologySnapshot(
+                deltaSnapshot, createStateSnapshot(numOwners = 1,
+                                                   numClasses = 1,
+                                                   numIds = 1,
+                                                   numSingleKeys = 1))
+            val deltaArray = new Array[Byte](array.length)
+            serializer.serialize(deltaArray, delta)
+
+            val merged = applyDelta(base, deserializer.deserialize(deltaArray))
+
+            val expected = new ObjectSnapshot
+            val expectedNetworks = new util.HashMap[Object, Object]()
+            expectedNetworks.put(ids.head, deltaNetworks.get(ids.head))
+            expectedNetworks.put(ids(2), networks.get(ids(2)))
+            expected.put(clazz, expectedNetworks)
+            expected.put(classOf[Topology.Port],
+                         deltaSnapshot.get(classOf[Topology.Port]))
+            checkSnapshots(TopologySnapshot(expected, delta.stateSnapshot),
+                           merged)
+        }
+    }
 }
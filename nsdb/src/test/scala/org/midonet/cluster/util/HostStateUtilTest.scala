@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.util
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import com.google.protobuf.TextFormat
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.models.State.HostState
+import org.midonet.cluster.util.UUIDUtil._
+
+@RunWith(classOf[JUnitRunner])
+class HostStateUtilTest extends FlatSpec with Matchers with GivenWhenThen {
+
+    private val hostId = UUID.randomUUID()
+
+    private def interface(name: String, mtu: Int): HostState.Interface = {
+        HostState.Interface.newBuilder().setName(name).setMtu(mtu).build()
+    }
+
+    private def state(interfaces: HostState.Interface*): HostState = {
+        HostState.newBuilder()
+            .setHostId(hostId.asProto)
+            .addAllInterfaces(interfaces.asJava)
+            .build()
+    }
+
+    "Host state delta" should "include the updated and removed interfaces" in {
+        Given("A base and a current host state")
+        val base = state(interface("eth0", 1500), interface("eth1", 1500))
+        val baseValue = TextFormat.shortDebugString(base)
+        val current = state(interface("eth0", 9000), interface("eth2", 1500))
+
+        When("Computing the delta")
+        val delta = HostStateUtil.delta(base, baseValue, current)
+
+        Then("The delta references the base state")
+        delta.getBaseChecksum shouldBe HostStateUtil.checksum(baseValue)
+
+        And("The delta contains the changed interfaces")
+        delta.getUpdatedList.asScala shouldBe Seq(interface("eth0", 9000),
+                                                  interface("eth2", 1500))
+        delta.getRemovedList.asScala shouldBe Seq("eth1")
+
+        And("Applying the delta to the base returns the current state")
+        HostStateUtil.applyDelta(base, delta) shouldBe current
+    }
+
+    "Host state delta" should "be empty for the same state" in {
+        val base = state(interface("eth0", 1500))
+        val delta = HostStateUtil.delta(
+            base, TextFormat.shortDebugString(base), base)
+
+        delta.getUpdatedCount shouldBe 0
+        delta.getRemovedCount shouldBe 0
+    }
+
+    "Host state merge" should "apply an encoded delta for the same base" in {
+        Given("A base state and an encoded delta")
+        val base = state(interface("eth0", 1500))
+        val baseValue = TextFormat.shortDebugString(base)
+        val current = state(interface("eth0", 1500), interface("tap0", 1500))
+        val delta = HostStateUtil.encodeDelta(
+            HostStateUtil.delta(base, baseValue, current))
+
+        Then("Merging returns the current state")
+        HostStateUtil.merge(baseValue, Some(delta)) shouldBe current
+
+        And("Merging without a delta returns the base state")
+        HostStateUtil.merge(baseValue, None) shouldBe base
+    }
+
+    "Host state merge" should "ignore a delta for a different base" in {
+        Given("A delta for a previous base state")
+        val previous = state(interface("eth0", 1500))
+        val previousValue = TextFormat.shortDebugString(previous)
+        val delta = HostStateUtil.encodeDelta(HostStateUtil.delta(
+            previous, previousValue, state()))
+
+        And("A new base state")
+        val base = state(interface("eth0", 1500), interface("eth1", 1500))
+        val baseValue = TextFormat.shortDebugString(base)
+
+        Then("Merging ignores the stale delta")
+        HostStateUtil.merge(baseValue, Some(delta)) shouldBe base
+
+        And("Merging ignores an invalid delta")
+        HostStateUtil.merge(baseValue, Some("not a delta")) shouldBe base
+    }
+
+}